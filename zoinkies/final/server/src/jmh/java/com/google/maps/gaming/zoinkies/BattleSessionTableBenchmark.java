@@ -0,0 +1,75 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies;
+
+import com.google.maps.gaming.zoinkies.battles.BattleSession;
+import com.google.maps.gaming.zoinkies.battles.BattleSessionTable;
+import com.google.maps.gaming.zoinkies.models.BattleData;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Opens and ends battles of random devices in the battle session table, from several threads,
+ * with the table holding about as many open battles as there are devices.
+ *
+ * Run with ./gradlew jmh.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(4)
+public class BattleSessionTableBenchmark {
+
+  @Param({"100000"})
+  public int devices;
+
+  private String[] deviceIds;
+  private BattleSession[] sessions;
+  private BattleSessionTable table;
+
+  @Setup
+  public void setup() {
+    long now = System.currentTimeMillis();
+    table = new BattleSessionTable(2 * devices, TimeUnit.HOURS.toMillis(1), 64);
+    deviceIds = new String[devices];
+    sessions = new BattleSession[devices];
+    for (int i = 0; i < devices; i++) {
+      deviceIds[i] = UUID.randomUUID().toString();
+      BattleData data = new BattleData();
+      data.setLocationId("location-" + i);
+      data.setOpponentTypeId(ITEMS.MINION);
+      sessions[i] = new BattleSession(data, now);
+      table.open(deviceIds[i], sessions[i]);
+    }
+  }
+
+  @Benchmark
+  public BattleSession openAndTake() {
+    int i = ThreadLocalRandom.current().nextInt(devices);
+    table.open(deviceIds[i], sessions[i]);
+    return table.take(deviceIds[i], sessions[i].getLocationId(), sessions[i].getStartedAt());
+  }
+}
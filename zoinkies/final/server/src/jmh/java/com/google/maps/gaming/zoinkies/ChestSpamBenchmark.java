@@ -0,0 +1,112 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies;
+
+import com.google.maps.gaming.zoinkies.exceptions.LocationStillRespawningException;
+import com.google.maps.gaming.zoinkies.models.PlayerData;
+import com.google.maps.gaming.zoinkies.models.SpawnLocation;
+import com.google.maps.gaming.zoinkies.models.WorldData;
+import com.google.maps.gaming.zoinkies.services.BattleSessionService;
+import com.google.maps.gaming.zoinkies.services.GameService;
+import com.google.maps.gaming.zoinkies.services.PlayerService;
+import com.google.maps.gaming.zoinkies.services.WorldService;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Taps a chest that is still respawning, the way an impatient player does, and maps the outcome
+ * to a status code like POST /chests does. The game runs on in-memory documents, so this only
+ * measures the handling of the outcome.
+ *
+ * The stack trace variant stands for the previous handling: the outcome captured a stack trace
+ * and the controller printed it to the console, here a stream discarding its output.
+ *
+ * Run with ./gradlew jmh.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(4)
+public class ChestSpamBenchmark {
+
+  private static final String DEVICE_ID = "device";
+  private static final String LOCATION_ID = "chest";
+
+  private GameService gameService;
+
+  private final PrintStream console = new PrintStream(new OutputStream() {
+    @Override
+    public void write(int b) {
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+    }
+  });
+
+  @Setup
+  public void setup() throws Exception {
+    WorldData worldData = new WorldData();
+    SpawnLocation chest = new SpawnLocation();
+    chest.setLocationId(LOCATION_ID);
+    chest.setObjectTypeId(ITEMS.CHEST);
+    chest.setRespawnAt(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1));
+    worldData.getLocations().put(LOCATION_ID, chest);
+    PlayerData playerData = new PlayerData();
+    gameService = new GameService(new WorldService() {
+      @Override
+      public WorldData getWorldData(String deviceId) {
+        return worldData;
+      }
+    }, new PlayerService() {
+      @Override
+      public PlayerData getPlayerData(String deviceId) {
+        return playerData;
+      }
+    }, new BattleSessionService(), ThreadLocalRandom::current);
+  }
+
+  @Benchmark
+  public int stacklessOutcome() throws Exception {
+    try {
+      gameService.getChestRewards(DEVICE_ID, LOCATION_ID);
+      return 200;
+    } catch (LocationStillRespawningException e) {
+      return 204;
+    }
+  }
+
+  @Benchmark
+  public int stackTraceOutcome() throws Exception {
+    try {
+      gameService.getChestRewards(DEVICE_ID, LOCATION_ID);
+      return 200;
+    } catch (LocationStillRespawningException e) {
+      new RuntimeException(e.getMessage()).printStackTrace(console);
+      return 204;
+    }
+  }
+}
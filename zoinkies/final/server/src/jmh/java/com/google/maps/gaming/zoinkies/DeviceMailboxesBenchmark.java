@@ -0,0 +1,141 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies;
+
+import com.google.maps.gaming.zoinkies.scheduling.DeviceMailboxes;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Runs a burst of updates spread over 10k devices, each a read-modify-write of a per-device
+ * counter, and compares serializing them per device mailbox, hashed onto single threaded lanes,
+ * and behind a global lock.
+ *
+ * Run with ./gradlew jmh, each operation is a whole burst of devices * updatesPerDevice updates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DeviceMailboxesBenchmark {
+
+  @Param({"10000"})
+  public int devices;
+
+  @Param({"10"})
+  public int updatesPerDevice;
+
+  /**
+   * Simulated work per update, in JMH tokens
+   */
+  @Param({"500"})
+  public int work;
+
+  @Param({"8"})
+  public int threads;
+
+  private String[] deviceIds;
+  private long[] counters;
+  private ExecutorService pool;
+  private ExecutorService[] lanes;
+  private DeviceMailboxes mailboxes;
+  private final Object globalLock = new Object();
+
+  @Setup
+  public void setup() {
+    deviceIds = new String[devices];
+    for (int i = 0; i < devices; i++) {
+      deviceIds[i] = "device-" + i;
+    }
+    counters = new long[devices];
+    pool = Executors.newFixedThreadPool(threads);
+    lanes = new ExecutorService[threads];
+    for (int i = 0; i < threads; i++) {
+      lanes[i] = Executors.newSingleThreadExecutor();
+    }
+    mailboxes = new DeviceMailboxes(pool);
+  }
+
+  @TearDown
+  public void tearDown() {
+    pool.shutdown();
+    for (ExecutorService lane : lanes) {
+      lane.shutdown();
+    }
+  }
+
+  @Benchmark
+  public void mailboxes() {
+    CompletableFuture<?>[] last = new CompletableFuture<?>[devices];
+    for (int round = 0; round < updatesPerDevice; round++) {
+      for (int device = 0; device < devices; device++) {
+        int index = device;
+        last[device] = mailboxes.submit(deviceIds[device], () -> update(index));
+      }
+    }
+    CompletableFuture.allOf(last).join();
+  }
+
+  @Benchmark
+  public void fixedLanes() {
+    CompletableFuture<?>[] last = new CompletableFuture<?>[devices];
+    for (int round = 0; round < updatesPerDevice; round++) {
+      for (int device = 0; device < devices; device++) {
+        int index = device;
+        ExecutorService lane = lanes[Math.floorMod(deviceIds[device].hashCode(), threads)];
+        last[device] = CompletableFuture.supplyAsync(() -> update(index), lane);
+      }
+    }
+    CompletableFuture.allOf(last).join();
+  }
+
+  @Benchmark
+  public void globalLock() {
+    CompletableFuture<?>[] last = new CompletableFuture<?>[devices];
+    for (int round = 0; round < updatesPerDevice; round++) {
+      for (int device = 0; device < devices; device++) {
+        int index = device;
+        last[device] = CompletableFuture.supplyAsync(() -> {
+          synchronized (globalLock) {
+            return update(index);
+          }
+        }, pool);
+      }
+    }
+    CompletableFuture.allOf(last).join();
+  }
+
+  /**
+   * Helper function standing for a game action: reads the state, works on it, writes it back.
+   */
+  private long update(int device) {
+    long value = counters[device];
+    Blackhole.consumeCPU(work);
+    counters[device] = value + 1;
+    return value;
+  }
+}
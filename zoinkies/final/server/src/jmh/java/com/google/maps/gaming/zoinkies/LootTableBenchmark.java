@@ -0,0 +1,74 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies;
+
+import com.google.maps.gaming.zoinkies.loot.LootTable;
+import com.google.maps.gaming.zoinkies.models.LootRefItem;
+import java.io.InputStream;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares drawing from the compiled chest loot table against the cumulative weight scan it
+ * replaced.
+ *
+ * Run with ./gradlew jmh, allocation rates are reported by the gc profiler.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LootTableBenchmark {
+
+  private LootTable table;
+
+  private LootRefItem[] entries;
+
+  @Setup
+  public void setup() throws Exception {
+    try (InputStream inputStream = getClass().getResourceAsStream("/LootTables.json")) {
+      table = LootTable.load(inputStream).get("CHEST");
+    }
+    entries = new LootRefItem[table.size()];
+    for (int i = 0; i < entries.length; i++) {
+      entries[i] = new LootRefItem(table.getItemId(i), table.getWeight(i), 1, 1);
+    }
+  }
+
+  @Benchmark
+  public int sampleAlias() {
+    return table.sample(ThreadLocalRandom.current());
+  }
+
+  @Benchmark
+  public int sampleLinearScan() {
+    double rand = ThreadLocalRandom.current().nextDouble();
+    double currentProb = 0;
+    for (int i = 0; i < entries.length; i++) {
+      currentProb += entries[i].getWeight();
+      if (rand <= currentProb) {
+        return i;
+      }
+    }
+    return entries.length - 1;
+  }
+}
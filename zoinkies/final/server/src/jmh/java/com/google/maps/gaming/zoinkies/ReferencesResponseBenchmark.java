@@ -0,0 +1,84 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.google.maps.gaming.zoinkies.controllers.RenderedReferences;
+import com.google.maps.gaming.zoinkies.models.ReferenceData;
+import com.google.maps.gaming.zoinkies.services.ReferenceDataService;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares the work done per GET /references: serializing the reference data on every call,
+ * as the controller used to, serializing and compressing it as a gzip filter would, and
+ * serving the payload rendered once per version.
+ *
+ * Run with ./gradlew jmh, allocation rates are reported by the gc profiler.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReferencesResponseBenchmark {
+
+  private ReferenceData referenceData;
+
+  private ObjectMapper objectMapper;
+
+  private RenderedReferences rendered;
+
+  @Setup
+  public void setup() throws IOException {
+    try (InputStream inputStream = getClass().getResourceAsStream("/ReferenceData.json")) {
+      referenceData = ReferenceDataService.parse(inputStream);
+    }
+    objectMapper = new ObjectMapper();
+    objectMapper.registerModule(new JavaTimeModule());
+    rendered = RenderedReferences.render(referenceData, objectMapper);
+  }
+
+  @Benchmark
+  public byte[] serializeEachTime() throws IOException {
+    return objectMapper.writeValueAsBytes(referenceData);
+  }
+
+  @Benchmark
+  public byte[] serializeAndGzipEachTime() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+      gzip.write(objectMapper.writeValueAsBytes(referenceData));
+    }
+    return out.toByteArray();
+  }
+
+  @Benchmark
+  public byte[] servePreRendered() {
+    // A client revalidating a stale version.
+    return rendered.isRenderedFrom(referenceData) && rendered.matches("\"stale\"")
+        ? null : rendered.getGzip();
+  }
+}
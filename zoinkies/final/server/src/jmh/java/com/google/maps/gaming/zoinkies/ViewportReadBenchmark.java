@@ -0,0 +1,164 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies;
+
+import com.google.common.geometry.S2CellId;
+import com.google.common.geometry.S2LatLng;
+import com.google.common.geometry.S2LatLngRect;
+import com.google.common.geometry.S2RegionCoverer;
+import com.google.maps.gaming.zoinkies.codecs.WorldDataCodec;
+import com.google.maps.gaming.zoinkies.models.SpawnLocation;
+import com.google.maps.gaming.zoinkies.models.WorldData;
+import com.google.maps.gaming.zoinkies.models.playablelocations.LatLng;
+import com.google.maps.gaming.zoinkies.spatial.CellIdRanges;
+import com.google.maps.gaming.zoinkies.spatial.SpawnLocationIndex;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares reading a viewport from the global spawn location collection, with one range query
+ * per range of leaf cell ids, to loading a per-device world and clipping it. 10000 locations
+ * spread over a 20 km square, the viewport is a square of the given size at its center.
+ *
+ * The collection is emulated by an array sorted by leaf cell id, so that each range costs a
+ * binary search plus a scan, as an indexed Firestore range query does. Round trips aren't
+ * included: range queries are sent concurrently, so in production a viewport costs about one
+ * round trip whatever its amount of ranges, plus the per-document work measured here.
+ *
+ * Run with ./gradlew jmh.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ViewportReadBenchmark {
+
+  private static final double SOUTH = 48.80;
+  private static final double WEST = 2.25;
+  private static final double SPAN = 0.18;
+  private static final double METERS_PER_DEGREE = 111320;
+  private static final int LOCATIONS = 10000;
+
+  @Param({"500", "1000", "2000", "5000"})
+  int viewportMeters;
+
+  private long[] leafCellIds;
+
+  private SpawnLocation[] sortedLocations;
+
+  private Map<String, Object> document;
+
+  private LatLng southwest;
+
+  private LatLng northeast;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(42);
+    WorldData world = new WorldData();
+    long[][] keys = new long[LOCATIONS][];
+    SpawnLocation[] locations = new SpawnLocation[LOCATIONS];
+    for (int i = 0; i < LOCATIONS; i++) {
+      double latitude = SOUTH + random.nextDouble() * SPAN;
+      double longitude = WEST + random.nextDouble() * SPAN * 1.5;
+      long leaf = S2CellId.fromLatLng(S2LatLng.fromDegrees(latitude, longitude)).id();
+      SpawnLocation location = new SpawnLocation(
+          "plocs_ChIJLU7jZClu5kcR4PcOOO6p3I0_" + i, true, ITEMS.MINION, true, null, 0, null,
+          new LatLng(latitude, longitude), Long.toUnsignedString(leaf));
+      world.getLocations().put(location.getLocationId(), location);
+      locations[i] = location;
+      keys[i] = new long[] {leaf, i};
+    }
+    Arrays.sort(keys, (a, b) -> Long.compareUnsigned(a[0], b[0]));
+    leafCellIds = new long[LOCATIONS];
+    sortedLocations = new SpawnLocation[LOCATIONS];
+    for (int i = 0; i < LOCATIONS; i++) {
+      leafCellIds[i] = keys[i][0];
+      sortedLocations[i] = locations[(int) keys[i][1]];
+    }
+    document = WorldDataCodec.encode(world);
+
+    double halfLatitude = viewportMeters / 2.0 / METERS_PER_DEGREE;
+    double halfLongitude = halfLatitude / Math.cos(Math.toRadians(SOUTH + SPAN / 2));
+    southwest = new LatLng(SOUTH + SPAN / 2 - halfLatitude, WEST + SPAN * 0.75 - halfLongitude);
+    northeast = new LatLng(SOUTH + SPAN / 2 + halfLatitude, WEST + SPAN * 0.75 + halfLongitude);
+  }
+
+  @Benchmark
+  public List<SpawnLocation> rangeQueries() {
+    // Same covering as PlayableLocationsService.
+    S2RegionCoverer coverer = new S2RegionCoverer();
+    coverer.setMinLevel(11);
+    coverer.setMaxLevel(14);
+    S2LatLngRect rect = new S2LatLngRect(
+        S2LatLng.fromDegrees(southwest.getLatitude(), southwest.getLongitude()),
+        S2LatLng.fromDegrees(northeast.getLatitude(), northeast.getLongitude()));
+    List<Long> cellIds = new ArrayList<>();
+    for (S2CellId cellId : coverer.getCovering(rect).cellIds()) {
+      cellIds.add(cellId.id());
+    }
+    long[] ranges = CellIdRanges.of(cellIds);
+    List<SpawnLocation> visible = new ArrayList<>();
+    for (int r = 0; r < ranges.length; r += 2) {
+      for (int i = lowerBound(ranges[r]);
+          i < LOCATIONS && Long.compareUnsigned(leafCellIds[i], ranges[r + 1]) <= 0; i++) {
+        visible.add(new SpawnLocation(sortedLocations[i]));
+      }
+    }
+    return visible;
+  }
+
+  @Benchmark
+  public List<SpawnLocation> loadPerDeviceMap() {
+    WorldData world = WorldDataCodec.decode(new HashMap<>(document));
+    List<SpawnLocation> visible = new ArrayList<>();
+    for (String id : SpawnLocationIndex.build(world.getLocations(), world.getVersion()).query(
+        southwest.getLatitude(), southwest.getLongitude(),
+        northeast.getLatitude(), northeast.getLongitude(), 0)) {
+      visible.add(world.getLocations().get(id));
+    }
+    return visible;
+  }
+
+  /**
+   * Helper function that finds the first location at or after the given leaf id.
+   */
+  private int lowerBound(long leafCellId) {
+    int low = 0;
+    int high = LOCATIONS;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (Long.compareUnsigned(leafCellIds[mid], leafCellId) < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.maps.gaming.zoinkies.codecs.WorldDataCodec;
+import com.google.maps.gaming.zoinkies.models.SpawnLocation;
+import com.google.maps.gaming.zoinkies.models.WorldData;
+import com.google.maps.gaming.zoinkies.models.playablelocations.LatLng;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares decoding world document data with the hand-written codec against reflective bean
+ * mapping, and the compact per-cell encoding against the nested map one. Firestore's own
+ * mapper isn't public, so Jackson's convertValue stands in for it.
+ *
+ * Run with ./gradlew jmh, allocation rates are reported by the gc profiler.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WorldDataCodecBenchmark {
+
+  @Param({"2000"})
+  int locations;
+
+  private Map<String, Object> document;
+
+  private Map<String, Object> compactDocument;
+
+  private ObjectMapper objectMapper;
+
+  @Setup
+  public void setup() {
+    WorldData world = new WorldData();
+    ITEMS[] types = {ITEMS.MINION, ITEMS.CHEST, ITEMS.TOWER, ITEMS.ENERGY_STATION};
+    for (int i = 0; i < locations; i++) {
+      String cellId = Long.toUnsignedString(0x47e66c0000000000L + (i / 50) * 0x10000000L);
+      ITEMS type = types[i % types.length];
+      SpawnLocation location = new SpawnLocation(
+          "plocs_ChIJLU7jZClu5kcR4PcOOO6p3I0_" + i,
+          i % 3 != 0,
+          type,
+          type != ITEMS.TOWER,
+          i % 3 == 0 ? "2020-06-01T10:15:30.123Z" : null,
+          type == ITEMS.CHEST || type == ITEMS.TOWER ? 3 : 0,
+          type == ITEMS.CHEST ? ITEMS.GOLD_KEY : type == ITEMS.TOWER ? ITEMS.DIAMOND_KEY : null,
+          new LatLng(48.85 + i * 1e-5, 2.29 - i * 1e-5),
+          cellId);
+      world.getLocations().put(location.getLocationId(), location);
+      world.getS2CellsTTL().put(cellId, "PT86400S");
+    }
+    document = WorldDataCodec.encode(world);
+    compactDocument = WorldDataCodec.encodeCompact(world);
+    objectMapper = new ObjectMapper();
+  }
+
+  @Benchmark
+  public WorldData decodeHandWritten() {
+    return WorldDataCodec.decode(document);
+  }
+
+  @Benchmark
+  public WorldData decodeReflective() {
+    return objectMapper.convertValue(document, WorldData.class);
+  }
+
+  @Benchmark
+  public WorldData decodeCompact() {
+    return WorldDataCodec.decode(compactDocument);
+  }
+
+  @Benchmark
+  public Map<String, Object> encodeHandWritten() {
+    return WorldDataCodec.encode(decodeHandWritten());
+  }
+
+  @Benchmark
+  public Map<String, Object> encodeCompact() {
+    return WorldDataCodec.encodeCompact(decodeCompact());
+  }
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.maps.gaming.zoinkies.models.SpawnLocation;
+import com.google.maps.gaming.zoinkies.models.WorldData;
+import com.google.maps.gaming.zoinkies.models.playablelocations.LatLng;
+import com.google.maps.gaming.zoinkies.spatial.SpawnLocationIndex;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares serializing the whole world of a long-lived player with serializing the locations
+ * of a single map viewport, as POST /worlds/{id} does. The world spreads over a 20 km square
+ * and the viewport is about 1.5 km by 1 km.
+ *
+ * Run with ./gradlew jmh, allocation rates are reported by the gc profiler.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WorldResponseBenchmark {
+
+  private static final double SOUTH = 48.80;
+  private static final double WEST = 2.25;
+  private static final double SPAN = 0.18;
+
+  @Param({"2000", "10000"})
+  int locations;
+
+  private WorldData world;
+
+  private SpawnLocationIndex index;
+
+  private ObjectMapper objectMapper;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(42);
+    world = new WorldData();
+    for (int i = 0; i < locations; i++) {
+      SpawnLocation location = new SpawnLocation(
+          "plocs_ChIJLU7jZClu5kcR4PcOOO6p3I0_" + i, true, ITEMS.MINION, true, null, 0, null,
+          new LatLng(SOUTH + random.nextDouble() * SPAN, WEST + random.nextDouble() * SPAN * 1.5),
+          "5183501906771476480");
+      world.getLocations().put(location.getLocationId(), location);
+    }
+    world.setVersion(1);
+    index = SpawnLocationIndex.build(world.getLocations(), world.getVersion());
+    objectMapper = new ObjectMapper();
+  }
+
+  @Benchmark
+  public byte[] serializeFull() throws JsonProcessingException {
+    return objectMapper.writeValueAsBytes(world);
+  }
+
+  @Benchmark
+  public byte[] serializeClipped() throws JsonProcessingException {
+    return objectMapper.writeValueAsBytes(clip());
+  }
+
+  @Benchmark
+  public SpawnLocationIndex buildIndex() {
+    return SpawnLocationIndex.build(world.getLocations(), world.getVersion());
+  }
+
+  /**
+   * Mirrors WorldService.clipToViewport with an index that is already built.
+   */
+  WorldData clip() {
+    double south = SOUTH + SPAN / 2;
+    double west = WEST + SPAN / 2;
+    HashMap<String, SpawnLocation> visible = new HashMap<>();
+    if (index.isCurrent(world.getVersion())) {
+      for (String id : index.query(south, west, south + 0.009, west + 0.02, 250)) {
+        visible.put(id, world.getLocations().get(id));
+      }
+    }
+    WorldData clipped = new WorldData();
+    clipped.setVersion(world.getVersion());
+    clipped.setS2CellsTTL(world.getS2CellsTTL());
+    clipped.setLocations(visible);
+    return clipped;
+  }
+}
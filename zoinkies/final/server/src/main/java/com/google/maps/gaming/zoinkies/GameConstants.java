@@ -17,6 +17,7 @@ package com.google.maps.gaming.zoinkies;
 public class GameConstants {
   public static final String DEFAULT_PLAYER_NAME = "Jordyen";
   public static final int DEFAULT_PLAYER_ENERGY_LEVEL = 80;
+  public static final int DEFAULT_PLAYER_ENERGY_REGEN_MILLIS = 60000;
 
   public static final int FREED_LEADERS_TO_WIN = 3;
 
@@ -0,0 +1,64 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies.battles;
+
+import com.google.maps.gaming.zoinkies.ITEMS;
+import com.google.maps.gaming.zoinkies.models.BattleData;
+
+/**
+ * A battle started by POST /battle, waiting for its summary.
+ */
+public final class BattleSession {
+  private final String locationId;
+  private final ITEMS opponentTypeId;
+  private final int energyLevel;
+  private final boolean playerStarts;
+  private final long startedAt;
+
+  /**
+   * Creates a session for a battle that just started.
+   *
+   * @param data the Battle Data sent to the client
+   * @param startedAt when the battle started, in epoch millis
+   */
+  public BattleSession(BattleData data, long startedAt) {
+    this.locationId = data.getLocationId();
+    this.opponentTypeId = data.getOpponentTypeId();
+    this.energyLevel = data.getEnergyLevel();
+    this.playerStarts = data.getPlayerStarts();
+    this.startedAt = startedAt;
+  }
+
+  public String getLocationId() {
+    return locationId;
+  }
+
+  public ITEMS getOpponentTypeId() {
+    return opponentTypeId;
+  }
+
+  public int getEnergyLevel() {
+    return energyLevel;
+  }
+
+  public boolean getPlayerStarts() {
+    return playerStarts;
+  }
+
+  public long getStartedAt() {
+    return startedAt;
+  }
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies.battles;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The open battles of this instance, one per device at most.
+ *
+ * A battle is opened by POST /battle and taken exactly once by POST /battlesummary. Battles
+ * that are never summarized expire after a fixed TTL, and the table holds a bounded amount of
+ * them, the oldest going first when it is full.
+ *
+ * Devices are spread over lock stripes, each a small map in opening order, which is also
+ * expiration order, so expired battles are dropped from the head of a stripe as new ones come in.
+ * An open battle costs about 250 bytes, the device and location id strings included.
+ */
+public class BattleSessionTable {
+
+  /**
+   * Open battles by device id, in opening order. Guarded by the stripe.
+   */
+  private static class Stripe {
+    private final LinkedHashMap<String, BattleSession> sessions = new LinkedHashMap<>();
+  }
+
+  private final Stripe[] stripes;
+  private final int stripeCapacity;
+  private final long ttlMillis;
+
+  private final AtomicLong expirations = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * Creates an empty table.
+   *
+   * @param capacity the maximum amount of open battles, rounded up to a multiple of the stripes
+   * @param ttlMillis how long a battle can stay open
+   * @param stripes the amount of locks, rounded up to a power of two
+   */
+  public BattleSessionTable(int capacity, long ttlMillis, int stripes) {
+    int count = Integer.highestOneBit(Math.max(1, stripes - 1) << 1);
+    this.stripes = new Stripe[count];
+    for (int i = 0; i < count; i++) {
+      this.stripes[i] = new Stripe();
+    }
+    this.stripeCapacity = Math.max(1, (capacity + count - 1) / count);
+    this.ttlMillis = ttlMillis;
+  }
+
+  /**
+   * Opens a battle, replacing any battle still open for the same device.
+   *
+   * @param deviceId The User Id
+   * @param session the battle
+   */
+  public void open(String deviceId, BattleSession session) {
+    Stripe stripe = stripeOf(deviceId);
+    synchronized (stripe) {
+      // Removed first, so that the battle moves to the end of the expiration order.
+      stripe.sessions.remove(deviceId);
+      evict(stripe, session.getStartedAt());
+      stripe.sessions.put(deviceId, session);
+    }
+  }
+
+  /**
+   * Takes the open battle of a device, if it is at the given location and hasn't expired.
+   *
+   * @param deviceId The User Id
+   * @param locationId The location Id
+   * @param nowMillis the current time in epoch millis
+   * @return the battle, or null if there is none. A battle can only be taken once.
+   */
+  public BattleSession take(String deviceId, String locationId, long nowMillis) {
+    Stripe stripe = stripeOf(deviceId);
+    BattleSession session;
+    synchronized (stripe) {
+      session = stripe.sessions.get(deviceId);
+      if (session == null || !session.getLocationId().equals(locationId)) {
+        return null;
+      }
+      stripe.sessions.remove(deviceId);
+    }
+    if (session.getStartedAt() + ttlMillis < nowMillis) {
+      expirations.incrementAndGet();
+      return null;
+    }
+    return session;
+  }
+
+  /**
+   * Getter for the amount of open battles, expired ones not dropped yet included.
+   * @return the amount of open battles
+   */
+  public int size() {
+    int size = 0;
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        size += stripe.sessions.size();
+      }
+    }
+    return size;
+  }
+
+  public long getExpirations() {
+    return expirations.get();
+  }
+
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  /**
+   * Helper function that spreads device ids over the stripes.
+   */
+  private Stripe stripeOf(String deviceId) {
+    int hash = deviceId.hashCode();
+    return stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+  }
+
+  /**
+   * Helper function that drops the expired battles of a stripe, and makes room for one more.
+   * Must hold the stripe lock.
+   */
+  private void evict(Stripe stripe, long nowMillis) {
+    Iterator<Map.Entry<String, BattleSession>> it = stripe.sessions.entrySet().iterator();
+    while (it.hasNext()) {
+      BattleSession eldest = it.next().getValue();
+      boolean expired = eldest.getStartedAt() + ttlMillis < nowMillis;
+      if (!expired && stripe.sessions.size() < stripeCapacity) {
+        return;
+      }
+      it.remove();
+      (expired ? expirations : evictions).incrementAndGet();
+    }
+  }
+}
@@ -0,0 +1,291 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies.cache;
+
+import com.google.cloud.Timestamp;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+import java.util.function.UnaryOperator;
+
+/**
+ * A small in-process cache that sits in front of Firestore documents, keyed by device id.
+ *
+ * The cache is bounded by the estimated size of its values rather than by entry count, so that
+ * a few large worlds can't push the instance out of its (small) heap. Least recently used entries
+ * are evicted first.
+ *
+ * Values are copied on the way in and on the way out: callers are free to mutate what they get,
+ * and the cached copy only changes through {@link #put}.
+ *
+ * Each entry remembers the update time of the document it was decoded from. Within the TTL
+ * an entry is served as is. Once expired, the owner re-reads the document and calls
+ * {@link #revalidate}: if the update time hasn't moved, no other instance has written the document
+ * and the cached copy is reused without decoding the snapshot again.
+ *
+ * @param <V> the cached value type
+ */
+public class NearCache<V> implements MeterBinder {
+
+  /**
+   * A cached value along with its bookkeeping.
+   */
+  private static class Entry<V> {
+    private final V value;
+    private final long weight;
+    private final Timestamp updateTime;
+    private long expiresAt;
+
+    private Entry(V value, long weight, Timestamp updateTime, long expiresAt) {
+      this.value = value;
+      this.weight = weight;
+      this.updateTime = updateTime;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  /**
+   * Name used to tag metrics
+   */
+  private final String name;
+
+  /**
+   * Maximum amount of estimated bytes held by this cache
+   */
+  private final long maxBytes;
+
+  /**
+   * How long an entry can be served without looking at Firestore
+   */
+  private final long ttlMillis;
+
+  /**
+   * Estimates the retained size of a value
+   */
+  private final ToLongFunction<V> weigher;
+
+  /**
+   * Deep copies a value
+   */
+  private final UnaryOperator<V> copier;
+
+  /**
+   * Entries in access order, guarded by this.
+   */
+  private final LinkedHashMap<String, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+  private long bytesUsed;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong revalidations = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * Creates a new cache.
+   *
+   * @param name a name identifying this cache in metrics
+   * @param maxBytes the estimated size budget
+   * @param ttlMillis how long entries are trusted without checking the document update time
+   * @param weigher estimates the size of a value in bytes
+   * @param copier deep copies a value
+   */
+  public NearCache(String name, long maxBytes, long ttlMillis,
+      ToLongFunction<V> weigher, UnaryOperator<V> copier) {
+    this.name = name;
+    this.maxBytes = maxBytes;
+    this.ttlMillis = ttlMillis;
+    this.weigher = weigher;
+    this.copier = copier;
+  }
+
+  /**
+   * Returns a copy of the cached value if it hasn't expired yet.
+   *
+   * @param key the device id
+   * @return a copy of the value, or null on a miss or when the entry has expired
+   */
+  public V getIfFresh(String key) {
+    Entry<V> entry;
+    synchronized (this) {
+      entry = entries.get(key);
+      if (entry == null || entry.expiresAt < System.currentTimeMillis()) {
+        misses.incrementAndGet();
+        return null;
+      }
+    }
+    hits.incrementAndGet();
+    return copier.apply(entry.value);
+  }
+
+  /**
+   * Returns a copy of the cached value, even if it has expired. Doesn't count as a hit or miss.
+   *
+   * @param key the device id
+   * @return a copy of the value, or null if nothing is cached
+   */
+  public V peek(String key) {
+    Entry<V> entry;
+    synchronized (this) {
+      entry = entries.get(key);
+    }
+    return entry == null ? null : copier.apply(entry.value);
+  }
+
+  /**
+   * Checks an expired entry against the update time of a freshly read document.
+   * If they match, the entry is extended for another TTL and a copy is returned.
+   *
+   * @param key the device id
+   * @param updateTime the update time of the document just read
+   * @return a copy of the value, or null if the document changed since it was cached
+   */
+  public V revalidate(String key, Timestamp updateTime) {
+    Entry<V> entry;
+    synchronized (this) {
+      entry = entries.get(key);
+      if (entry == null || entry.updateTime == null || !entry.updateTime.equals(updateTime)) {
+        return null;
+      }
+      entry.expiresAt = System.currentTimeMillis() + ttlMillis;
+    }
+    revalidations.incrementAndGet();
+    return copier.apply(entry.value);
+  }
+
+  /**
+   * Caches a copy of the given value.
+   * Values that alone exceed the budget are not cached. A value older than the cached one, as
+   * told by their update times, is ignored: a read that raced with a write can't bring back the
+   * document as it was before the write.
+   *
+   * @param key the device id
+   * @param value the value as written to or read from Firestore
+   * @param updateTime the update time of the matching document
+   */
+  public void put(String key, V value, Timestamp updateTime) {
+    V copy = copier.apply(value);
+    long weight = weigher.applyAsLong(copy);
+    synchronized (this) {
+      Entry<V> current = entries.get(key);
+      if (current != null && current.updateTime != null && updateTime != null
+          && current.updateTime.compareTo(updateTime) > 0) {
+        return;
+      }
+      removeEntry(key);
+      if (weight > maxBytes) {
+        return;
+      }
+      entries.put(key, new Entry<>(copy, weight, updateTime,
+          System.currentTimeMillis() + ttlMillis));
+      bytesUsed += weight;
+      Iterator<Map.Entry<String, Entry<V>>> it = entries.entrySet().iterator();
+      while (bytesUsed > maxBytes && it.hasNext()) {
+        Entry<V> eldest = it.next().getValue();
+        it.remove();
+        bytesUsed -= eldest.weight;
+        evictions.incrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * Checks if a value is cached for the given key, regardless of its expiration.
+   *
+   * @param key the device id
+   * @return true if an entry exists
+   */
+  public synchronized boolean contains(String key) {
+    return entries.containsKey(key);
+  }
+
+  /**
+   * Drops the entry associated with the given key.
+   *
+   * @param key the device id
+   */
+  public synchronized void invalidate(String key) {
+    removeEntry(key);
+  }
+
+  /**
+   * Helper function that removes an entry and releases its weight. Must hold the lock.
+   */
+  private void removeEntry(String key) {
+    Entry<V> previous = entries.remove(key);
+    if (previous != null) {
+      bytesUsed -= previous.weight;
+    }
+  }
+
+  /**
+   * Getter for the estimated amount of bytes held by this cache.
+   * @return the amount of bytes used
+   */
+  public synchronized long getBytesUsed() {
+    return bytesUsed;
+  }
+
+  /**
+   * Getter for the amount of entries.
+   * @return the amount of cached entries
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public long getRevalidations() {
+    return revalidations.get();
+  }
+
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  /**
+   * Registers hit, miss, revalidation and eviction counters, plus size gauges.
+   * @param registry the meter registry
+   */
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    FunctionCounter.builder("zoinkies.cache.requests", this, NearCache::getHits)
+        .tag("cache", name).tag("result", "hit").register(registry);
+    FunctionCounter.builder("zoinkies.cache.requests", this, NearCache::getMisses)
+        .tag("cache", name).tag("result", "miss").register(registry);
+    FunctionCounter.builder("zoinkies.cache.revalidations", this, NearCache::getRevalidations)
+        .tag("cache", name).register(registry);
+    FunctionCounter.builder("zoinkies.cache.evictions", this, NearCache::getEvictions)
+        .tag("cache", name).register(registry);
+    Gauge.builder("zoinkies.cache.size", this, NearCache::size)
+        .tag("cache", name).register(registry);
+    Gauge.builder("zoinkies.cache.bytes", this, NearCache::getBytesUsed)
+        .tag("cache", name).baseUnit("bytes").register(registry);
+  }
+}
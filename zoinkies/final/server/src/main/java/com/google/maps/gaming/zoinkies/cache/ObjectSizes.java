@@ -0,0 +1,135 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies.cache;
+
+import com.google.maps.gaming.zoinkies.ITEMS;
+import com.google.maps.gaming.zoinkies.models.BattleSummaryData;
+import com.google.maps.gaming.zoinkies.models.EnergyData;
+import com.google.maps.gaming.zoinkies.models.PlayerData;
+import com.google.maps.gaming.zoinkies.models.RewardsData;
+import com.google.maps.gaming.zoinkies.models.SpawnLocation;
+import com.google.maps.gaming.zoinkies.models.WorldData;
+import java.util.Map;
+
+/**
+ * Rough retained-size estimates for the cached models, assuming a 64-bit JVM with compressed
+ * oops. These are only used to keep caches within a budget, so they favor speed over accuracy.
+ */
+public final class ObjectSizes {
+
+  private static final long OBJECT_HEADER = 16;
+  private static final long REFERENCE = 4;
+  private static final long HASH_MAP_ENTRY = 32;
+  private static final long LAT_LNG = OBJECT_HEADER + 16;
+  private static final long LONG = OBJECT_HEADER + 8;
+  private static final long INVENTORY = OBJECT_HEADER + 4L * ITEMS.values().length;
+  private static final long ISO_TIMESTAMP = OBJECT_HEADER + 24 + 2 * 27;
+  private static final long WORLD_CHANGE = OBJECT_HEADER + 2 * REFERENCE + 8;
+  private static final long ITEM = OBJECT_HEADER + REFERENCE + 8;
+
+  private ObjectSizes() {
+  }
+
+  /**
+   * Estimates the size of a string.
+   * @param s the string, may be null
+   * @return the estimated size in bytes
+   */
+  public static long of(String s) {
+    return s == null ? 0 : OBJECT_HEADER + 24 + 2L * s.length();
+  }
+
+  /**
+   * Estimates the size of a spawn location.
+   * @param location the spawn location
+   * @return the estimated size in bytes
+   */
+  public static long of(SpawnLocation location) {
+    return OBJECT_HEADER + 7 * REFERENCE + 16
+        + of(location.getLocationId())
+        + of(location.getS2CellId())
+        + (location.getSnappedPoint() == null ? 0 : LAT_LNG);
+  }
+
+  /**
+   * Estimates the size of a world, including its locations.
+   * @param data the world data
+   * @return the estimated size in bytes
+   */
+  public static long of(WorldData data) {
+    long size = OBJECT_HEADER + 4 * REFERENCE + 24 + ISO_TIMESTAMP;
+    // Logged location ids are mostly shared with the locations map, don't count them again.
+    size += OBJECT_HEADER + 16 + (long) data.getChanges().size() * (REFERENCE + WORLD_CHANGE);
+    for (Map.Entry<String, String> entry : data.getS2CellsTTL().entrySet()) {
+      size += HASH_MAP_ENTRY + of(entry.getKey()) + of(entry.getValue());
+    }
+    // Visited cell ids are mostly shared with the TTL map.
+    size += (long) data.getCellVisits().size() * (HASH_MAP_ENTRY + LONG);
+    size += OBJECT_HEADER + 16 + (long) data.getRecentPositions().size() * (REFERENCE + LAT_LNG);
+    for (Map.Entry<String, SpawnLocation> entry : data.getLocations().entrySet()) {
+      // Keys are usually the same string as the location id, count them once.
+      size += HASH_MAP_ENTRY + of(entry.getValue());
+    }
+    return size;
+  }
+
+  /**
+   * Estimates the size of a player, including the inventory.
+   * @param data the player data
+   * @return the estimated size in bytes
+   */
+  public static long of(PlayerData data) {
+    long size = OBJECT_HEADER + 8 * REFERENCE + 28 + of(data.getName());
+    if (data.getInventory() != null) {
+      size += INVENTORY;
+    }
+    return size;
+  }
+
+  /**
+   * Estimates the size of the rewards of a chest or battle, including the items.
+   * @param data the rewards data, may be null
+   * @return the estimated size in bytes
+   */
+  public static long of(RewardsData data) {
+    if (data == null) {
+      return 0;
+    }
+    long size = OBJECT_HEADER + 2 * REFERENCE + of(data.getLocationId());
+    if (data.getItems() != null) {
+      size += OBJECT_HEADER + 16 + (long) data.getItems().size() * (REFERENCE + ITEM);
+    }
+    return size;
+  }
+
+  /**
+   * Estimates the size of a battle summary, including its rewards.
+   * @param data the battle summary data
+   * @return the estimated size in bytes
+   */
+  public static long of(BattleSummaryData data) {
+    return OBJECT_HEADER + REFERENCE + 8 + of(data.getRewards());
+  }
+
+  /**
+   * Estimates the size of the energy restored by a station.
+   * @param data the energy data
+   * @return the estimated size in bytes
+   */
+  public static long of(EnergyData data) {
+    return OBJECT_HEADER + REFERENCE + 8 + of(data.getLocationId());
+  }
+}
@@ -0,0 +1,282 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies.cache;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Remembers the results of recent actions by idempotency key, so that a retried action returns
+ * the result of the first attempt instead of running again.
+ *
+ * The first request with a given key runs the action. Requests with the same key arriving while
+ * it runs wait for its result, later ones get the stored result right away. A key can only be
+ * used for one request: reusing it with another fingerprint is rejected.
+ *
+ * Results are kept for a fixed TTL, within a budget of estimated bytes, the oldest going first.
+ * Results that shouldn't be replayed, such as transient failures, are dropped as soon as they
+ * are known, so that the next retry runs the action again.
+ *
+ * @param <V> the result type
+ */
+public class ReplayCache<V> implements MeterBinder {
+
+  /**
+   * A result, pending until the first attempt completes.
+   */
+  private static class Entry<V> {
+    private final String fingerprint;
+    private final CompletableFuture<V> result = new CompletableFuture<>();
+    private final long expiresAt;
+    private long weight;
+
+    private Entry(String fingerprint, long expiresAt, long weight) {
+      this.fingerprint = fingerprint;
+      this.expiresAt = expiresAt;
+      this.weight = weight;
+    }
+  }
+
+  /**
+   * Estimated size of an entry without its key, fingerprint and result: the map entry, the entry
+   * itself and its future
+   */
+  private static final long ENTRY_OVERHEAD = 40 + 32 + 24;
+
+  /**
+   * Name used to tag metrics
+   */
+  private final String name;
+
+  /**
+   * Maximum amount of estimated bytes held by this cache
+   */
+  private final long maxBytes;
+  private final long ttlMillis;
+
+  /**
+   * Estimates the retained size of a result
+   */
+  private final ToLongFunction<V> weigher;
+
+  /**
+   * Tells which results can be replayed
+   */
+  private final Predicate<V> replayable;
+
+  /**
+   * Entries in insertion order, which is also expiration order. Guarded by this.
+   */
+  private final LinkedHashMap<String, Entry<V>> entries = new LinkedHashMap<>();
+
+  private long bytesUsed;
+
+  private final AtomicLong executed = new AtomicLong();
+  private final AtomicLong replayed = new AtomicLong();
+  private final AtomicLong waited = new AtomicLong();
+  private final AtomicLong mismatched = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * Creates a new cache.
+   *
+   * @param name a name identifying this cache in metrics
+   * @param maxBytes the estimated size budget
+   * @param ttlMillis how long a result is replayed
+   * @param weigher estimates the size of a result in bytes
+   * @param replayable tells which results can be replayed
+   */
+  public ReplayCache(String name, long maxBytes, long ttlMillis, ToLongFunction<V> weigher,
+      Predicate<V> replayable) {
+    this.name = name;
+    this.maxBytes = maxBytes;
+    this.ttlMillis = ttlMillis;
+    this.weigher = weigher;
+    this.replayable = replayable;
+  }
+
+  /**
+   * Runs an action, unless it already ran or is running under the same key.
+   *
+   * @param key the idempotency key, scoped by the caller
+   * @param fingerprint identifies the request the key was first used for
+   * @param action the action
+   * @return the result of the first attempt
+   * @throws IllegalArgumentException if the key was first used for another request
+   */
+  public V execute(String key, String fingerprint, Supplier<V> action) {
+    Entry<V> entry;
+    boolean first = false;
+    synchronized (this) {
+      long now = System.currentTimeMillis();
+      evict(now);
+      entry = entries.get(key);
+      if (entry == null) {
+        entry = new Entry<>(fingerprint, now + ttlMillis,
+            ENTRY_OVERHEAD + ObjectSizes.of(key) + ObjectSizes.of(fingerprint));
+        entries.put(key, entry);
+        bytesUsed += entry.weight;
+        first = true;
+      }
+    }
+    if (!entry.fingerprint.equals(fingerprint)) {
+      mismatched.incrementAndGet();
+      throw new IllegalArgumentException("Idempotency key " + key + " was used for "
+          + entry.fingerprint);
+    }
+    if (!first) {
+      (entry.result.isDone() ? replayed : waited).incrementAndGet();
+      try {
+        return entry.result.join();
+      } catch (CompletionException e) {
+        throw e.getCause() instanceof RuntimeException
+            ? (RuntimeException) e.getCause() : e;
+      }
+    }
+    executed.incrementAndGet();
+    V result;
+    try {
+      result = action.get();
+    } catch (RuntimeException | Error e) {
+      forget(key, entry);
+      entry.result.completeExceptionally(e);
+      throw e;
+    }
+    if (replayable.test(result)) {
+      settle(key, entry, weigher.applyAsLong(result));
+    } else {
+      forget(key, entry);
+    }
+    entry.result.complete(result);
+    return result;
+  }
+
+  /**
+   * Helper function that accounts for the result of an entry, unless it was dropped already,
+   * and evicts the oldest entries if it doesn't fit. Results that alone exceed the budget are
+   * not kept.
+   */
+  private synchronized void settle(String key, Entry<V> entry, long weight) {
+    if (entries.get(key) != entry) {
+      return;
+    }
+    if (entry.weight + weight > maxBytes) {
+      forget(key, entry);
+      return;
+    }
+    entry.weight += weight;
+    bytesUsed += weight;
+    evict(System.currentTimeMillis());
+  }
+
+  /**
+   * Helper function that drops an entry, unless it was replaced already.
+   */
+  private synchronized void forget(String key, Entry<V> entry) {
+    if (entries.remove(key, entry)) {
+      bytesUsed -= entry.weight;
+    }
+  }
+
+  /**
+   * Helper function that drops the expired entries, and the oldest ones over the budget.
+   * Waiters of an evicted pending entry still get its result. Must hold the lock.
+   */
+  private void evict(long now) {
+    Iterator<Map.Entry<String, Entry<V>>> it = entries.entrySet().iterator();
+    while (it.hasNext()) {
+      Entry<V> eldest = it.next().getValue();
+      if (eldest.expiresAt >= now && bytesUsed <= maxBytes) {
+        return;
+      }
+      it.remove();
+      bytesUsed -= eldest.weight;
+      evictions.incrementAndGet();
+    }
+  }
+
+  /**
+   * Getter for the amount of entries.
+   * @return the amount of results held, pending ones included
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * Getter for the estimated amount of bytes held by this cache.
+   * @return the amount of bytes used
+   */
+  public synchronized long getBytesUsed() {
+    return bytesUsed;
+  }
+
+  public long getExecuted() {
+    return executed.get();
+  }
+
+  public long getReplayed() {
+    return replayed.get();
+  }
+
+  public long getWaited() {
+    return waited.get();
+  }
+
+  public long getMismatched() {
+    return mismatched.get();
+  }
+
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  /**
+   * Registers counters for executed, replayed, waiting and mismatched requests, evictions and
+   * size gauges.
+   * @param registry the meter registry
+   */
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    FunctionCounter.builder("zoinkies.idempotency.requests", this, ReplayCache::getExecuted)
+        .tag("cache", name).tag("result", "executed").register(registry);
+    FunctionCounter.builder("zoinkies.idempotency.requests", this, ReplayCache::getReplayed)
+        .tag("cache", name).tag("result", "replayed")
+        .description("Retries answered with a stored result").register(registry);
+    FunctionCounter.builder("zoinkies.idempotency.requests", this, ReplayCache::getWaited)
+        .tag("cache", name).tag("result", "waited")
+        .description("Duplicates that waited for the first attempt").register(registry);
+    FunctionCounter.builder("zoinkies.idempotency.requests", this, ReplayCache::getMismatched)
+        .tag("cache", name).tag("result", "mismatched").register(registry);
+    FunctionCounter.builder("zoinkies.idempotency.evictions", this, ReplayCache::getEvictions)
+        .tag("cache", name).register(registry);
+    Gauge.builder("zoinkies.idempotency.size", this, ReplayCache::size)
+        .tag("cache", name).register(registry);
+    Gauge.builder("zoinkies.idempotency.bytes", this, ReplayCache::getBytesUsed)
+        .tag("cache", name).baseUnit("bytes").register(registry);
+  }
+}
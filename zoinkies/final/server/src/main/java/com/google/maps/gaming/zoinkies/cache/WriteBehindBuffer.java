@@ -0,0 +1,287 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies.cache;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+
+/**
+ * Holds pending document writes and flushes them in the background.
+ *
+ * Only the latest value offered for a given key is kept: several writes of the same document
+ * between two flushes collapse into a single one. The buffer is flushed on a fixed interval,
+ * as soon as it holds more than a given amount of documents, and when it is closed.
+ *
+ * A failed write is retried on later flushes, waiting twice as many intervals after each
+ * failure, and dropped after a given amount of attempts. Writes still failing when the buffer
+ * is closed are dropped as well. Each failure is handed to a {@link FailureHandler}.
+ *
+ * Writers that bypass the buffer for the same key must hold {@link #lockFor(String)} and call
+ * {@link #cancel(String)}, so that an older buffered value can't land after their write.
+ *
+ * @param <V> the document type
+ */
+public class WriteBehindBuffer<V> implements MeterBinder, AutoCloseable {
+
+  /**
+   * Persists a single document.
+   */
+  public interface Writer<V> {
+    void write(String key, V value) throws Exception;
+  }
+
+  /**
+   * Reports failed writes.
+   */
+  public interface FailureHandler {
+    /**
+     * @param key the document key
+     * @param error the cause of the failure
+     * @param attempts the amount of failed attempts so far
+     * @param dropped true if the write was given up
+     */
+    void failed(String key, Exception error, int attempts, boolean dropped);
+  }
+
+  /**
+   * Failed attempts at writing a key, and when to try again.
+   */
+  private static final class Retry {
+    final int attempts;
+    final long retryAt;
+
+    Retry(int attempts, long retryAt) {
+      this.attempts = attempts;
+      this.retryAt = retryAt;
+    }
+  }
+
+  private static final int LOCK_STRIPES = 64;
+
+  private final String name;
+  private final Writer<V> writer;
+  private final UnaryOperator<V> copier;
+  private final int maxPending;
+  private final long flushIntervalMillis;
+  private final int maxAttempts;
+  private final FailureHandler failures;
+  private final ConcurrentHashMap<String, V> pending = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, Retry> retries = new ConcurrentHashMap<>();
+  private final Object[] locks = new Object[LOCK_STRIPES];
+  private final ScheduledExecutorService scheduler;
+  private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+  private final AtomicLong offered = new AtomicLong();
+  private final AtomicLong coalesced = new AtomicLong();
+  private final AtomicLong written = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+
+  /**
+   * Creates a buffer and starts its flush thread.
+   *
+   * @param name a name identifying this buffer in metrics and thread names
+   * @param flushIntervalMillis the delay between two background flushes
+   * @param maxPending the amount of pending documents that triggers an early flush
+   * @param writer persists a document
+   * @param copier deep copies a document, so that callers can keep mutating theirs
+   * @param maxAttempts the amount of failed attempts after which a write is dropped
+   * @param failures reports failed writes
+   */
+  public WriteBehindBuffer(String name, long flushIntervalMillis, int maxPending,
+      Writer<V> writer, UnaryOperator<V> copier, int maxAttempts, FailureHandler failures) {
+    this.name = name;
+    this.writer = writer;
+    this.copier = copier;
+    this.maxPending = maxPending;
+    this.flushIntervalMillis = flushIntervalMillis;
+    this.maxAttempts = maxAttempts;
+    this.failures = failures;
+    for (int i = 0; i < LOCK_STRIPES; i++) {
+      locks[i] = new Object();
+    }
+    scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, name + "-write-behind");
+      t.setDaemon(true);
+      return t;
+    });
+    scheduler.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Returns the lock guarding writes of the given key.
+   * @param key the document key
+   * @return a lock object
+   */
+  public Object lockFor(String key) {
+    return locks[(key.hashCode() & 0x7fffffff) % LOCK_STRIPES];
+  }
+
+  /**
+   * Queues a copy of the given document, replacing any pending value for the same key.
+   *
+   * @param key the document key
+   * @param value the document to write
+   */
+  public void offer(String key, V value) {
+    offered.incrementAndGet();
+    if (pending.put(key, copier.apply(value)) != null) {
+      coalesced.incrementAndGet();
+    }
+    if (pending.size() >= maxPending && flushRequested.compareAndSet(false, true)) {
+      scheduler.execute(this::flush);
+    }
+  }
+
+  /**
+   * Returns a copy of the pending value for the given key.
+   *
+   * @param key the document key
+   * @return a copy of the pending document, or null if nothing is pending
+   */
+  public V peek(String key) {
+    V value = pending.get(key);
+    return value == null ? null : copier.apply(value);
+  }
+
+  /**
+   * Drops the pending value for the given key. The caller must hold {@link #lockFor(String)}.
+   *
+   * @param key the document key
+   */
+  public void cancel(String key) {
+    pending.remove(key);
+    retries.remove(key);
+  }
+
+  /**
+   * Writes the pending documents that are due. Failed writes are queued again unless a newer
+   * value was offered in the meantime, or they ran out of attempts.
+   */
+  public void flush() {
+    flush(false);
+  }
+
+  /**
+   * Helper function that writes the pending documents, all of them when closing.
+   */
+  private void flush(boolean closing) {
+    flushRequested.set(false);
+    long now = System.currentTimeMillis();
+    List<String> keys = new ArrayList<>(pending.keySet());
+    for (String key : keys) {
+      synchronized (lockFor(key)) {
+        Retry retry = retries.get(key);
+        if (!closing && retry != null && retry.retryAt > now) {
+          continue;
+        }
+        V value = pending.remove(key);
+        if (value == null) {
+          continue;
+        }
+        try {
+          writer.write(key, value);
+          written.incrementAndGet();
+          retries.remove(key);
+        } catch (Exception e) {
+          failed.incrementAndGet();
+          int attempts = retry == null ? 1 : retry.attempts + 1;
+          if (closing || attempts >= maxAttempts) {
+            dropped.incrementAndGet();
+            retries.remove(key);
+            failures.failed(key, e, attempts, true);
+          } else {
+            long backoff = flushIntervalMillis << Math.min(attempts - 1, 16);
+            retries.put(key, new Retry(attempts, now + backoff));
+            pending.putIfAbsent(key, value);
+            failures.failed(key, e, attempts, false);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Stops the flush thread and drains the buffer. Writes failing then are dropped.
+   */
+  @Override
+  public void close() {
+    scheduler.shutdown();
+    try {
+      scheduler.awaitTermination(30, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    flush(true);
+  }
+
+  public int getPendingCount() {
+    return pending.size();
+  }
+
+  public long getOffered() {
+    return offered.get();
+  }
+
+  public long getCoalesced() {
+    return coalesced.get();
+  }
+
+  public long getWritten() {
+    return written.get();
+  }
+
+  public long getFailed() {
+    return failed.get();
+  }
+
+  public long getDropped() {
+    return dropped.get();
+  }
+
+  /**
+   * Registers offered, coalesced, written, failed and dropped counters, plus a pending gauge.
+   * Offered minus written is the amount of document writes saved.
+   * @param registry the meter registry
+   */
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    FunctionCounter.builder("zoinkies.writebehind.offered", this, WriteBehindBuffer::getOffered)
+        .tag("buffer", name).register(registry);
+    FunctionCounter.builder("zoinkies.writebehind.coalesced", this,
+        WriteBehindBuffer::getCoalesced).tag("buffer", name).register(registry);
+    FunctionCounter.builder("zoinkies.writebehind.written", this, WriteBehindBuffer::getWritten)
+        .tag("buffer", name).register(registry);
+    FunctionCounter.builder("zoinkies.writebehind.failed", this, WriteBehindBuffer::getFailed)
+        .tag("buffer", name).register(registry);
+    FunctionCounter.builder("zoinkies.writebehind.dropped", this, WriteBehindBuffer::getDropped)
+        .tag("buffer", name).register(registry);
+    Gauge.builder("zoinkies.writebehind.pending", this, WriteBehindBuffer::getPendingCount)
+        .tag("buffer", name).register(registry);
+  }
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies.codecs;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Upgrades raw document data to the current schema version of a collection.
+ *
+ * Documents carry their version in a "schemaVersion" field. Documents written before versioning
+ * was introduced don't have one and are considered to be at version 0. Each step upgrades a
+ * document by exactly one version, so a document of any age goes through all the steps it missed.
+ *
+ * Codecs upgrade documents as they decode them and always encode at the current version: an old
+ * document is upgraded in memory the first time it is read and lands in the new format with its
+ * next save.
+ */
+public final class DocumentMigrator implements MeterBinder {
+
+  /**
+   * Field holding the schema version of a document
+   */
+  public static final String VERSION_FIELD = "schemaVersion";
+
+  /**
+   * Upgrades document data by one version, in place.
+   */
+  public interface Step {
+    void apply(Map<String, Object> data);
+  }
+
+  /**
+   * Leaves the data untouched. Used by the first step of each collection, as unversioned
+   * documents share the layout of version 1.
+   */
+  static final Step BASELINE = data -> { };
+
+  private final String collection;
+  private final Step[] steps;
+  private final AtomicLong upgraded = new AtomicLong();
+
+  /**
+   * Creates a migrator.
+   * @param collection the collection name, used to tag metrics
+   * @param steps the upgrade steps, the step at index i upgrades version i to i + 1
+   */
+  DocumentMigrator(String collection, Step... steps) {
+    this.collection = collection;
+    this.steps = steps;
+  }
+
+  /**
+   * Getter for the version documents are written at.
+   * @return the current schema version
+   */
+  public int getCurrentVersion() {
+    return steps.length;
+  }
+
+  /**
+   * Reads the schema version of the given document data.
+   * @param data the document data
+   * @return the version, 0 for unversioned documents
+   */
+  public static int versionOf(Map<String, Object> data) {
+    Object version = data.get(VERSION_FIELD);
+    return version == null ? 0 : ((Number) version).intValue();
+  }
+
+  /**
+   * Checks if the given document data is behind the current version.
+   * @param data the document data, which may be a projection on the version field
+   * @return true if the document needs upgrading
+   */
+  public boolean needsUpgrade(Map<String, Object> data) {
+    return versionOf(data) < getCurrentVersion();
+  }
+
+  /**
+   * Upgrades the given document data in place.
+   *
+   * @param data the document data
+   * @return true if the data was upgraded, false if it already was at the current version
+   * @throws IllegalStateException if the document was written by a newer server
+   */
+  public boolean upgrade(Map<String, Object> data) {
+    int version = versionOf(data);
+    if (version == getCurrentVersion()) {
+      return false;
+    }
+    if (version > getCurrentVersion()) {
+      throw new IllegalStateException("Document of " + collection + " is at schema version "
+          + version + ", this server only knows up to " + getCurrentVersion());
+    }
+    for (int i = version; i < steps.length; i++) {
+      steps[i].apply(data);
+    }
+    data.put(VERSION_FIELD, getCurrentVersion());
+    upgraded.incrementAndGet();
+    return true;
+  }
+
+  public long getUpgraded() {
+    return upgraded.get();
+  }
+
+  /**
+   * Registers a counter of documents upgraded while decoding.
+   * @param registry the meter registry
+   */
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    FunctionCounter.builder("zoinkies.schema.upgrades", this, DocumentMigrator::getUpgraded)
+        .tag("collection", collection).register(registry);
+  }
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies.codecs;
+
+import com.google.cloud.firestore.Blob;
+import com.google.maps.gaming.zoinkies.ITEMS;
+import com.google.maps.gaming.zoinkies.models.playablelocations.LatLng;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Helpers to read and write the loosely typed values found in Firestore document data.
+ * Firestore hands back integers as Long and decimals as Double, whatever the POJO field type.
+ */
+final class DocumentValues {
+
+  private DocumentValues() {
+  }
+
+  static String asString(Object value) {
+    return (String) value;
+  }
+
+  static int asInt(Object value) {
+    return value == null ? 0 : ((Number) value).intValue();
+  }
+
+  static long asLong(Object value) {
+    return value == null ? 0 : ((Number) value).longValue();
+  }
+
+  static double asDouble(Object value) {
+    return value == null ? 0 : ((Number) value).doubleValue();
+  }
+
+  static boolean asBoolean(Object value) {
+    return value != null && (Boolean) value;
+  }
+
+  static byte[] asBytes(Object value) {
+    return ((Blob) value).toBytes();
+  }
+
+  static ITEMS asItemId(Object value) {
+    return value == null ? null : ITEMS.valueOf((String) value);
+  }
+
+  static String fromItemId(ITEMS itemId) {
+    return itemId == null ? null : itemId.name();
+  }
+
+  @SuppressWarnings("unchecked")
+  static Map<String, Object> asMap(Object value) {
+    return (Map<String, Object>) value;
+  }
+
+  static LatLng asLatLng(Object value) {
+    if (value == null) {
+      return null;
+    }
+    Map<String, Object> map = asMap(value);
+    return new LatLng(asDouble(map.get("latitude")), asDouble(map.get("longitude")));
+  }
+
+  static Map<String, Object> fromLatLng(LatLng latLng) {
+    if (latLng == null) {
+      return null;
+    }
+    Map<String, Object> map = new HashMap<>(4);
+    map.put("latitude", latLng.getLatitude());
+    map.put("longitude", latLng.getLongitude());
+    return map;
+  }
+
+  /**
+   * Returns a HashMap sized to hold the given amount of entries without rehashing.
+   */
+  static <K, V> HashMap<K, V> newHashMap(int expectedSize) {
+    return new HashMap<>(expectedSize * 4 / 3 + 1);
+  }
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies.codecs;
+
+import static com.google.maps.gaming.zoinkies.codecs.DocumentValues.asInt;
+import static com.google.maps.gaming.zoinkies.codecs.DocumentValues.asItemId;
+import static com.google.maps.gaming.zoinkies.codecs.DocumentValues.asLong;
+import static com.google.maps.gaming.zoinkies.codecs.DocumentValues.asMap;
+import static com.google.maps.gaming.zoinkies.codecs.DocumentValues.asString;
+import static com.google.maps.gaming.zoinkies.codecs.DocumentValues.fromItemId;
+
+import com.google.maps.gaming.zoinkies.GameConstants;
+import com.google.maps.gaming.zoinkies.models.Item;
+import com.google.maps.gaming.zoinkies.models.PlayerData;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps player documents to and from PlayerData without going through reflection.
+ * Field names match the ones Firestore derives from the PlayerData getters, so documents
+ * written by either path can be read by the other.
+ */
+public final class PlayerDataCodec {
+
+  /**
+   * Schema migrations of users/ documents
+   */
+  public static final DocumentMigrator MIGRATOR =
+      new DocumentMigrator("users", DocumentMigrator.BASELINE,
+          PlayerDataCodec::upgradeEnergy);
+
+  private PlayerDataCodec() {
+  }
+
+  /**
+   * Decodes the raw data of a users/ document, upgrading it in place to the current schema
+   * version first.
+   * @param data the document data
+   * @return a new PlayerData
+   */
+  public static PlayerData decode(Map<String, Object> data) {
+    MIGRATOR.upgrade(data);
+    PlayerData player = new PlayerData();
+    player.setDeviceId(asLong(data.get("deviceId")));
+    player.setName(asString(data.get("name")));
+    player.setCharacterType(asItemId(data.get("characterType")));
+    player.setEquippedWeapon(asItemId(data.get("equippedWeapon")));
+    player.setEquippedShield(asItemId(data.get("equippedShield")));
+    player.setEquippedHelmet(asItemId(data.get("equippedHelmet")));
+    player.setEquippedBodyArmor(asItemId(data.get("equippedBodyArmor")));
+    player.setEnergy(asInt(data.get("energyLevel")), asLong(data.get("energyUpdatedAt")));
+    player.setEnergyRegenMillis(asInt(data.get("energyRegenMillis")));
+    player.setMaxEnergyLevel(asInt(data.get("maxEnergyLevel")));
+    Object inventory = data.get("inventory");
+    if (inventory != null) {
+      List<?> values = (List<?>) inventory;
+      List<Item> items = new ArrayList<>(values.size());
+      for (Object value : values) {
+        Map<String, Object> item = asMap(value);
+        items.add(new Item(asItemId(item.get("itemId")), asInt(item.get("quantity"))));
+      }
+      player.setInventory(items);
+    }
+    return player;
+  }
+
+  /**
+   * Encodes a player into document data.
+   * @param player the player data
+   * @return a map ready to be written to Firestore
+   */
+  public static Map<String, Object> encode(PlayerData player) {
+    Map<String, Object> data = new HashMap<>(16);
+    data.put("deviceId", player.getDeviceId());
+    data.put("name", player.getName());
+    data.put("characterType", fromItemId(player.getCharacterType()));
+    data.put("equippedWeapon", fromItemId(player.getEquippedWeapon()));
+    data.put("equippedShield", fromItemId(player.getEquippedShield()));
+    data.put("equippedHelmet", fromItemId(player.getEquippedHelmet()));
+    data.put("equippedBodyArmor", fromItemId(player.getEquippedBodyArmor()));
+    data.put("energyLevel", player.getStoredEnergyLevel());
+    data.put("energyUpdatedAt", player.getEnergyUpdatedAt());
+    data.put("energyRegenMillis", player.getEnergyRegenMillis());
+    data.put("maxEnergyLevel", player.getMaxEnergyLevel());
+    List<Map<String, Object>> items = null;
+    if (player.getInventory() != null) {
+      items = new ArrayList<>(player.getInventory().size());
+      for (Item item : player.getInventory()) {
+        Map<String, Object> value = new HashMap<>(4);
+        value.put("itemId", fromItemId(item.getItemId()));
+        value.put("quantity", item.getQuantity());
+        items.add(value);
+      }
+    }
+    data.put("inventory", items);
+    data.put(DocumentMigrator.VERSION_FIELD, MIGRATOR.getCurrentVersion());
+    return data;
+  }
+
+  /**
+   * Schema version 2: energy regenerates over time, the stored energy level is the level as of
+   * energyUpdatedAt. Existing players start regenerating when upgraded, at the default pace.
+   * @param data the user document data
+   */
+  static void upgradeEnergy(Map<String, Object> data) {
+    data.putIfAbsent("energyUpdatedAt", System.currentTimeMillis());
+    data.putIfAbsent("energyRegenMillis", GameConstants.DEFAULT_PLAYER_ENERGY_REGEN_MILLIS);
+  }
+}
@@ -0,0 +1,223 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies.codecs;
+
+import com.google.maps.gaming.zoinkies.ITEMS;
+import com.google.maps.gaming.zoinkies.models.SpawnLocation;
+import com.google.maps.gaming.zoinkies.models.playablelocations.LatLng;
+import com.google.maps.gaming.zoinkies.spawning.SpawnGenerator;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Packs all spawn locations of one S2 cell into a single binary blob.
+ *
+ * Layout (version 2), all integers big endian:
+ * <pre>
+ *   byte    version
+ *   long    S2 cell id (0 for locations without a cell)
+ *   int     location count
+ *   per location:
+ *     byte    flags, see FLAG_*
+ *     short   length of the location id in UTF-8 bytes
+ *     bytes   location id, without the "plocs_" prefix when FLAG_PLOCS_ID is set
+ *     byte    object type ordinal, when FLAG_OBJECT_TYPE is set and FLAG_GENERATED isn't
+ *     byte    key type ordinal, when FLAG_KEY_TYPE is set and FLAG_GENERATED isn't
+ *     byte    number of keys to activate, unless FLAG_GENERATED is set
+ *     long    respawn time in epoch millis, when FLAG_RESPAWN_TIME is set
+ *     int     latitude in 1e-7 degrees, when FLAG_SNAPPED_POINT is set
+ *     int     longitude in 1e-7 degrees, when FLAG_SNAPPED_POINT is set
+ * </pre>
+ *
+ * FLAG_ACTIVE is cleared for locations inactive until further notice, which have no respawn time.
+ * FLAG_GENERATED is set when the object type, keys and respawn policy are the ones
+ * {@link SpawnGenerator} derives from the world seed: they are computed again when decoding.
+ * Version 1 blobs, written before that flag existed, are still accepted.
+ * Item types are stored as ITEMS ordinals: new items must be appended to the enum, or the
+ * version bumped. Coordinates are rounded to about a centimeter.
+ */
+public final class SpawnLocationCellCodec {
+
+  /**
+   * Current layout version
+   */
+  public static final byte VERSION = 2;
+
+  /**
+   * Layout version without FLAG_GENERATED
+   */
+  private static final byte VERSION_1 = 1;
+
+  private static final int FLAG_ACTIVE = 1;
+  private static final int FLAG_RESPAWNS = 1 << 1;
+  private static final int FLAG_PLOCS_ID = 1 << 2;
+  private static final int FLAG_OBJECT_TYPE = 1 << 3;
+  private static final int FLAG_KEY_TYPE = 1 << 4;
+  private static final int FLAG_RESPAWN_TIME = 1 << 5;
+  private static final int FLAG_SNAPPED_POINT = 1 << 6;
+  private static final int FLAG_GENERATED = 1 << 7;
+
+  /**
+   * Prefix shared by all location ids derived from playable location names
+   */
+  private static final String PLOCS_PREFIX = "plocs_";
+
+  private static final double E7 = 1e7;
+
+  private static final ITEMS[] ITEMS_BY_ORDINAL = ITEMS.values();
+
+  private SpawnLocationCellCodec() {
+  }
+
+  /**
+   * Parses the decimal cell id stored on spawn locations.
+   * @param s2CellId the cell id as a string, may be null
+   * @return the numeric cell id, 0 when absent
+   */
+  public static long parseCellId(String s2CellId) {
+    return s2CellId == null || s2CellId.isEmpty() ? 0 : Long.parseUnsignedLong(s2CellId);
+  }
+
+  /**
+   * Encodes the given locations, which must all belong to the given cell.
+   *
+   * @param cellId the numeric S2 cell id, 0 for locations without a cell
+   * @param locations the spawn locations of that cell
+   * @param seed the world seed, 0 to store the metadata of all locations
+   * @return the encoded blob
+   */
+  public static byte[] encode(long cellId, Collection<SpawnLocation> locations, long seed) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + locations.size() * 48);
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeByte(VERSION);
+      out.writeLong(cellId);
+      out.writeInt(locations.size());
+      for (SpawnLocation location : locations) {
+        String id = location.getLocationId();
+        boolean plocsId = id != null && id.startsWith(PLOCS_PREFIX);
+        long respawnAt = location.getRespawnAt();
+        boolean hasRespawnTime = respawnAt != 0 && respawnAt != SpawnLocation.NEVER;
+        boolean generated = seed != 0 && SpawnGenerator.isGenerated(location, seed);
+        int flags = (respawnAt != SpawnLocation.NEVER ? FLAG_ACTIVE : 0)
+            | (location.getRespawns() ? FLAG_RESPAWNS : 0)
+            | (plocsId ? FLAG_PLOCS_ID : 0)
+            | (location.getObjectTypeId() != null ? FLAG_OBJECT_TYPE : 0)
+            | (location.getKeyTypeId() != null ? FLAG_KEY_TYPE : 0)
+            | (hasRespawnTime ? FLAG_RESPAWN_TIME : 0)
+            | (location.getSnappedPoint() != null ? FLAG_SNAPPED_POINT : 0)
+            | (generated ? FLAG_GENERATED : 0);
+        out.writeByte(flags);
+        byte[] idBytes = (plocsId ? id.substring(PLOCS_PREFIX.length()) : id == null ? "" : id)
+            .getBytes(StandardCharsets.UTF_8);
+        out.writeShort(idBytes.length);
+        out.write(idBytes);
+        if (!generated) {
+          if (location.getObjectTypeId() != null) {
+            out.writeByte(location.getObjectTypeId().ordinal());
+          }
+          if (location.getKeyTypeId() != null) {
+            out.writeByte(location.getKeyTypeId().ordinal());
+          }
+          out.writeByte(location.getNumberOfKeysToActivate());
+        }
+        if (hasRespawnTime) {
+          out.writeLong(respawnAt);
+        }
+        if (location.getSnappedPoint() != null) {
+          out.writeInt((int) Math.round(location.getSnappedPoint().getLatitude() * E7));
+          out.writeInt((int) Math.round(location.getSnappedPoint().getLongitude() * E7));
+        }
+      }
+    } catch (IOException e) {
+      // Can't happen when writing to memory.
+      throw new IllegalStateException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Decodes a blob and adds its locations to the given map, keyed by location id.
+   *
+   * @param blob the encoded blob
+   * @param seed the world seed the blob was encoded with
+   * @param into the map receiving the decoded locations
+   * @throws IllegalArgumentException if the blob version isn't supported or it is malformed
+   */
+  public static void decode(byte[] blob, long seed, Map<String, SpawnLocation> into) {
+    if (blob.length == 0 || (blob[0] != VERSION && blob[0] != VERSION_1)) {
+      throw new IllegalArgumentException("Unsupported spawn location cell version "
+          + (blob.length == 0 ? "(empty)" : String.valueOf(blob[0])));
+    }
+    ByteBuffer in = ByteBuffer.wrap(blob, 1, blob.length - 1);
+    try {
+      long cellId = in.getLong();
+      String s2CellId = cellId == 0 ? null : Long.toUnsignedString(cellId);
+      int count = in.getInt();
+      for (int i = 0; i < count; i++) {
+        int flags = in.get() & 0xff;
+        int idLength = in.getShort() & 0xffff;
+        String id = new String(blob, in.position(), idLength, StandardCharsets.UTF_8);
+        in.position(in.position() + idLength);
+        if ((flags & FLAG_PLOCS_ID) != 0) {
+          id = PLOCS_PREFIX.concat(id);
+        }
+        boolean generated = (flags & FLAG_GENERATED) != 0;
+        ITEMS objectType = null;
+        ITEMS keyType = null;
+        int keys = 0;
+        if (!generated) {
+          objectType = (flags & FLAG_OBJECT_TYPE) != 0 ? ITEMS_BY_ORDINAL[in.get()] : null;
+          keyType = (flags & FLAG_KEY_TYPE) != 0 ? ITEMS_BY_ORDINAL[in.get()] : null;
+          keys = in.get();
+        }
+        long respawnAt;
+        if ((flags & FLAG_RESPAWN_TIME) != 0) {
+          respawnAt = in.getLong();
+        } else {
+          respawnAt = (flags & FLAG_ACTIVE) != 0 ? 0 : SpawnLocation.NEVER;
+        }
+        LatLng point = null;
+        if ((flags & FLAG_SNAPPED_POINT) != 0) {
+          double latitude = in.getInt() / E7;
+          double longitude = in.getInt() / E7;
+          point = new LatLng(latitude, longitude);
+        }
+        SpawnLocation location = new SpawnLocation(id,
+            true,
+            objectType,
+            (flags & FLAG_RESPAWNS) != 0,
+            null,
+            keys,
+            keyType,
+            point,
+            s2CellId);
+        location.setRespawnAt(respawnAt);
+        if (generated) {
+          SpawnGenerator.generate(location, seed);
+        }
+        into.put(id, location);
+      }
+    } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+      throw new IllegalArgumentException("Malformed spawn location cell", e);
+    }
+  }
+}
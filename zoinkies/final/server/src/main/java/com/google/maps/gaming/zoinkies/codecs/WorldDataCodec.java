@@ -0,0 +1,341 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies.codecs;
+
+import static com.google.maps.gaming.zoinkies.codecs.DocumentValues.asBoolean;
+import static com.google.maps.gaming.zoinkies.codecs.DocumentValues.asBytes;
+import static com.google.maps.gaming.zoinkies.codecs.DocumentValues.asInt;
+import static com.google.maps.gaming.zoinkies.codecs.DocumentValues.asItemId;
+import static com.google.maps.gaming.zoinkies.codecs.DocumentValues.asLatLng;
+import static com.google.maps.gaming.zoinkies.codecs.DocumentValues.asLong;
+import static com.google.maps.gaming.zoinkies.codecs.DocumentValues.asMap;
+import static com.google.maps.gaming.zoinkies.codecs.DocumentValues.asString;
+import static com.google.maps.gaming.zoinkies.codecs.DocumentValues.fromItemId;
+import static com.google.maps.gaming.zoinkies.codecs.DocumentValues.fromLatLng;
+import static com.google.maps.gaming.zoinkies.codecs.DocumentValues.newHashMap;
+
+import com.google.cloud.firestore.Blob;
+import com.google.maps.gaming.zoinkies.models.SpawnLocation;
+import com.google.maps.gaming.zoinkies.models.WorldChange;
+import com.google.maps.gaming.zoinkies.models.WorldData;
+import com.google.maps.gaming.zoinkies.models.playablelocations.LatLng;
+import com.google.maps.gaming.zoinkies.spawning.SpawnGenerator;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps world documents to and from WorldData without going through reflection.
+ * Field names match the ones Firestore derives from the WorldData and SpawnLocation getters,
+ * so documents written by either path can be read by the other.
+ *
+ * Worlds can also be written in a compact form, where the locations map is replaced by a
+ * "cells" map holding one {@link SpawnLocationCellCodec} blob per S2 cell. Both forms are
+ * accepted when decoding.
+ *
+ * In both forms, the object type, keys and respawn policy of a spawn location are left out when
+ * {@link SpawnGenerator} derives the same values from the world seed, and so is a zero respawnAt.
+ * Missing values are generated again when decoding.
+ *
+ * In shared world mode, spawn locations live in per-cell layers and a player's world document
+ * is an overlay: the cells the player has visited and the respawn times of the locations they
+ * consumed, see {@link #encodeOverlay} and {@link #decodeOverlay}.
+ */
+public final class WorldDataCodec {
+
+  /**
+   * Schema migrations of worlds/ documents
+   */
+  public static final DocumentMigrator MIGRATOR =
+      new DocumentMigrator("worlds", DocumentMigrator.BASELINE,
+          WorldDataCodec::upgradeRespawnTimes, WorldDataCodec::upgradeCellVisits);
+
+  private WorldDataCodec() {
+  }
+
+  /**
+   * Decodes the raw data of a worlds/ document, upgrading it in place to the current schema
+   * version first.
+   * @param data the document data
+   * @return a new WorldData
+   */
+  public static WorldData decode(Map<String, Object> data) {
+    MIGRATOR.upgrade(data);
+    WorldData world = new WorldData();
+    world.setSpawnSeed(asLong(data.get("spawnSeed")));
+    Object ttl = data.get("s2CellsTTL");
+    if (ttl != null) {
+      Map<String, Object> values = asMap(ttl);
+      HashMap<String, String> cells = newHashMap(values.size());
+      for (Map.Entry<String, Object> entry : values.entrySet()) {
+        cells.put(entry.getKey(), asString(entry.getValue()));
+      }
+      world.setS2CellsTTL(cells);
+    }
+    Object locations = data.get("locations");
+    if (locations != null) {
+      Map<String, Object> values = asMap(locations);
+      HashMap<String, SpawnLocation> spawnLocations = newHashMap(values.size());
+      for (Map.Entry<String, Object> entry : values.entrySet()) {
+        spawnLocations.put(entry.getKey(), decodeSpawnLocation(asMap(entry.getValue()),
+            world.getSpawnSeed()));
+      }
+      world.setLocations(spawnLocations);
+    }
+    Object cells = data.get("cells");
+    if (cells != null) {
+      for (Object blob : asMap(cells).values()) {
+        SpawnLocationCellCodec.decode(asBytes(blob), world.getSpawnSeed(), world.getLocations());
+      }
+    }
+    Object visits = data.get("cellVisits");
+    if (visits != null) {
+      for (Map.Entry<String, Object> entry : asMap(visits).entrySet()) {
+        world.getCellVisits().put(entry.getKey(), asLong(entry.getValue()));
+      }
+    }
+    Object positions = data.get("recentPositions");
+    if (positions != null) {
+      for (Object position : (List<?>) positions) {
+        world.getRecentPositions().add(asLatLng(position));
+      }
+    }
+    world.setCurrentServerTime(asString(data.get("currentServerTime")));
+    world.setVersion(asLong(data.get("version")));
+    world.setChangeLogStart(asLong(data.get("changeLogStart")));
+    Object changes = data.get("changes");
+    if (changes != null) {
+      for (Object value : (List<?>) changes) {
+        Map<String, Object> change = asMap(value);
+        world.getChanges().add(new WorldChange(asLong(change.get("version")),
+            asString(change.get("locationId")),
+            WorldChange.Type.valueOf(asString(change.get("type")))));
+      }
+    }
+    return world;
+  }
+
+  /**
+   * Decodes a single spawn location.
+   * @param data the spawn location map
+   * @param seed the seed of the world it belongs to
+   * @return a new SpawnLocation
+   */
+  public static SpawnLocation decodeSpawnLocation(Map<String, Object> data, long seed) {
+    SpawnLocation location = new SpawnLocation(
+        asString(data.get("locationId")),
+        true,
+        asItemId(data.get("objectTypeId")),
+        asBoolean(data.get("respawns")),
+        null,
+        asInt(data.get("numberOfKeysToActivate")),
+        asItemId(data.get("keyTypeId")),
+        asLatLng(data.get("snappedPoint")),
+        asString(data.get("s2CellId")));
+    location.setRespawnAt(asLong(data.get("respawnAt")));
+    if (!data.containsKey("objectTypeId")) {
+      SpawnGenerator.generate(location, seed);
+    }
+    return location;
+  }
+
+  /**
+   * Schema version 2: spawn locations store when they respawn as epoch millis, instead of
+   * an active flag and an ISO-8601 respawn time that had to be cleared once expired.
+   * Compact cells already store epoch millis and are left as is.
+   * @param data the world document data
+   */
+  static void upgradeRespawnTimes(Map<String, Object> data) {
+    Object locations = data.get("locations");
+    if (locations == null) {
+      return;
+    }
+    for (Object value : asMap(locations).values()) {
+      Map<String, Object> location = asMap(value);
+      String respawnTime = asString(location.remove("respawnTime"));
+      boolean active = asBoolean(location.remove("active"));
+      long respawnAt;
+      if (respawnTime != null) {
+        respawnAt = Instant.parse(respawnTime).toEpochMilli();
+      } else {
+        respawnAt = active ? 0 : SpawnLocation.NEVER;
+      }
+      location.put("respawnAt", respawnAt);
+    }
+  }
+
+  /**
+   * Schema version 3: cells remember when they were last visited. Existing cells count as
+   * visited when upgraded, so that they expire like new ones.
+   * @param data the world document data
+   */
+  static void upgradeCellVisits(Map<String, Object> data) {
+    Map<String, Object> visits = new HashMap<>();
+    Object ttl = data.get("s2CellsTTL");
+    if (ttl != null) {
+      long now = System.currentTimeMillis();
+      for (String cellId : asMap(ttl).keySet()) {
+        visits.put(cellId, now);
+      }
+    }
+    data.put("cellVisits", visits);
+  }
+
+  /**
+   * Encodes a world into document data.
+   * @param world the world data
+   * @return a map ready to be written to Firestore
+   */
+  public static Map<String, Object> encode(WorldData world) {
+    Map<String, Object> data = new HashMap<>(16);
+    data.put("s2CellsTTL", new HashMap<String, Object>(world.getS2CellsTTL()));
+    Map<String, Object> locations = newHashMap(world.getLocations().size());
+    for (Map.Entry<String, SpawnLocation> entry : world.getLocations().entrySet()) {
+      locations.put(entry.getKey(),
+          encodeSpawnLocation(entry.getValue(), world.getSpawnSeed()));
+    }
+    data.put("locations", locations);
+    data.put("currentServerTime", world.getCurrentServerTime());
+    encodeVersioning(world, data);
+    return data;
+  }
+
+  /**
+   * Encodes a world into compact document data, with one blob per S2 cell.
+   * @param world the world data
+   * @return a map ready to be written to Firestore
+   */
+  public static Map<String, Object> encodeCompact(WorldData world) {
+    Map<Long, List<SpawnLocation>> byCell = new HashMap<>();
+    for (SpawnLocation location : world.getLocations().values()) {
+      byCell.computeIfAbsent(SpawnLocationCellCodec.parseCellId(location.getS2CellId()),
+          k -> new ArrayList<>()).add(location);
+    }
+    Map<String, Object> cells = newHashMap(byCell.size());
+    for (Map.Entry<Long, List<SpawnLocation>> entry : byCell.entrySet()) {
+      cells.put(Long.toUnsignedString(entry.getKey()),
+          Blob.fromBytes(SpawnLocationCellCodec.encode(entry.getKey(), entry.getValue(),
+              world.getSpawnSeed())));
+    }
+    Map<String, Object> data = new HashMap<>(16);
+    data.put("s2CellsTTL", new HashMap<String, Object>(world.getS2CellsTTL()));
+    data.put("cells", cells);
+    data.put("currentServerTime", world.getCurrentServerTime());
+    encodeVersioning(world, data);
+    return data;
+  }
+
+  /**
+   * Encodes the per-player overlay of a world built from shared cell layers. Locations are not
+   * stored, only the respawn times that haven't passed yet.
+   * @param world the world data
+   * @return a map ready to be written to Firestore
+   */
+  public static Map<String, Object> encodeOverlay(WorldData world) {
+    long now = System.currentTimeMillis();
+    Map<String, Object> overlay = new HashMap<>();
+    for (SpawnLocation location : world.getLocations().values()) {
+      if (location.getRespawnAt() > now) {
+        overlay.put(location.getLocationId(), location.getRespawnAt());
+      }
+    }
+    Map<String, Object> data = new HashMap<>(16);
+    data.put("s2CellsTTL", new HashMap<String, Object>(world.getS2CellsTTL()));
+    data.put("overlay", overlay);
+    data.put("currentServerTime", world.getCurrentServerTime());
+    encodeVersioning(world, data);
+    return data;
+  }
+
+  /**
+   * Decodes the respawn times of a world overlay.
+   * @param data the document data
+   * @return the respawn times in epoch millis keyed by location id, empty if the document
+   * isn't an overlay
+   */
+  public static Map<String, Long> decodeOverlay(Map<String, Object> data) {
+    Object overlay = data.get("overlay");
+    if (overlay == null) {
+      return new HashMap<>();
+    }
+    Map<String, Object> values = asMap(overlay);
+    HashMap<String, Long> respawns = newHashMap(values.size());
+    for (Map.Entry<String, Object> entry : values.entrySet()) {
+      respawns.put(entry.getKey(), asLong(entry.getValue()));
+    }
+    return respawns;
+  }
+
+  /**
+   * Checks if document data holds a world overlay rather than a whole world.
+   * @param data the document data
+   * @return true for overlays
+   */
+  public static boolean isOverlay(Map<String, Object> data) {
+    return data.containsKey("overlay");
+  }
+
+  /**
+   * Helper function that adds the schema version, spawn seed, retention data, world version and
+   * change log.
+   */
+  private static void encodeVersioning(WorldData world, Map<String, Object> data) {
+    data.put(DocumentMigrator.VERSION_FIELD, MIGRATOR.getCurrentVersion());
+    data.put("spawnSeed", world.getSpawnSeed());
+    data.put("cellVisits", new HashMap<String, Object>(world.getCellVisits()));
+    List<Map<String, Object>> positions = new ArrayList<>(world.getRecentPositions().size());
+    for (LatLng position : world.getRecentPositions()) {
+      positions.add(fromLatLng(position));
+    }
+    data.put("recentPositions", positions);
+    data.put("version", world.getVersion());
+    data.put("changeLogStart", world.getChangeLogStart());
+    List<Map<String, Object>> changes = new ArrayList<>(world.getChanges().size());
+    for (WorldChange change : world.getChanges()) {
+      Map<String, Object> value = new HashMap<>(4);
+      value.put("version", change.getVersion());
+      value.put("locationId", change.getLocationId());
+      value.put("type", change.getType().name());
+      changes.add(value);
+    }
+    data.put("changes", changes);
+  }
+
+  /**
+   * Encodes a single spawn location.
+   * @param location the spawn location
+   * @param seed the seed of the world it belongs to, 0 to store all of its metadata
+   * @return the spawn location map
+   */
+  public static Map<String, Object> encodeSpawnLocation(SpawnLocation location, long seed) {
+    Map<String, Object> data = new HashMap<>(16);
+    data.put("locationId", location.getLocationId());
+    if (seed == 0 || !SpawnGenerator.isGenerated(location, seed)) {
+      data.put("objectTypeId", fromItemId(location.getObjectTypeId()));
+      data.put("respawns", location.getRespawns());
+      data.put("numberOfKeysToActivate", location.getNumberOfKeysToActivate());
+      data.put("keyTypeId", fromItemId(location.getKeyTypeId()));
+    }
+    if (location.getRespawnAt() != 0) {
+      data.put("respawnAt", location.getRespawnAt());
+    }
+    data.put("snappedPoint", fromLatLng(location.getSnappedPoint()));
+    data.put("s2CellId", location.getS2CellId());
+    return data;
+  }
+}
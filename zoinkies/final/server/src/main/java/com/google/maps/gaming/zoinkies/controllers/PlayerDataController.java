@@ -15,7 +15,10 @@
  */
 package com.google.maps.gaming.zoinkies.controllers;
 
+import com.google.maps.gaming.zoinkies.GameConstants;
+import com.google.maps.gaming.zoinkies.services.ActionService;
 import com.google.maps.gaming.zoinkies.services.GameService;
+import com.google.maps.gaming.zoinkies.services.LogService;
 import com.google.maps.gaming.zoinkies.services.PlayerService;
 import com.google.maps.gaming.zoinkies.models.PlayerData;
 import java.util.concurrent.ExecutionException;
@@ -47,6 +50,18 @@ public class PlayerDataController {
   @Autowired
   private GameService gameService;
 
+  /**
+   * A reference to the action service, running the updates of a device one at a time
+   */
+  @Autowired
+  private ActionService actionService;
+
+  /**
+   * A reference to the log service, reporting unexpected failures
+   */
+  @Autowired
+  private LogService logService;
+
   /**
    * Returns the data associated to the player identified by the given user id.
    * @param id
@@ -63,7 +78,7 @@ public class PlayerDataController {
     try {
       data = playerService.getPlayerData(id);
     } catch (Exception e) {
-      e.printStackTrace();
+      logService.error("users.read.failed", e, "deviceId", id);
       return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
     }
     if (data == null) {
@@ -90,40 +105,58 @@ public class PlayerDataController {
     // Inventory remains as is
     // We also check that items assignments are valid
     // and revert to current value if not
+    PlayerData updated;
     try {
-      if (playerData == null) {
-        playerData = gameService.createNewUser();
-      } else {
-        PlayerData current = playerService.getPlayerData(id);
-        if (current != null) {
-          playerData.setInventory(current.getInventory());
-          if (playerData.getEquippedBodyArmor() != null
-              && !playerData.hasInventoryItem(playerData.getEquippedBodyArmor())) {
-            playerData.setEquippedBodyArmor(current.getEquippedBodyArmor());
-          }
-          if (playerData.getEquippedHelmet() != null
-              && !playerData.hasInventoryItem(playerData.getEquippedHelmet())) {
-            playerData.setEquippedHelmet(current.getEquippedHelmet());
-          }
-          if (playerData.getEquippedShield() != null
-              && !playerData.hasInventoryItem(playerData.getEquippedShield())) {
-            playerData.setEquippedShield(current.getEquippedShield());
-          }
-          if (playerData.getEquippedWeapon() != null
-              && !playerData.hasInventoryItem(playerData.getEquippedWeapon())) {
-            playerData.setEquippedWeapon(current.getEquippedWeapon());
-          }
-        }
-      }
-      playerData = playerService.updatePlayerData(id, playerData);
+      updated = actionService.execute(id, () -> updateUser(id, playerData));
     } catch (ExecutionException e) {
-      e.printStackTrace();
+      logService.error("users.update.failed", e, "deviceId", id);
       return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
     } catch (Exception e) {
-      e.printStackTrace();
+      logService.error("users.update.failed", e, "deviceId", id);
       return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
     }
-    return ResponseEntity.ok(playerData);
+    return ResponseEntity.ok(updated);
+  }
+
+  /**
+   * Helper function that creates or updates a player data record.
+   */
+  private PlayerData updateUser(String id, PlayerData playerData)
+      throws Exception {
+    if (playerData == null) {
+      playerData = gameService.createNewUser();
+    } else {
+      PlayerData current = playerService.getPlayerData(id);
+      if (current == null) {
+        playerData.setEnergyRegenMillis(GameConstants.DEFAULT_PLAYER_ENERGY_REGEN_MILLIS);
+      } else {
+        // Energy regenerates on the server, clients only get to change the level. A level
+        // sent back unchanged keeps the regeneration going.
+        long now = System.currentTimeMillis();
+        int energyLevel = playerData.getEnergyLevel(now);
+        playerData.setEnergyRegenMillis(current.getEnergyRegenMillis());
+        playerData.setEnergy(current.getStoredEnergyLevel(), current.getEnergyUpdatedAt());
+        playerData.addEnergy(energyLevel - playerData.getEnergyLevel(now), now);
+        playerData.setInventory(current.getInventory());
+        if (playerData.getEquippedBodyArmor() != null
+            && !playerData.hasInventoryItem(playerData.getEquippedBodyArmor())) {
+          playerData.setEquippedBodyArmor(current.getEquippedBodyArmor());
+        }
+        if (playerData.getEquippedHelmet() != null
+            && !playerData.hasInventoryItem(playerData.getEquippedHelmet())) {
+          playerData.setEquippedHelmet(current.getEquippedHelmet());
+        }
+        if (playerData.getEquippedShield() != null
+            && !playerData.hasInventoryItem(playerData.getEquippedShield())) {
+          playerData.setEquippedShield(current.getEquippedShield());
+        }
+        if (playerData.getEquippedWeapon() != null
+            && !playerData.hasInventoryItem(playerData.getEquippedWeapon())) {
+          playerData.setEquippedWeapon(current.getEquippedWeapon());
+        }
+      }
+    }
+    return playerService.updatePlayerData(id, playerData);
   }
 
   /**
@@ -137,7 +170,12 @@ public class PlayerDataController {
     if (id == null || id.isEmpty()) {
       return ResponseEntity.badRequest().build();
     }
-    playerService.removeUserData(id);
+    try {
+      playerService.removeUserData(id);
+    } catch (Exception e) {
+      logService.error("users.delete.failed", e, "deviceId", id);
+      return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+    }
     return new ResponseEntity<>(id, HttpStatus.OK);
   }
 }
\ No newline at end of file
@@ -15,20 +15,50 @@
  */
 package com.google.maps.gaming.zoinkies.controllers;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.maps.gaming.zoinkies.services.GameService;
+import com.google.maps.gaming.zoinkies.services.LogService;
 import com.google.maps.gaming.zoinkies.models.ReferenceData;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RestController;
 
 /**
  * This class handles all endpoints for reference data.
+ *
+ * Reference data only changes on deploys and reloads, so its payload is rendered once per
+ * version, in plain and gzip-compressed json, and served as bytes. Clients revalidate
+ * GET /references with If-None-Match, and can cache GET /references/{hash} for good.
  */
 @RestController
 public class ReferenceDataController {
 
+  /**
+   * How long a version named by its hash can be cached
+   */
+  private static final long IMMUTABLE_MAX_AGE_DAYS = 365;
+
+  /**
+   * Cache-Control of GET /references, cacheable but revalidated on each use
+   */
+  private static final String REVALIDATED_CACHE_CONTROL = CacheControl.noCache().getHeaderValue();
+
+  /**
+   * Cache-Control of a version named by its hash. Spring's CacheControl has no immutable
+   * directive, so it is appended here.
+   */
+  private static final String IMMUTABLE_CACHE_CONTROL = CacheControl
+      .maxAge(IMMUTABLE_MAX_AGE_DAYS, TimeUnit.DAYS).cachePublic().getHeaderValue() + ", immutable";
+
   /**
    * A reference to the game service
    */
@@ -36,15 +66,131 @@ public class ReferenceDataController {
   private GameService gameService;
 
   /**
-   * Returns the references described under resources
+   * The mapper used for json responses
+   */
+  @Autowired
+  private ObjectMapper objectMapper;
+
+  /**
+   * A reference to the log service, reporting unexpected failures
+   */
+  @Autowired
+  private LogService logService;
+
+  /**
+   * The payload of the current version, rendered on first use
+   */
+  private volatile RenderedReferences rendered;
+
+  /**
+   * Returns the references described under resources.
+   * The response is not modified if the client already has the current version.
+   *
+   * @param ifNoneMatch the entity tags the client has
+   * @param acceptEncoding the encodings the client supports
    * @return an updated reference data record
    */
   @GetMapping("/references")
-  public ResponseEntity<ReferenceData> getReferences() {
+  public ResponseEntity<byte[]> getReferences(
+      @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+      @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false)
+          String acceptEncoding) {
+    // Cacheable, but revalidated on each use since the version may change under this URL.
+    return respond(ifNoneMatch, acceptEncoding, null, REVALIDATED_CACHE_CONTROL);
+  }
+
+  /**
+   * Returns a version of the references named by its content hash, as given by the
+   * Content-Location of GET /references.
+   *
+   * @param hash the content hash
+   * @param ifNoneMatch the entity tags the client has
+   * @param acceptEncoding the encodings the client supports
+   * @return the reference data record, or 404 if it isn't the current version anymore
+   */
+  @GetMapping("/references/{hash}")
+  public ResponseEntity<byte[]> getReferencesVersion(@PathVariable("hash") String hash,
+      @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+      @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false)
+          String acceptEncoding) {
+    return respond(ifNoneMatch, acceptEncoding, hash, IMMUTABLE_CACHE_CONTROL);
+  }
+
+  /**
+   * Helper function that serves the rendered payload of the current version.
+   */
+  private ResponseEntity<byte[]> respond(String ifNoneMatch, String acceptEncoding,
+      String hash, String cacheControl) {
+    RenderedReferences payload;
+    try {
+      payload = getRendered();
+    } catch (IOException e) {
+      logService.error("references.render.failed", e);
+      return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+    }
+    if (payload == null) {
+      return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+    }
+    if (hash != null && !hash.equals(payload.getHash())) {
+      return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+    }
+    boolean gzipped = acceptsGzip(acceptEncoding);
+    if (payload.matches(ifNoneMatch)) {
+      return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+          .eTag(payload.getETag(gzipped))
+          .header(HttpHeaders.CACHE_CONTROL, cacheControl)
+          .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+          .build();
+    }
+    ResponseEntity.BodyBuilder builder = ResponseEntity.ok()
+        .contentType(MediaType.APPLICATION_JSON)
+        .eTag(payload.getETag(gzipped))
+        .header(HttpHeaders.CACHE_CONTROL, cacheControl)
+        .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+        .header("Content-Location", "/references/" + payload.getHash());
+    if (gzipped) {
+      builder.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+      return builder.body(payload.getGzip());
+    }
+    return builder.body(payload.getJson());
+  }
+
+  /**
+   * Helper function that returns the payload of the current reference data version, rendering
+   * it after a reload. Concurrent requests may render the same version twice, which is harmless.
+   */
+  private RenderedReferences getRendered() throws IOException {
     ReferenceData data = gameService.getReferenceData();
     if (data == null) {
-      return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+      return null;
+    }
+    RenderedReferences payload = rendered;
+    if (payload == null || !payload.isRenderedFrom(data)) {
+      payload = RenderedReferences.render(data, objectMapper);
+      rendered = payload;
+    }
+    return payload;
+  }
+
+  /**
+   * Helper function that checks if gzip is an accepted encoding.
+   */
+  private static boolean acceptsGzip(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parts = coding.trim().split(";");
+      if (parts[0].trim().equalsIgnoreCase("gzip")) {
+        for (int i = 1; i < parts.length; i++) {
+          String param = parts[i].trim().replace(" ", "");
+          if (param.equals("q=0") || param.matches("q=0\\.0*")) {
+            return false;
+          }
+        }
+        return true;
+      }
     }
-    return ResponseEntity.ok(data);
+    return false;
   }
 }
@@ -0,0 +1,143 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies.controllers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.maps.gaming.zoinkies.models.ReferenceData;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The GET /references payload of a reference data version, rendered once.
+ *
+ * The json is kept as is and gzip-compressed, along with a hash of its content. The hash names
+ * the version: it makes the strong ETag, and the URL under which the version can be cached for
+ * good.
+ */
+public final class RenderedReferences {
+
+  private final ReferenceData source;
+  private final byte[] json;
+  private final byte[] gzip;
+  private final String hash;
+
+  private RenderedReferences(ReferenceData source, byte[] json, byte[] gzip, String hash) {
+    this.source = source;
+    this.json = json;
+    this.gzip = gzip;
+    this.hash = hash;
+  }
+
+  /**
+   * Renders a reference data version.
+   *
+   * @param source the reference data
+   * @param objectMapper the mapper used for responses, so that the json is the same as before
+   * @return the rendered payload
+   * @throws IOException if the reference data can't be serialized
+   */
+  public static RenderedReferences render(ReferenceData source, ObjectMapper objectMapper)
+      throws IOException {
+    byte[] json = objectMapper.writeValueAsBytes(source);
+    ByteArrayOutputStream out = new ByteArrayOutputStream(json.length / 4);
+    try (GZIPOutputStream gzipStream = new GZIPOutputStream(out)) {
+      gzipStream.write(json);
+    }
+    byte[] digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256").digest(json);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    StringBuilder hash = new StringBuilder();
+    // 128 bits are plenty to tell versions apart.
+    for (int i = 0; i < 16; i++) {
+      hash.append(String.format("%02x", digest[i]));
+    }
+    return new RenderedReferences(source, json, out.toByteArray(), hash.toString());
+  }
+
+  /**
+   * Checks if this payload was rendered from the given version.
+   * @param referenceData the current reference data
+   * @return true if the payload is up to date
+   */
+  public boolean isRenderedFrom(ReferenceData referenceData) {
+    return source == referenceData;
+  }
+
+  /**
+   * Getter for the json payload
+   * @return the json bytes, not to be modified
+   */
+  public byte[] getJson() {
+    return json;
+  }
+
+  /**
+   * Getter for the gzip-compressed payload
+   * @return the gzip bytes, not to be modified
+   */
+  public byte[] getGzip() {
+    return gzip;
+  }
+
+  /**
+   * Getter for hash
+   * @return the hex content hash
+   */
+  public String getHash() {
+    return hash;
+  }
+
+  /**
+   * Returns the strong ETag of a representation. Both encodings share the hash, but get
+   * different tags as their bytes differ.
+   *
+   * @param gzipped true for the gzip-compressed representation
+   * @return the quoted entity tag
+   */
+  public String getETag(boolean gzipped) {
+    return "\"" + hash + (gzipped ? "-gzip\"" : "\"");
+  }
+
+  /**
+   * Checks an If-None-Match header against this version, whatever the encoding the client
+   * cached.
+   *
+   * @param ifNoneMatch the header value, may be null
+   * @return true if the client already has this version
+   */
+  public boolean matches(String ifNoneMatch) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    for (String tag : ifNoneMatch.split(",")) {
+      tag = tag.trim();
+      if (tag.startsWith("W/")) {
+        // If-None-Match uses the weak comparison.
+        tag = tag.substring(2);
+      }
+      if (tag.equals("*") || tag.equals(getETag(false)) || tag.equals(getETag(true))) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
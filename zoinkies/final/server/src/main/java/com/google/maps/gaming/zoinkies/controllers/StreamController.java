@@ -0,0 +1,84 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies.controllers;
+
+import com.google.maps.gaming.zoinkies.models.WorldData;
+import com.google.maps.gaming.zoinkies.services.LogService;
+import com.google.maps.gaming.zoinkies.services.StreamService;
+import com.google.maps.gaming.zoinkies.services.WorldService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * This class handles the Server-Sent Events endpoint pushing updates to connected clients.
+ */
+@RestController
+public class StreamController {
+
+  /**
+   * A reference to the stream service
+   */
+  @Autowired
+  private StreamService streamService;
+
+  /**
+   * A reference to the world service
+   */
+  @Autowired
+  private WorldService worldService;
+
+  /**
+   * A reference to the log service, reporting unexpected failures
+   */
+  @Autowired
+  private LogService logService;
+
+  /**
+   * Opens an event stream carrying the world, respawn and player updates of the given device.
+   * Opening a new stream closes the previous one of the same device.
+   *
+   * @param id The User Id
+   * @return The event stream. Returns 503 if this instance can't take more connections.
+   */
+  @GetMapping(path = "/stream/{id}", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  public ResponseEntity<SseEmitter> getStream(@PathVariable("id") String id) {
+    // The provided Id must be valid
+    if (id == null || id.isEmpty()) {
+      return ResponseEntity.badRequest().build();
+    }
+    if (!streamService.isEnabled()) {
+      return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+    }
+    WorldData data;
+    try {
+      data = worldService.getWorldData(id);
+    } catch (Exception e) {
+      logService.error("stream.open.failed", e, "deviceId", id);
+      return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+    }
+    SseEmitter emitter = streamService.open(id, data);
+    if (emitter == null) {
+      return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+    }
+    return ResponseEntity.ok(emitter);
+  }
+}
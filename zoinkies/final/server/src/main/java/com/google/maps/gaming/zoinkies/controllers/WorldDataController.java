@@ -16,8 +16,14 @@
 
 package com.google.maps.gaming.zoinkies.controllers;
 
+import com.google.maps.gaming.zoinkies.services.ActionService;
 import com.google.maps.gaming.zoinkies.services.GameService;
+import com.google.maps.gaming.zoinkies.services.IdempotencyService;
+import com.google.maps.gaming.zoinkies.services.LogService;
 import com.google.maps.gaming.zoinkies.services.WorldService;
+import com.google.maps.gaming.zoinkies.exceptions.InvalidBattleException;
+import com.google.maps.gaming.zoinkies.exceptions.LocationDisabledException;
+import com.google.maps.gaming.zoinkies.exceptions.LocationNotFoundException;
 import com.google.maps.gaming.zoinkies.exceptions.LocationStillRespawningException;
 import com.google.maps.gaming.zoinkies.exceptions.NotEnoughResourcesToUnlockException;
 import com.google.maps.gaming.zoinkies.models.BattleData;
@@ -26,6 +32,7 @@ import com.google.maps.gaming.zoinkies.models.EnergyData;
 import com.google.maps.gaming.zoinkies.models.RewardsData;
 import com.google.maps.gaming.zoinkies.models.WorldData;
 import com.google.maps.gaming.zoinkies.models.WorldDataRequest;
+import com.google.maps.gaming.zoinkies.models.WorldDelta;
 import java.util.concurrent.ExecutionException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
@@ -35,6 +42,7 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
@@ -56,6 +64,24 @@ public class WorldDataController {
   @Autowired
   private GameService gameService;
 
+  /**
+   * A reference to the action service, running the updates of a device one at a time
+   */
+  @Autowired
+  private ActionService actionService;
+
+  /**
+   * A reference to the idempotency service, replaying the responses of retried actions
+   */
+  @Autowired
+  private IdempotencyService idempotencyService;
+
+  /**
+   * A reference to the log service, reporting unexpected failures
+   */
+  @Autowired
+  private LogService logService;
+
   /**
    * Returns the data associated to the player identified by the given id.
    * @param id The User Id
@@ -72,10 +98,10 @@ public class WorldDataController {
     try {
       data = worldService.getWorldData(id);
     } catch (ExecutionException e) {
-      e.printStackTrace();
+      logService.error("worlds.read.failed", e, "deviceId", id);
       return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
     } catch (InterruptedException e) {
-      e.printStackTrace();
+      logService.error("worlds.read.failed", e, "deviceId", id);
       return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
     }
     return ResponseEntity.ok(data);
@@ -88,7 +114,8 @@ public class WorldDataController {
    *
    * @param id The User Id
    * @param locationId The location Id
-   * @return The Battle Data
+   * @return The Battle Data, 204 if the battle can't start yet, or 404 if the location doesn't
+   * exist
    */
   @PostMapping(path = "/battle/{id}/{locationId}", produces = "application/json")
   public ResponseEntity<BattleData> postBattle(@PathVariable("id") String id,
@@ -99,15 +126,17 @@ public class WorldDataController {
     }
     BattleData data;
     try {
-      data = gameService.getBattleData(id,locationId);
+      data = actionService.execute(id, () -> gameService.getBattleData(id, locationId));
     } catch (NotEnoughResourcesToUnlockException e) {
-      e.printStackTrace();
       return ResponseEntity.status(HttpStatus.NO_CONTENT).build();
     } catch (LocationStillRespawningException e) {
-      e.printStackTrace();
       return ResponseEntity.status(HttpStatus.NO_CONTENT).build();
+    } catch (LocationDisabledException e) {
+      return ResponseEntity.status(HttpStatus.GONE).build();
+    } catch (LocationNotFoundException e) {
+      return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
     } catch (Exception e) {
-      e.printStackTrace();
+      logService.error("battle.failed", e, "deviceId", id, "locationId", locationId);
       return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
     }
     return ResponseEntity.ok(data);
@@ -121,24 +150,45 @@ public class WorldDataController {
    * @param id The User Id
    * @param locationId The Location Id
    * @param winner Winner information: 1-Player wins 0-NPC wins
+   * @param idempotencyKey optional, a retry with the same key gets the first response
    * @return A Battle Summary Data with the rewards/penalties for winning/losing.
+   * Returns 409 if no battle is in progress at this location, or if it ended too quickly, and
+   * 404 if the location doesn't exist.
    */
   @PostMapping(path = "/battlesummary/{id}/{locationId}", produces = "application/json")
   public ResponseEntity<BattleSummaryData> postBattleSummary(@PathVariable("id") String id,
       @PathVariable("locationId") String locationId,
-      @RequestParam(name = "winner") String winner) {
+      @RequestParam(name = "winner") String winner,
+      @RequestHeader(name = IdempotencyService.HEADER, required = false)
+      String idempotencyKey) {
     // The provided Id must be valid
     if (id == null || id.isEmpty() || locationId == null || locationId.isEmpty()) {
       return ResponseEntity.badRequest().build();
     }
+    return idempotencyService.execute(id, idempotencyKey,
+        "battlesummary/" + locationId + "?winner=" + winner,
+        () -> summarizeBattle(id, locationId, winner));
+  }
+
+  /**
+   * Helper function that ends a battle and builds the response.
+   */
+  private ResponseEntity<BattleSummaryData> summarizeBattle(String id, String locationId,
+      String winner) {
     BattleSummaryData data;
     try {
-      data = gameService.getBattleSummaryData(id,locationId,Boolean.parseBoolean(winner));
+      data = actionService.execute(id,
+          () -> gameService.getBattleSummaryData(id, locationId, Boolean.parseBoolean(winner)));
     }catch (LocationStillRespawningException e) {
-      e.printStackTrace();
       return ResponseEntity.status(HttpStatus.NO_CONTENT).build();
+    } catch (InvalidBattleException e) {
+      return ResponseEntity.status(HttpStatus.CONFLICT).build();
+    } catch (LocationDisabledException e) {
+      return ResponseEntity.status(HttpStatus.GONE).build();
+    } catch (LocationNotFoundException e) {
+      return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
     } catch (Exception e) {
-      e.printStackTrace();
+      logService.error("battlesummary.failed", e, "deviceId", id, "locationId", locationId);
       return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
     }
     return ResponseEntity.ok(data);
@@ -149,24 +199,38 @@ public class WorldDataController {
    * and puts the station in respawning state.
    * @param id the user id
    * @param locationId the location id of the energy station
+   * @param idempotencyKey optional, a retry with the same key gets the first response
    * @return EnergyData that indicates how much energy is restored.
-   * Returns 204 if the station is inactive or respawning.
+   * Returns 204 if the station is inactive or respawning, or 404 if it doesn't exist.
    */
   @PostMapping(path = "/energystation/{id}/{locationId}", produces = "application/json")
   public ResponseEntity<EnergyData> postEnergyRestore(@PathVariable("id") String id,
-      @PathVariable("locationId") String locationId) {
+      @PathVariable("locationId") String locationId,
+      @RequestHeader(name = IdempotencyService.HEADER, required = false)
+      String idempotencyKey) {
     // The provided Id must be valid
     if (id == null || id.isEmpty() || locationId == null || locationId.isEmpty()) {
       return ResponseEntity.badRequest().build();
     }
+    return idempotencyService.execute(id, idempotencyKey, "energystation/" + locationId,
+        () -> restoreEnergy(id, locationId));
+  }
+
+  /**
+   * Helper function that restores energy and builds the response.
+   */
+  private ResponseEntity<EnergyData> restoreEnergy(String id, String locationId) {
     EnergyData data;
     try {
-      data = gameService.getEnergyStationData(id,locationId);
+      data = actionService.execute(id, () -> gameService.getEnergyStationData(id, locationId));
     } catch (LocationStillRespawningException e) {
-      e.printStackTrace();
       return ResponseEntity.status(HttpStatus.NO_CONTENT).build();
+    } catch (LocationDisabledException e) {
+      return ResponseEntity.status(HttpStatus.GONE).build();
+    } catch (LocationNotFoundException e) {
+      return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
     } catch (Exception e) {
-      e.printStackTrace();
+      logService.error("energystation.failed", e, "deviceId", id, "locationId", locationId);
       return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
     }
     return ResponseEntity.ok(data);
@@ -178,26 +242,39 @@ public class WorldDataController {
    *
    * @param id the user id
    * @param locationId the location id of the chest
-   * @return A Rewards Data
+   * @param idempotencyKey optional, a retry with the same key gets the first response
+   * @return A Rewards Data, 204 if the chest can't be opened yet, or 404 if it doesn't exist
    */
   @PostMapping(path = "/chests/{id}/{locationId}", produces = "application/json")
   public ResponseEntity<RewardsData> postChestRewards(@PathVariable("id") String id,
-      @PathVariable("locationId") String locationId) {
+      @PathVariable("locationId") String locationId,
+      @RequestHeader(name = IdempotencyService.HEADER, required = false)
+      String idempotencyKey) {
     // The provided Id must be valid
     if (id == null || id.isEmpty() || locationId == null || locationId.isEmpty()) {
       return ResponseEntity.badRequest().build();
     }
+    return idempotencyService.execute(id, idempotencyKey, "chests/" + locationId,
+        () -> openChest(id, locationId));
+  }
+
+  /**
+   * Helper function that opens a chest and builds the response.
+   */
+  private ResponseEntity<RewardsData> openChest(String id, String locationId) {
     RewardsData data = null;
     try {
-      data = gameService.getChestRewards(id,locationId);
+      data = actionService.execute(id, () -> gameService.getChestRewards(id, locationId));
     } catch (NotEnoughResourcesToUnlockException e) {
-      e.printStackTrace();
       return ResponseEntity.status(HttpStatus.NO_CONTENT).build();
     } catch (LocationStillRespawningException e) {
-      e.printStackTrace();
       return ResponseEntity.status(HttpStatus.NO_CONTENT).build();
+    } catch (LocationDisabledException e) {
+      return ResponseEntity.status(HttpStatus.GONE).build();
+    } catch (LocationNotFoundException e) {
+      return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
     } catch (Exception e) {
-      e.printStackTrace();
+      logService.error("chests.failed", e, "deviceId", id, "locationId", locationId);
       return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
     }
     return ResponseEntity.ok(data);
@@ -217,13 +294,46 @@ public class WorldDataController {
     }
     WorldData data = null;
     try {
-      data = worldService.getSpawnLocations(id,worldDataRequest);
+      data = actionService.execute(id,
+          () -> worldService.getSpawnLocations(id, worldDataRequest));
     } catch (Exception e) {
-      e.printStackTrace();
+      logService.error("worlds.update.failed", e, "deviceId", id);
       return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
     }
     return ResponseEntity.ok(data);
   }
+
+  /**
+   * Same as POST /worlds/{id}, but only returns the spawn locations added, changed or removed
+   * since the world version known by the client, over the whole world.
+   * When that version is too old, the response is a full snapshot with reset set.
+   * @param id the user id
+   * @param since the last world version received by the client, 0 if none
+   * @return A World Delta, or 304 if nothing changed
+   */
+  @PostMapping(path = "/worlds/{id}/changes", consumes = "application/json",
+      produces = "application/json")
+  public ResponseEntity<WorldDelta> getSpawnLocationChanges(@PathVariable("id") String id,
+      @RequestParam(name = "since", defaultValue = "0") long since,
+      @RequestBody WorldDataRequest worldDataRequest) {
+    // The provided Id must be valid
+    if (id == null || id.isEmpty()) {
+      return ResponseEntity.badRequest().build();
+    }
+    WorldDelta delta;
+    try {
+      delta = actionService.execute(id,
+          () -> worldService.getSpawnLocationChanges(id, worldDataRequest, since));
+    } catch (Exception e) {
+      logService.error("worlds.changes.failed", e, "deviceId", id);
+      return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+    }
+    if (delta == null) {
+      return ResponseEntity.status(HttpStatus.NOT_MODIFIED).build();
+    }
+    return ResponseEntity.ok(delta);
+  }
+
   /**
    * Deletes everything recorded for the world data associated with the given id.
    * @param id Generated Device Id identifying the player
@@ -235,7 +345,12 @@ public class WorldDataController {
     if (id == null || id.isEmpty()) {
       return ResponseEntity.badRequest().build();
     }
-    worldService.removeWorldData(id);
+    try {
+      worldService.removeWorldData(id);
+    } catch (Exception e) {
+      logService.error("worlds.delete.failed", e, "deviceId", id);
+      return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+    }
     return new ResponseEntity<>(id, HttpStatus.OK);
   }
 }
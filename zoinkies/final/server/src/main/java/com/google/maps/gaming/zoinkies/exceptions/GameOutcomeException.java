@@ -0,0 +1,31 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies.exceptions;
+
+/**
+ * Base class of the exceptions standing for normal gameplay outcomes, such as a chest still
+ * respawning. They are mapped to http statuses in data controllers.
+ *
+ * Players tap the same location over and over, so these are thrown all the time: they don't
+ * capture a stack trace, which would be most of their cost and is never looked at.
+ */
+public abstract class GameOutcomeException extends RuntimeException {
+  private static final long serialVersionUID = 1L;
+
+  protected GameOutcomeException(String errorMessage) {
+    super(errorMessage, null, false, false);
+  }
+}
@@ -0,0 +1,28 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies.exceptions;
+
+/**
+ * Specific Exception used when a battle summary doesn't match a battle in progress.
+ * This runtime exception is mapped to http statuses in data controllers.
+ */
+public class InvalidBattleException extends GameOutcomeException {
+  private static final long serialVersionUID = 1L;
+
+  public InvalidBattleException(String errorMessage) {
+    super(errorMessage);
+  }
+}
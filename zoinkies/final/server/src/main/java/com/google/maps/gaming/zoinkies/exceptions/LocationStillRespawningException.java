@@ -19,7 +19,9 @@ package com.google.maps.gaming.zoinkies.exceptions;
  * Specific Exception used when locations are still respawning.
  * This runtime exception is mapped to http statuses in data controllers.
  */
-public class LocationStillRespawningException  extends RuntimeException {
+public class LocationStillRespawningException extends GameOutcomeException {
+  private static final long serialVersionUID = 1L;
+
   public LocationStillRespawningException(String errorMessage) {
     super(errorMessage);
   }
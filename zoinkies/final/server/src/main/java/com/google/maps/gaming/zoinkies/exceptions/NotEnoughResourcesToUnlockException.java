@@ -20,7 +20,9 @@ package com.google.maps.gaming.zoinkies.exceptions;
  * to unlock location.
  * This runtime exception is mapped to http statuses in data controllers.
  */
-public class NotEnoughResourcesToUnlockException extends RuntimeException {
+public class NotEnoughResourcesToUnlockException extends GameOutcomeException {
+    private static final long serialVersionUID = 1L;
+
     public NotEnoughResourcesToUnlockException(String errorMessage) {
       super(errorMessage);
     }
@@ -0,0 +1,255 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies.logging;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes log records as one JSON object per line, from a background thread.
+ *
+ * Callers only queue a record: formatting, stack traces included, and console I/O happen on the
+ * writer thread, so that a burst of failures doesn't stall request threads on a lock around the
+ * output stream. The queue is bounded: when it is full, records are dropped and counted rather
+ * than blocking the caller.
+ */
+public class AsyncLogger {
+
+  /**
+   * A queued record.
+   */
+  private static class Record {
+    private final long timestamp;
+    private final String level;
+    private final String event;
+    private final String thread;
+    private final Throwable error;
+    private final String[] fields;
+
+    private Record(String level, String event, Throwable error, String[] fields) {
+      this.timestamp = System.currentTimeMillis();
+      this.level = level;
+      this.event = event;
+      this.thread = Thread.currentThread().getName();
+      this.error = error;
+      this.fields = fields;
+    }
+  }
+
+  private static final Record STOP = new Record("STOP", "", null, new String[0]);
+
+  private final ArrayBlockingQueue<Record> queue;
+  private final PrintStream out;
+  private final Thread writer;
+
+  private final AtomicLong written = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+
+  /**
+   * Creates a logger and starts its writer thread.
+   *
+   * @param name names the writer thread
+   * @param capacity the maximum amount of records waiting to be written
+   * @param out where the records are written
+   */
+  public AsyncLogger(String name, int capacity, PrintStream out) {
+    this.queue = new ArrayBlockingQueue<>(capacity);
+    this.out = out;
+    writer = new Thread(this::run, name);
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * Queues an error.
+   *
+   * @param event a short name for what failed, such as "chests.failed"
+   * @param error the cause, or null
+   * @param fields alternating names and values giving context, such as the device id
+   */
+  public void error(String event, Throwable error, String... fields) {
+    offer(new Record("ERROR", event, error, fields));
+  }
+
+  /**
+   * Queues a warning.
+   *
+   * @param event a short name for what happened
+   * @param fields alternating names and values giving context
+   */
+  public void warn(String event, String... fields) {
+    offer(new Record("WARN", event, null, fields));
+  }
+
+  /**
+   * Queues an informational record.
+   *
+   * @param event a short name for what happened
+   * @param fields alternating names and values giving context
+   */
+  public void info(String event, String... fields) {
+    offer(new Record("INFO", event, null, fields));
+  }
+
+  /**
+   * Writes the records still queued, and stops the writer thread.
+   *
+   * @param timeoutMillis how long to wait for the queue to drain
+   */
+  public void close(long timeoutMillis) {
+    try {
+      if (queue.offer(STOP, timeoutMillis, TimeUnit.MILLISECONDS)) {
+        writer.join(timeoutMillis);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  public long getWritten() {
+    return written.get();
+  }
+
+  public long getDropped() {
+    return dropped.get();
+  }
+
+  /**
+   * Formats a record as a JSON line.
+   *
+   * @param timestamp when the record was queued, in epoch millis
+   * @param level the level
+   * @param event the event name
+   * @param thread the thread that queued the record
+   * @param error the cause, or null
+   * @param fields alternating names and values
+   * @return the line, without the line separator
+   */
+  static String format(long timestamp, String level, String event, String thread,
+      Throwable error, String... fields) {
+    StringBuilder sb = new StringBuilder(256);
+    sb.append("{\"timestamp\":\"").append(Instant.ofEpochMilli(timestamp)).append('"');
+    appendField(sb, "level", level);
+    appendField(sb, "event", event);
+    appendField(sb, "thread", thread);
+    for (int i = 0; i + 1 < fields.length; i += 2) {
+      appendField(sb, fields[i], fields[i + 1]);
+    }
+    if (error != null) {
+      appendField(sb, "error", error.toString());
+      StringWriter stackTrace = new StringWriter();
+      error.printStackTrace(new PrintWriter(stackTrace));
+      appendField(sb, "stackTrace", stackTrace.toString());
+    }
+    return sb.append('}').toString();
+  }
+
+  /**
+   * Helper function that queues a record, or counts it as dropped if the queue is full.
+   */
+  private void offer(Record record) {
+    if (!queue.offer(record)) {
+      dropped.incrementAndGet();
+    }
+  }
+
+  /**
+   * Helper function that writes records until stopped.
+   */
+  private void run() {
+    try {
+      while (true) {
+        Record record = queue.take();
+        if (record == STOP) {
+          break;
+        }
+        write(record);
+        if (queue.isEmpty()) {
+          out.flush();
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    out.flush();
+  }
+
+  /**
+   * Helper function that writes a record. A record that can't be formatted is dropped.
+   */
+  private void write(Record record) {
+    try {
+      out.println(format(record.timestamp, record.level, record.event, record.thread,
+          record.error, record.fields));
+      written.incrementAndGet();
+    } catch (RuntimeException e) {
+      dropped.incrementAndGet();
+    }
+  }
+
+  /**
+   * Helper function that appends a JSON string field.
+   */
+  private static void appendField(StringBuilder sb, String name, String value) {
+    sb.append(",\"");
+    appendEscaped(sb, name);
+    sb.append("\":");
+    if (value == null) {
+      sb.append("null");
+      return;
+    }
+    sb.append('"');
+    appendEscaped(sb, value);
+    sb.append('"');
+  }
+
+  /**
+   * Helper function that escapes a string for JSON.
+   */
+  private static void appendEscaped(StringBuilder sb, String value) {
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"':
+          sb.append("\\\"");
+          break;
+        case '\\':
+          sb.append("\\\\");
+          break;
+        case '\n':
+          sb.append("\\n");
+          break;
+        case '\r':
+          sb.append("\\r");
+          break;
+        case '\t':
+          sb.append("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            sb.append(String.format("\\u%04x", (int) c));
+          } else {
+            sb.append(c);
+          }
+      }
+    }
+  }
+}
@@ -0,0 +1,244 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies.loot;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.maps.gaming.zoinkies.ITEMS;
+import com.google.maps.gaming.zoinkies.models.Item;
+import com.google.maps.gaming.zoinkies.models.LootRefItem;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A loot table compiled for sampling with Vose's alias method.
+ *
+ * The weights are spread over one column per entry, each column holding its own entry with some
+ * probability and an alias entry otherwise. A draw picks a column and a side with a single random
+ * double, so it takes constant time whatever the size of the table, and doesn't allocate.
+ * Quantities are drawn uniformly between the entry minimum and maximum, both included.
+ *
+ * Tables are validated when they are compiled, so that a broken data file fails at startup
+ * rather than in the middle of a battle. Compiled tables are immutable and thread safe.
+ */
+public final class LootTable {
+
+  /**
+   * How far the sum of the weights may be from 1
+   */
+  static final double WEIGHT_TOLERANCE = 1e-6;
+
+  private final String name;
+  private final ITEMS[] itemIds;
+  private final int[] minQuantities;
+
+  /**
+   * Amount of quantities above the minimum, 0 when the quantity is fixed
+   */
+  private final int[] quantitySpans;
+
+  /**
+   * Chance of each column to draw its own entry rather than its alias
+   */
+  private final double[] probabilities;
+  private final int[] aliases;
+
+  /**
+   * Chance of each entry, as given by the data file once normalized
+   */
+  private final double[] weights;
+
+  private LootTable(String name, int size) {
+    this.name = name;
+    itemIds = new ITEMS[size];
+    minQuantities = new int[size];
+    quantitySpans = new int[size];
+    probabilities = new double[size];
+    aliases = new int[size];
+    weights = new double[size];
+  }
+
+  /**
+   * Validates and compiles a loot table.
+   *
+   * @param name the table name, used in error messages
+   * @param entries the table entries, whose weights must add up to 1
+   * @return the compiled table
+   * @throws IllegalArgumentException if the table is empty, an entry is incomplete, has a
+   * weight that isn't strictly positive or an invalid quantity range, or the weights don't add
+   * up to 1
+   */
+  public static LootTable compile(String name, List<LootRefItem> entries) {
+    if (entries == null || entries.isEmpty()) {
+      throw new IllegalArgumentException("Loot table " + name + " is empty!");
+    }
+    int n = entries.size();
+    LootTable table = new LootTable(name, n);
+    double sum = 0;
+    for (int i = 0; i < n; i++) {
+      LootRefItem entry = entries.get(i);
+      if (entry == null || entry.getItemId() == null) {
+        throw new IllegalArgumentException("Loot table " + name + " entry " + i
+            + " has no item id!");
+      }
+      if (!(entry.getWeight() > 0) || Double.isInfinite(entry.getWeight())) {
+        throw new IllegalArgumentException("Loot table " + name + " entry " + entry.getItemId()
+            + " has an invalid weight " + entry.getWeight() + "!");
+      }
+      if (entry.getMinQuantity() < 1 || entry.getMaxQuantity() < entry.getMinQuantity()) {
+        throw new IllegalArgumentException("Loot table " + name + " entry " + entry.getItemId()
+            + " has an invalid quantity range " + entry.getMinQuantity() + ".."
+            + entry.getMaxQuantity() + "!");
+      }
+      table.itemIds[i] = entry.getItemId();
+      table.minQuantities[i] = entry.getMinQuantity();
+      table.quantitySpans[i] = entry.getMaxQuantity() - entry.getMinQuantity();
+      sum += entry.getWeight();
+    }
+    if (Math.abs(sum - 1) > WEIGHT_TOLERANCE) {
+      throw new IllegalArgumentException("The sum of all weights from loot table " + name
+          + " is " + sum + ", not 1!");
+    }
+
+    // Vose's alias method: pair each column under the average with one over it.
+    double[] scaled = new double[n];
+    ArrayDeque<Integer> small = new ArrayDeque<>();
+    ArrayDeque<Integer> large = new ArrayDeque<>();
+    for (int i = 0; i < n; i++) {
+      table.weights[i] = entries.get(i).getWeight() / sum;
+      scaled[i] = table.weights[i] * n;
+      (scaled[i] < 1 ? small : large).add(i);
+    }
+    while (!small.isEmpty() && !large.isEmpty()) {
+      int less = small.poll();
+      int more = large.poll();
+      table.probabilities[less] = scaled[less];
+      table.aliases[less] = more;
+      scaled[more] = (scaled[more] + scaled[less]) - 1;
+      (scaled[more] < 1 ? small : large).add(more);
+    }
+    // Whatever is left is full up to rounding errors.
+    while (!large.isEmpty()) {
+      int i = large.poll();
+      table.probabilities[i] = 1;
+      table.aliases[i] = i;
+    }
+    while (!small.isEmpty()) {
+      int i = small.poll();
+      table.probabilities[i] = 1;
+      table.aliases[i] = i;
+    }
+    return table;
+  }
+
+  /**
+   * Reads and compiles all the loot tables of a data file, shaped as
+   * {"lootTables": {"NAME": [{"itemId", "weight", "minQuantity", "maxQuantity"}, ...]}}.
+   *
+   * @param inputStream the data file
+   * @return the compiled tables by name, in file order
+   * @throws IOException if the file can't be read or parsed
+   * @throws IllegalArgumentException if a table is invalid, see {@link #compile}
+   */
+  public static Map<String, LootTable> load(InputStream inputStream) throws IOException {
+    Map<String, Map<String, List<LootRefItem>>> content = new ObjectMapper().readValue(
+        inputStream, new TypeReference<Map<String, Map<String, List<LootRefItem>>>>() {});
+    Map<String, List<LootRefItem>> tables = content.get("lootTables");
+    if (tables == null) {
+      throw new IllegalArgumentException("No lootTables found!");
+    }
+    Map<String, LootTable> compiled = new LinkedHashMap<>();
+    for (Map.Entry<String, List<LootRefItem>> entry : tables.entrySet()) {
+      compiled.put(entry.getKey(), compile(entry.getKey(), entry.getValue()));
+    }
+    return Collections.unmodifiableMap(compiled);
+  }
+
+  /**
+   * Draws an entry.
+   *
+   * @param random the source of randomness, usually ThreadLocalRandom.current()
+   * @return the index of the entry
+   */
+  public int sample(Random random) {
+    double u = random.nextDouble() * probabilities.length;
+    int column = (int) u;
+    return u - column < probabilities[column] ? column : aliases[column];
+  }
+
+  /**
+   * Draws the quantity awarded for an entry.
+   *
+   * @param entry the index of the entry
+   * @param random the source of randomness
+   * @return a quantity between the entry minimum and maximum, both included
+   */
+  public int sampleQuantity(int entry, Random random) {
+    int span = quantitySpans[entry];
+    return span == 0 ? minQuantities[entry] : minQuantities[entry] + random.nextInt(span + 1);
+  }
+
+  /**
+   * Draws an item along with its quantity.
+   *
+   * @param random the source of randomness
+   * @return A new item
+   */
+  public Item draw(Random random) {
+    int entry = sample(random);
+    return new Item(itemIds[entry], sampleQuantity(entry, random));
+  }
+
+  /**
+   * Getter for name
+   * @return the table name
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Getter for the amount of entries
+   * @return the amount of entries
+   */
+  public int size() {
+    return itemIds.length;
+  }
+
+  /**
+   * Getter for the item of an entry
+   * @param entry the index of the entry
+   * @return the item id
+   */
+  public ITEMS getItemId(int entry) {
+    return itemIds[entry];
+  }
+
+  /**
+   * Getter for the normalized weight of an entry
+   * @param entry the index of the entry
+   * @return the chance to draw the entry
+   */
+  public double getWeight(int entry) {
+    return weights[entry];
+  }
+}
@@ -76,8 +76,17 @@ public class Item {
     this.quantity = Quantity;
   }
 
+  /**
+   * Copy constructor
+   * @param other the item to copy
+   */
+  public Item(Item other) {
+    this.itemId = other.getItemId();
+    this.quantity = other.getQuantity();
+  }
+
   @Override
   public String toString() {
-    return "{Type: " + itemId + " Quantity: " + quantity + "}";
+    return "{Type: " + getItemId() + " Quantity: " + getQuantity() + "}";
   }
 }
@@ -103,6 +103,9 @@ public class LootRefItem {
     this.maxQuantity = maxQuantity;
   }
 
+  public LootRefItem() {
+  }
+
   public LootRefItem(
       ITEMS itemId,
       double weight,
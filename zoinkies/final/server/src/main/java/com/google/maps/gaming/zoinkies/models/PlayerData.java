@@ -15,10 +15,14 @@
  */
 package com.google.maps.gaming.zoinkies.models;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.google.maps.gaming.zoinkies.ITEMS;
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 /**
  * A POJO class used by the users REST API, and throughout the game logic, as it provides stats
@@ -152,24 +156,114 @@ public class PlayerData {
   }
 
   /**
-   * Avatar's current energy level
+   * Avatar's energy level as of energyUpdatedAt. Energy regenerates from there on without being
+   * written back: the current level is computed when it is read.
    */
   private int energyLevel;
 
+  /**
+   * When energyLevel was last set, in epoch millis
+   */
+  private long energyUpdatedAt;
+
+  /**
+   * Time it takes to regenerate one energy point, in millis. Zero disables regeneration.
+   */
+  private int energyRegenMillis;
+
   /**
    * Getter for energy level
-   * @return The energy level
+   * @return The current energy level, regeneration included
    */
   public int getEnergyLevel() {
-    return energyLevel;
+    return getEnergyLevel(System.currentTimeMillis());
   }
 
   /**
-   * Setter for energy level
+   * Computes the energy level at a given time. Regeneration stops at the maximum energy level,
+   * a level already above it is left alone.
+   * @param now The time in epoch millis
+   * @return The energy level at that time
+   */
+  public int getEnergyLevel(long now) {
+    if (energyRegenMillis <= 0 || energyLevel >= maxEnergyLevel || now <= energyUpdatedAt) {
+      return energyLevel;
+    }
+    long regenerated = (now - energyUpdatedAt) / energyRegenMillis;
+    return (int) Math.min(maxEnergyLevel, energyLevel + regenerated);
+  }
+
+  /**
+   * Setter for energy level, regeneration starts over from now.
    * @param energyLevel The energy level
    */
   public void setEnergyLevel(int energyLevel) {
+    setEnergy(energyLevel, System.currentTimeMillis());
+  }
+
+  /**
+   * Sets the energy level along with the time it was reached.
+   * @param energyLevel The energy level at that time
+   * @param energyUpdatedAt The time in epoch millis
+   */
+  public void setEnergy(int energyLevel, long energyUpdatedAt) {
     this.energyLevel = energyLevel;
+    this.energyUpdatedAt = energyUpdatedAt;
+  }
+
+  /**
+   * Spends or restores energy. The regeneration done so far is settled first, and the progress
+   * towards the next point is kept unless the player was or ends up at full energy.
+   * @param amount The amount of energy to add, negative to spend it
+   * @param now The time in epoch millis
+   * @return The amount actually added, once clamped between zero and the maximum energy level
+   */
+  public int addEnergy(int amount, long now) {
+    int current = getEnergyLevel(now);
+    int updated = Math.max(0, Math.min(maxEnergyLevel, current + amount));
+    long updatedAt = now;
+    if (energyRegenMillis > 0 && current < maxEnergyLevel && updated < maxEnergyLevel
+        && now > energyUpdatedAt) {
+      updatedAt = now - (now - energyUpdatedAt) % energyRegenMillis;
+    }
+    setEnergy(updated, updatedAt);
+    return updated - current;
+  }
+
+  /**
+   * Getter for the energy level stored along with energyUpdatedAt. Server side only.
+   * @return The energy level as of energyUpdatedAt
+   */
+  @JsonIgnore
+  public int getStoredEnergyLevel() {
+    return energyLevel;
+  }
+
+  /**
+   * Getter for energy updated at. Server side only, clients get the current energy level.
+   * @return When the energy level was last set, in epoch millis
+   */
+  @JsonIgnore
+  public long getEnergyUpdatedAt() {
+    return energyUpdatedAt;
+  }
+
+  /**
+   * Getter for energy regen millis. Server side only, clients can't pick their own pace.
+   * @return The time it takes to regenerate one energy point, in millis
+   */
+  @JsonIgnore
+  public int getEnergyRegenMillis() {
+    return energyRegenMillis;
+  }
+
+  /**
+   * Setter for energy regen millis
+   * @param energyRegenMillis The time it takes to regenerate one energy point, in millis
+   */
+  @JsonIgnore
+  public void setEnergyRegenMillis(int energyRegenMillis) {
+    this.energyRegenMillis = energyRegenMillis;
   }
 
   /**
@@ -214,30 +308,73 @@ public class PlayerData {
     this.characterType = CharacterType;
   }
 
+  private static final ITEMS[] ITEM_IDS = ITEMS.values();
+
+  /**
+   * Items Inventory, as the quantity held of each item by ITEMS ordinal.
+   * Null when the player has no inventory at all.
+   */
+  private int[] quantities;
+
   /**
-   * Items Inventory
+   * The stacks handed out by the inventory view, created on first use by ITEMS ordinal.
    */
-  private List<Item> inventory;
+  private InventoryStack[] stacks;
 
   /**
-   * Getter for inventory
+   * Getter for inventory.
+   * The inventory is exposed as a list of item stacks, one per item held, in ITEMS order.
+   * The list is a view: adding an item adds to its stack, and setting the quantity of a stack
+   * updates the inventory. The item of a stack can't be changed.
+   *
    * @return The player's inventory
    */
   public List<Item> getInventory() {
-    return this.inventory;
+    return quantities == null ? null : new InventoryView();
   }
 
   /**
    * Setter for inventory
-   * @param Inventory The player's inventory
+   * @param Inventory The player's inventory, stacks of the same item are merged
    */
   public void setInventory(List<Item> Inventory) {
-    this.inventory = Inventory;
+    if (Inventory == null) {
+      this.quantities = null;
+      return;
+    }
+    int[] quantities = new int[ITEM_IDS.length];
+    for (Item item : Inventory) {
+      if (item != null && item.getItemId() != null) {
+        quantities[item.getItemId().ordinal()] += item.getQuantity();
+      }
+    }
+    this.quantities = quantities;
   }
 
   public PlayerData() {
   }
 
+  /**
+   * Copy constructor - the inventory is deep copied.
+   * @param other the player data to copy
+   */
+  public PlayerData(PlayerData other) {
+    this.deviceId = other.deviceId;
+    this.name = other.name;
+    this.equippedWeapon = other.equippedWeapon;
+    this.equippedShield = other.equippedShield;
+    this.equippedHelmet = other.equippedHelmet;
+    this.equippedBodyArmor = other.equippedBodyArmor;
+    this.energyLevel = other.energyLevel;
+    this.energyUpdatedAt = other.energyUpdatedAt;
+    this.energyRegenMillis = other.energyRegenMillis;
+    this.maxEnergyLevel = other.maxEnergyLevel;
+    this.characterType = other.characterType;
+    if (other.quantities != null) {
+      this.quantities = other.quantities.clone();
+    }
+  }
+
   /**
    * Specialized constructor.
    *
@@ -255,8 +392,9 @@ public class PlayerData {
     this.name = name;
     this.characterType = CharacterType;
     this.energyLevel = EnergyLevel;
+    this.energyUpdatedAt = System.currentTimeMillis();
     this.maxEnergyLevel = MaxEnergyLevel;
-    this.inventory = Inventory;
+    setInventory(Inventory);
   }
 
   /**
@@ -274,8 +412,8 @@ public class PlayerData {
         .append("equippedWeapon:").append(this.equippedWeapon).append(", ").append("EnergyLevel:")
         .append(this.energyLevel).append(", ").append("MaxEnergyLevel:").append(this.maxEnergyLevel)
         .append(", ").append("Inventory=");
-    if (this.inventory != null) {
-      for (Item i : this.inventory) {
+    if (this.quantities != null) {
+      for (Item i : getInventory()) {
         sb.append(i.toString()).append(" \n");
       }
     } else {
@@ -286,22 +424,25 @@ public class PlayerData {
   }
 
   /**
-   * Returns all items of a given type
-   * @param type The type of item
-   * @return The inventory as a list of items
+   * Returns the quantity held of an item.
+   * @param itemId The item id
+   * @return The quantity, 0 if the item isn't in the inventory
    */
-  public List<Item> getInventoryItems(ITEMS type) {
-    List<Item> items = new ArrayList<>();
-    if (type == null) {
-      return items;
-    }
+  public int getInventoryQuantity(ITEMS itemId) {
+    return quantities == null || itemId == null ? 0 : quantities[itemId.ordinal()];
+  }
 
-    for (Item i:this.inventory) {
-      if (i.getItemId().equals(type)) {
-        items.add(i);
-      }
+  /**
+   * Adds to the quantity held of an item, creating the inventory if needed.
+   * @param itemId The item id
+   * @param quantity The quantity to add, negative to take away
+   * @return The new quantity
+   */
+  public int addInventoryQuantity(ITEMS itemId, int quantity) {
+    if (quantities == null) {
+      quantities = new int[ITEM_IDS.length];
     }
-    return items;
+    return quantities[itemId.ordinal()] += quantity;
   }
 
   /**
@@ -315,9 +456,7 @@ public class PlayerData {
     if (itemId == null) {
       throw new Exception("Invalid item id received!");
     }
-    // Search for the item
-    List<Item> items = getInventoryItems(itemId);
-    return (items.size()>0);
+    return getInventoryQuantity(itemId) > 0;
   }
 
   /**
@@ -338,16 +477,10 @@ public class PlayerData {
    * @throws Exception An exception is conditions aren't met
    */
   public void addInventoryItem(Item item) throws Exception {
-    if (item == null) {
+    if (item == null || item.getItemId() == null) {
       throw new Exception("Invalid item received!");
     }
-    // Search for the item
-    List<Item> items = getInventoryItems(item.getItemId());
-    if (items.size()>0) {
-      items.get(0).setQuantity(items.get(0).getQuantity()+item.getQuantity());
-    } else {
-      this.inventory.add(item);
-    }
+    addInventoryQuantity(item.getItemId(), item.getQuantity());
   }
 
   /**
@@ -357,16 +490,158 @@ public class PlayerData {
    * @throws Exception An exception is conditions aren't met
    */
   public void removeInventoryItem(Item item) throws Exception {
-    if (item == null) {
+    if (item == null || item.getItemId() == null) {
       throw new Exception("Invalid item received!");
     }
-    // Search for the item
-    List<Item> items = getInventoryItems(item.getItemId());
-    if (items.size()>0) {
-      if (items.get(0).getQuantity() < item.getQuantity()) {
-        throw new Exception("Not enough amount of " + items.get(0).getItemId() + " in inventory!");
+    int held = getInventoryQuantity(item.getItemId());
+    if (held > 0) {
+      if (held < item.getQuantity()) {
+        throw new Exception("Not enough amount of " + item.getItemId() + " in inventory!");
+      }
+      addInventoryQuantity(item.getItemId(), -item.getQuantity());
+    }
+  }
+
+  /**
+   * Helper function that returns the stack of an item, reused across calls.
+   */
+  private InventoryStack stackOf(int ordinal) {
+    if (stacks == null) {
+      stacks = new InventoryStack[ITEM_IDS.length];
+    }
+    InventoryStack stack = stacks[ordinal];
+    if (stack == null) {
+      stack = new InventoryStack(ITEM_IDS[ordinal]);
+      stacks[ordinal] = stack;
+    }
+    return stack;
+  }
+
+  /**
+   * Helper function that finds the first item held at or after the given ordinal.
+   * @return the item ordinal, or the amount of items if there is none
+   */
+  private int nextHeld(int ordinal) {
+    int[] quantities = this.quantities;
+    while (quantities != null && ordinal < quantities.length && quantities[ordinal] == 0) {
+      ordinal++;
+    }
+    return quantities == null ? ITEM_IDS.length : ordinal;
+  }
+
+  /**
+   * An inventory element, reading and writing its quantity in the inventory.
+   */
+  private class InventoryStack extends Item {
+
+    private InventoryStack(ITEMS itemId) {
+      super(itemId, 0);
+    }
+
+    @Override
+    public void setItemId(ITEMS itemId) {
+      throw new UnsupportedOperationException("The item of an inventory stack can't change");
+    }
+
+    @Override
+    public int getQuantity() {
+      return getInventoryQuantity(getItemId());
+    }
+
+    @Override
+    public void setQuantity(int quantity) {
+      addInventoryQuantity(getItemId(), quantity - getQuantity());
+    }
+  }
+
+  /**
+   * The list shape of the inventory, for json and documents.
+   */
+  private class InventoryView extends AbstractList<Item> {
+
+    @Override
+    public Item get(int index) {
+      for (int i = nextHeld(0), seen = 0; i < ITEM_IDS.length; i = nextHeld(i + 1)) {
+        if (seen++ == index) {
+          return stackOf(i);
+        }
+      }
+      throw new IndexOutOfBoundsException("Index: " + index);
+    }
+
+    /**
+     * Walks through the item ordinals once, instead of looking each element up again.
+     */
+    @Override
+    public Iterator<Item> iterator() {
+      return new Iterator<Item>() {
+        private int next = nextHeld(0);
+        private int last = -1;
+
+        @Override
+        public boolean hasNext() {
+          return next < ITEM_IDS.length;
+        }
+
+        @Override
+        public Item next() {
+          if (!hasNext()) {
+            throw new NoSuchElementException();
+          }
+          last = next;
+          next = nextHeld(next + 1);
+          return stackOf(last);
+        }
+
+        @Override
+        public void remove() {
+          if (last < 0) {
+            throw new IllegalStateException();
+          }
+          quantities[last] = 0;
+          last = -1;
+          modCount++;
+        }
+      };
+    }
+
+    @Override
+    public int size() {
+      int[] quantities = PlayerData.this.quantities;
+      int size = 0;
+      for (int i = 0; quantities != null && i < quantities.length; i++) {
+        if (quantities[i] != 0) {
+          size++;
+        }
+      }
+      return size;
+    }
+
+    @Override
+    public boolean add(Item item) {
+      if (item == null || item.getItemId() == null) {
+        throw new IllegalArgumentException("Invalid item received!");
+      }
+      addInventoryQuantity(item.getItemId(), item.getQuantity());
+      modCount++;
+      return true;
+    }
+
+    @Override
+    public Item remove(int index) {
+      Item item = get(index);
+      Item removed = new Item(item.getItemId(), item.getQuantity());
+      quantities[item.getItemId().ordinal()] = 0;
+      modCount++;
+      return removed;
+    }
+
+    @Override
+    public void clear() {
+      if (quantities != null) {
+        Arrays.fill(quantities, 0);
+        modCount++;
       }
-      items.get(0).setQuantity(items.get(0).getQuantity()-item.getQuantity());
     }
   }
 }
@@ -15,8 +15,11 @@
  */
 package com.google.maps.gaming.zoinkies.models;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.maps.gaming.zoinkies.ITEMS;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -26,6 +29,9 @@ import java.util.List;
  * - Weapons
  * - Armors
  * - Characters
+ *
+ * Reference data is immutable once loaded, so that a version can be shared by all request
+ * threads and replaced as a whole on reload. Items are indexed by ITEMS ordinal.
  */
 public class ReferenceData {
 
@@ -33,43 +39,52 @@ public class ReferenceData {
    * Lists to all references for this game. Every game object has a reference in this list.
    * The list is reconciled between client and server.
    */
-  private List<ReferenceItem> references;
+  private final List<ReferenceItem> references;
 
   /**
-   * Getter for references
-   * @return
+   * References by ITEMS ordinal, null for items without a reference
    */
-  public List<ReferenceItem> getReferences() {
-    return references;
-  }
+  private final ReferenceItem[] referencesByItem = new ReferenceItem[ITEMS.values().length];
 
   /**
-   * Setter for references
-   * @param references
+   * Creates reference data.
+   * @param references the reference items, at most one per item id
+   * @throws IllegalArgumentException if an item has no id or more than one reference
    */
-  public void setReferences(List<ReferenceItem> references) {
-    this.references = references;
+  @JsonCreator
+  public ReferenceData(@JsonProperty("references") List<ReferenceItem> references) {
+    List<ReferenceItem> copy = references == null
+        ? new ArrayList<>() : new ArrayList<>(references);
+    for (ReferenceItem ri : copy) {
+      if (ri == null || ri.getItemId() == null) {
+        throw new IllegalArgumentException("Reference item without item id found!");
+      }
+      if (referencesByItem[ri.getItemId().ordinal()] != null) {
+        throw new IllegalArgumentException("Duplicate reference item " + ri.getItemId() + "!");
+      }
+      referencesByItem[ri.getItemId().ordinal()] = ri;
+    }
+    this.references = Collections.unmodifiableList(copy);
   }
 
-  public ReferenceData() {
-    references = new ArrayList<>();
+  /**
+   * Getter for references
+   * @return the reference items, read only
+   */
+  public List<ReferenceItem> getReferences() {
+    return references;
   }
 
   /**
    * Returns the reference item identified by the given id
    * @param id the unique identifier for this item
-   * @return a ReferenceItem
+   * @return a ReferenceItem, or null if there is none
    */
   public ReferenceItem getReferenceItem(ITEMS id) {
     if (id == null) {
       return null;
     }
-    for(ReferenceItem ri:getReferences()) {
-      if (ri.getItemId().equals(id)) {
-        return ri;
-      }
-    }
-    return null;
+    return referencesByItem[id.ordinal()];
   }
 
   /**
@@ -0,0 +1,112 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies.models;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import java.time.Instant;
+
+/**
+ * A POJO class pushed to connected clients when one of their spawn locations is active again.
+ */
+public class RespawnEvent {
+
+  /**
+   * The device owning the world.
+   */
+  private String deviceId;
+
+  /**
+   * Getter for deviceId
+   * @return
+   */
+  public String getDeviceId() {
+    return deviceId;
+  }
+
+  /**
+   * Setter for deviceId
+   * @param deviceId
+   */
+  public void setDeviceId(String deviceId) {
+    this.deviceId = deviceId;
+  }
+
+  /**
+   * The spawn location that respawned.
+   */
+  private String locationId;
+
+  /**
+   * Getter for locationId
+   * @return
+   */
+  public String getLocationId() {
+    return locationId;
+  }
+
+  /**
+   * Setter for locationId
+   * @param locationId
+   */
+  public void setLocationId(String locationId) {
+    this.locationId = locationId;
+  }
+
+  /**
+   * When the location became active again, in epoch millis.
+   */
+  private long respawnAt;
+
+  /**
+   * Getter for respawnAt
+   * @return the epoch millis at which the location became active again
+   */
+  @JsonIgnore
+  public long getRespawnAt() {
+    return respawnAt;
+  }
+
+  /**
+   * Setter for respawnAt
+   * @param respawnAt
+   */
+  public void setRespawnAt(long respawnAt) {
+    this.respawnAt = respawnAt;
+  }
+
+  /**
+   * Getter for respawn time.
+   * @return when the location became active again as an ISO-8601 instant
+   */
+  public String getRespawnTime() {
+    return Instant.ofEpochMilli(respawnAt).toString();
+  }
+
+  public RespawnEvent() {
+  }
+
+  /**
+   * A constructor that takes all fields as parameters
+   * @param deviceId
+   * @param locationId
+   * @param respawnAt
+   */
+  public RespawnEvent(String deviceId, String locationId, long respawnAt) {
+    this.deviceId = deviceId;
+    this.locationId = locationId;
+    this.respawnAt = respawnAt;
+  }
+}
@@ -17,6 +17,7 @@ package com.google.maps.gaming.zoinkies.models;
 
 import com.google.maps.gaming.zoinkies.ITEMS;
 import com.google.maps.gaming.zoinkies.models.playablelocations.LatLng;
+import java.time.Instant;
 
 /**
  * A POJO class to keep track of spawn locations details.
@@ -43,24 +44,47 @@ public class SpawnLocation {
     this.locationId = locationId;
   }
   /**
-   * Is the location currently active?
+   * Value of respawnAt for locations that are inactive until further notice.
    */
-  private boolean active;
+  public static final long NEVER = Long.MAX_VALUE;
+
+  /**
+   * When will the location be active again, in epoch millis? 0 if it never was inactive.
+   * This is the only stored state: whether the location is active is derived from it when read,
+   * so locations done respawning don't need to be written back.
+   */
+  private long respawnAt;
+
+  /**
+   * Getter for respawn at.
+   * @return the epoch millis at which the location is active again
+   */
+  public long getRespawnAt() {
+    return respawnAt;
+  }
+
+  /**
+   * Setter for respawn at.
+   * @param respawnAt the epoch millis at which the location is active again
+   */
+  public void setRespawnAt(long respawnAt) {
+    this.respawnAt = respawnAt;
+  }
 
   /**
    * Getter for active.
    * @return a boolean that indicates if the location is active
    */
   public boolean getActive() {
-    return active;
+    return respawnAt <= System.currentTimeMillis();
   }
 
   /**
-   * Setter for active.
+   * Setter for active. Deactivating a location this way keeps it inactive until it is reactivated.
    * @param active a boolean that indicates if the location is active
    */
   public void setActive(boolean active) {
-    this.active = active;
+    this.respawnAt = active ? 0 : NEVER;
   }
   /**
    * Item representing this location: Tower, Minion, etc...
@@ -102,25 +126,24 @@ public class SpawnLocation {
   public void setRespawns(boolean respawns) {
     this.respawns = respawns;
   }
-  /**
-   * When will the location be active again?
-   */
-  private String respawnTime;
-
   /**
    * Getter for respawn time.
-   * @return the time it takes to respawn this location
+   * @return when the location is active again as an ISO-8601 instant, null if it is active
+   * or inactive until further notice
    */
   public String getRespawnTime() {
-    return respawnTime;
+    if (respawnAt == NEVER || getActive()) {
+      return null;
+    }
+    return Instant.ofEpochMilli(respawnAt).toString();
   }
 
   /**
    * Setter for respawn time.
-   * @param respawnTime the time it takes to respawn this location
+   * @param respawnTime when the location is active again as an ISO-8601 instant, or null
    */
   public void setRespawnTime(String respawnTime) {
-    this.respawnTime = respawnTime;
+    this.respawnAt = respawnTime == null ? 0 : Instant.parse(respawnTime).toEpochMilli();
   }
   /**
    * If the location is locked, how many "keys" needed to activate it?
@@ -212,10 +235,10 @@ public class SpawnLocation {
    * Specific constructor
    *
    * @param locationId the location id
-   * @param active a boolean to indicate if the location is active
+   * @param active a boolean to indicate if the location is active, when it isn't respawning
    * @param objectTypeId the object type associated to the location
    * @param respawns a boolean to indicate if the location is respawning
-   * @param respawnTime the time it takes to respawn
+   * @param respawnTime when the location is active again as an ISO-8601 instant, or null
    * @param numberOfKeysToActivate the number of keys to activate the location
    * @param keyTypeId the type of keys needed to activate the location
    * @param snappedPoint the latitude longitude coordinates of this location on the map
@@ -231,16 +254,35 @@ public class SpawnLocation {
       LatLng snappedPoint,
       String s2CellId) {
     this.locationId = locationId;
-    this.active = active;
     this.objectTypeId = objectTypeId;
     this.respawns = respawns;
     this.keyTypeId = keyTypeId;
-    this.respawnTime = respawnTime;
+    if (respawnTime != null) {
+      this.respawnAt = Instant.parse(respawnTime).toEpochMilli();
+    } else {
+      this.respawnAt = active ? 0 : NEVER;
+    }
     this.numberOfKeysToActivate = numberOfKeysToActivate;
     this.snappedPoint = snappedPoint;
     this.S2CellId = s2CellId;
   }
 
+  /**
+   * Copy constructor. The snapped point is deep copied.
+   *
+   * @param other the spawn location to copy
+   */
+  public SpawnLocation(SpawnLocation other) {
+    this.locationId = other.locationId;
+    this.objectTypeId = other.objectTypeId;
+    this.respawns = other.respawns;
+    this.keyTypeId = other.keyTypeId;
+    this.respawnAt = other.respawnAt;
+    this.numberOfKeysToActivate = other.numberOfKeysToActivate;
+    this.snappedPoint = other.snappedPoint == null ? null : new LatLng(other.snappedPoint);
+    this.S2CellId = other.S2CellId;
+  }
+
   /**
    * ToString override, mostly for testing purposes.
    * @return a string description of this spawn location.
@@ -249,11 +291,11 @@ public class SpawnLocation {
   public String toString() {
     StringBuilder sb = new StringBuilder();
     sb.append("Id: ").append(locationId);
-    sb.append("Active: ").append(active);
+    sb.append("Active: ").append(getActive());
     sb.append("Object type id: ").append(objectTypeId);
     sb.append("Respawns: ").append(respawns);
     sb.append("Key type id: ").append(keyTypeId);
-    sb.append("Respawn time: ").append(respawnTime);
+    sb.append("Respawn at: ").append(respawnAt);
     sb.append("Number of keys to activate: ").append(numberOfKeysToActivate);
     sb.append("Snapped Point: ").append(snappedPoint);
     sb.append("S2CellId: ").append(S2CellId);
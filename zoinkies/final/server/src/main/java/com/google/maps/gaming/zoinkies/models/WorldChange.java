@@ -0,0 +1,110 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies.models;
+
+/**
+ * An entry of the change log kept with each world: a spawn location that was added, changed or
+ * removed by a given world version. The change log is what delta responses are built from.
+ */
+public class WorldChange {
+
+  /**
+   * The kind of change.
+   */
+  public enum Type {
+    ADDED,
+    CHANGED,
+    REMOVED
+  }
+
+  /**
+   * The world version that introduced this change.
+   */
+  private long version;
+
+  /**
+   * Getter for version
+   * @return
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * Setter for version
+   * @param version
+   */
+  public void setVersion(long version) {
+    this.version = version;
+  }
+
+  /**
+   * The id of the spawn location that changed.
+   */
+  private String locationId;
+
+  /**
+   * Getter for locationId
+   * @return
+   */
+  public String getLocationId() {
+    return locationId;
+  }
+
+  /**
+   * Setter for locationId
+   * @param locationId
+   */
+  public void setLocationId(String locationId) {
+    this.locationId = locationId;
+  }
+
+  /**
+   * What happened to the spawn location.
+   */
+  private Type type;
+
+  /**
+   * Getter for type
+   * @return
+   */
+  public Type getType() {
+    return type;
+  }
+
+  /**
+   * Setter for type
+   * @param type
+   */
+  public void setType(Type type) {
+    this.type = type;
+  }
+
+  public WorldChange() {
+  }
+
+  /**
+   * A constructor that takes all fields as parameters
+   * @param version
+   * @param locationId
+   * @param type
+   */
+  public WorldChange(long version, String locationId, Type type) {
+    this.version = version;
+    this.locationId = locationId;
+    this.type = type;
+  }
+}
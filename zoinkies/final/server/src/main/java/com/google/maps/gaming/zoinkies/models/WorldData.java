@@ -15,8 +15,13 @@
  */
 package com.google.maps.gaming.zoinkies.models;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.google.maps.gaming.zoinkies.models.playablelocations.LatLng;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * A POJO class used to keep track of the world data and used in the worlds REST API.
@@ -93,12 +98,169 @@ public class WorldData {
     this.currentServerTime = currentServerTime;
   }
 
+  /**
+   * Incremented each time the world's spawn locations change. Clients send back the version they
+   * last saw to get the changes made since.
+   */
+  private long version;
+
+  /**
+   * Getter for version
+   * @return
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * Setter for version
+   * @param version
+   */
+  public void setVersion(long version) {
+    this.version = version;
+  }
+
+  /**
+   * The change log holds every change made after this version. Older changes have been dropped,
+   * clients behind it get a full snapshot.
+   */
+  private long changeLogStart;
+
+  /**
+   * Getter for change log start
+   * @return
+   */
+  @JsonIgnore
+  public long getChangeLogStart() {
+    return changeLogStart;
+  }
+
+  /**
+   * Setter for change log start
+   * @param changeLogStart
+   */
+  public void setChangeLogStart(long changeLogStart) {
+    this.changeLogStart = changeLogStart;
+  }
+
+  /**
+   * The most recent changes, oldest first. Server side only.
+   */
+  private List<WorldChange> changes;
+
+  /**
+   * Getter for changes
+   * @return
+   */
+  @JsonIgnore
+  public List<WorldChange> getChanges() {
+    return changes;
+  }
+
+  /**
+   * Setter for changes
+   * @param changes
+   */
+  public void setChanges(List<WorldChange> changes) {
+    this.changes = changes;
+  }
+
+  /**
+   * Seed from which the metadata of spawn locations is generated. Server side only.
+   */
+  private long spawnSeed;
+
+  /**
+   * Getter for spawn seed
+   * @return
+   */
+  @JsonIgnore
+  public long getSpawnSeed() {
+    return spawnSeed;
+  }
+
+  /**
+   * Setter for spawn seed
+   * @param spawnSeed
+   */
+  public void setSpawnSeed(long spawnSeed) {
+    this.spawnSeed = spawnSeed;
+  }
+
+  /**
+   * When each cell was last visited, in epoch millis, keyed by cell id. Server side only.
+   */
+  private HashMap<String, Long> cellVisits;
+
+  /**
+   * Getter for cell visits
+   * @return
+   */
+  @JsonIgnore
+  public HashMap<String, Long> getCellVisits() {
+    return cellVisits;
+  }
+
+  /**
+   * Setter for cell visits
+   * @param cellVisits
+   */
+  public void setCellVisits(HashMap<String, Long> cellVisits) {
+    this.cellVisits = cellVisits;
+  }
+
+  /**
+   * Where the player recently looked at the map, most recent first. Server side only.
+   */
+  private List<LatLng> recentPositions;
+
+  /**
+   * Getter for recent positions
+   * @return
+   */
+  @JsonIgnore
+  public List<LatLng> getRecentPositions() {
+    return recentPositions;
+  }
+
+  /**
+   * Setter for recent positions
+   * @param recentPositions
+   */
+  public void setRecentPositions(List<LatLng> recentPositions) {
+    this.recentPositions = recentPositions;
+  }
+
   /**
    * Default constructor - instantiates empty maps.
    */
   public WorldData() {
     s2CellsTTL = new HashMap<>();
     locations = new HashMap<>();
+    changes = new ArrayList<>();
+    cellVisits = new HashMap<>();
+    recentPositions = new ArrayList<>();
     currentServerTime = Instant.now().toString();
   }
+
+  /**
+   * Copy constructor - deep copies all spawn locations.
+   * @param other the world data to copy
+   */
+  public WorldData(WorldData other) {
+    s2CellsTTL = new HashMap<>(other.s2CellsTTL);
+    locations = new HashMap<>(other.locations.size() * 4 / 3 + 1);
+    for (Map.Entry<String, SpawnLocation> entry : other.locations.entrySet()) {
+      locations.put(entry.getKey(), new SpawnLocation(entry.getValue()));
+    }
+    currentServerTime = other.currentServerTime;
+    version = other.version;
+    changeLogStart = other.changeLogStart;
+    spawnSeed = other.spawnSeed;
+    // Changes are never modified once logged.
+    changes = new ArrayList<>(other.changes);
+    cellVisits = new HashMap<>(other.cellVisits);
+    // Positions are never modified once recorded.
+    recentPositions = new ArrayList<>(other.recentPositions);
+  }
 }
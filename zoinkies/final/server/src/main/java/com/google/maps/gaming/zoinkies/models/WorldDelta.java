@@ -0,0 +1,157 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies.models;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A POJO class used by the world changes REST API.
+ * It holds what changed in a world between the version known by the client and the current one.
+ * When the client's version is too old for the server to tell, reset is set and added holds
+ * the whole world: the client should then drop what it knows and start over.
+ */
+public class WorldDelta {
+
+  /**
+   * The world version this delta brings the client to.
+   */
+  private long version;
+
+  /**
+   * Getter for version
+   * @return
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * Setter for version
+   * @param version
+   */
+  public void setVersion(long version) {
+    this.version = version;
+  }
+
+  /**
+   * True when this delta is a full snapshot of the world.
+   */
+  private boolean reset;
+
+  /**
+   * Getter for reset
+   * @return
+   */
+  public boolean getReset() {
+    return reset;
+  }
+
+  /**
+   * Setter for reset
+   * @param reset
+   */
+  public void setReset(boolean reset) {
+    this.reset = reset;
+  }
+
+  /**
+   * Spawn locations the client doesn't know yet, identified by their location id.
+   */
+  private Map<String, SpawnLocation> added = new HashMap<>();
+
+  /**
+   * Getter for added
+   * @return
+   */
+  public Map<String, SpawnLocation> getAdded() {
+    return added;
+  }
+
+  /**
+   * Setter for added
+   * @param added
+   */
+  public void setAdded(Map<String, SpawnLocation> added) {
+    this.added = added;
+  }
+
+  /**
+   * Spawn locations whose state changed, identified by their location id.
+   */
+  private Map<String, SpawnLocation> changed = new HashMap<>();
+
+  /**
+   * Getter for changed
+   * @return
+   */
+  public Map<String, SpawnLocation> getChanged() {
+    return changed;
+  }
+
+  /**
+   * Setter for changed
+   * @param changed
+   */
+  public void setChanged(Map<String, SpawnLocation> changed) {
+    this.changed = changed;
+  }
+
+  /**
+   * Ids of the spawn locations that no longer exist.
+   */
+  private List<String> removed = new ArrayList<>();
+
+  /**
+   * Getter for removed
+   * @return
+   */
+  public List<String> getRemoved() {
+    return removed;
+  }
+
+  /**
+   * Setter for removed
+   * @param removed
+   */
+  public void setRemoved(List<String> removed) {
+    this.removed = removed;
+  }
+
+  /**
+   * The server time when this delta was computed.
+   */
+  private String currentServerTime = Instant.now().toString();
+
+  /**
+   * Getter for current server time.
+   * @return
+   */
+  public String getCurrentServerTime() {
+    return currentServerTime;
+  }
+
+  /**
+   * Setter for current server time.
+   * @param currentServerTime
+   */
+  public void setCurrentServerTime(String currentServerTime) {
+    this.currentServerTime = currentServerTime;
+  }
+}
@@ -79,4 +79,13 @@ public class LatLng {
     this.latitude = latitude;
     this.longitude = longitude;
   }
+
+  /**
+   * Copy constructor
+   * @param other the lat lng to copy
+   */
+  public LatLng(LatLng other) {
+    this.latitude = other.latitude;
+    this.longitude = other.longitude;
+  }
 }
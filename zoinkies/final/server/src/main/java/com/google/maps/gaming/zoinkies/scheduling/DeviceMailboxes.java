@@ -0,0 +1,171 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies.scheduling;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs actions one at a time per device, and devices in parallel.
+ *
+ * Each busy device has a mailbox: a queue of actions run in submission order on a shared
+ * executor, by at most one thread at a time. A device's actions are then never interleaved,
+ * which makes their read-modify-write cycles safe without any lock held across devices. Idle
+ * devices cost nothing: a mailbox is dropped as soon as its last action is done.
+ *
+ * Mailboxes are only ever updated through the map's atomic compute, which locks a single bin
+ * for a few instructions. A mailbox drains at most {@value #BATCH_SIZE} actions in a row
+ * before going back to the executor, so that a busy device can't hold a thread for long.
+ */
+public class DeviceMailboxes {
+
+  static final int BATCH_SIZE = 16;
+
+  /**
+   * Pending actions of a device, the running one first. Guarded by the map bin.
+   */
+  private static class Mailbox {
+    private final ArrayDeque<Runnable> queue = new ArrayDeque<>(4);
+  }
+
+  private final ConcurrentHashMap<String, Mailbox> mailboxes = new ConcurrentHashMap<>();
+  private final Executor executor;
+  private final AtomicLong executed = new AtomicLong();
+
+  /**
+   * Creates mailboxes running on the given executor.
+   * @param executor runs the mailboxes, should allow as many threads as devices expected to
+   * wait on I/O at the same time
+   */
+  public DeviceMailboxes(Executor executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * Queues an action behind the pending actions of the same device.
+   *
+   * @param deviceId The User Id
+   * @param action the action
+   * @param <T> the result type
+   * @return the result of the action, completed exceptionally if it throws
+   */
+  public <T> CompletableFuture<T> submit(String deviceId, Callable<T> action) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    Runnable task = () -> {
+      try {
+        future.complete(action.call());
+      } catch (Throwable t) {
+        future.completeExceptionally(t);
+      }
+    };
+    boolean[] idle = new boolean[1];
+    mailboxes.compute(deviceId, (id, mailbox) -> {
+      if (mailbox == null) {
+        mailbox = new Mailbox();
+        idle[0] = true;
+      }
+      mailbox.queue.add(task);
+      return mailbox;
+    });
+    if (idle[0]) {
+      executor.execute(() -> drain(deviceId, task));
+    }
+    return future;
+  }
+
+  /**
+   * Runs an action behind the pending actions of the same device, and waits for its result.
+   *
+   * @param deviceId The User Id
+   * @param action the action
+   * @param <T> the result type
+   * @return the result of the action
+   * @throws Exception whatever the action threw
+   */
+  public <T> T execute(String deviceId, Callable<T> action) throws Exception {
+    // Exceptions are handed over as is, the ExecutionException would capture another stack trace.
+    Exception[] failure = new Exception[1];
+    T result;
+    try {
+      result = submit(deviceId, () -> {
+        try {
+          return action.call();
+        } catch (Exception e) {
+          failure[0] = e;
+          return null;
+        }
+      }).get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof Exception) {
+        throw (Exception) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw e;
+    }
+    if (failure[0] != null) {
+      throw failure[0];
+    }
+    return result;
+  }
+
+  /**
+   * Getter for the amount of devices with pending actions.
+   * @return the amount of mailboxes
+   */
+  public int getActiveDevices() {
+    return mailboxes.size();
+  }
+
+  /**
+   * Getter for the amount of actions run so far.
+   * @return the amount of actions run
+   */
+  public long getExecuted() {
+    return executed.get();
+  }
+
+  /**
+   * Helper function that runs the actions of a mailbox, starting with the given one, until the
+   * mailbox is empty or the batch is over.
+   */
+  private void drain(String deviceId, Runnable first) {
+    Runnable task = first;
+    for (int run = 0; task != null; run++) {
+      if (run == BATCH_SIZE) {
+        Runnable next = task;
+        executor.execute(() -> drain(deviceId, next));
+        return;
+      }
+      task.run();
+      executed.incrementAndGet();
+      Runnable[] next = new Runnable[1];
+      mailboxes.compute(deviceId, (id, mailbox) -> {
+        mailbox.queue.poll();
+        next[0] = mailbox.queue.peek();
+        return next[0] == null ? null : mailbox;
+      });
+      task = next[0];
+    }
+  }
+}
@@ -0,0 +1,283 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies.scheduling;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * A hierarchical timer wheel holding up to a fixed amount of timers.
+ *
+ * Timers are kept in {@value #LEVELS} wheels of {@value #SLOTS} slots each. The first wheel has
+ * one slot per tick, each following wheel covers a whole turn of the previous one per slot. As
+ * time goes by, the timers of the next slot of an upper wheel are spread over the wheel below,
+ * so scheduling, cancelling and expiring a timer are all O(1). Timers further away than the
+ * range of the wheels are parked in the upper wheel and spread again until they are in range.
+ *
+ * All the memory is allocated up front: timers live in parallel arrays and are linked through
+ * indexes, so a wheel holding a million timers costs about 28 MB on top of the payloads and
+ * doesn't create any garbage. Scheduling into a full wheel fails instead of growing it.
+ *
+ * Timers never fire early, but may fire up to a tick late. This class is not thread safe.
+ *
+ * @param <T> the payload type
+ */
+public class TimerWheel<T> {
+
+  static final int SLOT_BITS = 6;
+  static final int SLOTS = 1 << SLOT_BITS;
+  static final int LEVELS = 4;
+
+  /**
+   * The farthest a timer can be placed, in ticks
+   */
+  private static final long RANGE = 1L << (SLOT_BITS * LEVELS);
+
+  private static final int NONE = -1;
+
+  private final long tickMillis;
+
+  /**
+   * Deadline of each timer, in ticks
+   */
+  private final long[] deadlines;
+  private final int[] next;
+  private final int[] prev;
+
+  /**
+   * Bumped each time a timer is released, so that stale handles can be told apart
+   */
+  private final int[] generations;
+
+  /**
+   * Slot of each timer, NONE when released
+   */
+  private final int[] slots;
+  private final Object[] payloads;
+
+  /**
+   * First timer of each slot, all levels one after the other
+   */
+  private final int[] heads = new int[LEVELS * SLOTS];
+
+  /**
+   * First released timer, the free list is linked through next
+   */
+  private int free;
+  private int size;
+
+  /**
+   * The next tick to process
+   */
+  private long currentTick;
+
+  /**
+   * Creates an empty wheel.
+   *
+   * @param capacity the maximum amount of pending timers
+   * @param tickMillis the wheel resolution
+   * @param nowMillis the current time in epoch millis
+   */
+  public TimerWheel(int capacity, long tickMillis, long nowMillis) {
+    this.tickMillis = tickMillis;
+    deadlines = new long[capacity];
+    next = new int[capacity];
+    prev = new int[capacity];
+    generations = new int[capacity];
+    slots = new int[capacity];
+    payloads = new Object[capacity];
+    Arrays.fill(heads, NONE);
+    Arrays.fill(slots, NONE);
+    for (int i = 0; i < capacity; i++) {
+      next[i] = i + 1 < capacity ? i + 1 : NONE;
+    }
+    free = capacity > 0 ? 0 : NONE;
+    currentTick = Math.floorDiv(nowMillis, tickMillis);
+  }
+
+  /**
+   * Schedules a timer. Deadlines in the past fire on the next call to {@link #advance}.
+   *
+   * @param deadlineMillis when the timer is due, in epoch millis
+   * @param payload what {@link #advance} hands back when the timer fires
+   * @return a handle to cancel the timer, or -1 if the wheel is full
+   */
+  public long schedule(long deadlineMillis, T payload) {
+    if (free == NONE) {
+      return -1;
+    }
+    int timer = free;
+    free = next[timer];
+    // Round up, so that the timer never fires before its deadline.
+    deadlines[timer] = -Math.floorDiv(-deadlineMillis, tickMillis);
+    payloads[timer] = payload;
+    place(timer);
+    size++;
+    return ((long) generations[timer] << 32) | timer;
+  }
+
+  /**
+   * Cancels a pending timer.
+   *
+   * @param handle the handle returned by {@link #schedule}
+   * @return true if the timer was pending, false if it already fired or was cancelled
+   */
+  public boolean cancel(long handle) {
+    int timer = (int) handle;
+    if (handle < 0 || timer >= slots.length || slots[timer] == NONE
+        || generations[timer] != (int) (handle >>> 32)) {
+      return false;
+    }
+    unlink(timer);
+    release(timer);
+    return true;
+  }
+
+  /**
+   * Fires all the timers due at the given time, in deadline order give or take a tick.
+   *
+   * @param nowMillis the current time in epoch millis
+   * @param expired receives the payload of each timer that fired
+   * @return the amount of timers that fired
+   */
+  @SuppressWarnings("unchecked")
+  public int advance(long nowMillis, Consumer<T> expired) {
+    long nowTick = Math.floorDiv(nowMillis, tickMillis);
+    int fired = 0;
+    while (currentTick <= nowTick) {
+      if (size == 0) {
+        // Nothing to cascade, skip the idle ticks altogether.
+        currentTick = nowTick + 1;
+        break;
+      }
+      int index = (int) (currentTick & (SLOTS - 1));
+      for (int level = 1; level < LEVELS && cascade(level) == 0; level++) {
+        // Keep going up while each wheel wraps around.
+      }
+      int timer = detach(index);
+      currentTick++;
+      while (timer != NONE) {
+        int following = next[timer];
+        T payload = (T) payloads[timer];
+        release(timer);
+        fired++;
+        expired.accept(payload);
+        timer = following;
+      }
+    }
+    return fired;
+  }
+
+  /**
+   * Getter for the amount of pending timers.
+   * @return the amount of pending timers
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Getter for the maximum amount of pending timers.
+   * @return the capacity
+   */
+  public int capacity() {
+    return deadlines.length;
+  }
+
+  /**
+   * Helper function that spreads the next slot of an upper wheel over the wheels below,
+   * when the wheel below wraps around. Returns the index of that slot, 0 when the wheel itself
+   * wraps around and the next one needs to cascade as well.
+   */
+  private int cascade(int level) {
+    if (((currentTick >> (SLOT_BITS * (level - 1))) & (SLOTS - 1)) != 0) {
+      return -1;
+    }
+    int index = (int) ((currentTick >> (SLOT_BITS * level)) & (SLOTS - 1));
+    int timer = detach(level * SLOTS + index);
+    while (timer != NONE) {
+      int following = next[timer];
+      place(timer);
+      timer = following;
+    }
+    return index;
+  }
+
+  /**
+   * Helper function that links a timer into the slot matching its deadline.
+   */
+  private void place(int timer) {
+    long deadline = deadlines[timer];
+    long delta = deadline - currentTick;
+    int slot;
+    if (delta < 0) {
+      slot = (int) (currentTick & (SLOTS - 1));
+    } else {
+      if (delta >= RANGE) {
+        // Parked at the far end of the upper wheel, placed again when it comes around.
+        deadline = currentTick + RANGE - 1;
+        delta = RANGE - 1;
+      }
+      int level = 0;
+      while (delta >= 1L << (SLOT_BITS * (level + 1))) {
+        level++;
+      }
+      slot = level * SLOTS + (int) ((deadline >> (SLOT_BITS * level)) & (SLOTS - 1));
+    }
+    slots[timer] = slot;
+    prev[timer] = NONE;
+    next[timer] = heads[slot];
+    if (heads[slot] != NONE) {
+      prev[heads[slot]] = timer;
+    }
+    heads[slot] = timer;
+  }
+
+  /**
+   * Helper function that empties a slot and returns its first timer.
+   */
+  private int detach(int slot) {
+    int timer = heads[slot];
+    heads[slot] = NONE;
+    return timer;
+  }
+
+  /**
+   * Helper function that unlinks a timer from its slot.
+   */
+  private void unlink(int timer) {
+    if (prev[timer] != NONE) {
+      next[prev[timer]] = next[timer];
+    } else {
+      heads[slots[timer]] = next[timer];
+    }
+    if (next[timer] != NONE) {
+      prev[next[timer]] = prev[timer];
+    }
+  }
+
+  /**
+   * Helper function that puts a timer back on the free list.
+   */
+  private void release(int timer) {
+    slots[timer] = NONE;
+    payloads[timer] = null;
+    generations[timer] = (generations[timer] + 1) & Integer.MAX_VALUE;
+    next[timer] = free;
+    free = timer;
+    size--;
+  }
+}
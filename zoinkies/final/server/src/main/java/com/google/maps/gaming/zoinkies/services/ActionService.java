@@ -0,0 +1,117 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies.services;
+
+import com.google.maps.gaming.zoinkies.scheduling.DeviceMailboxes;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Service;
+
+/**
+ * This class runs the requests that update the documents of a device one at a time.
+ *
+ * Battles, chests, energy stations and world or player updates all read the users/ and worlds/
+ * documents of a device, change them and write them back. When a client fires two of them at
+ * once, the second write used to silently drop the first one. Here, they queue up in the
+ * mailbox of their device instead, while the requests of different devices run in parallel on
+ * a shared pool. See {@link DeviceMailboxes}.
+ */
+@Service
+@Scope(value = ConfigurableBeanFactory.SCOPE_SINGLETON)
+public class ActionService {
+
+  /**
+   * A reference to the meter registry
+   */
+  @Autowired
+  MeterRegistry meterRegistry;
+
+  /**
+   * Runs the updates of each device one at a time
+   */
+  @Value("${zoinkies.actions.serial.enabled:true}")
+  boolean enabled;
+
+  /**
+   * Amount of threads running updates, which mostly wait on Firestore
+   */
+  @Value("${zoinkies.actions.threads:64}")
+  int threads;
+
+  private ExecutorService executor;
+  private DeviceMailboxes mailboxes;
+
+  /**
+   * Starts the update threads, if enabled.
+   */
+  @PostConstruct
+  void start() {
+    if (!enabled) {
+      return;
+    }
+    AtomicInteger count = new AtomicInteger();
+    executor = Executors.newFixedThreadPool(threads, r -> {
+      Thread t = new Thread(r, "device-actions-" + count.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    });
+    mailboxes = new DeviceMailboxes(executor);
+    Gauge.builder("zoinkies.actions.devices", mailboxes, DeviceMailboxes::getActiveDevices)
+        .description("Devices with pending updates")
+        .register(meterRegistry);
+    FunctionCounter.builder("zoinkies.actions.executed", mailboxes,
+        DeviceMailboxes::getExecuted)
+        .register(meterRegistry);
+  }
+
+  /**
+   * Lets the pending updates finish.
+   */
+  @PreDestroy
+  void stop() {
+    if (executor != null) {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Runs an update after the pending updates of the same device, and waits for its result.
+   * Runs it right away when disabled.
+   *
+   * @param deviceId The User Id
+   * @param action the update
+   * @param <T> the result type
+   * @return the result of the update
+   * @throws Exception whatever the update threw
+   */
+  public <T> T execute(String deviceId, Callable<T> action) throws Exception {
+    if (mailboxes == null) {
+      return action.call();
+    }
+    return mailboxes.execute(deviceId, action);
+  }
+}
@@ -0,0 +1,182 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies.services;
+
+import com.google.maps.gaming.zoinkies.battles.BattleSession;
+import com.google.maps.gaming.zoinkies.battles.BattleSessionTable;
+import com.google.maps.gaming.zoinkies.exceptions.InvalidBattleException;
+import com.google.maps.gaming.zoinkies.models.BattleData;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Service;
+
+/**
+ * This class links battle summaries to the battles they end.
+ *
+ * POST /battle opens a battle in an in-memory table, and POST /battlesummary takes it: a summary
+ * without a battle in progress at the same location, or won faster than a battle can be won,
+ * is rejected before reading anything from Firestore. Since the battle was checked when it
+ * started, the summary doesn't need to check the location again either.
+ *
+ * Battles only live in the instance that started them, so the load balancer has to keep a
+ * device on the same instance, and a restart rejects the battles in progress. App Engine
+ * standard has no session affinity, so this service is disabled by default and summaries are
+ * checked against the world instead.
+ */
+@Service
+@Scope(value = ConfigurableBeanFactory.SCOPE_SINGLETON)
+public class BattleSessionService {
+
+  /**
+   * A reference to the meter registry
+   */
+  @Autowired
+  MeterRegistry meterRegistry;
+
+  /**
+   * Requires battle summaries to match a battle started on this instance
+   */
+  @Value("${zoinkies.battles.sessions.enabled:false}")
+  boolean enabled;
+
+  /**
+   * Maximum amount of open battles
+   */
+  @Value("${zoinkies.battles.sessions.capacity:8192}")
+  int capacity;
+
+  /**
+   * How long a battle can stay open
+   */
+  @Value("${zoinkies.battles.sessions.ttl-millis:600000}")
+  long ttlMillis;
+
+  /**
+   * Shortest time in which a battle can be won
+   */
+  @Value("${zoinkies.battles.sessions.min-victory-millis:2000}")
+  long minVictoryMillis;
+
+  private BattleSessionTable table;
+
+  private final AtomicLong opened = new AtomicLong();
+  private final AtomicLong closed = new AtomicLong();
+  private final AtomicLong missing = new AtomicLong();
+  private final AtomicLong tooQuick = new AtomicLong();
+
+  public BattleSessionService() {
+  }
+
+  /**
+   * Creates a battle session service outside of Spring.
+   *
+   * @param capacity the maximum amount of open battles
+   * @param ttlMillis how long a battle can stay open
+   * @param minVictoryMillis the shortest time in which a battle can be won
+   */
+  public BattleSessionService(int capacity, long ttlMillis, long minVictoryMillis) {
+    this.enabled = true;
+    this.capacity = capacity;
+    this.ttlMillis = ttlMillis;
+    this.minVictoryMillis = minVictoryMillis;
+    start();
+  }
+
+  /**
+   * Creates the battle table, if enabled.
+   */
+  @PostConstruct
+  void start() {
+    if (!enabled) {
+      return;
+    }
+    table = new BattleSessionTable(capacity, ttlMillis,
+        4 * Runtime.getRuntime().availableProcessors());
+    if (meterRegistry == null) {
+      return;
+    }
+    Gauge.builder("zoinkies.battles.open", table, BattleSessionTable::size)
+        .register(meterRegistry);
+    registerCounter("opened", opened);
+    registerCounter("closed", closed);
+    registerCounter("missing", missing);
+    registerCounter("too-quick", tooQuick);
+    FunctionCounter.builder("zoinkies.battles.sessions", table,
+        BattleSessionTable::getExpirations).tag("result", "expired").register(meterRegistry);
+    FunctionCounter.builder("zoinkies.battles.sessions", table,
+        BattleSessionTable::getEvictions).tag("result", "evicted").register(meterRegistry);
+  }
+
+  /**
+   * Checks if battle summaries have to match a battle in progress.
+   * @return true if battles are tracked
+   */
+  public boolean isEnabled() {
+    return table != null;
+  }
+
+  /**
+   * Opens a battle, replacing any battle still in progress for the same device.
+   *
+   * @param deviceId The User Id
+   * @param data the Battle Data sent to the client
+   */
+  public void open(String deviceId, BattleData data) {
+    table.open(deviceId, new BattleSession(data, System.currentTimeMillis()));
+    opened.incrementAndGet();
+  }
+
+  /**
+   * Ends the battle in progress at a location. A battle can only be ended once.
+   *
+   * @param deviceId The User Id
+   * @param locationId The location Id
+   * @param winner true if the player claims to have won
+   * @return the battle
+   * @throws InvalidBattleException if no battle is in progress there, or if it can't have been
+   * won yet
+   */
+  public BattleSession close(String deviceId, String locationId, boolean winner) {
+    long now = System.currentTimeMillis();
+    BattleSession session = table.take(deviceId, locationId, now);
+    if (session == null) {
+      missing.incrementAndGet();
+      throw new InvalidBattleException("No battle in progress at location " + locationId + "!");
+    }
+    if (winner && now - session.getStartedAt() < minVictoryMillis) {
+      tooQuick.incrementAndGet();
+      throw new InvalidBattleException("Battle at location " + locationId
+          + " can't have been won in " + (now - session.getStartedAt()) + "ms!");
+    }
+    closed.incrementAndGet();
+    return session;
+  }
+
+  /**
+   * Helper function that registers a session counter.
+   */
+  private void registerCounter(String result, AtomicLong counter) {
+    FunctionCounter.builder("zoinkies.battles.sessions", counter, AtomicLong::get)
+        .tag("result", result).register(meterRegistry);
+  }
+}
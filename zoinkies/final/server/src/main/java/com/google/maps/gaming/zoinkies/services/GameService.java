@@ -15,17 +15,18 @@
  */
 package com.google.maps.gaming.zoinkies.services;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.google.maps.gaming.zoinkies.GameConstants;
 import com.google.maps.gaming.zoinkies.ITEMS;
+import com.google.maps.gaming.zoinkies.battles.BattleSession;
+import com.google.maps.gaming.zoinkies.exceptions.LocationDisabledException;
+import com.google.maps.gaming.zoinkies.exceptions.LocationNotFoundException;
 import com.google.maps.gaming.zoinkies.exceptions.LocationStillRespawningException;
 import com.google.maps.gaming.zoinkies.exceptions.NotEnoughResourcesToUnlockException;
+import com.google.maps.gaming.zoinkies.loot.LootTable;
 import com.google.maps.gaming.zoinkies.models.BattleData;
 import com.google.maps.gaming.zoinkies.models.BattleSummaryData;
 import com.google.maps.gaming.zoinkies.models.EnergyData;
 import com.google.maps.gaming.zoinkies.models.Item;
-import com.google.maps.gaming.zoinkies.models.LootRefItem;
 import com.google.maps.gaming.zoinkies.models.PlayerData;
 import com.google.maps.gaming.zoinkies.models.ReferenceData;
 import com.google.maps.gaming.zoinkies.models.ReferenceItem;
@@ -34,15 +35,17 @@ import com.google.maps.gaming.zoinkies.models.SpawnLocation;
 import com.google.maps.gaming.zoinkies.models.WorldData;
 import com.google.maps.gaming.zoinkies.models.playablelocations.LatLng;
 import com.google.maps.gaming.zoinkies.models.playablelocations.Location;
-import java.io.BufferedReader;
+import com.google.maps.gaming.zoinkies.spawning.SpawnGenerator;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.concurrent.ThreadLocalRandom;
-import java.util.stream.Collectors;
+import java.util.function.Supplier;
+import javax.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.context.annotation.Scope;
@@ -73,33 +76,92 @@ public class GameService {
   PlayerService playerService;
 
   /**
-   * Keeps a reference to game data after being loaded from the resources folder.
+   * A reference to the reference data service
    */
-  private ReferenceData referenceData;
+  @Autowired
+  ReferenceDataService referenceDataService;
+
+  /**
+   * A reference to the battle session service
+   */
+  @Autowired
+  BattleSessionService battleSessionService;
+
+  /**
+   * Loot tables, compiled from the resources folder at startup
+   */
+  private LootTable generalBattleLootTable;
+  private LootTable minionBattleLootTable;
+  private LootTable chestLootTable;
+
+  /**
+   * Source of randomness for battles and loot, swapped for seeded streams by the simulator
+   */
+  private Supplier<Random> random = ThreadLocalRandom::current;
+
+  public GameService() {
+  }
 
   /**
-   * Gives access to cached reference data.
-   * Reference data is provided as part of a resource json file.
+   * Creates a game service outside of Spring, on top of the given backend.
    *
-   * @return A new reference data
+   * @param worldService the world service
+   * @param playerService the player service
+   * @param battleSessionService the battle session service, disabled unless configured
+   * @param random the source of randomness, called on each draw
+   * @throws IOException if the reference data or the loot tables can't be read
    */
-  public ReferenceData getReferenceData() {
-    if (referenceData == null) {
-      String content = "";
-      try {
-        try (InputStream inputStream = getClass().getResourceAsStream("/ReferenceData.json");
-            BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))) {
-          content = reader.lines()
-              .collect(Collectors.joining(System.lineSeparator()));
-        }
-        ObjectMapper objectMapper = new ObjectMapper();
-        objectMapper.registerModule(new JavaTimeModule());
-        referenceData = objectMapper.readValue(content, ReferenceData.class);
-      } catch (IOException e) {
-        e.printStackTrace();
+  public GameService(WorldService worldService, PlayerService playerService,
+      BattleSessionService battleSessionService, Supplier<Random> random) throws IOException {
+    this.worldService = worldService;
+    this.playerService = playerService;
+    this.battleSessionService = battleSessionService;
+    this.random = random;
+    referenceDataService = new ReferenceDataService();
+    referenceDataService.reload();
+    loadLootTables();
+  }
+
+  /**
+   * Loads and compiles the loot tables, so that an invalid data file prevents the server
+   * from starting.
+   *
+   * @throws IOException if the loot tables can't be read
+   */
+  @PostConstruct
+  void loadLootTables() throws IOException {
+    Map<String, LootTable> tables;
+    try (InputStream inputStream = getClass().getResourceAsStream("/LootTables.json")) {
+      if (inputStream == null) {
+        throw new IOException("LootTables.json not found!");
       }
+      tables = LootTable.load(inputStream);
+    }
+    generalBattleLootTable = getLootTable(tables, "GENERAL_BATTLE");
+    minionBattleLootTable = getLootTable(tables, "MINION_BATTLE");
+    chestLootTable = getLootTable(tables, "CHEST");
+  }
+
+  /**
+   * Helper function that looks up a required loot table.
+   */
+  private static LootTable getLootTable(Map<String, LootTable> tables, String name) {
+    LootTable table = tables.get(name);
+    if (table == null) {
+      throw new IllegalArgumentException("Loot table " + name + " not found!");
     }
-    return referenceData;
+    return table;
+  }
+
+  /**
+   * Gives access to the current reference data.
+   * Reference data is provided as part of a resource json file, see
+   * {@link ReferenceDataService}.
+   *
+   * @return the current reference data, immutable
+   */
+  public ReferenceData getReferenceData() {
+    return referenceDataService.getReferenceData();
   }
 
   /**
@@ -121,6 +183,7 @@ public class GameService {
         GameConstants.DEFAULT_PLAYER_ENERGY_LEVEL,
         GameConstants.DEFAULT_PLAYER_ENERGY_LEVEL,
         inventory);
+    d.setEnergyRegenMillis(GameConstants.DEFAULT_PLAYER_ENERGY_REGEN_MILLIS);
     // Equip body armor and weapon starters
     d.setEquippedBodyArmor(ITEMS.BODY_ARMOR_TYPE_1);
     d.setEquippedWeapon(ITEMS.WEAPON_TYPE_1);
@@ -128,36 +191,25 @@ public class GameService {
   }
 
   /**
-   * Helper function that checks and eventually progresses the timestamp of a respawnable location.
+   * Helper function that checks that a location isn't respawning.
+   * Locations done respawning are active again without being written back.
    *
-   * @param deviceId  The player's unique identifier
+   * @param worldData The World Data the caller just read
    * @param locationId The location id
    * @throws Exception When conditions are not met
    */
-  private void checkLocationStatus(String deviceId, String locationId) throws Exception{
-
-    WorldData worldData = worldService.getWorldData(deviceId);
+  private void checkLocationStatus(WorldData worldData, String locationId) throws Exception{
     if (!worldData.getLocations().containsKey(locationId)) {
-      throw new Exception("Location Id " + locationId + " not found!");
+      throw new LocationNotFoundException("Location Id " + locationId + " not found!");
     }
     SpawnLocation location = worldData.getLocations().get(locationId);
-    // If the location is inactive, progress its timestamp and update its status.
     if (!location.getActive()) {
-      if (location.getRespawnTime() == null || location.getRespawnTime().isEmpty()) {
-        throw new Exception("Invalid Timestamp found at location " + location.getLocationId());
-      }
-      // Check timestamp progress
-      Instant t = Instant.parse(location.getRespawnTime());
-      if (t.compareTo(Instant.now()) > 0) {
-        // Still respawning
-        throw new LocationStillRespawningException("Location " + locationId +
-            " is still respawning!");
-      } else {
-        // Reactive the location
-        location.setActive(true);
-        location.setRespawnTime(null);
-        worldService.setWorldData(deviceId,worldData);
+      if (location.getRespawnAt() == SpawnLocation.NEVER) {
+        throw new LocationDisabledException("Location " + locationId + " is disabled!");
       }
+      // Still respawning
+      throw new LocationStillRespawningException("Location " + locationId +
+          " is still respawning!");
     }
   }
 
@@ -186,8 +238,7 @@ public class GameService {
       throw new Exception("Reference item " + itemId + " not found!");
     if (refItem.getRespawnDuration() != null) {
       SpawnLocation location = worldData.getLocations().get(locationId);
-      location.setActive(false);
-      location.setRespawnTime(Instant.now().plus(refItem.getRespawnDuration()).toString());
+      location.setRespawnAt(Instant.now().plus(refItem.getRespawnDuration()).toEpochMilli());
       worldService.setWorldData(deviceId, worldData);
     }
   }
@@ -195,7 +246,8 @@ public class GameService {
   /**
    * Returns the summary of the current battle.
    * There is no cheat code detection in this demo, but this could be a location for it.
-   * Checks that this location isn't already respawning.
+   * Checks that this location isn't already respawning, or when battle sessions are enabled, that
+   * a battle started there and can have been won.
    * Gets the associated reference Item and processes the battle summary.
    * If the Player wins it generates battle rewards.
    * Note that rewards vary based on opponent.
@@ -211,9 +263,13 @@ public class GameService {
    */
   public BattleSummaryData getBattleSummaryData(String deviceId, String locationId,
       boolean winner) throws Exception {
+    if (battleSessionService.isEnabled()) {
+      return getBattleSummaryData(deviceId,
+          battleSessionService.close(deviceId, locationId, winner), winner);
+    }
     WorldData worldData = worldService.getWorldData(deviceId);
     if (!worldData.getLocations().containsKey(locationId)) {
-      throw new Exception("Location Id " + locationId + " not found!");
+      throw new LocationNotFoundException("Location Id " + locationId + " not found!");
     }
     BattleSummaryData data = new BattleSummaryData();
     data.setWinner(winner);
@@ -222,54 +278,85 @@ public class GameService {
     if (location.getObjectTypeId().equals(ITEMS.MINION)
         || location.getObjectTypeId().equals(ITEMS.TOWER)) {
 
-      checkLocationStatus(deviceId,locationId);
+      checkLocationStatus(worldData, locationId);
 
       ReferenceItem refItem = getReferenceData().getReferenceItem(location.getObjectTypeId());
       if (refItem == null) {
         throw new Exception("Can't find reference Item for " + location.getObjectTypeId() + "!");
       }
-      PlayerData playerData = playerService.getPlayerData(deviceId);
-      RewardsData rewardsData;
-
-      if (winner) {
-        if (location.getObjectTypeId().equals(ITEMS.MINION)) {
-          rewardsData = getRandomMinionBattleRewardsData();
-        }
-        else {
-          rewardsData = getRandomGeneralBattleRewardsData();
-        }
-        playerData.addAllInventoryItems(rewardsData.getItems());
-        List<Item> freedLeaders = playerData.getInventoryItems(ITEMS.FREED_LEADERS);
-        if (freedLeaders.size() > 0 && freedLeaders.get(0).getQuantity()
-            >= GameConstants.FREED_LEADERS_TO_WIN) {
-          data.setWonTheGame(true); // Hurray!
-        }
-      } else {
-        // The player looses a gold key in this case, only if they have one in the inventory.
-        rewardsData = new RewardsData();
-        List<Item> keys = playerData.getInventoryItems(ITEMS.GOLD_KEY);
-        if (keys.size() > 0) {
-          int newQty = keys.get(0).getQuantity()-1;
-          if (newQty == 0) {
-            keys.remove(0);
-          } else {
-            keys.get(0).setQuantity(newQty);
-          }
-          rewardsData.getItems().add(new Item(ITEMS.GOLD_KEY,-1));
-        }
-      }
-      data.setRewards(rewardsData);
-      data.getRewards().setLocationId(locationId);
-      playerService.updatePlayerData(deviceId,playerData);
+      settleBattle(deviceId, locationId, location.getObjectTypeId().equals(ITEMS.MINION), data);
       if (refItem.getRespawnDuration() != null) {
-        location.setActive(false);
-        location.setRespawnTime(Instant.now().plus(refItem.getRespawnDuration()).toString());
+        location.setRespawnAt(
+            Instant.now().plus(refItem.getRespawnDuration()).toEpochMilli());
         worldService.setWorldData(deviceId, worldData);
       }
     }
     return data;
   }
 
+  /**
+   * Helper function that processes the summary of a battle started by {@link #getBattleData}.
+   * The location was checked when the battle started: the world is only read to start respawning
+   * the location, and not at all for towers.
+   */
+  private BattleSummaryData getBattleSummaryData(String deviceId, BattleSession session,
+      boolean winner) throws Exception {
+    String locationId = session.getLocationId();
+    boolean minion = session.getOpponentTypeId().equals(ITEMS.MINION);
+    ReferenceItem refItem = getReferenceData().getReferenceItem(
+        minion ? ITEMS.MINION : ITEMS.TOWER);
+    if (refItem == null) {
+      throw new Exception("Can't find reference Item for " + session.getOpponentTypeId() + "!");
+    }
+    BattleSummaryData data = new BattleSummaryData();
+    data.setWinner(winner);
+    data.setWonTheGame(false);
+    settleBattle(deviceId, locationId, minion, data);
+    if (refItem.getRespawnDuration() != null) {
+      WorldData worldData = worldService.getWorldData(deviceId);
+      SpawnLocation location = worldData.getLocations().get(locationId);
+      if (location != null) {
+        location.setRespawnAt(
+            Instant.now().plus(refItem.getRespawnDuration()).toEpochMilli());
+        worldService.setWorldData(deviceId, worldData);
+      }
+    }
+    return data;
+  }
+
+  /**
+   * Helper function that grants the rewards of a won battle, or takes a gold key for a lost one,
+   * and writes the player back.
+   */
+  private void settleBattle(String deviceId, String locationId, boolean minion,
+      BattleSummaryData data) throws Exception {
+    PlayerData playerData = playerService.getPlayerData(deviceId);
+    RewardsData rewardsData;
+    if (data.getWinner()) {
+      if (minion) {
+        rewardsData = getRandomMinionBattleRewardsData();
+      }
+      else {
+        rewardsData = getRandomGeneralBattleRewardsData();
+      }
+      playerData.addAllInventoryItems(rewardsData.getItems());
+      if (playerData.getInventoryQuantity(ITEMS.FREED_LEADERS)
+          >= GameConstants.FREED_LEADERS_TO_WIN) {
+        data.setWonTheGame(true); // Hurray!
+      }
+    } else {
+      // The player looses a gold key in this case, only if they have one in the inventory.
+      rewardsData = new RewardsData();
+      if (playerData.getInventoryQuantity(ITEMS.GOLD_KEY) > 0) {
+        playerData.addInventoryQuantity(ITEMS.GOLD_KEY, -1);
+        rewardsData.getItems().add(new Item(ITEMS.GOLD_KEY,-1));
+      }
+    }
+    data.setRewards(rewardsData);
+    data.getRewards().setLocationId(locationId);
+    playerService.updatePlayerData(deviceId,playerData);
+  }
+
   /**
    * This function handles the logic for the battle setup.
    * More specifically, it checks that all pre-requisites are checked for either engaging minions
@@ -283,7 +370,7 @@ public class GameService {
   public BattleData getBattleData(String deviceId, String locationId) throws Exception {
     WorldData worldData = worldService.getWorldData(deviceId);
     if (!worldData.getLocations().containsKey(locationId)) {
-      throw new Exception("Location Id " + locationId + " not found!");
+      throw new LocationNotFoundException("Location Id " + locationId + " not found!");
     }
     // Minion or General?
     // Minion - regenerate - grant gold keys
@@ -300,9 +387,9 @@ public class GameService {
       if (minionRefItem == null) {
         throw new Exception("Can't find reference data for Minions!");
       }
-      checkLocationStatus(deviceId,locationId);
+      checkLocationStatus(worldData, locationId);
       data.setOpponentTypeId(ITEMS.MINION);
-      data.setPlayerStarts(ThreadLocalRandom.current().nextBoolean());
+      data.setPlayerStarts(random.get().nextBoolean());
       data.setCooldown(getReferenceData().getReferenceItem(ITEMS.MINION).getCooldown());
       data.setEnergyLevel(GameConstants.DEFAULT_MINION_ENERGY_LEVEL);
       data.setMaxAttackScoreBonus(GameConstants.MAX_ATTACK_BONUS_MINION);
@@ -330,11 +417,10 @@ public class GameService {
        ReferenceItem ri = getReferenceData().getReferenceItem(ITEMS.DIAMOND_KEY);
       if (ri == null)
         throw new Exception("Reference item " + ITEMS.DIAMOND_KEY + " not found!");
-      List<Item> items = playerData.getInventoryItems(ITEMS.DIAMOND_KEY);
-      if (items.size() > 0 && items.get(0).getQuantity()
+      if (playerData.getInventoryQuantity(ITEMS.DIAMOND_KEY)
           >= location.getNumberOfKeysToActivate()) {
-        items.get(0).setQuantity(items.get(0).getQuantity()
-            - location.getNumberOfKeysToActivate());
+        playerData.addInventoryQuantity(ITEMS.DIAMOND_KEY,
+            -location.getNumberOfKeysToActivate());
         location.setNumberOfKeysToActivate(0);
         worldService.setWorldData(deviceId,worldData);
         playerService.updatePlayerData(deviceId, playerData);
@@ -342,7 +428,7 @@ public class GameService {
         throw new NotEnoughResourcesToUnlockException("Not enough Diamond keys to unlock tower!");
       }
       data.setOpponentTypeId(ITEMS.GENERAL);
-      data.setPlayerStarts(ThreadLocalRandom.current().nextBoolean());
+      data.setPlayerStarts(random.get().nextBoolean());
       data.setCooldown(getReferenceData().getReferenceItem(ITEMS.GENERAL).getCooldown());
       data.setEnergyLevel(GameConstants.DEFAULT_GENERAL_ENERGY_LEVEL);
       data.setMaxAttackScoreBonus(GameConstants.MAX_ATTACK_BONUS_GENERAL);
@@ -352,6 +438,9 @@ public class GameService {
       // Unexpected locationId ?
       throw new Exception("Battles can only be started against Minions and Towers (Generals)");
     }
+    if (battleSessionService.isEnabled()) {
+      battleSessionService.open(deviceId, data);
+    }
     return data;
   }
 
@@ -366,17 +455,16 @@ public class GameService {
   public EnergyData getEnergyStationData(String deviceId, String locationId) throws Exception {
     WorldData worldData = worldService.getWorldData(deviceId);
     if (!worldData.getLocations().containsKey(locationId)) {
-      throw new Exception("Location Id " + locationId + " not found!");
+      throw new LocationNotFoundException("Location Id " + locationId + " not found!");
     }
     // Check pre-requisites:
     // - Chest must be in active mode and not respawning
     // Get World Data
-    checkLocationStatus(deviceId,locationId);
+    checkLocationStatus(worldData, locationId);
     // Get PlayerData
     PlayerData playerData = playerService.getPlayerData(deviceId);
-    int energy = playerData.getMaxEnergyLevel() - playerData.getEnergyLevel();
-    playerData.setEnergyLevel(playerData.getMaxEnergyLevel());
     // Refill all energy points
+    int energy = playerData.addEnergy(playerData.getMaxEnergyLevel(), System.currentTimeMillis());
     EnergyData data = new EnergyData();
     data.setLocationId(locationId);
     data.setAmountRestored(energy);
@@ -403,9 +491,9 @@ public class GameService {
     // Get World Data
     WorldData worldData = worldService.getWorldData(deviceId);
     if (!worldData.getLocations().containsKey(locationId)) {
-      throw new Exception("Location Id " + locationId + " not found!");
+      throw new LocationNotFoundException("Location Id " + locationId + " not found!");
     }
-    checkLocationStatus(deviceId,locationId);
+    checkLocationStatus(worldData, locationId);
     SpawnLocation location = worldData.getLocations().get(locationId);
     // Get PlayerData
     PlayerData playerData = playerService.getPlayerData(deviceId);
@@ -418,12 +506,10 @@ public class GameService {
     if (chestRefItem == null)
       throw new Exception("Reference item " + ITEMS.CHEST + " not found!");
     // Check if we have enough keys
-    List<Item> items = playerData.getInventoryItems(ITEMS.GOLD_KEY);
-    if (items.size() > 0
-        && items.get(0).getQuantity() >= location.getNumberOfKeysToActivate()) {
+    if (playerData.getInventoryQuantity(ITEMS.GOLD_KEY)
+        >= location.getNumberOfKeysToActivate()) {
       // Consume gold keys and Update player's inventory
-      items.get(0).setQuantity(items.get(0).getQuantity()
-          - location.getNumberOfKeysToActivate());
+      playerData.addInventoryQuantity(ITEMS.GOLD_KEY, -location.getNumberOfKeysToActivate());
 
       // Start respawning
       startRespawiningLocation(ITEMS.CHEST, deviceId, locationId, worldData);
@@ -449,20 +535,18 @@ public class GameService {
   }
 
     /**
-     * Creates a spawn location based on a basic random distribution.
+     * Creates a spawn location whose object type, keys and respawn policy are derived from
+     * the location id and the world seed, see {@link SpawnGenerator}.
      * These locations are persisted for the duration of the game.
-     * The distribution is as follows:
-     * 5% -> Restore Stations
-     * 20% -> Chests
-     * 15% -> Towers
-     * 60% -> Minions
      *
+     * @param location the playable location
+     * @param seed the world seed
      * @return A spawn location
      */
-  public SpawnLocation createRandomSpawnLocation(Location location) throws Exception {
+  public SpawnLocation createSpawnLocation(Location location, long seed) throws Exception {
 
     if (location == null) {
-      throw new Exception("Invalid location data found while creating random spawn location!");
+      throw new Exception("Invalid location data found while creating spawn location!");
     }
 
     String locationId = null;
@@ -470,12 +554,12 @@ public class GameService {
       locationId = location.getName().replace("/","_");
     }
     else {
-      throw new Exception("Invalid location name found while creating random spawn location!");
+      throw new Exception("Invalid location name found while creating spawn location!");
     }
 
     if (location.getSnappedPoint() == null && location.getCenterPoint() == null) {
       throw new Exception(
-          "Invalid Lat Lng coordinates found while creating random spawn location!");
+          "Invalid Lat Lng coordinates found while creating spawn location!");
     }
 
     LatLng point = location.getSnappedPoint()==null?location.getCenterPoint():location.getSnappedPoint();
@@ -483,88 +567,11 @@ public class GameService {
     SpawnLocation spawnLocation = new SpawnLocation();
     spawnLocation.setSnappedPoint(point);
     spawnLocation.setLocationId(locationId);
-    int randomNum = ThreadLocalRandom.current().nextInt(0, 100 + 1);
-    if (isBetween(randomNum, 0,4)) {
-      spawnLocation.setObjectTypeId(ITEMS.ENERGY_STATION);
-      spawnLocation.setActive(true);
-      spawnLocation.setNumberOfKeysToActivate(0);
-      spawnLocation.setKeyTypeId(null);
-      spawnLocation.setRespawns(true);
-    } else if (isBetween(randomNum, 5,24)) {
-      spawnLocation.setObjectTypeId(ITEMS.CHEST);
-      spawnLocation.setActive(true);
-      spawnLocation.setNumberOfKeysToActivate(3);
-      spawnLocation.setKeyTypeId(ITEMS.GOLD_KEY);
-      spawnLocation.setRespawns(true);
-    } else if (isBetween(randomNum, 25,39)) {
-      spawnLocation.setObjectTypeId( ITEMS.TOWER);
-      spawnLocation.setActive(true);
-      spawnLocation.setNumberOfKeysToActivate(3);
-      spawnLocation.setKeyTypeId(ITEMS.DIAMOND_KEY);
-      spawnLocation.setRespawns(false);
-    } else {
-      spawnLocation.setObjectTypeId(ITEMS.MINION);
-      spawnLocation.setActive(true);
-      spawnLocation.setNumberOfKeysToActivate(0);
-      spawnLocation.setKeyTypeId(null);
-      spawnLocation.setRespawns(true);
-    }
+    SpawnGenerator.generate(spawnLocation, seed);
+    spawnLocation.setActive(true);
     return spawnLocation;
   }
 
-  /**
-   * Returns a reference table for bosses battles
-   */
-  private List<LootRefItem> GeneralBattleLootTable = new ArrayList<LootRefItem>() {
-    {
-      add(new LootRefItem(ITEMS.GOLD_KEY, 0.4, 1, 1));
-      add(new LootRefItem(ITEMS.HELMET_TYPE_2,0.1,1,1));
-      add(new LootRefItem(ITEMS.HELMET_TYPE_3,0.05,1,1));
-      add(new LootRefItem(ITEMS.BODY_ARMOR_TYPE_2,0.1,1,1));
-      add(new LootRefItem(ITEMS.BODY_ARMOR_TYPE_3,0.05,1,1));
-      add(new LootRefItem(ITEMS.SHIELD_TYPE_2,0.1,1,1));
-      add(new LootRefItem(ITEMS.SHIELD_TYPE_3,0.05,1,1));
-      add(new LootRefItem(ITEMS.WEAPON_TYPE_2,0.1,1,1));
-      add(new LootRefItem(ITEMS.WEAPON_TYPE_3,0.05,1,1));
-    }
-  };
-
-  /**
-   * Returns a reference table for minion battles
-   */
-  private List<LootRefItem> MinionBattleLootTable = new ArrayList<LootRefItem>() {
-    {
-      add(new LootRefItem(ITEMS.HELMET_TYPE_1,0.2,1,1));
-      add(new LootRefItem(ITEMS.HELMET_TYPE_2,0.05,1,1));
-      add(new LootRefItem(ITEMS.BODY_ARMOR_TYPE_1,0.2,1,1));
-      add(new LootRefItem(ITEMS.BODY_ARMOR_TYPE_2,0.05,1,1));
-      add(new LootRefItem(ITEMS.SHIELD_TYPE_1,0.2,1,1));
-      add(new LootRefItem(ITEMS.SHIELD_TYPE_2,0.05,1,1));
-      add(new LootRefItem(ITEMS.WEAPON_TYPE_1,0.2,1,1));
-      add(new LootRefItem(ITEMS.WEAPON_TYPE_2,0.05,1,1));
-    }
-  };
-
-  /**
-   * Returns a reference table for chests
-   */
-  private List<LootRefItem> ChestLootTable = new ArrayList<LootRefItem>(){
-    {
-      add(new LootRefItem(ITEMS.HELMET_TYPE_1,0.15,1,1));
-      add(new LootRefItem(ITEMS.HELMET_TYPE_2,0.07,1,1));
-      add(new LootRefItem(ITEMS.HELMET_TYPE_3,0.03,1,1));
-      add(new LootRefItem(ITEMS.BODY_ARMOR_TYPE_1,0.15,1,1));
-      add(new LootRefItem(ITEMS.BODY_ARMOR_TYPE_2,0.07,1,1));
-      add(new LootRefItem(ITEMS.BODY_ARMOR_TYPE_3,0.03,1,1));
-      add(new LootRefItem(ITEMS.SHIELD_TYPE_1,0.15,1,1));
-      add(new LootRefItem(ITEMS.SHIELD_TYPE_2,0.07,1,1));
-      add(new LootRefItem(ITEMS.SHIELD_TYPE_3,0.03,1,1));
-      add(new LootRefItem(ITEMS.WEAPON_TYPE_1,0.15,1,1));
-      add(new LootRefItem(ITEMS.WEAPON_TYPE_2,0.07,1,1));
-      add(new LootRefItem(ITEMS.WEAPON_TYPE_3,0.03,1,1));
-    }
-  };
-
   /**
    * With chests you get a gold key and 2 random items on the list.
    * @return The rewards for this minion battle.
@@ -573,7 +580,7 @@ public class GameService {
     RewardsData d = new RewardsData();
     d.getItems().add(new Item(ITEMS.GOLD_KEY,1));
     for (int i=0; i<1; i++) {
-      d.getItems().add(getRandomLootItem(MinionBattleLootTable));
+      d.getItems().add(minionBattleLootTable.draw(random.get()));
     }
     return d;
   }
@@ -586,7 +593,7 @@ public class GameService {
     RewardsData d = new RewardsData();
     d.getItems().add(new Item(ITEMS.FREED_LEADERS,1));
     for (int i=0; i<2; i++) {
-      d.getItems().add(getRandomLootItem(GeneralBattleLootTable));
+      d.getItems().add(generalBattleLootTable.draw(random.get()));
     }
     return d;
   }
@@ -599,31 +606,11 @@ public class GameService {
     RewardsData d = new RewardsData();
     d.getItems().add(new Item(ITEMS.DIAMOND_KEY,1));
     for (int i=0; i<2; i++) {
-      d.getItems().add(getRandomLootItem(ChestLootTable));
+      d.getItems().add(chestLootTable.draw(random.get()));
     }
     return d;
   }
 
-  /**
-   * Helper function that returns a random item from a given selection, based on the item weight.
-   *
-   * @param selections A list of reference items
-   * @return A new item
-   * @throws Exception When conditions are not met
-   */
-  private Item getRandomLootItem(List<LootRefItem> selections) throws Exception {
-    double rand = ThreadLocalRandom.current().nextDouble(0,1);
-    float currentProb = 0f;
-    for ( LootRefItem lri : selections) {
-      currentProb += lri.getWeight();
-      if (rand <= currentProb)
-        return new Item(lri.getItemId(),lri.getMinQuantity());
-    }
-    //will happen if the input's probabilities sums to less than 1
-    //throw error here if that's appropriate
-    throw new Exception("The sum of all weights from the given loot table is not equal to 1!");
-  }
-
   /**
    * Util function to check if a number is within range.
    * @param x The value to evaluate
@@ -0,0 +1,146 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies.services;
+
+import com.google.maps.gaming.zoinkies.cache.ObjectSizes;
+import com.google.maps.gaming.zoinkies.cache.ReplayCache;
+import com.google.maps.gaming.zoinkies.models.BattleSummaryData;
+import com.google.maps.gaming.zoinkies.models.EnergyData;
+import com.google.maps.gaming.zoinkies.models.RewardsData;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.function.Supplier;
+import javax.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.context.annotation.Scope;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+
+/**
+ * This class makes game actions safe to retry.
+ *
+ * Clients may send an Idempotency-Key header with the actions that grant or spend something.
+ * The response of the first request with a given key is stored, and a retry with the same key
+ * gets that response back without running the action again, even while the first request is
+ * still running. Server errors are not stored, so that they can be retried for real.
+ *
+ * Keys are scoped by device. Responses are only held by the instance that served them: a retry
+ * landing on another instance runs the action again.
+ */
+@Service
+@Scope(value = ConfigurableBeanFactory.SCOPE_SINGLETON)
+public class IdempotencyService {
+
+  /**
+   * The request header holding the key
+   */
+  public static final String HEADER = "Idempotency-Key";
+
+  private static final int MAX_KEY_LENGTH = 255;
+
+  /**
+   * Estimated size of a response without its body: the entity, its empty headers and status
+   */
+  private static final long RESPONSE_OVERHEAD = 16 + 3 * 4 + 64;
+
+  /**
+   * A reference to the meter registry
+   */
+  @Autowired
+  MeterRegistry meterRegistry;
+
+  /**
+   * Honors the Idempotency-Key header
+   */
+  @Value("${zoinkies.idempotency.enabled:true}")
+  boolean enabled;
+
+  /**
+   * Maximum amount of estimated bytes held by stored responses and their keys
+   */
+  @Value("${zoinkies.idempotency.max-bytes:1048576}")
+  long maxBytes;
+
+  /**
+   * How long a response is replayed
+   */
+  @Value("${zoinkies.idempotency.ttl-millis:600000}")
+  long ttlMillis;
+
+  private ReplayCache<ResponseEntity<?>> responses;
+
+  /**
+   * Creates the response store, if enabled.
+   */
+  @PostConstruct
+  void start() {
+    if (!enabled) {
+      return;
+    }
+    responses = new ReplayCache<>("actions", maxBytes, ttlMillis, IdempotencyService::weigh,
+        response -> !response.getStatusCode().is5xxServerError());
+    responses.bindTo(meterRegistry);
+  }
+
+  /**
+   * Runs an action, or replays its response if it already ran with the same key.
+   *
+   * @param deviceId The User Id
+   * @param idempotencyKey the key sent by the client, or null to always run the action
+   * @param request identifies the action, a key can't be reused for another one
+   * @param action runs the action and builds its response
+   * @param <T> the response body type
+   * @return the response of the first request with this key, 400 if the key is too long, or
+   * 422 if it was used for another action
+   */
+  @SuppressWarnings("unchecked")
+  public <T> ResponseEntity<T> execute(String deviceId, String idempotencyKey, String request,
+      Supplier<ResponseEntity<T>> action) {
+    if (responses == null || idempotencyKey == null || idempotencyKey.isEmpty()) {
+      return action.get();
+    }
+    if (idempotencyKey.length() > MAX_KEY_LENGTH) {
+      return ResponseEntity.badRequest().build();
+    }
+    // Prefixed with its length, so that no other device id and key add up to the same key.
+    String key = deviceId.length() + ":" + deviceId + idempotencyKey;
+    try {
+      return (ResponseEntity<T>) responses.execute(key, request,
+          (Supplier<ResponseEntity<?>>) (Supplier<?>) action);
+    } catch (IllegalArgumentException e) {
+      return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).build();
+    }
+  }
+
+  /**
+   * Helper function that estimates the size of a stored response.
+   */
+  private static long weigh(ResponseEntity<?> response) {
+    Object body = response.getBody();
+    if (body instanceof RewardsData) {
+      return RESPONSE_OVERHEAD + ObjectSizes.of((RewardsData) body);
+    }
+    if (body instanceof BattleSummaryData) {
+      return RESPONSE_OVERHEAD + ObjectSizes.of((BattleSummaryData) body);
+    }
+    if (body instanceof EnergyData) {
+      return RESPONSE_OVERHEAD + ObjectSizes.of((EnergyData) body);
+    }
+    return RESPONSE_OVERHEAD;
+  }
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies.services;
+
+import com.google.maps.gaming.zoinkies.logging.AsyncLogger;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Service;
+
+/**
+ * This class reports unexpected failures of the request handlers, as JSON lines on stderr
+ * written by a background thread. See {@link AsyncLogger}.
+ *
+ * Normal gameplay outcomes, such as a chest still respawning, are not failures and aren't logged.
+ */
+@Service
+@Scope(value = ConfigurableBeanFactory.SCOPE_SINGLETON)
+public class LogService {
+
+  /**
+   * A reference to the meter registry
+   */
+  @Autowired
+  MeterRegistry meterRegistry;
+
+  /**
+   * Maximum amount of records waiting to be written, further records are dropped
+   */
+  @Value("${zoinkies.log.queue-capacity:8192}")
+  int queueCapacity;
+
+  private AsyncLogger logger;
+
+  /**
+   * Starts the writer thread.
+   */
+  @PostConstruct
+  void start() {
+    logger = new AsyncLogger("log-writer", queueCapacity, System.err);
+    FunctionCounter.builder("zoinkies.log.records", logger, AsyncLogger::getWritten)
+        .tag("result", "written").register(meterRegistry);
+    FunctionCounter.builder("zoinkies.log.records", logger, AsyncLogger::getDropped)
+        .tag("result", "dropped").register(meterRegistry);
+  }
+
+  /**
+   * Writes the pending records.
+   */
+  @PreDestroy
+  void stop() {
+    logger.close(1000);
+  }
+
+  /**
+   * Reports an unexpected failure.
+   *
+   * @param event a short name for what failed, such as "chests.failed"
+   * @param error the cause
+   * @param fields alternating names and values giving context, such as the device id
+   */
+  public void error(String event, Throwable error, String... fields) {
+    logger.error(event, error, fields);
+  }
+
+  /**
+   * Reports a notable event that isn't a failure, such as a configuration reload.
+   *
+   * @param event a short name for what happened, such as "references.reloaded"
+   * @param fields alternating names and values giving context
+   */
+  public void info(String event, String... fields) {
+    logger.info(event, fields);
+  }
+}
@@ -20,6 +20,9 @@ import com.google.common.geometry.S2CellId;
 import com.google.common.geometry.S2CellUnion;
 import com.google.common.geometry.S2LatLng;
 import com.google.common.geometry.S2LatLngRect;
+import com.google.common.geometry.S2Loop;
+import com.google.common.geometry.S2Point;
+import com.google.common.geometry.S2Polygon;
 import com.google.common.geometry.S2RegionCoverer;
 import com.google.maps.gaming.zoinkies.models.playablelocations.AreaFilter;
 import com.google.maps.gaming.zoinkies.models.playablelocations.Criteria;
@@ -84,35 +87,7 @@ public class PlayableLocationsService {
   public Response requestPlayableLocations(LatLng loLatLng, LatLng hiLatLng, Criteria[] criteria,
       HashMap<String, String> PlayableLocationsCache) throws Exception {
 
-    RestTemplate restTemplate = new RestTemplate();
-    HttpHeaders headers = new HttpHeaders();
-    headers.setContentType(MediaType.APPLICATION_JSON);
-    headers.add("x-goog-api-key", API_KEY);
-
-    Request request = new Request();
-    request.setAreaFilter(new AreaFilter());
-    if (criteria == null) {
-      request.setCriteria(getDefaultCriteria());
-    } else {
-      request.setCriteria(criteria);
-    }
-
-    // Configure a region coverer, which will help us get all overlapping S2 cells
-    // on the
-    // given Lat Lng rectangle
-    S2RegionCoverer regionCoverer = new S2RegionCoverer();
-    regionCoverer.setMinLevel(this.S2_CELL_LEVEL);
-    regionCoverer.setMaxLevel(this.S2_CELL_MAX_LEVEL);
-
-    // Get the two opposite corners in degrees.
-    S2LatLng lo = S2LatLng.fromDegrees(loLatLng.getLatitude(), loLatLng.getLongitude());
-    S2LatLng hi = S2LatLng.fromDegrees(hiLatLng.getLatitude(), hiLatLng.getLongitude());
-
-    // Define the Lat Lng Rectangle
-    S2LatLngRect latLngRect = new S2LatLngRect(lo, hi);
-
-    // Get all cells that are covering the provided area
-    S2CellUnion cellUnion = regionCoverer.getCovering(latLngRect);
+    S2CellUnion cellUnion = getCovering(loLatLng, hiLatLng);
 
     Response combinedResponse = new Response();
     String objectType = Integer.toString(GAME_OBJECT_TYPE_SPAWN_LOCATIONS);
@@ -120,7 +95,6 @@ public class PlayableLocationsService {
     combinedResponse.getLocationsPerGameObjectType().put(objectType, new Locations());
 
     List<Location> combinedLocations = new ArrayList<>();
-    ObjectMapper objectMapper = new ObjectMapper();
 
     // For each overlapping cell, query playable locations API and merge results
     // into
@@ -141,55 +115,162 @@ public class PlayableLocationsService {
       // The code below handles cells that haven't been processed yet as they are
       // missing
       // from our cache.
-      // All playable locations returned within that cell are tagged with a cell id.
-      request.getAreaFilter().setS2CellId(cellIdString);
+      Response response = requestCellLocations(cellIdString, criteria);
 
-      String reqJson = objectMapper.writeValueAsString(request);
-      HttpEntity<String> httpEntity = new HttpEntity<String>(reqJson, headers);
+      combinedResponse.setTtl(response.getTtl());
+
+      combinedLocations.addAll(Arrays.asList(response.getLocationsPerGameObjectType().get(objectType).getLocations()));
 
-      String playableLocationsResponse = restTemplate.postForObject(PLAYABLE_LOCATION_URL, httpEntity, String.class);
-      if (playableLocationsResponse == null) {
-        throw new Exception("Received an invalid playableLocationsResponse! (null)");
+      // Update the cache
+      if (PlayableLocationsCache != null && !PlayableLocationsCache.containsKey(cellIdString)
+          && response.getTtl() != null && !response.getTtl().isEmpty()) {
+        PlayableLocationsCache.put(cellIdString, "PT" + response.getTtl());
       }
+    }
 
-      Response response = objectMapper.readValue(playableLocationsResponse, Response.class);
+    combinedResponse.getLocationsPerGameObjectType().get(objectType)
+        .setLocations(combinedLocations.toArray(new Location[0]));
+    return combinedResponse;
+  }
 
-      if (response == null) {
-        throw new Exception("Error while deserializing playable locations response.");
-      }
+  /**
+   * Loads the playable locations of a single S2 cell.
+   * All playable locations returned within that cell are tagged with its cell id.
+   *
+   * @param cellIdString the S2 cell id, as an unsigned decimal string
+   * @param criteria the request criteria, null for the default ones
+   * @return A Playable Location Response
+   */
+  public Response requestCellLocations(String cellIdString, Criteria[] criteria)
+      throws Exception {
+    RestTemplate restTemplate = new RestTemplate();
+    HttpHeaders headers = new HttpHeaders();
+    headers.setContentType(MediaType.APPLICATION_JSON);
+    headers.add("x-goog-api-key", API_KEY);
 
-      if (response.getLocationsPerGameObjectType() == null) {
-        throw new Exception("Error: could not find a valid locations per gameobject type.");
-      }
+    Request request = new Request();
+    request.setAreaFilter(new AreaFilter());
+    if (criteria == null) {
+      request.setCriteria(getDefaultCriteria());
+    } else {
+      request.setCriteria(criteria);
+    }
+    request.getAreaFilter().setS2CellId(cellIdString);
+    String objectType = Integer.toString(GAME_OBJECT_TYPE_SPAWN_LOCATIONS);
+    ObjectMapper objectMapper = new ObjectMapper();
 
-      if (response.getLocationsPerGameObjectType().get(objectType) == null) {
-        throw new Exception("Error: no valid locations data for playable locations object type:" + objectType);
-      }
+    String reqJson = objectMapper.writeValueAsString(request);
+    HttpEntity<String> httpEntity = new HttpEntity<String>(reqJson, headers);
 
-      if (response.getLocationsPerGameObjectType().get(objectType).getLocations() == null) {
-        throw new Exception("Error: found no locations for current request.");
-      }
+    String playableLocationsResponse = restTemplate.postForObject(PLAYABLE_LOCATION_URL, httpEntity, String.class);
+    if (playableLocationsResponse == null) {
+      throw new Exception("Received an invalid playableLocationsResponse! (null)");
+    }
 
-      combinedResponse.setTtl(response.getTtl());
+    Response response = objectMapper.readValue(playableLocationsResponse, Response.class);
 
-      for (Location location : response.getLocationsPerGameObjectType().get(objectType).getLocations()) {
-        if (location != null) {
-          location.setS2CellId(request.getAreaFilter().getS2CellId());
-        }
-      }
+    if (response == null) {
+      throw new Exception("Error while deserializing playable locations response.");
+    }
 
-      combinedLocations.addAll(Arrays.asList(response.getLocationsPerGameObjectType().get(objectType).getLocations()));
+    if (response.getLocationsPerGameObjectType() == null) {
+      throw new Exception("Error: could not find a valid locations per gameobject type.");
+    }
 
-      // Update the cache
-      if (PlayableLocationsCache != null && !PlayableLocationsCache.containsKey(request.getAreaFilter().getS2CellId())
-          && response.getTtl() != null && !response.getTtl().isEmpty()) {
-        PlayableLocationsCache.put(request.getAreaFilter().getS2CellId(), "PT" + response.getTtl());
+    if (response.getLocationsPerGameObjectType().get(objectType) == null) {
+      throw new Exception("Error: no valid locations data for playable locations object type:" + objectType);
+    }
+
+    if (response.getLocationsPerGameObjectType().get(objectType).getLocations() == null) {
+      throw new Exception("Error: found no locations for current request.");
+    }
+
+    for (Location location : response.getLocationsPerGameObjectType().get(objectType).getLocations()) {
+      if (location != null) {
+        location.setS2CellId(cellIdString);
       }
     }
+    return response;
+  }
 
-    combinedResponse.getLocationsPerGameObjectType().get(objectType)
-        .setLocations(combinedLocations.toArray(new Location[0]));
-    return combinedResponse;
+  /**
+   * Returns the ids of the S2 cells overlapping with the rectangle area identified by the given
+   * corners, which are the cells {@link #requestPlayableLocations} queries.
+   *
+   * @param loLatLng the south west corner
+   * @param hiLatLng the north east corner
+   * @return the cell ids, as unsigned decimal strings
+   */
+  public List<String> getCoveringCellIds(LatLng loLatLng, LatLng hiLatLng) {
+    List<String> cellIds = new ArrayList<>();
+    for (S2CellId id : getCovering(loLatLng, hiLatLng).cellIds()) {
+      cellIds.add(Long.toUnsignedString(id.id()));
+    }
+    return cellIds;
+  }
+
+  /**
+   * Returns the ids of the S2 cells of the given level covering a polygon.
+   *
+   * @param vertices the polygon vertices, in any orientation
+   * @param level the S2 cell level
+   * @return the cell ids, as unsigned decimal strings, in Hilbert order
+   */
+  public List<String> getPolygonCellIds(List<LatLng> vertices, int level) {
+    List<S2Point> points = new ArrayList<>();
+    for (LatLng vertex : vertices) {
+      points.add(S2LatLng.fromDegrees(vertex.getLatitude(), vertex.getLongitude()).toPoint());
+    }
+    S2Loop loop = new S2Loop(points);
+    // Whichever way the vertices go, cover the smaller side.
+    loop.normalize();
+    S2RegionCoverer regionCoverer = new S2RegionCoverer();
+    regionCoverer.setMinLevel(level);
+    regionCoverer.setMaxLevel(level);
+    regionCoverer.setMaxCells(Integer.MAX_VALUE);
+    List<String> cellIds = new ArrayList<>();
+    for (S2CellId id : regionCoverer.getCovering(new S2Polygon(loop)).cellIds()) {
+      cellIds.add(Long.toUnsignedString(id.id()));
+    }
+    return cellIds;
+  }
+
+  /**
+   * Getter for the smallest S2 cell level covering requested rectangles.
+   * @return the level of the largest cells
+   */
+  public int getMinCellLevel() {
+    return S2_CELL_LEVEL;
+  }
+
+  /**
+   * Getter for the largest S2 cell level covering requested rectangles.
+   * @return the level of the smallest cells
+   */
+  public int getMaxCellLevel() {
+    return S2_CELL_MAX_LEVEL;
+  }
+
+  /**
+   * Helper function that covers the given rectangle with S2 cells.
+   */
+  private S2CellUnion getCovering(LatLng loLatLng, LatLng hiLatLng) {
+    // Configure a region coverer, which will help us get all overlapping S2 cells
+    // on the
+    // given Lat Lng rectangle
+    S2RegionCoverer regionCoverer = new S2RegionCoverer();
+    regionCoverer.setMinLevel(this.S2_CELL_LEVEL);
+    regionCoverer.setMaxLevel(this.S2_CELL_MAX_LEVEL);
+
+    // Get the two opposite corners in degrees.
+    S2LatLng lo = S2LatLng.fromDegrees(loLatLng.getLatitude(), loLatLng.getLongitude());
+    S2LatLng hi = S2LatLng.fromDegrees(hiLatLng.getLatitude(), hiLatLng.getLongitude());
+
+    // Define the Lat Lng Rectangle
+    S2LatLngRect latLngRect = new S2LatLngRect(lo, hi);
+
+    // Get all cells that are covering the provided area
+    return regionCoverer.getCovering(latLngRect);
   }
 
   /**
@@ -20,10 +20,17 @@ import com.google.cloud.firestore.CollectionReference;
 import com.google.cloud.firestore.DocumentReference;
 import com.google.cloud.firestore.DocumentSnapshot;
 import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.WriteResult;
 import com.google.maps.gaming.zoinkies.ITEMS;
+import com.google.maps.gaming.zoinkies.cache.NearCache;
+import com.google.maps.gaming.zoinkies.cache.ObjectSizes;
+import com.google.maps.gaming.zoinkies.codecs.PlayerDataCodec;
 import com.google.maps.gaming.zoinkies.models.PlayerData;
+import io.micrometer.core.instrument.MeterRegistry;
 import java.util.concurrent.ExecutionException;
+import javax.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.context.annotation.Scope;
 import org.springframework.lang.Nullable;
@@ -39,6 +46,45 @@ public class PlayerService {
   @Autowired
   Firestore firestore;
 
+  /**
+   * A reference to the update stream service
+   */
+  @Autowired
+  StreamService streamService;
+
+  /**
+   * A reference to the meter registry
+   */
+  @Autowired
+  MeterRegistry meterRegistry;
+
+  /**
+   * Size budget of the player near-cache, in estimated bytes
+   */
+  @Value("${zoinkies.cache.players.max-bytes:1048576}")
+  long cacheMaxBytes;
+
+  /**
+   * How long a cached player is served without checking Firestore
+   */
+  @Value("${zoinkies.cache.players.ttl-millis:30000}")
+  long cacheTtlMillis;
+
+  /**
+   * Near-cache of player documents, keyed by device id.
+   */
+  private NearCache<PlayerData> cache;
+
+  /**
+   * Creates the near-cache once the configuration has been injected.
+   */
+  @PostConstruct
+  void initCache() {
+    cache = new NearCache<>("players", cacheMaxBytes, cacheTtlMillis,
+        ObjectSizes::of, PlayerData::new);
+    cache.bindTo(meterRegistry);
+  }
+
   /**
    * If it doesn't exist, create one
    * Otherwise return the current user data in the response
@@ -50,32 +96,42 @@ public class PlayerService {
    */
   @Nullable
   public PlayerData getPlayerData(String deviceId) throws ExecutionException, InterruptedException {
+    PlayerData data = cache.getIfFresh(deviceId);
+    if (data != null) {
+      return data;
+    }
     ApiFuture<DocumentSnapshot> documentSnapshotApiFuture =
         this.firestore.document("users/" + deviceId).get();
     DocumentSnapshot document = documentSnapshotApiFuture.get();
-    if (document.exists()) {
-      return document.toObject(PlayerData.class);
+    if (!document.exists()) {
+      cache.invalidate(deviceId);
+      return null;
+    }
+    // Skip decoding if nobody wrote the document since we cached it.
+    data = cache.revalidate(deviceId, document.getUpdateTime());
+    if (data == null) {
+      data = PlayerDataCodec.decode(document.getData());
+      cache.put(deviceId, data, document.getUpdateTime());
     }
-    return null;
+    return data;
   }
 
   /**
    * Deletes the player's stats and inventory.
    * @param deviceId Device generated Id identifying the player.
    * @implNote This function does not remove the world collection associated to the player.
+   * @throws ExecutionException
+   * @throws InterruptedException
    */
-  public void removeUserData(String deviceId) {
+  public void removeUserData(String deviceId) throws ExecutionException, InterruptedException {
     CollectionReference users = this.firestore.collection("users");
-    users.listDocuments().forEach(documentReference -> {
+    for (DocumentReference documentReference : users.listDocuments()) {
       if (documentReference.getId().equals(deviceId)) {
         // Remove the player's data
-        try {
-          documentReference.delete().get();
-        } catch (InterruptedException | ExecutionException e) {
-          e.printStackTrace();
-        }
+        cache.invalidate(deviceId);
+        documentReference.delete().get();
       }
-    });
+    }
   }
 
   /**
@@ -89,10 +145,17 @@ public class PlayerService {
    */
   public PlayerData updatePlayerData(String Id, PlayerData newData)
       throws ExecutionException, InterruptedException {
-    //ApiFuture<DocumentSnapshot> documentSnapshotApiFuture =
-    //    this.firestore.document("users/" + Id).get();
-    this.firestore.document("users/"+Id).set(newData).get();
-    newData = getPlayerData(Id);
-    return newData;
+    WriteResult result;
+    try {
+      result = this.firestore.document("users/" + Id).set(PlayerDataCodec.encode(newData)).get();
+    } catch (ExecutionException | InterruptedException e) {
+      // The write may or may not have landed.
+      cache.invalidate(Id);
+      throw e;
+    }
+    // Write-through: the cache now holds what we just wrote.
+    cache.put(Id, newData, result.getUpdateTime());
+    streamService.publishPlayer(Id, newData);
+    return getPlayerData(Id);
   }
 }
@@ -0,0 +1,460 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies.services;
+
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.google.common.geometry.S2CellId;
+import com.google.common.geometry.S2LatLng;
+import com.google.maps.gaming.zoinkies.codecs.SpawnLocationCellCodec;
+import com.google.maps.gaming.zoinkies.models.WorldData;
+import com.google.maps.gaming.zoinkies.models.playablelocations.LatLng;
+import com.google.maps.gaming.zoinkies.models.playablelocations.Location;
+import com.google.maps.gaming.zoinkies.models.playablelocations.Response;
+import com.google.maps.gaming.zoinkies.spatial.CellIdRanges;
+import com.google.maps.gaming.zoinkies.spawning.SpawnGenerator;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Service;
+
+/**
+ * This class pre-generates the shared spawn layers of a region, typically a city ahead of a
+ * launch event, so that the first players don't all wait on Playable Locations.
+ *
+ * The region is a lat/lng polygon, covered with S2 cells at each of the game's cell levels.
+ * Cells are processed in Hilbert order, one chunk at a time: their playable locations are fetched
+ * with bounded parallelism (or synthesised, for load tests and offline environments), their
+ * spawn locations generated in a fork/join pool, and the layers bulk-loaded into the cell store
+ * and its near-cache. After each chunk, the finished cells are checkpointed as leaf id ranges in
+ * pregenerations/{jobId}, so that a restarted job skips them.
+ *
+ * The job runs once on start when enabled, and only makes sense in shared world mode: per-device
+ * worlds are built from the layers as players show up.
+ */
+@Service
+@Scope(value = ConfigurableBeanFactory.SCOPE_SINGLETON)
+public class PregenerationService {
+
+  /**
+   * Cells generated by a single fork/join task
+   */
+  private static final int GENERATE_THRESHOLD = 4;
+
+  /**
+   * Generates the layers of a slice of cells, splitting the slice while it is large.
+   */
+  private class GenerateTask extends RecursiveTask<List<WorldData>> {
+    private static final long serialVersionUID = 1L;
+
+    private final List<String> cellIds;
+    private final Map<String, List<Location>> locations;
+    private final Map<String, String> ttls;
+
+    private GenerateTask(List<String> cellIds, Map<String, List<Location>> locations,
+        Map<String, String> ttls) {
+      this.cellIds = cellIds;
+      this.locations = locations;
+      this.ttls = ttls;
+    }
+
+    @Override
+    protected List<WorldData> compute() {
+      if (cellIds.size() > GENERATE_THRESHOLD) {
+        int half = cellIds.size() / 2;
+        GenerateTask left = new GenerateTask(cellIds.subList(0, half), locations, ttls);
+        GenerateTask right =
+            new GenerateTask(cellIds.subList(half, cellIds.size()), locations, ttls);
+        left.fork();
+        List<WorldData> layers = new ArrayList<>(right.compute());
+        layers.addAll(0, left.join());
+        return layers;
+      }
+      List<WorldData> layers = new ArrayList<>(cellIds.size());
+      for (String cellId : cellIds) {
+        try {
+          layers.add(spawnCellService.generateCell(cellId, locations.get(cellId),
+              ttls.get(cellId)));
+        } catch (Exception e) {
+          // Left out of the checkpoint, and retried on the next run.
+          logService.error("pregen.generate.failed", e, "jobId", jobId, "cellId", cellId);
+          failed.incrementAndGet();
+        }
+      }
+      return layers;
+    }
+  }
+
+  /**
+   * A reference to the Firestore service
+   */
+  @Autowired
+  Firestore firestore;
+
+  /**
+   * A reference to the playable locations service
+   */
+  @Autowired
+  PlayableLocationsService playableLocationsService;
+
+  /**
+   * A reference to the shared spawn cell service
+   */
+  @Autowired
+  SpawnCellService spawnCellService;
+
+  /**
+   * A reference to the meter registry
+   */
+  @Autowired
+  MeterRegistry meterRegistry;
+
+  /**
+   * A reference to the log service
+   */
+  @Autowired
+  LogService logService;
+
+  /**
+   * Runs the pre-generation job on start
+   */
+  @Value("${zoinkies.pregen.enabled:false}")
+  boolean enabled;
+
+  /**
+   * Identifies the job checkpoint, reuse it to resume an interrupted job
+   */
+  @Value("${zoinkies.pregen.job-id:default}")
+  String jobId;
+
+  /**
+   * The region, as lat,lng vertices separated by semicolons
+   */
+  @Value("${zoinkies.pregen.polygon:}")
+  String polygon;
+
+  /**
+   * Amount of concurrent Playable Locations requests
+   */
+  @Value("${zoinkies.pregen.fetch-parallelism:8}")
+  int fetchParallelism;
+
+  /**
+   * Amount of threads generating spawn locations, 0 for one per core
+   */
+  @Value("${zoinkies.pregen.generate-parallelism:0}")
+  int generateParallelism;
+
+  /**
+   * Amount of cells processed and checkpointed at once
+   */
+  @Value("${zoinkies.pregen.chunk-size:500}")
+  int chunkSize;
+
+  /**
+   * Amount of locations synthesised per cell, 0 to fetch them from Playable Locations
+   */
+  @Value("${zoinkies.pregen.synthetic-locations:0}")
+  int syntheticLocations;
+
+  /**
+   * How long synthesised locations are valid
+   */
+  @Value("${zoinkies.pregen.synthetic-ttl:PT604800S}")
+  String syntheticTtl;
+
+  private final AtomicLong generated = new AtomicLong();
+  private final AtomicLong skipped = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+
+  /**
+   * When the current run started, and the cell level it is at
+   */
+  private volatile long startedAt;
+  private volatile int level;
+
+  private ExecutorService runner;
+  private ExecutorService fetchers;
+  private ForkJoinPool generators;
+
+  /**
+   * Registers the progress metrics and starts the job if it is enabled.
+   */
+  @PostConstruct
+  void start() {
+    if (!enabled) {
+      return;
+    }
+    FunctionCounter.builder("zoinkies.pregen.cells", generated, AtomicLong::get)
+        .tag("result", "generated").register(meterRegistry);
+    FunctionCounter.builder("zoinkies.pregen.cells", skipped, AtomicLong::get)
+        .tag("result", "skipped").register(meterRegistry);
+    FunctionCounter.builder("zoinkies.pregen.cells", failed, AtomicLong::get)
+        .tag("result", "failed").register(meterRegistry);
+    Gauge.builder("zoinkies.pregen.rate", this, PregenerationService::getCellsPerSecond)
+        .description("Cells generated per second since the job started")
+        .register(meterRegistry);
+    Gauge.builder("zoinkies.pregen.level", this, PregenerationService::getLevel)
+        .description("Cell level being generated")
+        .register(meterRegistry);
+    fetchers = Executors.newFixedThreadPool(fetchParallelism, r -> {
+      Thread t = new Thread(r, "pregen-fetch");
+      t.setDaemon(true);
+      return t;
+    });
+    generators = generateParallelism > 0
+        ? new ForkJoinPool(generateParallelism) : new ForkJoinPool();
+    runner = Executors.newSingleThreadExecutor(r -> {
+      Thread t = new Thread(r, "pregen");
+      t.setDaemon(true);
+      return t;
+    });
+    runner.execute(this::runJob);
+  }
+
+  /**
+   * Stops an ongoing job, it resumes from its last checkpoint on the next start.
+   */
+  @PreDestroy
+  void stop() {
+    if (runner != null) {
+      runner.shutdownNow();
+      fetchers.shutdownNow();
+      generators.shutdownNow();
+    }
+  }
+
+  /**
+   * Helper function that runs the job and reports how it ended.
+   */
+  private void runJob() {
+    try {
+      run(parsePolygon(polygon));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (Exception e) {
+      // Picked up again from the last checkpoint on the next start.
+      logService.error("pregen.failed", e, "jobId", jobId);
+    }
+  }
+
+  /**
+   * Pre-generates the layers of all cells covering a polygon, at all cell levels.
+   *
+   * @param vertices the polygon vertices
+   * @throws ExecutionException
+   * @throws InterruptedException
+   */
+  void run(List<LatLng> vertices) throws ExecutionException, InterruptedException {
+    DocumentReference checkpoint = this.firestore.document("pregenerations/" + jobId);
+    Map<String, long[]> done = readCheckpoint(checkpoint.get().get());
+    startedAt = System.currentTimeMillis();
+    for (int level = playableLocationsService.getMinCellLevel();
+        level <= playableLocationsService.getMaxCellLevel(); level++) {
+      this.level = level;
+      String key = Integer.toString(level);
+      long[] ranges = done.getOrDefault(key, new long[0]);
+      List<String> pending = new ArrayList<>();
+      for (String cellId : playableLocationsService.getPolygonCellIds(vertices, level)) {
+        if (CellIdRanges.contains(ranges, SpawnLocationCellCodec.parseCellId(cellId))) {
+          skipped.incrementAndGet();
+        } else {
+          pending.add(cellId);
+        }
+      }
+      for (int start = 0; start < pending.size(); start += chunkSize) {
+        List<String> chunk = pending.subList(start, Math.min(start + chunkSize, pending.size()));
+        List<Long> finished = new ArrayList<>(chunk.size());
+        for (WorldData layer : generateChunk(chunk)) {
+          finished.add(SpawnLocationCellCodec.parseCellId(
+              layer.getS2CellsTTL().keySet().iterator().next()));
+        }
+        ranges = CellIdRanges.of(ranges, finished);
+        done.put(key, ranges);
+        writeCheckpoint(checkpoint, done, false);
+      }
+    }
+    writeCheckpoint(checkpoint, done, failed.get() == 0);
+  }
+
+  /**
+   * Helper function that fetches, generates and stores the layers of a chunk of cells.
+   * Cells whose locations couldn't be fetched are left out, and retried on the next run.
+   */
+  private List<WorldData> generateChunk(List<String> cellIds)
+      throws ExecutionException, InterruptedException {
+    Map<String, Future<Response>> fetches = new HashMap<>();
+    if (syntheticLocations <= 0) {
+      for (String cellId : cellIds) {
+        fetches.put(cellId, fetchers.submit(
+            () -> playableLocationsService.requestCellLocations(cellId, null)));
+      }
+    }
+    List<String> fetched = new ArrayList<>(cellIds.size());
+    Map<String, List<Location>> locations = new HashMap<>();
+    Map<String, String> ttls = new HashMap<>();
+    for (String cellId : cellIds) {
+      if (syntheticLocations > 0) {
+        locations.put(cellId, synthesizeLocations(cellId, syntheticLocations));
+        ttls.put(cellId, syntheticTtl);
+        fetched.add(cellId);
+        continue;
+      }
+      try {
+        Response response = fetches.get(cellId).get();
+        List<Location> cellLocations = new ArrayList<>();
+        for (Location location : response.getLocationsPerGameObjectType().get("0")
+            .getLocations()) {
+          if (location != null) {
+            cellLocations.add(location);
+          }
+        }
+        locations.put(cellId, cellLocations);
+        ttls.put(cellId, response.getTtl() == null ? "PT0S" : "PT" + response.getTtl());
+        fetched.add(cellId);
+      } catch (ExecutionException e) {
+        logService.error("pregen.fetch.failed", e.getCause(), "jobId", jobId, "cellId", cellId);
+        failed.incrementAndGet();
+      }
+    }
+    List<WorldData> layers = generators.invoke(new GenerateTask(fetched, locations, ttls));
+    spawnCellService.storeCells(layers);
+    generated.addAndGet(layers.size());
+    return layers;
+  }
+
+  /**
+   * Getter for the generation rate.
+   * @return the cells generated per second since the job started, 0 before it starts
+   */
+  public double getCellsPerSecond() {
+    long startedAt = this.startedAt;
+    if (startedAt == 0) {
+      return 0;
+    }
+    return generated.get() * 1000.0 / Math.max(1, System.currentTimeMillis() - startedAt);
+  }
+
+  /**
+   * Getter for the cell level being generated.
+   * @return the cell level, 0 before the job starts
+   */
+  public int getLevel() {
+    return level;
+  }
+
+  /**
+   * Helper function that reads the finished cells of each level from a checkpoint.
+   */
+  @SuppressWarnings("unchecked")
+  private static Map<String, long[]> readCheckpoint(DocumentSnapshot document) {
+    Map<String, long[]> done = new HashMap<>();
+    if (!document.exists() || document.get("ranges") == null) {
+      return done;
+    }
+    Map<String, Object> ranges = (Map<String, Object>) document.get("ranges");
+    for (Map.Entry<String, Object> entry : ranges.entrySet()) {
+      List<Long> bounds = (List<Long>) entry.getValue();
+      long[] levelRanges = new long[bounds.size()];
+      for (int i = 0; i < levelRanges.length; i++) {
+        levelRanges[i] = bounds.get(i);
+      }
+      done.put(entry.getKey(), levelRanges);
+    }
+    return done;
+  }
+
+  /**
+   * Helper function that stores the finished cells of each level as merged leaf id ranges.
+   */
+  private static void writeCheckpoint(DocumentReference checkpoint, Map<String, long[]> done,
+      boolean complete) throws ExecutionException, InterruptedException {
+    Map<String, Object> ranges = new HashMap<>();
+    for (Map.Entry<String, long[]> entry : done.entrySet()) {
+      List<Long> bounds = new ArrayList<>();
+      for (long bound : entry.getValue()) {
+        bounds.add(bound);
+      }
+      ranges.put(entry.getKey(), bounds);
+    }
+    Map<String, Object> data = new HashMap<>();
+    data.put("ranges", ranges);
+    data.put("complete", complete);
+    data.put("updatedAt", System.currentTimeMillis());
+    checkpoint.set(data).get();
+  }
+
+  /**
+   * Helper function that places pseudo-random locations in a cell, the same ones on every run.
+   */
+  private static List<Location> synthesizeLocations(String cellId, int count) {
+    long id = SpawnLocationCellCodec.parseCellId(cellId);
+    long min = CellIdRanges.rangeMin(id);
+    long leaves = (CellIdRanges.rangeMax(id) - min) / 2 + 1;
+    Random random = new Random(SpawnGenerator.worldSeed(cellId, 0));
+    List<Location> locations = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      S2LatLng point = new S2CellId(min + 2 * Math.floorMod(random.nextLong(), leaves))
+          .toLatLng();
+      Location location = new Location();
+      location.setName("synthetic/" + cellId + "/" + i);
+      location.setSnappedPoint(new LatLng(point.latDegrees(), point.lngDegrees()));
+      location.setS2CellId(cellId);
+      location.setTypes(new String[] {"synthetic"});
+      locations.add(location);
+    }
+    return locations;
+  }
+
+  /**
+   * Helper function that parses a polygon given as lat,lng vertices separated by semicolons.
+   */
+  static List<LatLng> parsePolygon(String polygon) {
+    List<LatLng> vertices = new ArrayList<>();
+    for (String vertex : polygon.split(";")) {
+      List<String> parts = Arrays.asList(vertex.trim().split(","));
+      if (parts.size() != 2) {
+        throw new IllegalArgumentException("Invalid polygon vertex: " + vertex);
+      }
+      vertices.add(new LatLng(Double.parseDouble(parts.get(0).trim()),
+          Double.parseDouble(parts.get(1).trim())));
+    }
+    if (vertices.size() < 3) {
+      throw new IllegalArgumentException("A polygon needs at least 3 vertices: " + polygon);
+    }
+    return vertices;
+  }
+}
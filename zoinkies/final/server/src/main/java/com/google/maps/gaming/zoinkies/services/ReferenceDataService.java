@@ -0,0 +1,180 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.google.maps.gaming.zoinkies.models.ReferenceData;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Service;
+
+/**
+ * This class loads the game reference data once at startup, and reloads it when it changes.
+ *
+ * Reference data comes from /ReferenceData.json in the resources folder, unless a file is
+ * configured, in which case the file is watched for changes. A new version is parsed and
+ * validated on the side, then published in one volatile write: requests see either the old or the
+ * new version, never a mix. A version that fails to load is ignored, the previous one stays.
+ */
+@Service
+@Scope(value = ConfigurableBeanFactory.SCOPE_SINGLETON)
+public class ReferenceDataService {
+
+  private static final String RESOURCE = "/ReferenceData.json";
+
+  /**
+   * Reference data file, empty to use the bundled resource
+   */
+  @Value("${zoinkies.references.location:}")
+  String location = "";
+
+  /**
+   * Interval between two checks of the reference data file, 0 to disable reloading
+   */
+  @Value("${zoinkies.references.reload-millis:30000}")
+  long reloadMillis;
+
+  /**
+   * The current version, immutable
+   */
+  private volatile ReferenceData referenceData;
+
+  /**
+   * Modification time of the file the current version was loaded from, guarded by this
+   */
+  private long lastModified;
+
+  private ScheduledExecutorService executor;
+
+  /**
+   * A reference to the log service, reporting reloads. Null outside of Spring.
+   */
+  @Autowired
+  LogService logService;
+
+  /**
+   * Loads the reference data, failing the startup if it is invalid, and starts watching the
+   * reference data file if there is one.
+   *
+   * @throws IOException if the reference data can't be read
+   */
+  @PostConstruct
+  void start() throws IOException {
+    reload();
+    if (location.isEmpty() || reloadMillis <= 0) {
+      return;
+    }
+    executor = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "reference-data-reload");
+      t.setDaemon(true);
+      return t;
+    });
+    executor.scheduleWithFixedDelay(() -> {
+      try {
+        reload();
+      } catch (IOException | RuntimeException e) {
+        logService.error("references.reload.failed", e, "location", location);
+      }
+    }, reloadMillis, reloadMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stops watching the reference data file.
+   */
+  @PreDestroy
+  void stop() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Gives access to the current reference data.
+   * @return the current version, never modified once published
+   */
+  public ReferenceData getReferenceData() {
+    return referenceData;
+  }
+
+  /**
+   * Loads the reference data again if it changed since the last load.
+   *
+   * @return true if a new version was published
+   * @throws IOException if the reference data can't be read
+   * @throws IllegalArgumentException if the reference data is invalid
+   */
+  public synchronized boolean reload() throws IOException {
+    ReferenceData loaded;
+    if (location.isEmpty()) {
+      if (referenceData != null) {
+        // The bundled resource doesn't change.
+        return false;
+      }
+      try (InputStream inputStream = getClass().getResourceAsStream(RESOURCE)) {
+        if (inputStream == null) {
+          throw new IOException(RESOURCE + " not found!");
+        }
+        loaded = parse(inputStream);
+      }
+    } else {
+      File file = new File(location);
+      long modified = file.lastModified();
+      if (modified == 0) {
+        throw new IOException("Reference data file " + location + " not found!");
+      }
+      if (referenceData != null && modified == lastModified) {
+        return false;
+      }
+      try (InputStream inputStream = new FileInputStream(file)) {
+        loaded = parse(inputStream);
+      }
+      lastModified = modified;
+    }
+    boolean reloaded = referenceData != null;
+    referenceData = loaded;
+    if (reloaded && logService != null) {
+      logService.info("references.reloaded", "location", location,
+          "items", String.valueOf(loaded.getReferences().size()));
+    }
+    return true;
+  }
+
+  /**
+   * Parses and validates reference data.
+   *
+   * @param inputStream the reference data json
+   * @return A new reference data
+   * @throws IOException if the json can't be parsed
+   * @throws IllegalArgumentException if an item is missing its id or is listed twice
+   */
+  public static ReferenceData parse(InputStream inputStream) throws IOException {
+    ObjectMapper objectMapper = new ObjectMapper();
+    objectMapper.registerModule(new JavaTimeModule());
+    return objectMapper.readValue(inputStream, ReferenceData.class);
+  }
+}
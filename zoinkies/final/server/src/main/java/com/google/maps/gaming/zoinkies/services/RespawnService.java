@@ -0,0 +1,288 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies.services;
+
+import com.google.maps.gaming.zoinkies.models.RespawnEvent;
+import com.google.maps.gaming.zoinkies.models.SpawnLocation;
+import com.google.maps.gaming.zoinkies.models.WorldData;
+import com.google.maps.gaming.zoinkies.scheduling.TimerWheel;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Service;
+
+/**
+ * This class pushes respawn events to connected clients, so that they don't need to poll their
+ * world to find out when chests and minions come back.
+ *
+ * Respawns are only tracked for active sessions: a client subscribes with its current world, and
+ * the pending respawns of that world are scheduled in a timer wheel. Since respawn times are part
+ * of the world documents, nothing else needs to be persisted: after a restart, timers are rebuilt
+ * as clients subscribe again. Worlds written while a session is active are scheduled again, so
+ * that new respawns get pushed and cancelled ones don't.
+ *
+ * When the wheel is full, respawns are not pushed. Clients still see them the next time they
+ * read their world.
+ */
+@Service
+@Scope(value = ConfigurableBeanFactory.SCOPE_SINGLETON)
+public class RespawnService {
+
+  /**
+   * A subscribed client, guarded by the service.
+   */
+  private static class Session {
+    private final Consumer<RespawnEvent> listener;
+
+    /**
+     * Scheduled respawns by location id, along with their timer handles
+     */
+    private final Map<String, RespawnEvent> events = new HashMap<>();
+    private final Map<String, Long> handles = new HashMap<>();
+
+    private Session(Consumer<RespawnEvent> listener) {
+      this.listener = listener;
+    }
+  }
+
+  /**
+   * A reference to the meter registry
+   */
+  @Autowired
+  MeterRegistry meterRegistry;
+
+  /**
+   * A reference to the log service, reporting failing listeners
+   */
+  @Autowired
+  LogService logService;
+
+  /**
+   * Enables respawn push notifications
+   */
+  @Value("${zoinkies.respawns.push.enabled:false}")
+  boolean enabled;
+
+  /**
+   * Maximum amount of pending respawns, all sessions included
+   */
+  @Value("${zoinkies.respawns.push.capacity:1048576}")
+  int capacity;
+
+  /**
+   * Resolution of the timer wheel
+   */
+  @Value("${zoinkies.respawns.push.tick-millis:1000}")
+  long tickMillis;
+
+  /**
+   * Sessions by device id. Reads are lock free, updates hold the service lock.
+   */
+  private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+
+  /**
+   * Guarded by this.
+   */
+  private TimerWheel<RespawnEvent> wheel;
+
+  private ScheduledExecutorService executor;
+
+  private final AtomicLong pushed = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+
+  /**
+   * Creates the timer wheel and starts ticking it, if push notifications are enabled.
+   */
+  @PostConstruct
+  void start() {
+    if (!enabled) {
+      return;
+    }
+    wheel = new TimerWheel<>(capacity, tickMillis, System.currentTimeMillis());
+    Gauge.builder("zoinkies.respawns.pending", this, RespawnService::getPending)
+        .register(meterRegistry);
+    Gauge.builder("zoinkies.respawns.sessions", sessions, Map::size)
+        .register(meterRegistry);
+    FunctionCounter.builder("zoinkies.respawns.pushed", pushed, AtomicLong::get)
+        .register(meterRegistry);
+    FunctionCounter.builder("zoinkies.respawns.dropped", dropped, AtomicLong::get)
+        .description("Respawns not pushed because the timer wheel was full")
+        .register(meterRegistry);
+    executor = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "respawn-timers");
+      t.setDaemon(true);
+      return t;
+    });
+    executor.scheduleAtFixedRate(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stops pushing respawns.
+   */
+  @PreDestroy
+  void stop() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Starts pushing the respawns of a world to a client, replacing any previous subscription of
+   * the same device.
+   *
+   * @param deviceId The User Id
+   * @param worldData The current World Data, its pending respawns are scheduled right away
+   * @param listener receives the respawn events, on the timer thread
+   */
+  public void subscribe(String deviceId, WorldData worldData, Consumer<RespawnEvent> listener) {
+    if (wheel == null) {
+      return;
+    }
+    synchronized (this) {
+      Session previous = sessions.put(deviceId, new Session(listener));
+      if (previous != null) {
+        cancelAll(previous);
+      }
+      if (worldData != null) {
+        schedule(deviceId, worldData);
+      }
+    }
+  }
+
+  /**
+   * Stops pushing respawns to a client. Does nothing if the device subscribed again since.
+   *
+   * @param deviceId The User Id
+   * @param listener the listener given to {@link #subscribe}
+   */
+  public synchronized void unsubscribe(String deviceId, Consumer<RespawnEvent> listener) {
+    Session session = sessions.get(deviceId);
+    if (session != null && session.listener == listener) {
+      sessions.remove(deviceId);
+      cancelAll(session);
+    }
+  }
+
+  /**
+   * Schedules the pending respawns of a world about to be written, if its device is subscribed.
+   * Respawns that moved or disappeared since they were scheduled are cancelled.
+   *
+   * @param deviceId The User Id
+   * @param worldData The World Data
+   */
+  public void schedule(String deviceId, WorldData worldData) {
+    if (wheel == null || !sessions.containsKey(deviceId)) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    synchronized (this) {
+      Session session = sessions.get(deviceId);
+      if (session == null) {
+        return;
+      }
+      Iterator<Map.Entry<String, RespawnEvent>> it = session.events.entrySet().iterator();
+      while (it.hasNext()) {
+        Map.Entry<String, RespawnEvent> entry = it.next();
+        SpawnLocation location = worldData.getLocations().get(entry.getKey());
+        if (location == null || location.getRespawnAt() != entry.getValue().getRespawnAt()) {
+          wheel.cancel(session.handles.remove(entry.getKey()));
+          it.remove();
+        }
+      }
+      for (SpawnLocation location : worldData.getLocations().values()) {
+        long respawnAt = location.getRespawnAt();
+        if (respawnAt <= now || respawnAt == SpawnLocation.NEVER
+            || session.events.containsKey(location.getLocationId())) {
+          continue;
+        }
+        RespawnEvent event = new RespawnEvent(deviceId, location.getLocationId(), respawnAt);
+        long handle = wheel.schedule(respawnAt, event);
+        if (handle < 0) {
+          dropped.incrementAndGet();
+          continue;
+        }
+        session.events.put(location.getLocationId(), event);
+        session.handles.put(location.getLocationId(), handle);
+      }
+    }
+  }
+
+  /**
+   * Helper function that fires the due timers and pushes their events, outside the lock so that
+   * a slow listener doesn't hold up scheduling.
+   */
+  private void tick() {
+    List<RespawnEvent> due = new ArrayList<>();
+    List<Consumer<RespawnEvent>> listeners = new ArrayList<>();
+    synchronized (this) {
+      wheel.advance(System.currentTimeMillis(), event -> {
+        Session session = sessions.get(event.getDeviceId());
+        if (session != null && session.events.get(event.getLocationId()) == event) {
+          session.events.remove(event.getLocationId());
+          session.handles.remove(event.getLocationId());
+          due.add(event);
+          listeners.add(session.listener);
+        }
+      });
+    }
+    for (int i = 0; i < due.size(); i++) {
+      try {
+        listeners.get(i).accept(due.get(i));
+        pushed.incrementAndGet();
+      } catch (RuntimeException e) {
+        logService.error("respawns.push.failed", e, "deviceId", due.get(i).getDeviceId(),
+            "locationId", due.get(i).getLocationId());
+        unsubscribe(due.get(i).getDeviceId(), listeners.get(i));
+      }
+    }
+  }
+
+  /**
+   * Helper function that cancels all the timers of a session. Must hold the lock.
+   */
+  private void cancelAll(Session session) {
+    for (long handle : session.handles.values()) {
+      wheel.cancel(handle);
+    }
+    session.handles.clear();
+    session.events.clear();
+  }
+
+  /**
+   * Getter for the amount of pending respawns.
+   * @return the amount of scheduled timers
+   */
+  public synchronized int getPending() {
+    return wheel == null ? 0 : wheel.size();
+  }
+}
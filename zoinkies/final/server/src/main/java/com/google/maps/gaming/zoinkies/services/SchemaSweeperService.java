@@ -0,0 +1,240 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies.services;
+
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldPath;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.maps.gaming.zoinkies.codecs.DocumentMigrator;
+import com.google.maps.gaming.zoinkies.codecs.PlayerDataCodec;
+import com.google.maps.gaming.zoinkies.codecs.WorldDataCodec;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Service;
+
+/**
+ * This class upgrades the player and world documents nobody has read since their schema changed.
+ *
+ * Active players get their documents upgraded by PlayerService and WorldService as they play.
+ * The sweeper takes care of the long tail: it walks through the collections in document id order,
+ * one small page at a time on a low priority thread, and rewrites outdated documents in a
+ * transaction so that it never overwrites a concurrent save.
+ */
+@Service
+@Scope(value = ConfigurableBeanFactory.SCOPE_SINGLETON)
+public class SchemaSweeperService {
+
+  /**
+   * Sweep progress of a single collection.
+   */
+  static class Progress {
+    final AtomicLong scanned = new AtomicLong();
+    final AtomicLong upgraded = new AtomicLong();
+    final AtomicLong failed = new AtomicLong();
+    volatile boolean complete;
+  }
+
+  @Autowired
+  Firestore firestore;
+
+  @Autowired
+  WorldService worldService;
+
+  /**
+   * A reference to the meter registry
+   */
+  @Autowired
+  MeterRegistry meterRegistry;
+
+  /**
+   * A reference to the log service, reporting failed upgrades
+   */
+  @Autowired
+  LogService logService;
+
+  /**
+   * Enables the background sweep
+   */
+  @Value("${zoinkies.schema.sweeper.enabled:false}")
+  boolean enabled;
+
+  /**
+   * Delay between the application start and the beginning of the sweep
+   */
+  @Value("${zoinkies.schema.sweeper.start-delay-millis:60000}")
+  long startDelayMillis;
+
+  /**
+   * Amount of documents scanned per page
+   */
+  @Value("${zoinkies.schema.sweeper.page-size:50}")
+  int pageSize;
+
+  /**
+   * Pause between two pages, to keep the sweep from competing with players
+   */
+  @Value("${zoinkies.schema.sweeper.pause-millis:1000}")
+  long pauseMillis;
+
+  private final Progress users = new Progress();
+  private final Progress worlds = new Progress();
+
+  private ScheduledExecutorService executor;
+
+  /**
+   * Registers the migration metrics and schedules the sweep if it is enabled.
+   */
+  @PostConstruct
+  void start() {
+    PlayerDataCodec.MIGRATOR.bindTo(meterRegistry);
+    WorldDataCodec.MIGRATOR.bindTo(meterRegistry);
+    bindProgress("users", users);
+    bindProgress("worlds", worlds);
+    if (!enabled) {
+      return;
+    }
+    executor = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "schema-sweeper");
+      t.setDaemon(true);
+      t.setPriority(Thread.MIN_PRIORITY);
+      return t;
+    });
+    executor.schedule(this::sweepAll, startDelayMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stops an ongoing sweep.
+   */
+  @PreDestroy
+  void stop() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Helper function that sweeps all collections in turn.
+   */
+  private void sweepAll() {
+    try {
+      sweep("users", PlayerDataCodec.MIGRATOR, users,
+          data -> PlayerDataCodec.encode(PlayerDataCodec.decode(data)));
+      sweep("worlds", WorldDataCodec.MIGRATOR, worlds, worldService::reencodeWorldData);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      // Picked up again on the next start.
+      logService.error("schema.sweep.failed", e.getCause());
+    }
+  }
+
+  /**
+   * Walks through a collection and upgrades outdated documents.
+   *
+   * @param collection the collection name
+   * @param migrator the schema migrations of the collection
+   * @param progress the progress of this collection
+   * @param reencoder decodes document data and encodes it back at the current version
+   * @throws ExecutionException
+   * @throws InterruptedException
+   */
+  void sweep(String collection, DocumentMigrator migrator, Progress progress,
+      UnaryOperator<Map<String, Object>> reencoder)
+      throws ExecutionException, InterruptedException {
+    String lastId = null;
+    while (true) {
+      // Only fetch the version, outdated documents are read again in their transaction.
+      Query query = firestore.collection(collection)
+          .select(DocumentMigrator.VERSION_FIELD)
+          .orderBy(FieldPath.documentId())
+          .limit(pageSize);
+      if (lastId != null) {
+        query = query.startAfter(lastId);
+      }
+      List<QueryDocumentSnapshot> page = query.get().get().getDocuments();
+      for (QueryDocumentSnapshot document : page) {
+        progress.scanned.incrementAndGet();
+        lastId = document.getId();
+        if (!migrator.needsUpgrade(document.getData())) {
+          continue;
+        }
+        try {
+          if (upgrade(document.getReference(), migrator, reencoder)) {
+            progress.upgraded.incrementAndGet();
+          }
+        } catch (ExecutionException e) {
+          logService.error("schema.upgrade.failed", e.getCause(),
+              "collection", collection, "documentId", document.getId());
+          progress.failed.incrementAndGet();
+        }
+      }
+      if (page.size() < pageSize) {
+        progress.complete = true;
+        return;
+      }
+      Thread.sleep(pauseMillis);
+    }
+  }
+
+  /**
+   * Helper function that rewrites a single document at the current version, unless it was
+   * upgraded or deleted since it was scanned.
+   */
+  private boolean upgrade(DocumentReference reference, DocumentMigrator migrator,
+      UnaryOperator<Map<String, Object>> reencoder)
+      throws ExecutionException, InterruptedException {
+    return firestore.runTransaction(transaction -> {
+      DocumentSnapshot snapshot = transaction.get(reference).get();
+      if (!snapshot.exists() || !migrator.needsUpgrade(snapshot.getData())) {
+        return false;
+      }
+      transaction.set(reference, reencoder.apply(snapshot.getData()));
+      return true;
+    }).get();
+  }
+
+  /**
+   * Helper function that registers the progress metrics of a collection.
+   */
+  private void bindProgress(String collection, Progress progress) {
+    FunctionCounter.builder("zoinkies.schema.sweep.scanned", progress, p -> p.scanned.get())
+        .tag("collection", collection).register(meterRegistry);
+    FunctionCounter.builder("zoinkies.schema.sweep.upgraded", progress, p -> p.upgraded.get())
+        .tag("collection", collection).register(meterRegistry);
+    FunctionCounter.builder("zoinkies.schema.sweep.failed", progress, p -> p.failed.get())
+        .tag("collection", collection).register(meterRegistry);
+    Gauge.builder("zoinkies.schema.sweep.complete", progress, p -> p.complete ? 1 : 0)
+        .tag("collection", collection).register(meterRegistry);
+  }
+}
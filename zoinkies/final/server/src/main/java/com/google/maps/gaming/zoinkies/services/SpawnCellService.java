@@ -0,0 +1,265 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies.services;
+
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.WriteBatch;
+import com.google.cloud.firestore.WriteResult;
+import com.google.maps.gaming.zoinkies.cache.NearCache;
+import com.google.maps.gaming.zoinkies.cache.ObjectSizes;
+import com.google.maps.gaming.zoinkies.codecs.WorldDataCodec;
+import com.google.maps.gaming.zoinkies.models.SpawnLocation;
+import com.google.maps.gaming.zoinkies.models.WorldData;
+import com.google.maps.gaming.zoinkies.models.playablelocations.Location;
+import com.google.maps.gaming.zoinkies.spawning.SpawnGenerator;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import javax.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Service;
+
+/**
+ * This class handles the spawn layers of shared world mode: the spawn locations of an S2 cell are
+ * generated once, stored in cells/{cellId}, and shared by every player visiting that cell.
+ *
+ * A layer is a world holding a single cell, stored in the compact encoding. Its spawn locations
+ * are generated from a seed derived from the cell id, so that instances racing to create the same
+ * layer write the same document.
+ *
+ * Alternatively, the cell document only holds the TTL and seed of the layer, and its spawn
+ * locations are kept in the global collection of {@link SpawnLocationStore}.
+ */
+@Service
+@Scope(value = ConfigurableBeanFactory.SCOPE_SINGLETON)
+public class SpawnCellService {
+
+  /**
+   * Maximum amount of writes in a Firestore batch
+   */
+  private static final int MAX_BATCH_SIZE = 500;
+
+  /**
+   * A reference to the Firestore service
+   */
+  @Autowired
+  Firestore firestore;
+
+  /**
+   * A reference to the game service
+   */
+  @Autowired
+  GameService gameService;
+
+  /**
+   * A reference to the global spawn location store
+   */
+  @Autowired
+  SpawnLocationStore spawnLocationStore;
+
+  /**
+   * A reference to the meter registry
+   */
+  @Autowired
+  MeterRegistry meterRegistry;
+
+  /**
+   * Size budget of the cell layer near-cache, in estimated bytes
+   */
+  @Value("${zoinkies.cache.cells.max-bytes:16777216}")
+  long cacheMaxBytes;
+
+  /**
+   * How long a cached cell layer is served without checking Firestore
+   */
+  @Value("${zoinkies.cache.cells.ttl-millis:300000}")
+  long cacheTtlMillis;
+
+  /**
+   * Game season, part of the seed spawn locations are generated from
+   */
+  @Value("${zoinkies.worlds.spawn-season:1}")
+  int spawnSeason;
+
+  /**
+   * Stores the spawn locations of layers in the global collection instead of their cell document
+   */
+  @Value("${zoinkies.worlds.shared.global-locations.enabled:false}")
+  boolean storeLocations;
+
+  /**
+   * Near-cache of cell layers, keyed by cell id.
+   */
+  private NearCache<WorldData> cache;
+
+  /**
+   * Creates the near-cache once the configuration has been injected.
+   */
+  @PostConstruct
+  void initCache() {
+    cache = new NearCache<>("cells", cacheMaxBytes, cacheTtlMillis,
+        ObjectSizes::of, WorldData::new);
+    cache.bindTo(meterRegistry);
+  }
+
+  /**
+   * Returns the layers of the given cells, leaving out the ones that don't exist or whose
+   * playable locations have expired. Layers missing from the near-cache are read in a single
+   * round trip, plus one set of range queries when locations are stored in the global collection.
+   *
+   * @param cellIds The S2 cell ids
+   * @return copies of the layers keyed by cell id, in the given order
+   * @throws ExecutionException
+   * @throws InterruptedException
+   */
+  public Map<String, WorldData> getCells(Collection<String> cellIds)
+      throws ExecutionException, InterruptedException {
+    Map<String, WorldData> layers = new HashMap<>();
+    List<DocumentReference> references = new ArrayList<>();
+    for (String cellId : cellIds) {
+      WorldData layer = cache.getIfFresh(cellId);
+      if (layer != null) {
+        layers.put(cellId, layer);
+      } else {
+        references.add(this.firestore.document("cells/" + cellId));
+      }
+    }
+    if (!references.isEmpty()) {
+      Map<String, DocumentSnapshot> decoded = new HashMap<>();
+      for (DocumentSnapshot document : this.firestore.getAll(
+          references.toArray(new DocumentReference[0])).get()) {
+        String cellId = document.getId();
+        if (!document.exists()) {
+          cache.invalidate(cellId);
+          continue;
+        }
+        // Skip decoding if nobody regenerated the cell since we cached it.
+        WorldData layer = cache.revalidate(cellId, document.getUpdateTime());
+        if (layer == null) {
+          layer = WorldDataCodec.decode(document.getData());
+          decoded.put(cellId, document);
+        }
+        layers.put(cellId, layer);
+      }
+      if (storeLocations && !decoded.isEmpty()) {
+        for (SpawnLocation location : spawnLocationStore.query(decoded.keySet())) {
+          WorldData layer = layers.get(location.getS2CellId());
+          if (layer != null && decoded.containsKey(location.getS2CellId())) {
+            layer.getLocations().put(location.getLocationId(), location);
+          }
+        }
+      }
+      for (Map.Entry<String, DocumentSnapshot> entry : decoded.entrySet()) {
+        cache.put(entry.getKey(), layers.get(entry.getKey()), entry.getValue().getUpdateTime());
+      }
+    }
+    Map<String, WorldData> fresh = new LinkedHashMap<>();
+    for (String cellId : cellIds) {
+      WorldData layer = layers.get(cellId);
+      String ttl = layer == null ? null : layer.getS2CellsTTL().get(cellId);
+      if (ttl != null && Duration.parse(ttl).getSeconds() > 0) {
+        fresh.put(cellId, layer);
+      }
+    }
+    return fresh;
+  }
+
+  /**
+   * Generates and stores the layer of a cell.
+   *
+   * @param cellId The S2 cell id
+   * @param locations The playable locations of the cell
+   * @param ttl How long the playable locations are valid, as an ISO-8601 duration
+   * @return the new layer
+   * @throws Exception
+   */
+  public WorldData createCell(String cellId, Collection<Location> locations, String ttl)
+      throws Exception {
+    WorldData layer = generateCell(cellId, locations, ttl);
+    storeCells(Collections.singletonList(layer));
+    return layer;
+  }
+
+  /**
+   * Generates the layer of a cell without storing it. Safe to call from any thread.
+   *
+   * @param cellId The S2 cell id
+   * @param locations The playable locations of the cell
+   * @param ttl How long the playable locations are valid, as an ISO-8601 duration
+   * @return the new layer
+   * @throws Exception
+   */
+  public WorldData generateCell(String cellId, Collection<Location> locations, String ttl)
+      throws Exception {
+    WorldData layer = new WorldData();
+    layer.setSpawnSeed(SpawnGenerator.worldSeed(cellId, spawnSeason));
+    layer.getS2CellsTTL().put(cellId, ttl);
+    for (Location plloc : locations) {
+      SpawnLocation sl = gameService.createSpawnLocation(plloc, layer.getSpawnSeed());
+      sl.setS2CellId(cellId);
+      layer.getLocations().put(sl.getLocationId(), sl);
+    }
+    return layer;
+  }
+
+  /**
+   * Stores generated layers and caches them. Cell documents are written in batches.
+   *
+   * @param layers The layers, each holding a single cell
+   * @throws ExecutionException
+   * @throws InterruptedException
+   */
+  public void storeCells(List<WorldData> layers) throws ExecutionException, InterruptedException {
+    for (int start = 0; start < layers.size(); start += MAX_BATCH_SIZE) {
+      List<WorldData> chunk =
+          layers.subList(start, Math.min(start + MAX_BATCH_SIZE, layers.size()));
+      WriteBatch batch = this.firestore.batch();
+      for (WorldData layer : chunk) {
+        String cellId = layer.getS2CellsTTL().keySet().iterator().next();
+        Map<String, Object> document;
+        if (storeLocations) {
+          // The cell document is written last, readers never see it before its locations.
+          spawnLocationStore.replaceCell(cellId, layer.getLocations().values());
+          WorldData marker = new WorldData();
+          marker.setSpawnSeed(layer.getSpawnSeed());
+          marker.getS2CellsTTL().putAll(layer.getS2CellsTTL());
+          document = WorldDataCodec.encodeCompact(marker);
+        } else {
+          document = WorldDataCodec.encodeCompact(layer);
+        }
+        batch.set(this.firestore.document("cells/" + cellId), document);
+      }
+      List<WriteResult> results = batch.commit().get();
+      for (int i = 0; i < chunk.size(); i++) {
+        WorldData layer = chunk.get(i);
+        cache.put(layer.getS2CellsTTL().keySet().iterator().next(), layer,
+            results.get(i).getUpdateTime());
+      }
+    }
+  }
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies.services;
+
+import com.google.api.core.ApiFuture;
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.QuerySnapshot;
+import com.google.cloud.firestore.WriteBatch;
+import com.google.common.geometry.S2CellId;
+import com.google.common.geometry.S2LatLng;
+import com.google.maps.gaming.zoinkies.codecs.SpawnLocationCellCodec;
+import com.google.maps.gaming.zoinkies.codecs.WorldDataCodec;
+import com.google.maps.gaming.zoinkies.models.SpawnLocation;
+import com.google.maps.gaming.zoinkies.spatial.CellIdRanges;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Service;
+
+/**
+ * This class stores shared spawn locations in a single global collection, one document per
+ * location, indexed by the leaf S2 cell id of the location.
+ *
+ * The locations of any set of cells are read with one range query per range of leaf ids, see
+ * {@link CellIdRanges}. Queries are all sent at once and their results gathered in range order,
+ * so locations always come back in Hilbert order, ties broken by location id.
+ */
+@Service
+@Scope(value = ConfigurableBeanFactory.SCOPE_SINGLETON)
+public class SpawnLocationStore {
+
+  /**
+   * Name of the global spawn location collection
+   */
+  static final String COLLECTION = "spawnLocations";
+
+  /**
+   * Name of the indexed leaf cell id field
+   */
+  static final String LEAF_CELL_ID = "leafCellId";
+
+  /**
+   * Maximum amount of writes in a Firestore batch
+   */
+  private static final int MAX_BATCH_SIZE = 500;
+
+  /**
+   * A reference to the Firestore service
+   */
+  @Autowired
+  Firestore firestore;
+
+  /**
+   * Replaces the spawn locations of a cell. Locations of the cell that aren't in the new set
+   * are deleted.
+   *
+   * @param cellId The S2 cell id
+   * @param locations The new spawn locations of the cell
+   * @throws ExecutionException
+   * @throws InterruptedException
+   */
+  public void replaceCell(String cellId, Collection<SpawnLocation> locations)
+      throws ExecutionException, InterruptedException {
+    CollectionReference collection = firestore.collection(COLLECTION);
+    Set<String> kept = new HashSet<>();
+    List<WriteBatch> batches = new ArrayList<>();
+    WriteBatch batch = firestore.batch();
+    int size = 0;
+    for (SpawnLocation location : locations) {
+      Map<String, Object> data = WorldDataCodec.encodeSpawnLocation(location, 0);
+      data.put(LEAF_CELL_ID, leafCellId(location));
+      batch.set(collection.document(location.getLocationId()), data);
+      kept.add(location.getLocationId());
+      if (++size == MAX_BATCH_SIZE) {
+        batches.add(batch);
+        batch = firestore.batch();
+        size = 0;
+      }
+    }
+    for (SpawnLocation previous : query(Collections.singletonList(cellId))) {
+      if (!kept.contains(previous.getLocationId())) {
+        batch.delete(collection.document(previous.getLocationId()));
+        if (++size == MAX_BATCH_SIZE) {
+          batches.add(batch);
+          batch = firestore.batch();
+          size = 0;
+        }
+      }
+    }
+    if (size > 0) {
+      batches.add(batch);
+    }
+    for (WriteBatch pending : batches) {
+      pending.commit().get();
+    }
+  }
+
+  /**
+   * Reads the spawn locations of the given cells.
+   *
+   * @param cellIds The S2 cell ids
+   * @return the spawn locations, in Hilbert order
+   * @throws ExecutionException
+   * @throws InterruptedException
+   */
+  public List<SpawnLocation> query(Collection<String> cellIds)
+      throws ExecutionException, InterruptedException {
+    List<Long> ids = new ArrayList<>(cellIds.size());
+    for (String cellId : cellIds) {
+      ids.add(SpawnLocationCellCodec.parseCellId(cellId));
+    }
+    long[] ranges = CellIdRanges.of(ids);
+    CollectionReference collection = firestore.collection(COLLECTION);
+    List<ApiFuture<QuerySnapshot>> futures = new ArrayList<>(ranges.length / 2);
+    for (int i = 0; i < ranges.length; i += 2) {
+      // Firestore breaks ties by document id, which is the location id.
+      futures.add(collection
+          .whereGreaterThanOrEqualTo(LEAF_CELL_ID, ranges[i])
+          .whereLessThanOrEqualTo(LEAF_CELL_ID, ranges[i + 1])
+          .orderBy(LEAF_CELL_ID)
+          .get());
+    }
+    List<SpawnLocation> locations = new ArrayList<>();
+    for (ApiFuture<QuerySnapshot> future : futures) {
+      for (QueryDocumentSnapshot document : future.get().getDocuments()) {
+        locations.add(WorldDataCodec.decodeSpawnLocation(document.getData(), 0));
+      }
+    }
+    return locations;
+  }
+
+  /**
+   * Helper function that returns the leaf cell id of a location. Locations without coordinates
+   * are indexed under their cell id, which is still within the range of their cell.
+   */
+  private static long leafCellId(SpawnLocation location) {
+    if (location.getSnappedPoint() == null) {
+      return SpawnLocationCellCodec.parseCellId(location.getS2CellId());
+    }
+    return S2CellId.fromLatLng(S2LatLng.fromDegrees(location.getSnappedPoint().getLatitude(),
+        location.getSnappedPoint().getLongitude())).id();
+  }
+}
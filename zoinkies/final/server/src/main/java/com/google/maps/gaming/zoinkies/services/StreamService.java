@@ -0,0 +1,445 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies.services;
+
+import com.google.maps.gaming.zoinkies.models.PlayerData;
+import com.google.maps.gaming.zoinkies.models.RespawnEvent;
+import com.google.maps.gaming.zoinkies.models.SpawnLocation;
+import com.google.maps.gaming.zoinkies.models.WorldData;
+import com.google.maps.gaming.zoinkies.models.WorldDelta;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.context.annotation.Scope;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * This class pushes world and player updates to connected clients over Server-Sent Events,
+ * so that they don't need to poll POST /worlds/{id} to find out what changed.
+ *
+ * Each device has at most one channel. Events are small deltas:
+ * <ul>
+ *   <li>ready: the world version the channel starts from</li>
+ *   <li>world: the spawn locations added, changed or removed by a world write, including the
+ *   newly generated cells of the viewport</li>
+ *   <li>respawn: a spawn location is active again</li>
+ *   <li>player: the new stats and inventory of the player</li>
+ *   <li>reset: events were dropped, the client should catch up with POST /worlds/{id}/changes
+ *   and GET /users/{id}</li>
+ * </ul>
+ *
+ * Channels are idle most of the time and don't hold a thread: the request is asynchronous, and
+ * events are queued per channel and written by a small pool of sender threads. The queue is
+ * bounded, so a slow client can't hold more than a few events in memory: when it overflows, its
+ * events are replaced by a single reset. Idle channels get a heartbeat comment, so that proxies
+ * keep them open and dead clients are noticed.
+ */
+@Service
+@Scope(value = ConfigurableBeanFactory.SCOPE_SINGLETON)
+public class StreamService {
+
+  /**
+   * A queued event. A null name stands for a comment.
+   */
+  private static class Event {
+    private final String name;
+    private final Object data;
+
+    private Event(String name, Object data) {
+      this.name = name;
+      this.data = data;
+    }
+  }
+
+  private static final Event HEARTBEAT = new Event(null, "");
+  private static final Event RESET = new Event("reset", Collections.emptyMap());
+
+  /**
+   * The connection of a device.
+   */
+  private class Channel {
+    private final String deviceId;
+    private final SseEmitter emitter;
+    private final Consumer<RespawnEvent> respawnListener = event -> offer(new Event("respawn",
+        event));
+
+    /**
+     * Pending events, guarded by the channel.
+     */
+    private final ArrayDeque<Event> queue = new ArrayDeque<>();
+    private boolean draining;
+    private boolean resetPending;
+    private boolean closed;
+    private volatile long lastSentAt = System.currentTimeMillis();
+
+    private Channel(String deviceId, SseEmitter emitter) {
+      this.deviceId = deviceId;
+      this.emitter = emitter;
+    }
+
+    /**
+     * Queues an event, and makes sure a sender thread is on its way.
+     */
+    private void offer(Event event) {
+      synchronized (this) {
+        if (closed || (resetPending && event != HEARTBEAT)) {
+          // Everything after a reset is caught up with by the client anyway.
+          return;
+        }
+        if (queue.size() >= maxQueuedEvents) {
+          overflows.incrementAndGet();
+          queue.clear();
+          event = RESET;
+          resetPending = true;
+        }
+        queue.add(event);
+        if (draining) {
+          return;
+        }
+        draining = true;
+      }
+      senders.execute(this::drain);
+    }
+
+    /**
+     * Writes the queued events until the queue is empty.
+     */
+    private void drain() {
+      while (true) {
+        Event event;
+        synchronized (this) {
+          event = queue.poll();
+          if (event == null || closed) {
+            draining = false;
+            return;
+          }
+          if (event == RESET) {
+            resetPending = false;
+          }
+        }
+        try {
+          if (event.name == null) {
+            emitter.send(SseEmitter.event().comment(""));
+          } else {
+            emitter.send(SseEmitter.event().name(event.name)
+                .data(event.data, MediaType.APPLICATION_JSON));
+          }
+          lastSentAt = System.currentTimeMillis();
+          sent.incrementAndGet();
+        } catch (IOException | IllegalStateException e) {
+          // The client went away, the emitter callbacks may not fire on a broken connection.
+          close(this);
+          emitter.completeWithError(e);
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * A reference to the respawn push service
+   */
+  @Autowired
+  RespawnService respawnService;
+
+  /**
+   * A reference to the meter registry
+   */
+  @Autowired
+  MeterRegistry meterRegistry;
+
+  /**
+   * Enables GET /stream/{id}
+   */
+  @Value("${zoinkies.stream.enabled:false}")
+  boolean enabled;
+
+  /**
+   * Maximum amount of open channels on this instance
+   */
+  @Value("${zoinkies.stream.max-connections:20000}")
+  int maxConnections;
+
+  /**
+   * Amount of events a channel can hold before they are replaced by a reset
+   */
+  @Value("${zoinkies.stream.max-queued-events:64}")
+  int maxQueuedEvents;
+
+  /**
+   * Delay after which an idle channel gets a heartbeat
+   */
+  @Value("${zoinkies.stream.heartbeat-millis:25000}")
+  long heartbeatMillis;
+
+  /**
+   * How long a channel stays open before the client has to reconnect
+   */
+  @Value("${zoinkies.stream.timeout-millis:1800000}")
+  long timeoutMillis;
+
+  /**
+   * Amount of threads writing events
+   */
+  @Value("${zoinkies.stream.sender-threads:4}")
+  int senderThreads;
+
+  /**
+   * Open channels by device id
+   */
+  private final ConcurrentHashMap<String, Channel> channels = new ConcurrentHashMap<>();
+  private final AtomicInteger connections = new AtomicInteger();
+
+  private final AtomicLong sent = new AtomicLong();
+  private final AtomicLong overflows = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
+
+  private ExecutorService senders;
+  private ScheduledExecutorService heartbeats;
+
+  public StreamService() {
+  }
+
+  /**
+   * Creates an enabled stream service outside of Spring.
+   *
+   * @param respawnService the respawn push service channels subscribe to
+   * @param maxConnections the maximum amount of open channels
+   * @param maxQueuedEvents the amount of events a channel holds before they are reset
+   * @param heartbeatMillis the delay after which an idle channel gets a heartbeat
+   * @param timeoutMillis how long a channel stays open
+   * @param senderThreads the amount of threads writing events
+   */
+  public StreamService(RespawnService respawnService, int maxConnections, int maxQueuedEvents,
+      long heartbeatMillis, long timeoutMillis, int senderThreads) {
+    this.respawnService = respawnService;
+    this.enabled = true;
+    this.maxConnections = maxConnections;
+    this.maxQueuedEvents = maxQueuedEvents;
+    this.heartbeatMillis = heartbeatMillis;
+    this.timeoutMillis = timeoutMillis;
+    this.senderThreads = senderThreads;
+    start();
+  }
+
+  /**
+   * Starts the sender and heartbeat threads, if streaming is enabled.
+   */
+  @PostConstruct
+  void start() {
+    if (!enabled) {
+      return;
+    }
+    AtomicInteger threads = new AtomicInteger();
+    senders = Executors.newFixedThreadPool(senderThreads, r -> {
+      Thread t = new Thread(r, "stream-sender-" + threads.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    });
+    heartbeats = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "stream-heartbeats");
+      t.setDaemon(true);
+      return t;
+    });
+    heartbeats.scheduleWithFixedDelay(this::sendHeartbeats, heartbeatMillis / 2,
+        heartbeatMillis / 2, TimeUnit.MILLISECONDS);
+    if (meterRegistry == null) {
+      return;
+    }
+    Gauge.builder("zoinkies.stream.connections", connections, AtomicInteger::get)
+        .register(meterRegistry);
+    FunctionCounter.builder("zoinkies.stream.events.sent", sent, AtomicLong::get)
+        .register(meterRegistry);
+    FunctionCounter.builder("zoinkies.stream.overflows", overflows, AtomicLong::get)
+        .description("Channels reset because the client didn't keep up")
+        .register(meterRegistry);
+    FunctionCounter.builder("zoinkies.stream.rejected", rejected, AtomicLong::get)
+        .register(meterRegistry);
+  }
+
+  /**
+   * Closes all channels, so that clients reconnect to another instance.
+   */
+  @PreDestroy
+  public void stop() {
+    if (heartbeats == null) {
+      return;
+    }
+    heartbeats.shutdownNow();
+    for (Channel channel : channels.values()) {
+      close(channel);
+      channel.emitter.complete();
+    }
+    senders.shutdown();
+  }
+
+  /**
+   * Checks if streaming is enabled.
+   * @return true if GET /stream/{id} is served
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Opens the channel of a device, closing any previous channel of the same device.
+   *
+   * @param deviceId The User Id
+   * @param worldData The current World Data, or null if it doesn't exist yet
+   * @return the emitter to return from the controller, or null if this instance is full
+   */
+  public SseEmitter open(String deviceId, WorldData worldData) {
+    if (connections.incrementAndGet() > maxConnections) {
+      connections.decrementAndGet();
+      rejected.incrementAndGet();
+      return null;
+    }
+    SseEmitter emitter = createEmitter(timeoutMillis);
+    Channel channel = new Channel(deviceId, emitter);
+    emitter.onCompletion(() -> close(channel));
+    emitter.onTimeout(() -> close(channel));
+    Channel previous = channels.put(deviceId, channel);
+    if (previous != null) {
+      close(previous);
+      previous.emitter.complete();
+    }
+    channel.offer(new Event("ready", Collections.singletonMap("version",
+        worldData == null ? 0 : worldData.getVersion())));
+    respawnService.subscribe(deviceId, worldData, channel.respawnListener);
+    return emitter;
+  }
+
+  /**
+   * Pushes the changes of a world write to its device, if it is connected.
+   *
+   * @param deviceId The User Id
+   * @param previousVersion The version the world had before the write
+   * @param worldData The World Data just written
+   */
+  public void publishWorld(String deviceId, long previousVersion, WorldData worldData) {
+    Channel channel = channels.get(deviceId);
+    if (channel == null) {
+      return;
+    }
+    WorldDelta delta = WorldDeltas.since(worldData, previousVersion);
+    if (delta == null) {
+      return;
+    }
+    // The world keeps being mutated by the caller while the event waits in the queue.
+    copyLocations(delta.getAdded());
+    copyLocations(delta.getChanged());
+    channel.offer(new Event("world", delta));
+  }
+
+  /**
+   * Pushes the new state of a player to its device, if it is connected.
+   *
+   * @param deviceId The User Id
+   * @param playerData The Player Data just written
+   */
+  public void publishPlayer(String deviceId, PlayerData playerData) {
+    Channel channel = channels.get(deviceId);
+    if (channel != null) {
+      channel.offer(new Event("player", new PlayerData(playerData)));
+    }
+  }
+
+  /**
+   * Creates the emitter of a new channel.
+   *
+   * @param timeoutMillis how long the channel stays open
+   * @return a new emitter
+   */
+  protected SseEmitter createEmitter(long timeoutMillis) {
+    return new SseEmitter(timeoutMillis);
+  }
+
+  /**
+   * Getter for the amount of open channels.
+   * @return the amount of open channels
+   */
+  public int getConnections() {
+    return connections.get();
+  }
+
+  public long getSent() {
+    return sent.get();
+  }
+
+  public long getOverflows() {
+    return overflows.get();
+  }
+
+  public long getRejected() {
+    return rejected.get();
+  }
+
+  /**
+   * Helper function that queues a heartbeat on the channels that have been idle for a while.
+   */
+  private void sendHeartbeats() {
+    long idleSince = System.currentTimeMillis() - heartbeatMillis;
+    for (Channel channel : channels.values()) {
+      if (channel.lastSentAt <= idleSince) {
+        channel.offer(HEARTBEAT);
+      }
+    }
+  }
+
+  /**
+   * Helper function that forgets a channel. Safe to call more than once.
+   */
+  private void close(Channel channel) {
+    synchronized (channel) {
+      if (channel.closed) {
+        return;
+      }
+      channel.closed = true;
+      channel.queue.clear();
+    }
+    connections.decrementAndGet();
+    channels.remove(channel.deviceId, channel);
+    respawnService.unsubscribe(channel.deviceId, channel.respawnListener);
+  }
+
+  /**
+   * Helper function that replaces spawn locations by copies.
+   */
+  private static void copyLocations(Map<String, SpawnLocation> locations) {
+    for (Map.Entry<String, SpawnLocation> entry : locations.entrySet()) {
+      entry.setValue(new SpawnLocation(entry.getValue()));
+    }
+  }
+}
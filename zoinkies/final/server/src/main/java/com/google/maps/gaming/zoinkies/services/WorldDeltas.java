@@ -0,0 +1,166 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies.services;
+
+import com.google.maps.gaming.zoinkies.models.SpawnLocation;
+import com.google.maps.gaming.zoinkies.models.WorldChange;
+import com.google.maps.gaming.zoinkies.models.WorldChange.Type;
+import com.google.maps.gaming.zoinkies.models.WorldData;
+import com.google.maps.gaming.zoinkies.models.WorldDelta;
+import com.google.maps.gaming.zoinkies.models.playablelocations.LatLng;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Keeps track of world versions and builds the deltas sent to clients.
+ *
+ * Changes are recorded by comparing a world about to be written with the last known state of the
+ * same world, so that every code path mutating spawn locations gets versioned without having to
+ * report what it did. Each write that changes anything bumps the version once and logs one
+ * entry per added, changed or removed location. The log is bounded: once entries are dropped,
+ * clients that are too far behind get a full snapshot instead of a delta.
+ */
+public final class WorldDeltas {
+
+  private WorldDeltas() {
+  }
+
+  /**
+   * Compares a world with its previous state, bumps its version and logs the changes.
+   *
+   * @param previous the last known state of the world, null for a new world
+   * @param next the world about to be written, updated in place
+   * @param maxChanges the amount of log entries to keep
+   * @return true if the spawn locations changed
+   */
+  public static boolean record(WorldData previous, WorldData next, int maxChanges) {
+    if (previous == null) {
+      // Brand new world: everything is part of the first snapshot.
+      next.setVersion(1);
+      next.setChangeLogStart(1);
+      next.getChanges().clear();
+      return true;
+    }
+    long version = Math.max(previous.getVersion(), next.getVersion()) + 1;
+    List<WorldChange> log = next.getChanges();
+    log.clear();
+    log.addAll(previous.getChanges());
+    int before = log.size();
+    for (Map.Entry<String, SpawnLocation> entry : next.getLocations().entrySet()) {
+      SpawnLocation old = previous.getLocations().get(entry.getKey());
+      if (old == null) {
+        log.add(new WorldChange(version, entry.getKey(), Type.ADDED));
+      } else if (!sameState(old, entry.getValue())) {
+        log.add(new WorldChange(version, entry.getKey(), Type.CHANGED));
+      }
+    }
+    for (String locationId : previous.getLocations().keySet()) {
+      if (!next.getLocations().containsKey(locationId)) {
+        log.add(new WorldChange(version, locationId, Type.REMOVED));
+      }
+    }
+    // Worlds written before versioning have no history a client could have caught up with.
+    next.setChangeLogStart(previous.getVersion() == 0 ? version : previous.getChangeLogStart());
+    if (log.size() == before) {
+      next.setVersion(previous.getVersion());
+      return false;
+    }
+    next.setVersion(version);
+    if (log.size() > maxChanges) {
+      List<WorldChange> dropped = log.subList(0, log.size() - maxChanges);
+      next.setChangeLogStart(Math.max(next.getChangeLogStart(),
+          dropped.get(dropped.size() - 1).getVersion()));
+      dropped.clear();
+    }
+    return true;
+  }
+
+  /**
+   * Builds the delta bringing a client from the given version to the current one.
+   *
+   * @param world the current world
+   * @param since the version known by the client, 0 if none
+   * @return the delta, or null if the client is up to date
+   */
+  public static WorldDelta since(WorldData world, long since) {
+    if (since != 0 && since == world.getVersion()) {
+      return null;
+    }
+    WorldDelta delta = new WorldDelta();
+    delta.setVersion(world.getVersion());
+    // Clients without a snapshot always get one, even of a world written before versioning.
+    if (since == 0 || since < world.getChangeLogStart() || since > world.getVersion()) {
+      delta.setReset(true);
+      delta.setAdded(new HashMap<>(world.getLocations()));
+      return delta;
+    }
+    // The first and last change of each location after the client's version tell it all.
+    Map<String, Type> first = new HashMap<>();
+    Map<String, Type> last = new HashMap<>();
+    for (WorldChange change : world.getChanges()) {
+      if (change.getVersion() > since) {
+        first.putIfAbsent(change.getLocationId(), change.getType());
+        last.put(change.getLocationId(), change.getType());
+      }
+    }
+    for (Map.Entry<String, Type> entry : last.entrySet()) {
+      String locationId = entry.getKey();
+      boolean isNew = first.get(locationId) == Type.ADDED;
+      if (entry.getValue() == Type.REMOVED) {
+        if (!isNew) {
+          delta.getRemoved().add(locationId);
+        }
+        continue;
+      }
+      SpawnLocation location = world.getLocations().get(locationId);
+      if (location == null) {
+        continue;
+      }
+      if (isNew) {
+        delta.getAdded().put(locationId, location);
+      } else {
+        delta.getChanged().put(locationId, location);
+      }
+    }
+    return delta;
+  }
+
+  /**
+   * Checks if two spawn locations look the same to a client.
+   * @param a a spawn location
+   * @param b another spawn location
+   * @return true if all fields match
+   */
+  static boolean sameState(SpawnLocation a, SpawnLocation b) {
+    return a.getRespawnAt() == b.getRespawnAt()
+        && a.getRespawns() == b.getRespawns()
+        && a.getNumberOfKeysToActivate() == b.getNumberOfKeysToActivate()
+        && a.getObjectTypeId() == b.getObjectTypeId()
+        && a.getKeyTypeId() == b.getKeyTypeId()
+        && Objects.equals(a.getLocationId(), b.getLocationId())
+        && Objects.equals(a.getS2CellId(), b.getS2CellId())
+        && samePoint(a.getSnappedPoint(), b.getSnappedPoint());
+  }
+
+  private static boolean samePoint(LatLng a, LatLng b) {
+    if (a == null || b == null) {
+      return a == b;
+    }
+    return a.getLatitude() == b.getLatitude() && a.getLongitude() == b.getLongitude();
+  }
+}
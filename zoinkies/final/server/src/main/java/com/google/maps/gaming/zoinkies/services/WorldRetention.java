@@ -0,0 +1,172 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies.services;
+
+import com.google.maps.gaming.zoinkies.models.SpawnLocation;
+import com.google.maps.gaming.zoinkies.models.WorldData;
+import com.google.maps.gaming.zoinkies.models.playablelocations.LatLng;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps long-lived worlds bounded by forgetting the cells a player no longer visits.
+ *
+ * A cell is evicted when it hasn't been visited for a while, or when all of its locations are far
+ * from every position the player recently looked at. Evicting a cell drops its TTL, so that it is
+ * generated again like any new cell if the player comes back, along with all of its locations.
+ * Eviction is incremental: a single write only evicts a bounded amount of cells, least recently
+ * visited first.
+ */
+public final class WorldRetention {
+
+  /**
+   * Positions closer than this to the most recent one aren't recorded
+   */
+  static final double POSITION_SPACING_METERS = 500;
+
+  private static final double METERS_PER_DEGREE = 111320;
+
+  private WorldRetention() {
+  }
+
+  /**
+   * Records a visit of the given cells and position. Visits are only recorded again once the
+   * previous one is older than the given resolution, so that browsing the same area doesn't
+   * require writing the world each time.
+   *
+   * @param world the world, updated in place
+   * @param cellIds the cells the player is looking at
+   * @param position where the player is looking at, may be null
+   * @param now the current time in epoch millis
+   * @param resolutionMillis how old a visit must be before it is recorded again
+   * @param maxPositions the amount of recent positions to keep
+   * @return true if the world changed and needs to be written
+   */
+  public static boolean visit(WorldData world, Collection<String> cellIds, LatLng position,
+      long now, long resolutionMillis, int maxPositions) {
+    boolean changed = false;
+    for (String cellId : cellIds) {
+      if (!world.getS2CellsTTL().containsKey(cellId)) {
+        continue;
+      }
+      Long lastVisit = world.getCellVisits().get(cellId);
+      if (lastVisit == null || now - lastVisit >= resolutionMillis) {
+        world.getCellVisits().put(cellId, now);
+        changed = true;
+      }
+    }
+    List<LatLng> positions = world.getRecentPositions();
+    if (position != null && (positions.isEmpty()
+        || distanceMeters(positions.get(0), position) > POSITION_SPACING_METERS)) {
+      positions.add(0, position);
+      while (positions.size() > maxPositions) {
+        positions.remove(positions.size() - 1);
+      }
+      changed = true;
+    }
+    return changed;
+  }
+
+  /**
+   * Evicts the cells that are stale or far from the player, along with their locations.
+   *
+   * @param world the world, updated in place
+   * @param now the current time in epoch millis
+   * @param maxIdleMillis how long a cell is kept without being visited
+   * @param maxDistanceMeters how far a cell can be from every recent position
+   * @param maxEvictions the amount of cells evicted at most
+   * @return the amount of cells evicted
+   */
+  public static int evict(WorldData world, long now, long maxIdleMillis,
+      double maxDistanceMeters, int maxEvictions) {
+    // Cells can also be dropped when their shared layer disappears.
+    world.getCellVisits().keySet().retainAll(world.getS2CellsTTL().keySet());
+    Map<String, Double> distances = cellDistances(world);
+    List<String> candidates = new ArrayList<>();
+    for (String cellId : world.getS2CellsTTL().keySet()) {
+      Long lastVisit = world.getCellVisits().get(cellId);
+      Double distance = distances.get(cellId);
+      if ((lastVisit != null && now - lastVisit > maxIdleMillis)
+          || (distance != null && distance > maxDistanceMeters)) {
+        candidates.add(cellId);
+      }
+    }
+    if (candidates.isEmpty()) {
+      return 0;
+    }
+    candidates.sort((a, b) -> Long.compare(lastVisit(world, a), lastVisit(world, b)));
+    Set<String> evicted =
+        new HashSet<>(candidates.subList(0, Math.min(maxEvictions, candidates.size())));
+    for (String cellId : evicted) {
+      world.getS2CellsTTL().remove(cellId);
+      world.getCellVisits().remove(cellId);
+    }
+    Iterator<SpawnLocation> it = world.getLocations().values().iterator();
+    while (it.hasNext()) {
+      String cellId = it.next().getS2CellId();
+      if (cellId != null && evicted.contains(cellId)) {
+        it.remove();
+      }
+    }
+    return evicted.size();
+  }
+
+  /**
+   * Helper function that returns the distance between each cell and the closest recent position,
+   * based on the locations of the cell. Cells without located locations are left out.
+   */
+  private static Map<String, Double> cellDistances(WorldData world) {
+    Map<String, Double> distances = new HashMap<>();
+    if (world.getRecentPositions().isEmpty()) {
+      return distances;
+    }
+    for (SpawnLocation location : world.getLocations().values()) {
+      if (location.getS2CellId() == null || location.getSnappedPoint() == null) {
+        continue;
+      }
+      double closest = Double.MAX_VALUE;
+      for (LatLng position : world.getRecentPositions()) {
+        closest = Math.min(closest, distanceMeters(position, location.getSnappedPoint()));
+      }
+      distances.merge(location.getS2CellId(), closest, Math::min);
+    }
+    return distances;
+  }
+
+  /**
+   * Helper function that returns when a cell was last visited, cells never visited first.
+   */
+  private static long lastVisit(WorldData world, String cellId) {
+    Long lastVisit = world.getCellVisits().get(cellId);
+    return lastVisit == null ? Long.MIN_VALUE : lastVisit;
+  }
+
+  /**
+   * Equirectangular distance approximation, good enough at the scale of a city.
+   */
+  static double distanceMeters(LatLng a, LatLng b) {
+    double latitude = Math.toRadians((a.getLatitude() + b.getLatitude()) / 2);
+    double dx = (b.getLongitude() - a.getLongitude()) * Math.cos(latitude);
+    double dy = b.getLatitude() - a.getLatitude();
+    return Math.sqrt(dx * dx + dy * dy) * METERS_PER_DEGREE;
+  }
+}
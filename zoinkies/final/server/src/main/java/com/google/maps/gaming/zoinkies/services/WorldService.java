@@ -20,18 +20,38 @@ import com.google.cloud.firestore.CollectionReference;
 import com.google.cloud.firestore.DocumentReference;
 import com.google.cloud.firestore.DocumentSnapshot;
 import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.WriteResult;
+import com.google.maps.gaming.zoinkies.cache.NearCache;
+import com.google.maps.gaming.zoinkies.cache.ObjectSizes;
+import com.google.maps.gaming.zoinkies.cache.WriteBehindBuffer;
+import com.google.maps.gaming.zoinkies.codecs.WorldDataCodec;
 import com.google.maps.gaming.zoinkies.models.WorldDataRequest;
 import com.google.maps.gaming.zoinkies.models.SpawnLocation;
 import com.google.maps.gaming.zoinkies.models.WorldData;
+import com.google.maps.gaming.zoinkies.models.WorldDelta;
 import com.google.maps.gaming.zoinkies.models.playablelocations.Criteria;
 import com.google.maps.gaming.zoinkies.models.playablelocations.FieldMask;
 import com.google.maps.gaming.zoinkies.models.playablelocations.Filter;
+import com.google.maps.gaming.zoinkies.models.playablelocations.LatLng;
 import com.google.maps.gaming.zoinkies.models.playablelocations.Location;
 import com.google.maps.gaming.zoinkies.models.playablelocations.Response;
+import com.google.maps.gaming.zoinkies.spatial.SpawnLocationIndex;
+import com.google.maps.gaming.zoinkies.spawning.SpawnGenerator;
 import java.time.Duration;
-import java.time.Instant;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.context.annotation.Scope;
 import org.springframework.lang.Nullable;
@@ -63,6 +83,219 @@ public class WorldService {
   @Autowired
   PlayableLocationsService playableLocationsService;
 
+  /**
+   * A reference to the shared spawn cell service
+   */
+  @Autowired
+  SpawnCellService spawnCellService;
+
+  /**
+   * A reference to the respawn push service
+   */
+  @Autowired
+  RespawnService respawnService;
+
+  /**
+   * A reference to the update stream service
+   */
+  @Autowired
+  StreamService streamService;
+
+  /**
+   * A reference to the meter registry
+   */
+  @Autowired
+  MeterRegistry meterRegistry;
+
+  /**
+   * A reference to the log service, reporting failed buffered writes
+   */
+  @Autowired
+  LogService logService;
+
+  /**
+   * Size budget of the world near-cache, in estimated bytes
+   */
+  @Value("${zoinkies.cache.worlds.max-bytes:4194304}")
+  long cacheMaxBytes;
+
+  /**
+   * How long a cached world is served without checking Firestore
+   */
+  @Value("${zoinkies.cache.worlds.ttl-millis:30000}")
+  long cacheTtlMillis;
+
+  /**
+   * Stores world locations as one binary blob per S2 cell
+   */
+  @Value("${zoinkies.worlds.compact-encoding.enabled:false}")
+  boolean compactEncoding;
+
+  /**
+   * Enables buffering of world writes that only record cell visits
+   */
+  @Value("${zoinkies.worlds.write-behind.enabled:false}")
+  boolean writeBehindEnabled;
+
+  /**
+   * Delay between two flushes of the write-behind buffer
+   */
+  @Value("${zoinkies.worlds.write-behind.flush-interval-millis:2000}")
+  long writeBehindFlushIntervalMillis;
+
+  /**
+   * Amount of buffered worlds that triggers an early flush
+   */
+  @Value("${zoinkies.worlds.write-behind.max-pending:256}")
+  int writeBehindMaxPending;
+
+  /**
+   * Amount of failed attempts after which a buffered world write is dropped
+   */
+  @Value("${zoinkies.worlds.write-behind.max-attempts:5}")
+  int writeBehindMaxAttempts;
+
+  /**
+   * Only return the locations within the requested rectangle from POST /worlds
+   */
+  @Value("${zoinkies.worlds.viewport.enabled:true}")
+  boolean viewportEnabled = true;
+
+  /**
+   * Margin added around the requested rectangle, so that panning doesn't need a new request
+   */
+  @Value("${zoinkies.worlds.viewport.margin-meters:250}")
+  double viewportMarginMeters = 250;
+
+  /**
+   * Amount of world spatial indexes kept in memory
+   */
+  @Value("${zoinkies.worlds.viewport.max-indexes:128}")
+  int maxIndexes = 128;
+
+  /**
+   * Amount of spawn location changes kept with each world for delta responses
+   */
+  @Value("${zoinkies.worlds.delta.max-changes:256}")
+  int maxChanges;
+
+  /**
+   * Game season, part of the seed spawn locations are generated from. Changing it reshuffles
+   * the spawn locations generated from then on.
+   */
+  @Value("${zoinkies.worlds.spawn-season:1}")
+  int spawnSeason;
+
+  /**
+   * Shares the spawn locations of each cell between all players, and only stores per-player
+   * respawn times in world documents
+   */
+  @Value("${zoinkies.worlds.shared.enabled:false}")
+  boolean sharedWorld;
+
+  /**
+   * Evicts the cells of a world that are stale or far from the player when it is written
+   */
+  @Value("${zoinkies.worlds.retention.enabled:true}")
+  boolean retentionEnabled;
+
+  /**
+   * How long a cell is kept without being visited
+   */
+  @Value("${zoinkies.worlds.retention.max-idle-millis:1209600000}")
+  long retentionMaxIdleMillis;
+
+  /**
+   * How far a cell can be from every recent position of the player
+   */
+  @Value("${zoinkies.worlds.retention.max-distance-meters:20000}")
+  double retentionMaxDistanceMeters;
+
+  /**
+   * Amount of cells evicted at most by a single world write
+   */
+  @Value("${zoinkies.worlds.retention.max-evictions-per-write:32}")
+  int retentionMaxEvictions;
+
+  /**
+   * Amount of recent positions remembered per world
+   */
+  @Value("${zoinkies.worlds.retention.max-positions:8}")
+  int retentionMaxPositions;
+
+  /**
+   * Sizes of written worlds
+   */
+  private DistributionSummary writtenLocations;
+  private DistributionSummary writtenCells;
+
+  /**
+   * Cells evicted by the retention policy
+   */
+  private Counter evictedCells;
+
+  /**
+   * Near-cache of world documents, keyed by device id.
+   */
+  private NearCache<WorldData> cache;
+
+  /**
+   * Pending visit-only world writes, keyed by device id. Null when write-behind is disabled.
+   */
+  private WriteBehindBuffer<WorldData> writeBehind;
+
+  /**
+   * Spatial indexes of recently requested worlds in access order, keyed by device id.
+   * Guarded by itself.
+   */
+  private final LinkedHashMap<String, SpawnLocationIndex> indexes =
+      new LinkedHashMap<String, SpawnLocationIndex>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SpawnLocationIndex> eldest) {
+          return size() > maxIndexes;
+        }
+      };
+
+  /**
+   * Creates the near-cache and the write-behind buffer once the configuration has been injected.
+   */
+  @PostConstruct
+  void initCache() {
+    cache = new NearCache<>("worlds", cacheMaxBytes, cacheTtlMillis,
+        ObjectSizes::of, WorldData::new);
+    cache.bindTo(meterRegistry);
+    writtenLocations = DistributionSummary.builder("zoinkies.worlds.written.locations")
+        .description("Spawn locations per written world")
+        .publishPercentileHistogram()
+        .register(meterRegistry);
+    writtenCells = DistributionSummary.builder("zoinkies.worlds.written.cells")
+        .description("Cells per written world")
+        .publishPercentileHistogram()
+        .register(meterRegistry);
+    evictedCells = Counter.builder("zoinkies.worlds.retention.evicted.cells")
+        .register(meterRegistry);
+    if (writeBehindEnabled) {
+      writeBehind = new WriteBehindBuffer<>("worlds", writeBehindFlushIntervalMillis,
+          writeBehindMaxPending, this::persistWorldData, WorldData::new, writeBehindMaxAttempts,
+          (deviceId, e, attempts, dropped) -> logService.error(
+              dropped ? "worlds.writebehind.dropped" : "worlds.writebehind.failed", e,
+              "deviceId", deviceId, "attempts", String.valueOf(attempts)));
+      writeBehind.bindTo(meterRegistry);
+    }
+  }
+
+  /**
+   * Drains pending world writes before shutting down.
+   */
+  @PreDestroy
+  void drainWriteBehind() {
+    if (writeBehind != null) {
+      writeBehind.close();
+    }
+  }
+
   /**
    * If it doesn't exist, create one
    * Otherwise return the current user data in the response
@@ -74,12 +307,29 @@ public class WorldService {
    */
   @Nullable
   public WorldData getWorldData(String deviceId) throws ExecutionException, InterruptedException {
+    // Buffered writes are newer than anything cached or stored.
+    if (writeBehind != null) {
+      WorldData pending = writeBehind.peek(deviceId);
+      if (pending != null) {
+        return pending;
+      }
+    }
+    WorldData data = cache.getIfFresh(deviceId);
+    if (data != null) {
+      return data;
+    }
     ApiFuture<DocumentSnapshot> documentSnapshotApiFuture =
         this.firestore.document("worlds/" + deviceId).get();
-    WorldData data = null;
     DocumentSnapshot document = documentSnapshotApiFuture.get();
-    if (document.exists()) {
-      data = document.toObject(WorldData.class);
+    if (!document.exists()) {
+      cache.invalidate(deviceId);
+      return null;
+    }
+    // Skip decoding if nobody wrote the document since we cached it.
+    data = cache.revalidate(deviceId, document.getUpdateTime());
+    if (data == null) {
+      data = decodeWorldData(document.getData());
+      cache.put(deviceId, data, document.getUpdateTime());
     }
     return data;
   }
@@ -93,13 +343,189 @@ public class WorldService {
    */
   public void setWorldData(String deviceId, WorldData worldData)
       throws ExecutionException, InterruptedException {
-    ApiFuture<DocumentSnapshot> documentSnapshotApiFuture =
-        this.firestore.document("worlds/" + deviceId).get();
-    if (documentSnapshotApiFuture.get().exists()) {
-      this.firestore.document("worlds/" + deviceId).set(worldData).get();
+    // Only existing worlds are updated.
+    WorldData previous = recordChanges(deviceId, worldData);
+    if (previous != null) {
+      writeWorldData(deviceId, worldData);
+      streamService.publishWorld(deviceId, previous.getVersion(), worldData);
     }
   }
 
+  /**
+   * Updates the world data with changes that carry no player economy, such as the cell visits
+   * recorded for retention. Losing those changes only delays when cells are evicted, so when
+   * write-behind is enabled they are buffered and coalesced instead of written right away.
+   *
+   * @param deviceId The User Id
+   * @param worldData The World Data to update
+   * @throws ExecutionException
+   * @throws InterruptedException
+   */
+  public void deferWorldData(String deviceId, WorldData worldData)
+      throws ExecutionException, InterruptedException {
+    if (writeBehind == null) {
+      setWorldData(deviceId, worldData);
+      return;
+    }
+    WorldData previous;
+    synchronized (writeBehind.lockFor(deviceId)) {
+      previous = recordChanges(deviceId, worldData);
+      writeBehind.offer(deviceId, worldData);
+    }
+    // Buffered worlds are what readers get, push them right away as well.
+    streamService.publishWorld(deviceId, previous == null ? 0 : previous.getVersion(), worldData);
+  }
+
+  /**
+   * Helper function that applies the retention policy to a world about to be written, and
+   * versions it against its last known state.
+   *
+   * @param deviceId The User Id
+   * @param worldData The World Data about to be written, updated in place
+   * @return the last known state, or null if the world doesn't exist yet
+   * @throws ExecutionException
+   * @throws InterruptedException
+   */
+  private WorldData recordChanges(String deviceId, WorldData worldData)
+      throws ExecutionException, InterruptedException {
+    if (retentionEnabled) {
+      evictedCells.increment(WorldRetention.evict(worldData, System.currentTimeMillis(),
+          retentionMaxIdleMillis, retentionMaxDistanceMeters, retentionMaxEvictions));
+    }
+    WorldData previous = writeBehind == null ? null : writeBehind.peek(deviceId);
+    if (previous == null) {
+      // Cached worlds are the last written state, whatever their age.
+      previous = cache.peek(deviceId);
+    }
+    if (previous == null) {
+      DocumentSnapshot document = this.firestore.document("worlds/" + deviceId).get().get();
+      if (document.exists()) {
+        previous = decodeWorldData(document.getData());
+      }
+    }
+    WorldDeltas.record(previous, worldData, maxChanges);
+    respawnService.schedule(deviceId, worldData);
+    return previous;
+  }
+
+  /**
+   * Helper function that writes the world document right away.
+   * Any buffered write for the same world is superseded.
+   *
+   * @param deviceId The User Id
+   * @param worldData The World Data to write
+   * @throws ExecutionException
+   * @throws InterruptedException
+   */
+  private void writeWorldData(String deviceId, WorldData worldData)
+      throws ExecutionException, InterruptedException {
+    if (writeBehind == null) {
+      persistWorldData(deviceId, worldData);
+      return;
+    }
+    synchronized (writeBehind.lockFor(deviceId)) {
+      writeBehind.cancel(deviceId);
+      persistWorldData(deviceId, worldData);
+    }
+  }
+
+  /**
+   * Encodes a world into document data, in the configured storage format.
+   * @param worldData The World Data to encode
+   * @return the document data
+   */
+  public Map<String, Object> encodeWorldData(WorldData worldData) {
+    if (sharedWorld) {
+      return WorldDataCodec.encodeOverlay(worldData);
+    }
+    return compactEncoding
+        ? WorldDataCodec.encodeCompact(worldData) : WorldDataCodec.encode(worldData);
+  }
+
+  /**
+   * Rewrites world document data at the current schema version, in the configured storage
+   * format.
+   * @param data The document data
+   * @return the rewritten document data
+   */
+  public Map<String, Object> reencodeWorldData(Map<String, Object> data) {
+    if (WorldDataCodec.isOverlay(data)) {
+      // Overlays can't be decoded without their cell layers, they only need the schema upgrade.
+      WorldDataCodec.MIGRATOR.upgrade(data);
+      return data;
+    }
+    return encodeWorldData(WorldDataCodec.decode(data));
+  }
+
+  /**
+   * Helper function that decodes a world document. In shared world mode, the world is rebuilt
+   * from the layers of its cells and the player's respawn times.
+   */
+  private WorldData decodeWorldData(Map<String, Object> data)
+      throws ExecutionException, InterruptedException {
+    boolean overlay = WorldDataCodec.isOverlay(data);
+    WorldData world = WorldDataCodec.decode(data);
+    if (!sharedWorld) {
+      if (overlay) {
+        // Written in shared world mode, the cells have to be generated again.
+        world.getS2CellsTTL().clear();
+      }
+      return world;
+    }
+    // Worlds written before shared mode was enabled carry their own respawn times.
+    Map<String, Long> respawns = WorldDataCodec.decodeOverlay(data);
+    for (SpawnLocation location : world.getLocations().values()) {
+      if (location.getRespawnAt() != 0) {
+        respawns.putIfAbsent(location.getLocationId(), location.getRespawnAt());
+      }
+    }
+    world.getLocations().clear();
+    Map<String, WorldData> layers = spawnCellService.getCells(world.getS2CellsTTL().keySet());
+    // Missing cells are generated again on the next refresh.
+    world.getS2CellsTTL().keySet().retainAll(layers.keySet());
+    for (WorldData layer : layers.values()) {
+      addLayer(world, layer, respawns);
+    }
+    return world;
+  }
+
+  /**
+   * Helper function that adds the locations of a cell layer to a world. Locations already in the
+   * world keep their state.
+   */
+  private static void addLayer(WorldData world, WorldData layer, Map<String, Long> respawns) {
+    world.getS2CellsTTL().putAll(layer.getS2CellsTTL());
+    for (SpawnLocation location : layer.getLocations().values()) {
+      Long respawnAt = respawns.get(location.getLocationId());
+      if (respawnAt != null) {
+        location.setRespawnAt(respawnAt);
+      }
+      world.getLocations().putIfAbsent(location.getLocationId(), location);
+    }
+  }
+
+  /**
+   * Helper function that writes the world document and keeps the near-cache in sync.
+   * @param deviceId The User Id
+   * @param worldData The World Data to write
+   * @throws ExecutionException
+   * @throws InterruptedException
+   */
+  private void persistWorldData(String deviceId, WorldData worldData)
+      throws ExecutionException, InterruptedException {
+    WriteResult result;
+    try {
+      result = this.firestore.document("worlds/" + deviceId).set(encodeWorldData(worldData)).get();
+    } catch (ExecutionException | InterruptedException e) {
+      // The write may or may not have landed.
+      cache.invalidate(deviceId);
+      throw e;
+    }
+    cache.put(deviceId, worldData, result.getUpdateTime());
+    writtenLocations.record(worldData.getLocations().size());
+    writtenCells.record(worldData.getS2CellsTTL().size());
+  }
+
   /**
    * Creates or updates world spawn locations.
    *
@@ -110,13 +536,54 @@ public class WorldService {
    */
   public WorldData getSpawnLocations(String Id, WorldDataRequest WorldDataRequest)
       throws Exception {
+    // Return the final set, trimmed down to what the client can display
+    return clipToViewport(Id, refreshSpawnLocations(Id, WorldDataRequest), WorldDataRequest);
+  }
+
+  /**
+   * Creates or updates world spawn locations, and returns what changed since the given version.
+   *
+   * @param Id  The generated device id identifying the player
+   * @param WorldDataRequest The request body (Json format)
+   * @param since The world version known by the client
+   * @return the changes, or null if the client is up to date
+   * @throws Exception
+   */
+  @Nullable
+  public WorldDelta getSpawnLocationChanges(String Id, WorldDataRequest WorldDataRequest,
+      long since) throws Exception {
+    return WorldDeltas.since(refreshSpawnLocations(Id, WorldDataRequest), since);
+  }
 
+  /**
+   * Helper function that creates or updates world spawn locations around the requested area.
+   *
+   * @param Id  The generated device id identifying the player
+   * @param WorldDataRequest The request body (Json format)
+   * @return the whole updated world
+   * @throws Exception
+   */
+  private WorldData refreshSpawnLocations(String Id, WorldDataRequest WorldDataRequest)
+      throws Exception {
+
+    // Locations that are done respawning are active when read, only new or regenerated
+    // locations need to be written.
     boolean updateNeeded = false;
 
     WorldData data = getWorldData(Id);
     if (data == null) {
       data = new WorldData();
     }
+    // The cells overlapping the requested rectangle, as queried from Playable Locations.
+    List<String> cellIds = playableLocationsService.getCoveringCellIds(
+        WorldDataRequest.getSouthwest(), WorldDataRequest.getNortheast());
+    if (sharedWorld) {
+      updateNeeded = refreshSharedCells(data, cellIds, WorldDataRequest);
+      return writeRefreshedWorld(Id, data, cellIds, WorldDataRequest, updateNeeded);
+    }
+    // Locations generated under a previous seed keep their metadata, which is then stored
+    // as a deviation from the new seed.
+    data.setSpawnSeed(SpawnGenerator.worldSeed(Id, spawnSeason));
 
     // Query playable locations for the given zone - and only when the overlapping cell
     // isn't in our cache.
@@ -137,7 +604,7 @@ public class WorldService {
       // otherwise we check the time to live field.
       // If the TTL has expired, we create a new spawn location.
       if (!data.getLocations().containsKey(locationId)) {
-        SpawnLocation sl = gameService.createRandomSpawnLocation(plloc);
+        SpawnLocation sl = gameService.createSpawnLocation(plloc, data.getSpawnSeed());
         sl.setS2CellId(plloc.getS2CellId());
         data.getLocations().put(locationId, sl);
         updateNeeded = true;
@@ -150,7 +617,7 @@ public class WorldService {
 
           Duration duration = Duration.parse(data.getS2CellsTTL().get(S2CellId));
           if (duration.getSeconds() <= 0) {
-            SpawnLocation sl = gameService.createRandomSpawnLocation(plloc);
+            SpawnLocation sl = gameService.createSpawnLocation(plloc, data.getSpawnSeed());
             sl.setS2CellId(plloc.getS2CellId());
             data.getLocations().put(locationId, sl);
             updateNeeded = true;
@@ -159,43 +626,174 @@ public class WorldService {
       }
     }
 
-    // Check if any respawning locations need to be unlocked.
-    for (SpawnLocation location:data.getLocations().values()) {
-      // Check timestamp progress.
-      if (location.getRespawnTime() != null) {
-        Instant t = Instant.parse(location.getRespawnTime());
-        if (t.compareTo(Instant.now()) <= 0) {
-          location.setRespawnTime(null);
-          location.setActive(true);
-          updateNeeded = true;
-        }
+    // Create or Update the world document.
+    return writeRefreshedWorld(Id, data, cellIds, WorldDataRequest, updateNeeded);
+  }
+
+  /**
+   * Helper function that records the visit of the requested cells, and writes a refreshed world
+   * if anything changed. Worlds that only changed by being visited are deferred.
+   */
+  private WorldData writeRefreshedWorld(String Id, WorldData data, List<String> cellIds,
+      WorldDataRequest request, boolean updateNeeded)
+      throws ExecutionException, InterruptedException {
+    boolean visited = retentionEnabled && WorldRetention.visit(data, cellIds, centerOf(request),
+        System.currentTimeMillis(), retentionMaxIdleMillis / 16, retentionMaxPositions);
+    if (updateNeeded) {
+      WorldData previous = recordChanges(Id, data);
+      writeWorldData(Id, data);
+      streamService.publishWorld(Id, previous == null ? 0 : previous.getVersion(), data);
+    } else if (visited) {
+      deferWorldData(Id, data);
+    }
+    return data;
+  }
+
+  /**
+   * Helper function that returns the center of a requested rectangle.
+   */
+  private static LatLng centerOf(WorldDataRequest request) {
+    if (request.getSouthwest() == null || request.getNortheast() == null) {
+      return null;
+    }
+    return new LatLng(
+        (request.getSouthwest().getLatitude() + request.getNortheast().getLatitude()) / 2,
+        (request.getSouthwest().getLongitude() + request.getNortheast().getLongitude()) / 2);
+  }
+
+  /**
+   * Adds the cell layers overlapping the requested rectangle to a world built from shared cells.
+   * Layers are read from other players' visits when possible, and Playable Locations are only
+   * requested for cells nobody has visited yet.
+   *
+   * @param data The World Data, updated in place
+   * @param cellIds The cells overlapping the requested rectangle
+   * @param request The rectangle requested by the client
+   * @return true if cells were added
+   * @throws Exception
+   */
+  private boolean refreshSharedCells(WorldData data, List<String> cellIds,
+      WorldDataRequest request) throws Exception {
+    boolean updateNeeded = false;
+    // Cells listed there with a valid TTL are skipped by the Playable Locations request.
+    HashMap<String, String> known = new HashMap<>(data.getS2CellsTTL());
+    List<String> unvisited = new ArrayList<>();
+    for (String cellId : cellIds) {
+      if (!isFresh(data.getS2CellsTTL(), cellId)) {
+        unvisited.add(cellId);
       }
     }
+    Map<String, WorldData> layers = spawnCellService.getCells(unvisited);
+    List<String> missing = new ArrayList<>();
+    for (String cellId : unvisited) {
+      WorldData layer = layers.get(cellId);
+      if (layer == null) {
+        missing.add(cellId);
+        known.remove(cellId);
+      } else {
+        addLayer(data, layer, Collections.<String, Long>emptyMap());
+        known.putAll(layer.getS2CellsTTL());
+        updateNeeded = true;
+      }
+    }
+    if (missing.isEmpty()) {
+      return updateNeeded;
+    }
 
-    // Create or Update the world document.
-    if (updateNeeded) {
-      this.firestore.document("worlds/" + Id).set(data).get();
+    Response response = playableLocationsService.requestPlayableLocations(
+        request.getSouthwest(),
+        request.getNortheast(),
+        getDefaultCriteria(),
+        known
+    );
+    Map<String, List<Location>> byCell = new HashMap<>();
+    for (Location plloc : response.getLocationsPerGameObjectType().get("0").getLocations()) {
+      byCell.computeIfAbsent(plloc.getS2CellId(), k -> new ArrayList<>()).add(plloc);
+    }
+    for (String cellId : missing) {
+      // Cells without a TTL are requested again next time, as in per-device worlds.
+      String ttl = known.get(cellId);
+      WorldData layer = spawnCellService.createCell(cellId,
+          byCell.getOrDefault(cellId, Collections.<Location>emptyList()),
+          ttl == null ? "PT0S" : ttl);
+      addLayer(data, layer, Collections.<String, Long>emptyMap());
     }
+    return true;
+  }
 
-    // Return the final set
-    return data;
+  /**
+   * Helper function that checks if the playable locations of a cell are still valid.
+   */
+  private static boolean isFresh(Map<String, String> ttls, String cellId) {
+    String ttl = ttls.get(cellId);
+    return ttl != null && Duration.parse(ttl).getSeconds() > 0;
+  }
+
+  /**
+   * Returns a world holding only the locations within the requested rectangle, grown by the
+   * configured margin. The world's spatial index is reused across requests and only rebuilt when
+   * the world version changed.
+   *
+   * @param deviceId The User Id
+   * @param data The full World Data
+   * @param request The rectangle requested by the client
+   * @return a World Data with the visible locations, or the given one if clipping doesn't apply
+   */
+  public WorldData clipToViewport(String deviceId, WorldData data, WorldDataRequest request) {
+    if (!viewportEnabled || request.getSouthwest() == null || request.getNortheast() == null) {
+      return data;
+    }
+    SpawnLocationIndex index;
+    synchronized (indexes) {
+      index = indexes.get(deviceId);
+    }
+    if (index == null || !index.isCurrent(data.getVersion())) {
+      index = SpawnLocationIndex.build(data.getLocations(), data.getVersion());
+      synchronized (indexes) {
+        indexes.put(deviceId, index);
+      }
+    }
+    List<String> visible = index.query(
+        request.getSouthwest().getLatitude(), request.getSouthwest().getLongitude(),
+        request.getNortheast().getLatitude(), request.getNortheast().getLongitude(),
+        viewportMarginMeters);
+    HashMap<String, SpawnLocation> locations = new HashMap<>(visible.size() * 4 / 3 + 1);
+    for (String locationId : visible) {
+      SpawnLocation location = data.getLocations().get(locationId);
+      if (location != null) {
+        locations.put(locationId, location);
+      }
+    }
+    WorldData clipped = new WorldData();
+    // Clients seed /worlds/{id}/changes?since= with the version of their last full fetch.
+    clipped.setVersion(data.getVersion());
+    clipped.setS2CellsTTL(data.getS2CellsTTL());
+    clipped.setLocations(locations);
+    return clipped;
   }
 
   /**
    * Deletes the world locations associated to the player's game.
    * @param Id The User Id
+   * @throws ExecutionException
+   * @throws InterruptedException
    */
-  public void removeWorldData(String Id) {
+  public void removeWorldData(String Id) throws ExecutionException, InterruptedException {
     CollectionReference users = this.firestore.collection("worlds");
-    users.listDocuments().forEach(documentReference -> {
+    for (DocumentReference documentReference : users.listDocuments()) {
       if (documentReference.getId().equals(Id)) {
-        try {
-          documentReference.delete().get();
-        } catch (InterruptedException | ExecutionException e) {
-          e.printStackTrace();
+        if (writeBehind != null) {
+          synchronized (writeBehind.lockFor(Id)) {
+            writeBehind.cancel(Id);
+          }
+        }
+        cache.invalidate(Id);
+        synchronized (indexes) {
+          indexes.remove(Id);
         }
+        documentReference.delete().get();
       }
-    });
+    }
   }
 
   /**
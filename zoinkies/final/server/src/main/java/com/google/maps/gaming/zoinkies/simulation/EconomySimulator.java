@@ -0,0 +1,336 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies.simulation;
+
+import com.google.maps.gaming.zoinkies.ITEMS;
+import com.google.maps.gaming.zoinkies.models.BattleSummaryData;
+import com.google.maps.gaming.zoinkies.models.Item;
+import com.google.maps.gaming.zoinkies.models.PlayerData;
+import com.google.maps.gaming.zoinkies.models.RewardsData;
+import com.google.maps.gaming.zoinkies.models.SpawnLocation;
+import com.google.maps.gaming.zoinkies.models.WorldData;
+import com.google.maps.gaming.zoinkies.services.BattleSessionService;
+import com.google.maps.gaming.zoinkies.services.GameService;
+import com.google.maps.gaming.zoinkies.services.PlayerService;
+import com.google.maps.gaming.zoinkies.services.WorldService;
+import com.google.maps.gaming.zoinkies.spawning.SpawnGenerator;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A headless Monte Carlo simulator of the game economy, to tune values such as
+ * FREED_LEADERS_TO_WIN, the loot tables or the spawn split against something better than
+ * guesswork.
+ *
+ * Sessions are played through {@link GameService}, on top of an in-memory world and player
+ * backend, so the simulated rules are the served ones. Time is simulated: between two visits,
+ * pending respawns are moved closer by the visit interval instead of waiting.
+ *
+ * Sessions are spread over worker threads in chunks. Each session draws from its own random
+ * stream, seeded from the master seed and the session index, so a run is reproducible whatever
+ * the amount of threads.
+ *
+ * Run with ./gradlew simulate --args="--sessions=1000000 --seed=42", see
+ * {@link SimulationSettings#parse} for the parameters.
+ */
+public class EconomySimulator {
+
+  /**
+   * Amount of sessions a worker takes at once
+   */
+  private static final int CHUNK_SIZE = 1024;
+
+  /**
+   * A world service keeping the worlds of the sessions being played in memory.
+   */
+  private static class InMemoryWorldService extends WorldService {
+    private final Map<String, WorldData> worlds = new ConcurrentHashMap<>();
+
+    @Override
+    public WorldData getWorldData(String deviceId) {
+      return worlds.get(deviceId);
+    }
+
+    @Override
+    public void setWorldData(String deviceId, WorldData worldData) {
+      worlds.put(deviceId, worldData);
+    }
+
+    @Override
+    public void deferWorldData(String deviceId, WorldData worldData) {
+      worlds.put(deviceId, worldData);
+    }
+  }
+
+  /**
+   * A player service keeping the players of the sessions being played in memory.
+   */
+  private static class InMemoryPlayerService extends PlayerService {
+    private final Map<String, PlayerData> players = new ConcurrentHashMap<>();
+
+    @Override
+    public PlayerData getPlayerData(String deviceId) {
+      return players.get(deviceId);
+    }
+
+    @Override
+    public PlayerData updatePlayerData(String deviceId, PlayerData playerData) {
+      players.put(deviceId, playerData);
+      return playerData;
+    }
+  }
+
+  private final SimulationSettings settings;
+  private final InMemoryWorldService worldService = new InMemoryWorldService();
+  private final InMemoryPlayerService playerService = new InMemoryPlayerService();
+  private final GameService gameService;
+
+  /**
+   * Random stream of each worker, reseeded for each session
+   */
+  private final ThreadLocal<SplitMixRandom> streams = ThreadLocal.withInitial(
+      SplitMixRandom::new);
+
+  /**
+   * Location ids, shared by all the simulated worlds
+   */
+  private final String[] locationIds;
+
+  /**
+   * Creates a simulator.
+   * @param settings the simulation parameters
+   * @throws IOException if the loot tables can't be read
+   */
+  public EconomySimulator(SimulationSettings settings) throws IOException {
+    this.settings = settings;
+    // Battle sessions are disabled, as they are by default on the server.
+    gameService = new GameService(worldService, playerService, new BattleSessionService(),
+        streams::get);
+    locationIds = new String[settings.getLocations()];
+    for (int i = 0; i < locationIds.length; i++) {
+      locationIds[i] = "simulated_" + i;
+    }
+  }
+
+  /**
+   * Plays all the sessions.
+   * @return the merged report
+   * @throws Exception if a game rule failed
+   */
+  public SimulationReport run() throws Exception {
+    long start = System.nanoTime();
+    AtomicLong nextChunk = new AtomicLong();
+    ExecutorService executor = Executors.newFixedThreadPool(settings.getThreads());
+    List<Future<SimulationReport>> futures = new ArrayList<>();
+    try {
+      for (int w = 0; w < settings.getThreads(); w++) {
+        String deviceId = "simulated-" + w;
+        futures.add(executor.submit(() -> work(deviceId, nextChunk)));
+      }
+      SimulationReport report = new SimulationReport(settings);
+      for (Future<SimulationReport> future : futures) {
+        try {
+          report.merge(future.get());
+        } catch (ExecutionException e) {
+          throw (Exception) e.getCause();
+        }
+      }
+      report.setElapsedNanos(System.nanoTime() - start);
+      return report;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Helper function that plays chunks of sessions until there are none left.
+   */
+  private SimulationReport work(String deviceId, AtomicLong nextChunk) throws Exception {
+    SimulationReport report = new SimulationReport(settings);
+    SplitMixRandom random = streams.get();
+    SpawnLocation[] locations = new SpawnLocation[locationIds.length];
+    int[] candidates = new int[locationIds.length];
+    while (true) {
+      long first = nextChunk.getAndIncrement() * CHUNK_SIZE;
+      if (first >= settings.getSessions()) {
+        return report;
+      }
+      long last = Math.min(first + CHUNK_SIZE, settings.getSessions());
+      for (long session = first; session < last; session++) {
+        random.reseed(SplitMixRandom.seedOf(settings.getSeed(), session));
+        playSession(deviceId, random.nextLong(), random, locations, candidates, report);
+      }
+    }
+  }
+
+  /**
+   * Helper function that plays a session until the game is won or the player gives up.
+   */
+  private void playSession(String deviceId, long worldSeed, SplitMixRandom random,
+      SpawnLocation[] locations, int[] candidates, SimulationReport report) throws Exception {
+    WorldData worldData = new WorldData();
+    worldData.setSpawnSeed(worldSeed);
+    int towersLeft = 0;
+    for (int i = 0; i < locations.length; i++) {
+      SpawnLocation location = new SpawnLocation();
+      location.setLocationId(locationIds[i]);
+      SpawnGenerator.generate(location, worldSeed);
+      location.setActive(true);
+      worldData.getLocations().put(location.getLocationId(), location);
+      locations[i] = location;
+      if (location.getObjectTypeId() == ITEMS.TOWER) {
+        towersLeft++;
+      }
+    }
+    PlayerData playerData = gameService.createNewUser();
+    worldService.setWorldData(deviceId, worldData);
+    playerService.updatePlayerData(deviceId, playerData);
+
+    // Freed towers are gone from the map as far as the client is concerned.
+    boolean[] freed = new boolean[locations.length];
+    long itemsObtained = 0;
+    int wonAtVisit = -1;
+    // Without enough towers within reach the game can't be won, the player gives up when they
+    // are all freed.
+    for (int visit = 0; visit < settings.getMaxVisits() && wonAtVisit < 0 && towersLeft > 0;
+        visit++) {
+      if (visit % settings.getCheckpointVisits() == 0) {
+        report.recordCheckpoint(visit, playerData.getInventoryQuantity(ITEMS.GOLD_KEY),
+            playerData.getInventoryQuantity(ITEMS.DIAMOND_KEY));
+      }
+      long now = System.currentTimeMillis();
+      int active = 0;
+      for (int i = 0; i < locations.length; i++) {
+        if (!freed[i] && locations[i].getRespawnAt() <= now) {
+          candidates[active++] = i;
+        }
+      }
+      boolean idle = true;
+      if (active > 0) {
+        int i = candidates[random.nextInt(active)];
+        SpawnLocation location = locations[i];
+        String locationId = location.getLocationId();
+        int keys = location.getNumberOfKeysToActivate();
+        switch (location.getObjectTypeId()) {
+          case MINION: {
+            gameService.getBattleData(deviceId, locationId);
+            BattleSummaryData summary = gameService.getBattleSummaryData(deviceId, locationId,
+                random.nextDouble() < settings.getMinionWinRate());
+            itemsObtained |= recordRewards(summary.getRewards(), report);
+            idle = false;
+            break;
+          }
+          case TOWER: {
+            if (!canAfford(playerData, ITEMS.DIAMOND_KEY, keys)) {
+              break;
+            }
+            gameService.getBattleData(deviceId, locationId);
+            report.recordKeysSpent(ITEMS.DIAMOND_KEY, keys);
+            BattleSummaryData summary = gameService.getBattleSummaryData(deviceId, locationId,
+                random.nextDouble() < settings.getGeneralWinRate());
+            itemsObtained |= recordRewards(summary.getRewards(), report);
+            if (summary.getWinner()) {
+              freed[i] = true;
+              towersLeft--;
+            }
+            if (summary.getWonTheGame()) {
+              wonAtVisit = visit + 1;
+            }
+            idle = false;
+            break;
+          }
+          case CHEST: {
+            if (!canAfford(playerData, ITEMS.GOLD_KEY, keys)) {
+              break;
+            }
+            RewardsData rewards = gameService.getChestRewards(deviceId, locationId);
+            report.recordKeysSpent(ITEMS.GOLD_KEY, keys);
+            itemsObtained |= recordRewards(rewards, report);
+            idle = false;
+            break;
+          }
+          case ENERGY_STATION:
+            gameService.getEnergyStationData(deviceId, locationId);
+            idle = false;
+            break;
+          default:
+            break;
+        }
+      }
+      report.recordVisit(idle);
+      elapse(locations, now);
+    }
+    report.recordSession(wonAtVisit, itemsObtained);
+    worldService.worlds.remove(deviceId);
+    playerService.players.remove(deviceId);
+  }
+
+  /**
+   * Helper function that moves pending respawns closer by a visit interval.
+   */
+  private void elapse(SpawnLocation[] locations, long now) {
+    for (SpawnLocation location : locations) {
+      long respawnAt = location.getRespawnAt();
+      if (respawnAt > now && respawnAt != SpawnLocation.NEVER) {
+        location.setRespawnAt(respawnAt - settings.getVisitMillis());
+      }
+    }
+  }
+
+  /**
+   * Helper function that records rewards, and returns the items obtained as a bit set.
+   */
+  private static long recordRewards(RewardsData rewards, SimulationReport report) {
+    long obtained = 0;
+    for (Item item : rewards.getItems()) {
+      if (item.getQuantity() > 0) {
+        report.recordDrop(item.getItemId(), item.getQuantity());
+        obtained |= 1L << item.getItemId().ordinal();
+      } else {
+        report.recordKeysSpent(item.getItemId(), -item.getQuantity());
+      }
+    }
+    return obtained;
+  }
+
+  /**
+   * Helper function that checks if a player holds enough keys, the same way GameService does.
+   */
+  private static boolean canAfford(PlayerData playerData, ITEMS keyId, int keys) {
+    return playerData.getInventoryQuantity(keyId) >= keys;
+  }
+
+  /**
+   * Runs a simulation and prints its report.
+   * @param args --name=value parameters
+   * @throws Exception if a game rule failed
+   */
+  public static void main(String[] args) throws Exception {
+    SimulationSettings settings = new SimulationSettings();
+    for (String arg : args) {
+      settings.parse(arg);
+    }
+    new EconomySimulator(settings).run().print(System.out);
+  }
+}
@@ -0,0 +1,266 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies.simulation;
+
+import com.google.maps.gaming.zoinkies.ITEMS;
+import java.io.PrintStream;
+
+/**
+ * This class accumulates the outcome of simulated sessions.
+ *
+ * Each worker fills its own report, reports are merged once all sessions are done. Everything
+ * is a sum or a histogram, so the merged report doesn't depend on which worker ran which
+ * session.
+ */
+public class SimulationReport {
+
+  private final SimulationSettings settings;
+
+  private long sessions;
+  private long visits;
+
+  /**
+   * Visits without anything to do: nothing active, or not enough keys
+   */
+  private long idleVisits;
+
+  /**
+   * Amount of sessions won at each visit
+   */
+  private final long[] wins;
+
+  /**
+   * Keys held at each checkpoint, summed over the sessions still playing
+   */
+  private final long[] goldKeysHeld;
+  private final long[] diamondKeysHeld;
+  private final long[] playing;
+
+  private long goldKeysEarned;
+  private long goldKeysSpent;
+  private long diamondKeysEarned;
+  private long diamondKeysSpent;
+
+  /**
+   * Quantities dropped by item, and amount of sessions that got the item at least once
+   */
+  private final long[] drops = new long[ITEMS.values().length];
+  private final long[] sessionsWithItem = new long[ITEMS.values().length];
+
+  private long elapsedNanos;
+
+  public SimulationReport(SimulationSettings settings) {
+    this.settings = settings;
+    wins = new long[settings.getMaxVisits() + 1];
+    int checkpoints = settings.getMaxVisits() / settings.getCheckpointVisits() + 1;
+    goldKeysHeld = new long[checkpoints];
+    diamondKeysHeld = new long[checkpoints];
+    playing = new long[checkpoints];
+  }
+
+  void recordVisit(boolean idle) {
+    visits++;
+    if (idle) {
+      idleVisits++;
+    }
+  }
+
+  void recordCheckpoint(int visit, int goldKeys, int diamondKeys) {
+    int checkpoint = visit / settings.getCheckpointVisits();
+    goldKeysHeld[checkpoint] += goldKeys;
+    diamondKeysHeld[checkpoint] += diamondKeys;
+    playing[checkpoint]++;
+  }
+
+  void recordDrop(ITEMS itemId, int quantity) {
+    drops[itemId.ordinal()] += quantity;
+    if (itemId == ITEMS.GOLD_KEY) {
+      goldKeysEarned += quantity;
+    } else if (itemId == ITEMS.DIAMOND_KEY) {
+      diamondKeysEarned += quantity;
+    }
+  }
+
+  void recordKeysSpent(ITEMS keyId, int quantity) {
+    if (keyId == ITEMS.GOLD_KEY) {
+      goldKeysSpent += quantity;
+    } else if (keyId == ITEMS.DIAMOND_KEY) {
+      diamondKeysSpent += quantity;
+    }
+  }
+
+  /**
+   * Records the end of a session.
+   * @param wonAtVisit the visit the game was won at, or -1 if the player gave up
+   * @param itemsObtained the items the player got at least once, as a bit set of ordinals
+   */
+  void recordSession(int wonAtVisit, long itemsObtained) {
+    sessions++;
+    if (wonAtVisit >= 0) {
+      wins[wonAtVisit]++;
+    }
+    for (int i = 0; i < sessionsWithItem.length; i++) {
+      if ((itemsObtained & (1L << i)) != 0) {
+        sessionsWithItem[i]++;
+      }
+    }
+  }
+
+  void setElapsedNanos(long elapsedNanos) {
+    this.elapsedNanos = elapsedNanos;
+  }
+
+  /**
+   * Adds the outcome of another report to this one.
+   * @param other a report of the same settings
+   */
+  void merge(SimulationReport other) {
+    sessions += other.sessions;
+    visits += other.visits;
+    idleVisits += other.idleVisits;
+    goldKeysEarned += other.goldKeysEarned;
+    goldKeysSpent += other.goldKeysSpent;
+    diamondKeysEarned += other.diamondKeysEarned;
+    diamondKeysSpent += other.diamondKeysSpent;
+    add(wins, other.wins);
+    add(goldKeysHeld, other.goldKeysHeld);
+    add(diamondKeysHeld, other.diamondKeysHeld);
+    add(playing, other.playing);
+    add(drops, other.drops);
+    add(sessionsWithItem, other.sessionsWithItem);
+  }
+
+  /**
+   * Getter for sessions
+   * @return the amount of simulated sessions
+   */
+  public long getSessions() {
+    return sessions;
+  }
+
+  /**
+   * Getter for visits
+   * @return the amount of simulated visits
+   */
+  public long getVisits() {
+    return visits;
+  }
+
+  /**
+   * Getter for the amount of sessions won
+   * @return the amount of sessions that freed enough leaders
+   */
+  public long getWins() {
+    long total = 0;
+    for (long w : wins) {
+      total += w;
+    }
+    return total;
+  }
+
+  /**
+   * Returns a percentile of the time to win, among the sessions that were won.
+   * @param percentile between 0 and 100
+   * @return the amount of visits, or -1 if no session was won
+   */
+  public int getVisitsToWin(double percentile) {
+    long won = getWins();
+    if (won == 0) {
+      return -1;
+    }
+    long rank = Math.max(1, (long) Math.ceil(won * percentile / 100));
+    long seen = 0;
+    for (int visit = 0; visit < wins.length; visit++) {
+      seen += wins[visit];
+      if (seen >= rank) {
+        return visit;
+      }
+    }
+    return wins.length - 1;
+  }
+
+  /**
+   * Getter for the quantity dropped of an item
+   * @param itemId the item id
+   * @return the total quantity dropped, keys included
+   */
+  public long getDrops(ITEMS itemId) {
+    return drops[itemId.ordinal()];
+  }
+
+  /**
+   * Getter for elapsedNanos
+   * @return the wall clock time of the run
+   */
+  public long getElapsedNanos() {
+    return elapsedNanos;
+  }
+
+  /**
+   * Prints the report: time to win distribution, key inflation and item rarity.
+   * @param out where to print
+   */
+  public void print(PrintStream out) {
+    double seconds = elapsedNanos / 1e9;
+    out.printf("%d sessions, %d visits in %.1f s (%.0f sessions/min) on %d threads, seed %d%n",
+        sessions, visits, seconds, sessions / Math.max(seconds, 1e-9) * 60,
+        settings.getThreads(), settings.getSeed());
+    out.printf("Idle visits: %.1f%%%n", percent(idleVisits, visits));
+
+    long won = getWins();
+    out.printf("%nTime to win: %d sessions won (%.1f%%) within %d visits%n", won,
+        percent(won, sessions), settings.getMaxVisits());
+    if (won > 0) {
+      out.printf("%10s %8s %8s%n", "percentile", "visits", "hours");
+      for (double p : new double[] {10, 25, 50, 75, 90, 99}) {
+        int v = getVisitsToWin(p);
+        out.printf("%10s %8d %8.1f%n", "p" + (int) p, v,
+            v * (double) settings.getVisitMillis() / 3600000);
+      }
+    }
+
+    out.printf("%nKeys per session: gold %.2f earned, %.2f spent; diamond %.2f earned, "
+            + "%.2f spent%n", per(goldKeysEarned, sessions), per(goldKeysSpent, sessions),
+        per(diamondKeysEarned, sessions), per(diamondKeysSpent, sessions));
+    out.printf("%8s %10s %10s %10s%n", "visit", "playing", "gold held", "diamond");
+    for (int i = 0; i < playing.length && playing[i] > 0; i++) {
+      out.printf("%8d %10d %10.2f %10.2f%n", i * settings.getCheckpointVisits(), playing[i],
+          per(goldKeysHeld[i], playing[i]), per(diamondKeysHeld[i], playing[i]));
+    }
+
+    out.printf("%nItem rarity:%n%20s %14s %14s%n", "item", "per 1k visits", "% sessions");
+    for (ITEMS itemId : ITEMS.values()) {
+      if (drops[itemId.ordinal()] > 0) {
+        out.printf("%20s %14.2f %14.1f%n", itemId, per(drops[itemId.ordinal()] * 1000, visits),
+            percent(sessionsWithItem[itemId.ordinal()], sessions));
+      }
+    }
+  }
+
+  private static void add(long[] to, long[] from) {
+    for (int i = 0; i < to.length; i++) {
+      to[i] += from[i];
+    }
+  }
+
+  private static double per(long value, long count) {
+    return count == 0 ? 0 : (double) value / count;
+  }
+
+  private static double percent(long value, long count) {
+    return per(value * 100, count);
+  }
+}
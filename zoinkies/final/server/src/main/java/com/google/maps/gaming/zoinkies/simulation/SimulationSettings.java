@@ -0,0 +1,261 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies.simulation;
+
+/**
+ * This class holds the parameters of an economy simulation run.
+ *
+ * The player model is deliberately simple: every visit, the player walks to a random active
+ * location within reach and plays it if they can, fighting minions and generals with a fixed
+ * chance to win.
+ */
+public class SimulationSettings {
+
+  /**
+   * Amount of simulated player sessions
+   */
+  private long sessions = 1000000;
+
+  /**
+   * Amount of worker threads, each with its own random streams
+   */
+  private int threads = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * Master seed, the same seed gives the same report whatever the amount of threads
+   */
+  private long seed = 1;
+
+  /**
+   * Amount of spawn locations within reach of the player
+   */
+  private int locations = 40;
+
+  /**
+   * Simulated time between two visits, respawns tick during that time
+   */
+  private long visitMillis = 180000;
+
+  /**
+   * Amount of visits after which a player gives up
+   */
+  private int maxVisits = 3000;
+
+  /**
+   * Chances to win a battle against a minion
+   */
+  private double minionWinRate = 0.75;
+
+  /**
+   * Chances to win a battle against a general
+   */
+  private double generalWinRate = 0.5;
+
+  /**
+   * Interval between two samples of the key inflation curve, in visits
+   */
+  private int checkpointVisits = 100;
+
+  /**
+   * Getter for sessions
+   * @return the amount of sessions
+   */
+  public long getSessions() {
+    return sessions;
+  }
+
+  /**
+   * Setter for sessions
+   * @param sessions the amount of sessions
+   */
+  public void setSessions(long sessions) {
+    this.sessions = sessions;
+  }
+
+  /**
+   * Getter for threads
+   * @return the amount of worker threads
+   */
+  public int getThreads() {
+    return threads;
+  }
+
+  /**
+   * Setter for threads
+   * @param threads the amount of worker threads
+   */
+  public void setThreads(int threads) {
+    this.threads = threads;
+  }
+
+  /**
+   * Getter for seed
+   * @return the master seed
+   */
+  public long getSeed() {
+    return seed;
+  }
+
+  /**
+   * Setter for seed
+   * @param seed the master seed
+   */
+  public void setSeed(long seed) {
+    this.seed = seed;
+  }
+
+  /**
+   * Getter for locations
+   * @return the amount of spawn locations per world
+   */
+  public int getLocations() {
+    return locations;
+  }
+
+  /**
+   * Setter for locations
+   * @param locations the amount of spawn locations per world
+   */
+  public void setLocations(int locations) {
+    this.locations = locations;
+  }
+
+  /**
+   * Getter for visitMillis
+   * @return the simulated time between two visits
+   */
+  public long getVisitMillis() {
+    return visitMillis;
+  }
+
+  /**
+   * Setter for visitMillis
+   * @param visitMillis the simulated time between two visits
+   */
+  public void setVisitMillis(long visitMillis) {
+    this.visitMillis = visitMillis;
+  }
+
+  /**
+   * Getter for maxVisits
+   * @return the amount of visits after which a player gives up
+   */
+  public int getMaxVisits() {
+    return maxVisits;
+  }
+
+  /**
+   * Setter for maxVisits
+   * @param maxVisits the amount of visits after which a player gives up
+   */
+  public void setMaxVisits(int maxVisits) {
+    this.maxVisits = maxVisits;
+  }
+
+  /**
+   * Getter for minionWinRate
+   * @return the chances to win against a minion
+   */
+  public double getMinionWinRate() {
+    return minionWinRate;
+  }
+
+  /**
+   * Setter for minionWinRate
+   * @param minionWinRate the chances to win against a minion
+   */
+  public void setMinionWinRate(double minionWinRate) {
+    this.minionWinRate = minionWinRate;
+  }
+
+  /**
+   * Getter for generalWinRate
+   * @return the chances to win against a general
+   */
+  public double getGeneralWinRate() {
+    return generalWinRate;
+  }
+
+  /**
+   * Setter for generalWinRate
+   * @param generalWinRate the chances to win against a general
+   */
+  public void setGeneralWinRate(double generalWinRate) {
+    this.generalWinRate = generalWinRate;
+  }
+
+  /**
+   * Getter for checkpointVisits
+   * @return the interval between two samples of the key inflation curve
+   */
+  public int getCheckpointVisits() {
+    return checkpointVisits;
+  }
+
+  /**
+   * Setter for checkpointVisits
+   * @param checkpointVisits the interval between two samples of the key inflation curve
+   */
+  public void setCheckpointVisits(int checkpointVisits) {
+    this.checkpointVisits = checkpointVisits;
+  }
+
+  /**
+   * Sets a parameter from a command line argument such as --sessions=1000000.
+   *
+   * @param arg the argument
+   * @throws IllegalArgumentException if the argument is unknown or malformed
+   */
+  public void parse(String arg) {
+    int eq = arg.indexOf('=');
+    if (!arg.startsWith("--") || eq < 0) {
+      throw new IllegalArgumentException("Expected --name=value, got " + arg);
+    }
+    String name = arg.substring(2, eq);
+    String value = arg.substring(eq + 1);
+    switch (name) {
+      case "sessions":
+        sessions = Long.parseLong(value);
+        break;
+      case "threads":
+        threads = Integer.parseInt(value);
+        break;
+      case "seed":
+        seed = Long.parseLong(value);
+        break;
+      case "locations":
+        locations = Integer.parseInt(value);
+        break;
+      case "visit-millis":
+        visitMillis = Long.parseLong(value);
+        break;
+      case "max-visits":
+        maxVisits = Integer.parseInt(value);
+        break;
+      case "minion-win-rate":
+        minionWinRate = Double.parseDouble(value);
+        break;
+      case "general-win-rate":
+        generalWinRate = Double.parseDouble(value);
+        break;
+      case "checkpoint-visits":
+        checkpointVisits = Integer.parseInt(value);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown parameter " + name);
+    }
+  }
+}
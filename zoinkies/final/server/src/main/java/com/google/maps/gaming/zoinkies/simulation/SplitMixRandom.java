@@ -0,0 +1,70 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies.simulation;
+
+import java.util.Random;
+
+/**
+ * A SplitMix64 random stream that can be reseeded cheaply, one per simulation worker.
+ *
+ * Unlike java.util.Random, the state isn't atomic: a stream must not be shared between threads.
+ */
+final class SplitMixRandom extends Random {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+  private long state;
+
+  /**
+   * Restarts the stream.
+   * @param seed the new seed
+   */
+  void reseed(long seed) {
+    state = seed;
+  }
+
+  @Override
+  public long nextLong() {
+    state += GOLDEN_GAMMA;
+    return mix(state);
+  }
+
+  @Override
+  protected int next(int bits) {
+    return (int) (nextLong() >>> (64 - bits));
+  }
+
+  /**
+   * Derives the seed of a stream from a master seed, so that neighbouring streams don't overlap.
+   * @param seed the master seed
+   * @param stream the stream index
+   * @return the seed of the stream
+   */
+  static long seedOf(long seed, long stream) {
+    return mix(seed + stream * GOLDEN_GAMMA);
+  }
+
+  /**
+   * SplitMix64 finalizer.
+   */
+  private static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies.spatial;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Turns a set of S2 cells into the ranges of leaf cell ids they contain.
+ *
+ * S2 cell ids follow a Hilbert curve: all leaf cells of a given cell share a contiguous range of
+ * ids, and neighboring cells tend to have adjacent ranges. A covering of a few dozen cells then
+ * boils down to a handful of ranges, each of which can be read with a single ordered range query.
+ *
+ * Ranges are returned in Hilbert order, which is the unsigned order of cell ids. They never span
+ * two cube faces, so their bounds compare the same way as signed longs, the way Firestore stores
+ * them.
+ */
+public final class CellIdRanges {
+
+  /**
+   * Bits holding the cube face at the top of a cell id
+   */
+  private static final int FACE_SHIFT = 61;
+
+  private CellIdRanges() {
+  }
+
+  /**
+   * Computes the leaf id ranges of the given cells, adjacent and overlapping ranges merged.
+   *
+   * @param cellIds the cell ids, in any order
+   * @return the ranges as consecutive inclusive [min, max] pairs, in Hilbert order
+   */
+  public static long[] of(Collection<Long> cellIds) {
+    return of(new long[0], cellIds);
+  }
+
+  /**
+   * Adds cells to existing ranges, adjacent and overlapping ranges merged.
+   *
+   * @param existing ranges as returned by {@link #of}
+   * @param cellIds the cell ids to add, in any order
+   * @return the ranges as consecutive inclusive [min, max] pairs, in Hilbert order
+   */
+  public static long[] of(long[] existing, Collection<Long> cellIds) {
+    long[][] ranges = new long[existing.length / 2 + cellIds.size()][];
+    int count = 0;
+    for (int i = 0; i < existing.length; i += 2) {
+      ranges[count++] = new long[] {existing[i], existing[i + 1]};
+    }
+    for (long cellId : cellIds) {
+      ranges[count++] = new long[] {rangeMin(cellId), rangeMax(cellId)};
+    }
+    Arrays.sort(ranges, (a, b) -> Long.compareUnsigned(a[0], b[0]));
+    List<long[]> merged = new ArrayList<>(count);
+    for (long[] range : ranges) {
+      long[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+      // Leaf ids are odd, consecutive leaves are two ids apart.
+      if (last != null && last[0] >>> FACE_SHIFT == range[0] >>> FACE_SHIFT
+          && Long.compareUnsigned(range[0], last[1] + 2) <= 0) {
+        if (Long.compareUnsigned(range[1], last[1]) > 0) {
+          last[1] = range[1];
+        }
+      } else {
+        merged.add(range);
+      }
+    }
+    long[] bounds = new long[merged.size() * 2];
+    for (int i = 0; i < merged.size(); i++) {
+      bounds[2 * i] = merged.get(i)[0];
+      bounds[2 * i + 1] = merged.get(i)[1];
+    }
+    return bounds;
+  }
+
+  /**
+   * Checks if a cell lies within one of the given ranges.
+   *
+   * @param ranges ranges as returned by {@link #of}
+   * @param cellId the cell id
+   * @return true if the whole cell is covered by a single range
+   */
+  public static boolean contains(long[] ranges, long cellId) {
+    long min = rangeMin(cellId);
+    long max = rangeMax(cellId);
+    // Find the last range starting at or before the cell.
+    int lo = 0;
+    int hi = ranges.length / 2 - 1;
+    int found = -1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      if (Long.compareUnsigned(ranges[2 * mid], min) <= 0) {
+        found = mid;
+        lo = mid + 1;
+      } else {
+        hi = mid - 1;
+      }
+    }
+    return found >= 0 && Long.compareUnsigned(max, ranges[2 * found + 1]) <= 0;
+  }
+
+  /**
+   * Returns the smallest leaf id contained by a cell, as S2CellId.rangeMin() does.
+   * @param cellId the cell id
+   * @return the leaf id
+   */
+  public static long rangeMin(long cellId) {
+    return cellId - (Long.lowestOneBit(cellId) - 1);
+  }
+
+  /**
+   * Returns the largest leaf id contained by a cell, as S2CellId.rangeMax() does.
+   * @param cellId the cell id
+   * @return the leaf id
+   */
+  public static long rangeMax(long cellId) {
+    return cellId + (Long.lowestOneBit(cellId) - 1);
+  }
+}
@@ -0,0 +1,223 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies.spatial;
+
+import com.google.maps.gaming.zoinkies.models.SpawnLocation;
+import com.google.maps.gaming.zoinkies.models.playablelocations.LatLng;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable spatial index of the spawn locations of a world.
+ *
+ * Locations are bucketed in a regular lat/lng grid. Each bucket is packed in a long, row first,
+ * and the locations are sorted by bucket: a rectangle query then boils down to one binary search
+ * per grid row it overlaps. Only location ids and positions are kept, as they never change for a
+ * given location; callers look the current state of a location up in the world itself.
+ *
+ * The index remembers the version of the world it was built from. Adding or removing a location
+ * always bumps the world version, so owners rebuild the index whenever the version moved. Worlds
+ * written before versioning are at version 0, their index is never reused.
+ */
+public final class SpawnLocationIndex {
+
+  /**
+   * Grid bucket size in degrees, about 550 meters of latitude
+   */
+  static final double CELL_DEGREES = 0.005;
+
+  private static final double METERS_PER_DEGREE = 111320;
+
+  /**
+   * Bits used by the column in a packed bucket, enough for 360 degrees of longitude
+   */
+  private static final int COLUMN_BITS = 17;
+
+  /**
+   * Bits left for the location slot when sorting, as buckets take 33 bits
+   */
+  private static final int SLOT_BITS = 30;
+  private static final long SLOT_MASK = (1L << SLOT_BITS) - 1;
+
+  private final long[] buckets;
+  private final String[] ids;
+  private final double[] latitudes;
+  private final double[] longitudes;
+  private final long version;
+
+  private SpawnLocationIndex(long[] buckets, String[] ids, double[] latitudes,
+      double[] longitudes, long version) {
+    this.buckets = buckets;
+    this.ids = ids;
+    this.latitudes = latitudes;
+    this.longitudes = longitudes;
+    this.version = version;
+  }
+
+  /**
+   * Builds an index of the given locations. Locations without a position are left out.
+   * @param locations the world locations, keyed by location id
+   * @param version the version of the world holding these locations
+   * @return a new index
+   */
+  public static SpawnLocationIndex build(Map<String, SpawnLocation> locations, long version) {
+    int count = 0;
+    String[] keys = new String[locations.size()];
+    SpawnLocation[] values = new SpawnLocation[locations.size()];
+    long[] order = new long[locations.size()];
+    for (Map.Entry<String, SpawnLocation> entry : locations.entrySet()) {
+      LatLng point = entry.getValue().getSnappedPoint();
+      if (point != null) {
+        keys[count] = entry.getKey();
+        values[count] = entry.getValue();
+        // Sort slots along with their bucket: the slot goes in the low bits.
+        order[count] = bucket(point.getLatitude(), point.getLongitude()) << SLOT_BITS | count;
+        count++;
+      }
+    }
+    Arrays.sort(order, 0, count);
+    long[] buckets = new long[count];
+    String[] ids = new String[count];
+    double[] latitudes = new double[count];
+    double[] longitudes = new double[count];
+    for (int i = 0; i < count; i++) {
+      int slot = (int) (order[i] & SLOT_MASK);
+      buckets[i] = order[i] >>> SLOT_BITS;
+      ids[i] = keys[slot];
+      latitudes[i] = values[slot].getSnappedPoint().getLatitude();
+      longitudes[i] = values[slot].getSnappedPoint().getLongitude();
+    }
+    return new SpawnLocationIndex(buckets, ids, latitudes, longitudes, version);
+  }
+
+  /**
+   * Checks if this index was built from the given version of the world.
+   * @param version the current version of the world
+   * @return true if the index can be used to query the world's locations
+   */
+  public boolean isCurrent(long version) {
+    return version != 0 && this.version == version;
+  }
+
+  /**
+   * Getter for the amount of indexed locations.
+   * @return the amount of locations
+   */
+  public int size() {
+    return ids.length;
+  }
+
+  /**
+   * Returns the ids of the locations inside the given rectangle, grown by a margin.
+   * Rectangles crossing the antimeridian have a west longitude greater than the east one.
+   *
+   * @param south the south latitude
+   * @param west the west longitude
+   * @param north the north latitude
+   * @param east the east longitude
+   * @param marginMeters the margin added on every side
+   * @return the matching location ids
+   */
+  public List<String> query(double south, double west, double north, double east,
+      double marginMeters) {
+    double latMargin = marginMeters / METERS_PER_DEGREE;
+    double maxAbsLat = Math.min(90, Math.max(Math.abs(south), Math.abs(north)) + latMargin);
+    double lngMargin = latMargin / Math.max(Math.cos(Math.toRadians(maxAbsLat)), 0.01);
+    south = Math.max(-90, south - latMargin);
+    north = Math.min(90, north + latMargin);
+    double span = (east >= west ? east - west : east + 360 - west) + 2 * lngMargin;
+    List<String> result = new ArrayList<>();
+    if (span >= 360) {
+      collect(south, north, -180, 180, result);
+      return result;
+    }
+    west = normalizeLongitude(west - lngMargin);
+    east = normalizeLongitude(east + lngMargin);
+    if (west <= east) {
+      collect(south, north, west, east, result);
+    } else {
+      collect(south, north, west, 180, result);
+      collect(south, north, -180, east, result);
+    }
+    return result;
+  }
+
+  /**
+   * Helper function that adds the locations of a rectangle which doesn't cross the antimeridian.
+   */
+  private void collect(double south, double north, double west, double east,
+      List<String> result) {
+    int firstRow = row(south);
+    int lastRow = row(north);
+    int firstColumn = column(west);
+    int lastColumn = column(east);
+    for (int row = firstRow; row <= lastRow; row++) {
+      long last = pack(row, lastColumn);
+      for (int i = lowerBound(pack(row, firstColumn)); i < buckets.length && buckets[i] <= last;
+          i++) {
+        if (latitudes[i] >= south && latitudes[i] <= north
+            && longitudes[i] >= west && longitudes[i] <= east) {
+          result.add(ids[i]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Helper function returning the first position whose bucket isn't lower than the given one.
+   */
+  private int lowerBound(long bucket) {
+    int low = 0;
+    int high = buckets.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (buckets[mid] < bucket) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private static long bucket(double latitude, double longitude) {
+    return pack(row(latitude), column(normalizeLongitude(longitude)));
+  }
+
+  private static long pack(int row, int column) {
+    return ((long) row << COLUMN_BITS) | column;
+  }
+
+  private static int row(double latitude) {
+    return (int) Math.floor((latitude + 90) / CELL_DEGREES);
+  }
+
+  private static int column(double longitude) {
+    return (int) Math.floor((longitude + 180) / CELL_DEGREES);
+  }
+
+  private static double normalizeLongitude(double longitude) {
+    if (longitude > 180) {
+      return longitude - 360;
+    }
+    if (longitude < -180) {
+      return longitude + 360;
+    }
+    return longitude;
+  }
+}
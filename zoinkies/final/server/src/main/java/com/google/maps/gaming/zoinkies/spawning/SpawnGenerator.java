@@ -0,0 +1,129 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies.spawning;
+
+import com.google.maps.gaming.zoinkies.ITEMS;
+import com.google.maps.gaming.zoinkies.models.SpawnLocation;
+
+/**
+ * Decides what spawns at a playable location, deterministically.
+ *
+ * The outcome only depends on the location id and on a world seed, itself derived from the device
+ * id and the current season. A spawn location's object type, keys and respawn policy can then be
+ * computed again at any time: world documents only store them when they differ from what the
+ * generator says, for example for locations generated before seeding was introduced.
+ *
+ * The distribution is as follows:
+ * 5% -> Restore Stations
+ * 20% -> Chests
+ * 15% -> Towers
+ * 60% -> Minions
+ */
+public final class SpawnGenerator {
+
+  private SpawnGenerator() {
+  }
+
+  /**
+   * Derives the seed of a world.
+   * @param deviceId the device id owning the world
+   * @param season the game season, changing it reshuffles newly generated locations
+   * @return the world seed
+   */
+  public static long worldSeed(String deviceId, int season) {
+    return mix(hash(deviceId) ^ (season * 0x9E3779B97F4A7C15L));
+  }
+
+  /**
+   * Sets the object type, keys and respawn policy of a spawn location.
+   * @param location the spawn location, its id must be set
+   * @param seed the world seed
+   */
+  public static void generate(SpawnLocation location, long seed) {
+    ITEMS objectType = objectTypeOf(location.getLocationId(), seed);
+    location.setObjectTypeId(objectType);
+    location.setNumberOfKeysToActivate(keysFor(objectType));
+    location.setKeyTypeId(keyTypeFor(objectType));
+    location.setRespawns(objectType != ITEMS.TOWER);
+  }
+
+  /**
+   * Checks if the object type, keys and respawn policy of a spawn location are the generated ones.
+   * @param location the spawn location
+   * @param seed the world seed
+   * @return true if they can be computed again instead of stored
+   */
+  public static boolean isGenerated(SpawnLocation location, long seed) {
+    if (location.getLocationId() == null) {
+      return false;
+    }
+    ITEMS objectType = objectTypeOf(location.getLocationId(), seed);
+    return location.getObjectTypeId() == objectType
+        && location.getNumberOfKeysToActivate() == keysFor(objectType)
+        && location.getKeyTypeId() == keyTypeFor(objectType)
+        && location.getRespawns() == (objectType != ITEMS.TOWER);
+  }
+
+  /**
+   * Rolls the object type of a location.
+   * @param locationId the location id
+   * @param seed the world seed
+   * @return the object type
+   */
+  static ITEMS objectTypeOf(String locationId, long seed) {
+    int roll = (int) Long.remainderUnsigned(mix(hash(locationId) ^ seed), 101);
+    if (roll <= 4) {
+      return ITEMS.ENERGY_STATION;
+    } else if (roll <= 24) {
+      return ITEMS.CHEST;
+    } else if (roll <= 39) {
+      return ITEMS.TOWER;
+    }
+    return ITEMS.MINION;
+  }
+
+  private static int keysFor(ITEMS objectType) {
+    return objectType == ITEMS.CHEST || objectType == ITEMS.TOWER ? 3 : 0;
+  }
+
+  private static ITEMS keyTypeFor(ITEMS objectType) {
+    if (objectType == ITEMS.CHEST) {
+      return ITEMS.GOLD_KEY;
+    }
+    return objectType == ITEMS.TOWER ? ITEMS.DIAMOND_KEY : null;
+  }
+
+  /**
+   * 64-bit FNV-1a hash of a string, stable across JVMs.
+   */
+  private static long hash(String s) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < s.length(); i++) {
+      hash ^= s.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    return hash;
+  }
+
+  /**
+   * SplitMix64 finalizer, spreads the bits of the hash before it is reduced.
+   */
+  private static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.maps.gaming.zoinkies.logging.AsyncLogger;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the background JSON line logger reporting request failures.
+ */
+public class TestAsyncLogger {
+
+  @Test
+  public void testRecordsAreJsonLines() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    AsyncLogger logger = new AsyncLogger("test-log", 16,
+        new PrintStream(bytes, true, "UTF-8"));
+    logger.error("chests.failed", new IllegalStateException("quote \" and\nnew line"),
+        "deviceId", "device-1", "locationId", "chest\t1");
+    logger.close(5000);
+
+    String[] lines = new String(bytes.toByteArray(), StandardCharsets.UTF_8).split("\n");
+    assertThat(lines.length).isEqualTo(1);
+    JsonNode record = new ObjectMapper().readTree(lines[0]);
+    assertThat(record.get("level").asText()).isEqualTo("ERROR");
+    assertThat(record.get("event").asText()).isEqualTo("chests.failed");
+    assertThat(record.get("deviceId").asText()).isEqualTo("device-1");
+    assertThat(record.get("locationId").asText()).isEqualTo("chest\t1");
+    assertThat(record.get("error").asText())
+        .isEqualTo("java.lang.IllegalStateException: quote \" and\nnew line");
+    assertThat(record.get("stackTrace").asText().contains("testRecordsAreJsonLines")).isTrue();
+    assertThat(logger.getWritten()).isEqualTo(1L);
+  }
+
+  @Test
+  public void testInfoRecordsHaveNoError() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    AsyncLogger logger = new AsyncLogger("test-log", 16,
+        new PrintStream(bytes, true, "UTF-8"));
+    logger.info("references.reloaded", "items", "42");
+    logger.close(5000);
+
+    JsonNode record = new ObjectMapper().readTree(
+        new String(bytes.toByteArray(), StandardCharsets.UTF_8).trim());
+    assertThat(record.get("level").asText()).isEqualTo("INFO");
+    assertThat(record.get("items").asText()).isEqualTo("42");
+    assertThat(record.has("error")).isFalse();
+  }
+
+  @Test
+  public void testRecordsAreDroppedWhenTheWriterFallsBehind() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    OutputStream slow = new OutputStream() {
+      @Override
+      public void write(int b) {
+        try {
+          release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+    AsyncLogger logger = new AsyncLogger("test-log", 2, new PrintStream(slow));
+    for (int i = 0; i < 10; i++) {
+      logger.warn("worlds.slow", "attempt", Integer.toString(i));
+    }
+    // At most one record is being written and two are queued, the callers didn't wait.
+    assertThat(logger.getDropped()).isBetween(7L, 8L);
+    release.countDown();
+    logger.close(5000);
+    assertThat(logger.getWritten()).isEqualTo(10L - logger.getDropped());
+  }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.google.maps.gaming.zoinkies.battles.BattleSession;
+import com.google.maps.gaming.zoinkies.battles.BattleSessionTable;
+import com.google.maps.gaming.zoinkies.exceptions.InvalidBattleException;
+import com.google.maps.gaming.zoinkies.models.BattleData;
+import com.google.maps.gaming.zoinkies.services.BattleSessionService;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the table of battles in progress linking POST /battle and POST /battlesummary.
+ */
+public class TestBattleSessions {
+
+  private static final long START = 1591006530000L;
+
+  @Test
+  public void testBattlesAreTakenOnce() {
+    BattleSessionTable table = new BattleSessionTable(100, 60000, 4);
+    table.open("device", session("location-1", START));
+    assertThat(table.take("device", "location-2", START + 1000)).isNull();
+    BattleSession session = table.take("device", "location-1", START + 1000);
+    assertThat(session).isNotNull();
+    assertThat(session.getOpponentTypeId()).isEqualTo(ITEMS.MINION);
+    assertThat(table.take("device", "location-1", START + 1000)).isNull();
+
+    // A new battle replaces the one still in progress.
+    table.open("device", session("location-1", START));
+    table.open("device", session("location-2", START + 10));
+    assertThat(table.take("device", "location-1", START + 1000)).isNull();
+    assertThat(table.take("device", "location-2", START + 1000)).isNotNull();
+    assertThat(table.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void testBattlesExpireAndAreBounded() {
+    BattleSessionTable expiring = new BattleSessionTable(100, 60000, 4);
+    expiring.open("device", session("location-1", START));
+    assertThat(expiring.take("device", "location-1", START + 60001)).isNull();
+    assertThat(expiring.getExpirations()).isEqualTo(1L);
+
+    BattleSessionTable bounded = new BattleSessionTable(64, 60000, 4);
+    for (int i = 0; i < 10000; i++) {
+      bounded.open("device-" + i, session("location", START + i));
+    }
+    assertThat(bounded.size()).isLessThanOrEqualTo(64);
+    assertThat(bounded.getEvictions()).isEqualTo(10000L - bounded.size());
+    assertThat(bounded.take("device-9999", "location", START + 10000)).isNotNull();
+  }
+
+  @Test
+  public void testVictoriesNeedTime() {
+    BattleSessionService service = new BattleSessionService(100, 60000, 60000);
+    service.open("device", battle("location-1"));
+    // Losing right away is fine.
+    assertThat(service.close("device", "location-1", false)).isNotNull();
+    assertThrows(InvalidBattleException.class, () -> service.close("device", "location-1",
+        false));
+    service.open("device", battle("location-1"));
+    assertThrows(InvalidBattleException.class, () -> service.close("device", "location-1",
+        true));
+    // The battle is over either way.
+    assertThrows(InvalidBattleException.class, () -> service.close("device", "location-1",
+        false));
+  }
+
+  private static BattleSession session(String locationId, long startedAt) {
+    return new BattleSession(battle(locationId), startedAt);
+  }
+
+  private static BattleData battle(String locationId) {
+    BattleData data = new BattleData();
+    data.setLocationId(locationId);
+    data.setOpponentTypeId(ITEMS.MINION);
+    data.setEnergyLevel(GameConstants.DEFAULT_MINION_ENERGY_LEVEL);
+    return data;
+  }
+}
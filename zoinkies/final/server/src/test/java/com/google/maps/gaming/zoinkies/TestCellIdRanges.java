@@ -0,0 +1,97 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.maps.gaming.zoinkies.spatial.CellIdRanges;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the leaf id ranges backing range queries over the global spawn location collection.
+ */
+public class TestCellIdRanges {
+
+  @Test
+  public void testRangeOfCell() {
+    long cell = cellId(2, 14, 12345);
+
+    assertThat(CellIdRanges.rangeMin(cell)).isEqualTo(cellId(2, 30, 12345L << 32));
+    assertThat(CellIdRanges.rangeMax(cell)).isEqualTo(cellId(2, 30, (12346L << 32) - 1));
+    assertThat(CellIdRanges.rangeMin(cellId(2, 30, 7))).isEqualTo(cellId(2, 30, 7));
+  }
+
+  @Test
+  public void testAdjacentCellsAreMerged() {
+    long[] ranges = CellIdRanges.of(Arrays.asList(
+        cellId(0, 14, 11), cellId(0, 14, 8), cellId(0, 14, 9), cellId(0, 14, 10),
+        cellId(0, 14, 20)));
+
+    // The four cells share a level 13 parent.
+    assertThat(ranges).containsExactly(
+        CellIdRanges.rangeMin(cellId(0, 13, 2)), CellIdRanges.rangeMax(cellId(0, 13, 2)),
+        CellIdRanges.rangeMin(cellId(0, 14, 20)), CellIdRanges.rangeMax(cellId(0, 14, 20)));
+  }
+
+  @Test
+  public void testRangesFollowHilbertOrderAndStayOnOneFace() {
+    long lastOfFace3 = cellId(3, 11, (1L << 22) - 1);
+    long firstOfFace4 = cellId(4, 11, 0);
+    long onFace5 = cellId(5, 14, 3);
+    long onFace1 = cellId(1, 14, 3);
+
+    long[] ranges = CellIdRanges.of(Arrays.asList(onFace5, firstOfFace4, lastOfFace3, onFace1));
+
+    assertThat(ranges).containsExactly(
+        CellIdRanges.rangeMin(onFace1), CellIdRanges.rangeMax(onFace1),
+        CellIdRanges.rangeMin(lastOfFace3), CellIdRanges.rangeMax(lastOfFace3),
+        CellIdRanges.rangeMin(firstOfFace4), CellIdRanges.rangeMax(firstOfFace4),
+        CellIdRanges.rangeMin(onFace5), CellIdRanges.rangeMax(onFace5));
+    for (int i = 0; i < ranges.length; i += 2) {
+      assertThat(ranges[i]).isLessThanOrEqualTo(ranges[i + 1]);
+    }
+  }
+
+  @Test
+  public void testContainsChecksTheWholeCell() {
+    long[] ranges = CellIdRanges.of(Arrays.asList(
+        cellId(4, 14, 8), cellId(4, 14, 9), cellId(4, 14, 30), cellId(6, 14, 1)));
+
+    assertThat(CellIdRanges.contains(ranges, cellId(4, 14, 9))).isTrue();
+    assertThat(CellIdRanges.contains(ranges, cellId(4, 14, 30))).isTrue();
+    assertThat(CellIdRanges.contains(ranges, cellId(6, 14, 1))).isTrue();
+    assertThat(CellIdRanges.contains(ranges, cellId(4, 14, 10))).isFalse();
+    assertThat(CellIdRanges.contains(ranges, cellId(4, 14, 7))).isFalse();
+    assertThat(CellIdRanges.contains(ranges, cellId(6, 14, 0))).isFalse();
+    // Only half of the parent is covered.
+    assertThat(CellIdRanges.contains(ranges, cellId(4, 13, 2))).isFalse();
+    assertThat(CellIdRanges.contains(new long[0], cellId(4, 14, 8))).isFalse();
+
+    // Checkpointed ranges grow as cells are added to them.
+    ranges = CellIdRanges.of(ranges, Arrays.asList(cellId(4, 14, 10), cellId(4, 14, 11)));
+    assertThat(CellIdRanges.contains(ranges, cellId(4, 13, 2))).isTrue();
+    assertThat(ranges.length).isEqualTo(6);
+  }
+
+  /**
+   * Builds the id of the cell at the given position along the Hilbert curve of a face.
+   */
+  static long cellId(int face, int level, long position) {
+    int shift = 2 * (30 - level);
+    return ((long) face << 61) | (position << (shift + 1)) | (1L << shift);
+  }
+}
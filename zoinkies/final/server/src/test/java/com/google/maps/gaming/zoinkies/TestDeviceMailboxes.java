@@ -0,0 +1,159 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.google.maps.gaming.zoinkies.exceptions.LocationStillRespawningException;
+import com.google.maps.gaming.zoinkies.scheduling.DeviceMailboxes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the per-device mailboxes serializing game actions.
+ */
+public class TestDeviceMailboxes {
+
+  private ExecutorService executor;
+
+  @BeforeEach
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(16);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testActionsOfADeviceNeverOverlap() throws Exception {
+    DeviceMailboxes mailboxes = new DeviceMailboxes(executor);
+    int devices = 200;
+    int submitters = 8;
+    int updates = 50;
+    int[] counters = new int[devices];
+    AtomicBoolean[] running = new AtomicBoolean[devices];
+    List<List<Integer>> histories = new ArrayList<>();
+    for (int device = 0; device < devices; device++) {
+      running[device] = new AtomicBoolean();
+      histories.add(new ArrayList<>());
+    }
+    AtomicInteger overlaps = new AtomicInteger();
+    List<CompletableFuture<Integer>> futures = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch start = new CountDownLatch(1);
+    List<Thread> threads = new ArrayList<>();
+    for (int s = 0; s < submitters; s++) {
+      int submitter = s;
+      Thread thread = new Thread(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          return;
+        }
+        for (int update = 0; update < updates; update++) {
+          for (int device = 0; device < devices; device++) {
+            int index = device;
+            int step = submitter * updates + update;
+            futures.add(mailboxes.submit("device-" + device, () -> {
+              if (!running[index].compareAndSet(false, true)) {
+                overlaps.incrementAndGet();
+              }
+              // A lost update shows up as a wrong count, the yield makes it likely.
+              int value = counters[index];
+              Thread.yield();
+              counters[index] = value + 1;
+              histories.get(index).add(step);
+              running[index].set(false);
+              return value;
+            }));
+          }
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+        .get(30, TimeUnit.SECONDS);
+
+    assertThat(overlaps.get()).isEqualTo(0);
+    for (int device = 0; device < devices; device++) {
+      assertThat(counters[device]).isEqualTo(submitters * updates);
+      // Each submitter's actions run in the order it submitted them.
+      int[] last = new int[submitters];
+      Arrays.fill(last, -1);
+      for (int step : histories.get(device)) {
+        assertThat(step).isGreaterThan(last[step / updates]);
+        last[step / updates] = step;
+      }
+    }
+    // The last mailbox is dropped right after its last action completes.
+    for (int i = 0; i < 100 && mailboxes.getActiveDevices() > 0; i++) {
+      Thread.sleep(10);
+    }
+    assertThat(mailboxes.getActiveDevices()).isEqualTo(0);
+    assertThat(mailboxes.getExecuted()).isEqualTo((long) devices * submitters * updates);
+  }
+
+  @Test
+  public void testBusyDeviceDoesNotHoldTheThread() throws Exception {
+    ExecutorService single = Executors.newSingleThreadExecutor();
+    try {
+      DeviceMailboxes mailboxes = new DeviceMailboxes(single);
+      CountDownLatch blocked = new CountDownLatch(1);
+      List<String> order = Collections.synchronizedList(new ArrayList<>());
+      mailboxes.submit("busy", () -> blocked.await(5, TimeUnit.SECONDS));
+      for (int i = 0; i < 100; i++) {
+        mailboxes.submit("busy", () -> order.add("busy"));
+      }
+      CompletableFuture<Boolean> other = mailboxes.submit("other", () -> order.add("other"));
+      blocked.countDown();
+      other.get(5, TimeUnit.SECONDS);
+      // The busy device gives the thread back after a batch of 16 actions.
+      assertThat(order.indexOf("other")).isLessThan(16);
+    } finally {
+      single.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testExecuteRethrowsTheActionException() {
+    DeviceMailboxes mailboxes = new DeviceMailboxes(executor);
+    LocationStillRespawningException e = assertThrows(LocationStillRespawningException.class,
+        () -> mailboxes.execute("device", () -> {
+          throw new LocationStillRespawningException("respawning");
+        }));
+    // Gameplay outcomes don't capture stack traces, on the way through the mailbox neither.
+    assertThat(e.getStackTrace().length).isEqualTo(0);
+  }
+}
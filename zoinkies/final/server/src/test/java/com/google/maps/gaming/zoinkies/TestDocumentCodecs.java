@@ -0,0 +1,472 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.maps.gaming.zoinkies.codecs.DocumentMigrator;
+import com.google.maps.gaming.zoinkies.codecs.PlayerDataCodec;
+import com.google.maps.gaming.zoinkies.codecs.SpawnLocationCellCodec;
+import com.google.maps.gaming.zoinkies.codecs.WorldDataCodec;
+import com.google.maps.gaming.zoinkies.models.Item;
+import com.google.maps.gaming.zoinkies.models.PlayerData;
+import com.google.maps.gaming.zoinkies.models.SpawnLocation;
+import com.google.maps.gaming.zoinkies.models.WorldChange;
+import com.google.maps.gaming.zoinkies.models.WorldData;
+import com.google.maps.gaming.zoinkies.models.playablelocations.LatLng;
+import com.google.maps.gaming.zoinkies.spawning.SpawnGenerator;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Round-trip tests for the hand-written document codecs.
+ */
+public class TestDocumentCodecs {
+
+  @Test
+  public void testPlayerDataRoundTrip() {
+    List<Item> inventory = new ArrayList<>();
+    inventory.add(new Item(ITEMS.GOLD_KEY, 3));
+    inventory.add(new Item(ITEMS.WEAPON_TYPE_2, 1));
+    PlayerData player = new PlayerData("Johnny", ITEMS.CHARACTER_TYPE_2, 42, 80, inventory);
+    player.setDeviceId(1234L);
+    player.setEquippedWeapon(ITEMS.WEAPON_TYPE_2);
+    player.setEquippedHelmet(null);
+
+    PlayerData decoded = PlayerDataCodec.decode(PlayerDataCodec.encode(player));
+
+    assertThat(decoded.getDeviceId()).isEqualTo(1234L);
+    assertThat(decoded.toString()).isEqualTo(player.toString());
+    assertThat(decoded.getEquippedHelmet()).isNull();
+  }
+
+  /**
+   * Firestore hands back whole numbers as Long, whatever the type of the POJO field.
+   */
+  @Test
+  public void testPlayerDataDecodesFirestoreValues() {
+    Map<String, Object> item = new HashMap<>();
+    item.put("itemId", "DIAMOND_KEY");
+    item.put("quantity", 5L);
+    List<Object> inventory = new ArrayList<>();
+    inventory.add(item);
+    Map<String, Object> data = new HashMap<>();
+    data.put("name", "Jordyen");
+    data.put("characterType", "CHARACTER_TYPE_1");
+    data.put("energyLevel", 75L);
+    data.put("maxEnergyLevel", 80L);
+    data.put("inventory", inventory);
+
+    PlayerData decoded = PlayerDataCodec.decode(data);
+
+    assertThat(decoded.getEnergyLevel()).isEqualTo(75);
+    assertThat(decoded.getMaxEnergyLevel()).isEqualTo(80);
+    assertThat(decoded.getCharacterType()).isEqualTo(ITEMS.CHARACTER_TYPE_1);
+    assertThat(decoded.getEquippedWeapon()).isNull();
+    assertThat(decoded.getInventory()).hasSize(1);
+    assertThat(decoded.getInventory().get(0).getItemId()).isEqualTo(ITEMS.DIAMOND_KEY);
+    assertThat(decoded.getInventory().get(0).getQuantity()).isEqualTo(5);
+  }
+
+  @Test
+  public void testEnergyRegeneratesWithoutWrites() {
+    PlayerData player = new PlayerData();
+    player.setMaxEnergyLevel(80);
+    player.setEnergyRegenMillis(60000);
+    player.setEnergy(10, 1000000L);
+
+    assertThat(player.getEnergyLevel(1000000L + 59999)).isEqualTo(10);
+    assertThat(player.getEnergyLevel(1000000L + 150000)).isEqualTo(12);
+    assertThat(player.getEnergyLevel(1000000L + 3600000000L)).isEqualTo(80);
+
+    // Spending keeps the progress towards the next point.
+    assertThat(player.addEnergy(-5, 1000000L + 150000)).isEqualTo(-5);
+    assertThat(player.getEnergyLevel(1000000L + 150000)).isEqualTo(7);
+    assertThat(player.getEnergyLevel(1000000L + 180000)).isEqualTo(8);
+    assertThat(player.addEnergy(-100, 1000000L + 180000)).isEqualTo(-8);
+
+    // Refills start regenerating from scratch once spent.
+    assertThat(player.addEnergy(80, 1000000L + 200000)).isEqualTo(80);
+    player.addEnergy(-1, 1000000L + 500000);
+    assertThat(player.getEnergyLevel(1000000L + 559999)).isEqualTo(79);
+    assertThat(player.getEnergyLevel(1000000L + 560000)).isEqualTo(80);
+  }
+
+  @Test
+  public void testEnergyAnchorRoundTrip() throws Exception {
+    PlayerData player = new PlayerData("Johnny", ITEMS.CHARACTER_TYPE_2, 42, 80, null);
+    player.setEnergyRegenMillis(60000);
+    player.setEnergy(42, System.currentTimeMillis() - 150000);
+
+    PlayerData decoded = PlayerDataCodec.decode(PlayerDataCodec.encode(player));
+    assertThat(decoded.getEnergyUpdatedAt()).isEqualTo(player.getEnergyUpdatedAt());
+    assertThat(decoded.getEnergyRegenMillis()).isEqualTo(60000);
+    assertThat(decoded.getEnergyLevel()).isEqualTo(44);
+
+    // Clients only see the current level, and don't get to move the anchor or the pace.
+    String json = new ObjectMapper().writeValueAsString(player);
+    assertThat(json.contains("\"energyLevel\":44")).isTrue();
+    assertThat(json.contains("energyUpdatedAt")).isFalse();
+    assertThat(json.contains("energyRegenMillis")).isFalse();
+    PlayerData posted = new ObjectMapper().readValue(
+        "{\"energyLevel\":10,\"energyRegenMillis\":1}", PlayerData.class);
+    assertThat(posted.getEnergyRegenMillis()).isEqualTo(0);
+  }
+
+  @Test
+  public void testLegacyEnergyIsUpgraded() {
+    Map<String, Object> data = new HashMap<>();
+    data.put("energyLevel", 20L);
+    data.put("maxEnergyLevel", 80L);
+    data.put(DocumentMigrator.VERSION_FIELD, 1L);
+    long before = System.currentTimeMillis();
+
+    PlayerData decoded = PlayerDataCodec.decode(data);
+
+    assertThat(decoded.getEnergyUpdatedAt()).isGreaterThanOrEqualTo(before);
+    assertThat(decoded.getEnergyRegenMillis())
+        .isEqualTo(GameConstants.DEFAULT_PLAYER_ENERGY_REGEN_MILLIS);
+    assertThat(decoded.getEnergyLevel(decoded.getEnergyUpdatedAt()
+        + 3L * GameConstants.DEFAULT_PLAYER_ENERGY_REGEN_MILLIS)).isEqualTo(23);
+  }
+
+  @Test
+  public void testInventoryKeepsItsListShape() throws Exception {
+    PlayerData player = new PlayerData();
+    assertThat(player.getInventory()).isNull();
+    player.addInventoryItem(new Item(ITEMS.GOLD_KEY, 2));
+    player.getInventory().add(new Item(ITEMS.GOLD_KEY, 3));
+    player.addInventoryItem(new Item(ITEMS.SHIELD_TYPE_1, 1));
+    assertThat(player.getInventoryQuantity(ITEMS.GOLD_KEY)).isEqualTo(5);
+    assertThat(player.hasInventoryItem(ITEMS.HELMET_TYPE_1)).isFalse();
+
+    // Spent items leave the list, stacks follow the ITEMS order.
+    player.addInventoryQuantity(ITEMS.SHIELD_TYPE_1, -1);
+    player.addInventoryItem(new Item(ITEMS.SHIELD_TYPE_2, 1));
+    assertThat(player.hasInventoryItem(ITEMS.SHIELD_TYPE_1)).isFalse();
+    assertThat(player.getInventory()).hasSize(2);
+    assertThat(player.getInventory().get(0).getItemId()).isEqualTo(ITEMS.SHIELD_TYPE_2);
+
+    PlayerData decoded = PlayerDataCodec.decode(PlayerDataCodec.encode(player));
+    assertThat(decoded.getInventoryQuantity(ITEMS.GOLD_KEY)).isEqualTo(5);
+    assertThat(decoded.getInventoryQuantity(ITEMS.SHIELD_TYPE_2)).isEqualTo(1);
+    assertThat(decoded.getInventory()).hasSize(2);
+
+    ObjectMapper objectMapper = new ObjectMapper();
+    PlayerData json = objectMapper.readValue(objectMapper.writeValueAsString(player),
+        PlayerData.class);
+    assertThat(json.getInventoryQuantity(ITEMS.GOLD_KEY)).isEqualTo(5);
+    assertThat(new PlayerData(json).getInventory()).hasSize(2);
+  }
+
+  @Test
+  public void testInventoryStacksWriteThrough() throws Exception {
+    PlayerData player = new PlayerData();
+    player.addInventoryItem(new Item(ITEMS.GOLD_KEY, 2));
+    player.addInventoryItem(new Item(ITEMS.SHIELD_TYPE_1, 1));
+
+    player.getInventory().get(1).setQuantity(7);
+    assertThat(player.getInventoryQuantity(ITEMS.GOLD_KEY)).isEqualTo(7);
+    for (Item item : player.getInventory()) {
+      item.setQuantity(item.getQuantity() + 1);
+    }
+    assertThat(player.getInventoryQuantity(ITEMS.SHIELD_TYPE_1)).isEqualTo(2);
+    assertThat(player.getInventoryQuantity(ITEMS.GOLD_KEY)).isEqualTo(8);
+
+    // Iterating doesn't create new elements.
+    Item first = player.getInventory().iterator().next();
+    assertThat(player.getInventory().iterator().next()).isSameAs(first);
+    assertThat(new Item(first).getQuantity()).isEqualTo(2);
+
+    Iterator<Item> iterator = player.getInventory().iterator();
+    iterator.next();
+    iterator.remove();
+    assertThat(player.getInventory()).hasSize(1);
+    assertThat(player.hasInventoryItem(ITEMS.SHIELD_TYPE_1)).isFalse();
+    assertThat(PlayerDataCodec.decode(PlayerDataCodec.encode(player))
+        .getInventoryQuantity(ITEMS.GOLD_KEY)).isEqualTo(8);
+  }
+
+  @Test
+  public void testUnversionedDocumentIsUpgradedOnRead() {
+    Map<String, Object> data = PlayerDataCodec.encode(new PlayerData());
+    data.remove(DocumentMigrator.VERSION_FIELD);
+    assertThat(PlayerDataCodec.MIGRATOR.needsUpgrade(data)).isTrue();
+
+    PlayerDataCodec.decode(data);
+
+    assertThat(DocumentMigrator.versionOf(data))
+        .isEqualTo(PlayerDataCodec.MIGRATOR.getCurrentVersion());
+    assertThat(PlayerDataCodec.MIGRATOR.needsUpgrade(data)).isFalse();
+  }
+
+  @Test
+  public void testNewerSchemaVersionIsRejected() {
+    Map<String, Object> data = WorldDataCodec.encode(new WorldData());
+    data.put(DocumentMigrator.VERSION_FIELD, WorldDataCodec.MIGRATOR.getCurrentVersion() + 1L);
+
+    assertThrows(IllegalStateException.class, () -> WorldDataCodec.decode(data));
+  }
+
+  @Test
+  public void testLegacyRespawnTimesAreUpgraded() {
+    String future = Instant.ofEpochMilli(System.currentTimeMillis() + 600000).toString();
+    Map<String, Object> locations = new HashMap<>();
+    locations.put("respawning", legacyLocation("respawning", false, future));
+    locations.put("respawned", legacyLocation("respawned", false, "2020-06-01T10:15:30.123Z"));
+    locations.put("disabled", legacyLocation("disabled", false, null));
+    locations.put("active", legacyLocation("active", true, null));
+    Map<String, Object> data = new HashMap<>();
+    data.put("locations", locations);
+    data.put(DocumentMigrator.VERSION_FIELD, 1L);
+
+    WorldData decoded = WorldDataCodec.decode(data);
+
+    SpawnLocation respawning = decoded.getLocations().get("respawning");
+    assertThat(respawning.getActive()).isFalse();
+    assertThat(respawning.getRespawnAt()).isEqualTo(Instant.parse(future).toEpochMilli());
+    assertThat(respawning.getRespawnTime()).isEqualTo(future);
+    assertThat(decoded.getLocations().get("respawned").getActive()).isTrue();
+    assertThat(decoded.getLocations().get("respawned").getRespawnTime()).isNull();
+    assertThat(decoded.getLocations().get("disabled").getActive()).isFalse();
+    assertThat(decoded.getLocations().get("disabled").getRespawnAt())
+        .isEqualTo(SpawnLocation.NEVER);
+    assertThat(decoded.getLocations().get("active").getRespawnAt()).isEqualTo(0L);
+  }
+
+  @Test
+  public void testCellsCountAsVisitedWhenUpgraded() {
+    Map<String, Object> ttl = new HashMap<>();
+    ttl.put("5183501906771476480", "PT86400S");
+    Map<String, Object> data = new HashMap<>();
+    data.put("s2CellsTTL", ttl);
+    data.put(DocumentMigrator.VERSION_FIELD, 2L);
+    long before = System.currentTimeMillis();
+
+    WorldData decoded = WorldDataCodec.decode(data);
+
+    assertThat(decoded.getCellVisits()).hasSize(1);
+    assertThat(decoded.getCellVisits().get("5183501906771476480"))
+        .isGreaterThanOrEqualTo(before);
+  }
+
+  @Test
+  public void testWorldDataRoundTrip() {
+    WorldData world = createWorld(2000);
+    world.setVersion(12);
+    world.setChangeLogStart(10);
+    world.getChanges().add(new WorldChange(11, "plocs_removed", WorldChange.Type.REMOVED));
+    world.getCellVisits().put("5183501906771476480", 1591006530123L);
+    world.getRecentPositions().add(new LatLng(48.8584, 2.2945));
+
+    WorldData decoded = WorldDataCodec.decode(WorldDataCodec.encode(world));
+
+    assertThat(decoded.getVersion()).isEqualTo(12L);
+    assertThat(decoded.getChangeLogStart()).isEqualTo(10L);
+    assertThat(decoded.getChanges()).hasSize(1);
+    assertThat(decoded.getChanges().get(0).getVersion()).isEqualTo(11L);
+    assertThat(decoded.getChanges().get(0).getLocationId()).isEqualTo("plocs_removed");
+    assertThat(decoded.getChanges().get(0).getType()).isEqualTo(WorldChange.Type.REMOVED);
+    assertThat(decoded.getCellVisits()).isEqualTo(world.getCellVisits());
+    assertThat(decoded.getRecentPositions()).hasSize(1);
+    assertThat(decoded.getRecentPositions().get(0).getLatitude()).isEqualTo(48.8584);
+    assertThat(decoded.getS2CellsTTL()).isEqualTo(world.getS2CellsTTL());
+    assertThat(decoded.getLocations()).hasSize(world.getLocations().size());
+    for (Map.Entry<String, SpawnLocation> entry : world.getLocations().entrySet()) {
+      assertSameSpawnLocation(decoded.getLocations().get(entry.getKey()), entry.getValue());
+    }
+  }
+
+  @Test
+  public void testEmptyWorldDataRoundTrip() {
+    WorldData decoded = WorldDataCodec.decode(WorldDataCodec.encode(new WorldData()));
+
+    assertThat(decoded.getLocations()).isEmpty();
+    assertThat(decoded.getS2CellsTTL()).isEmpty();
+  }
+
+  @Test
+  public void testCompactWorldDataRoundTrip() {
+    WorldData world = createWorld(2000);
+    SpawnLocation generated = new SpawnLocation("generated_1", true, ITEMS.MINION, true, null, 0,
+        null, new LatLng(-33.8567844, 151.2152967), null);
+    world.getLocations().put(generated.getLocationId(), generated);
+
+    Map<String, Object> document = WorldDataCodec.encodeCompact(world);
+    WorldData decoded = WorldDataCodec.decode(document);
+
+    assertThat(document.containsKey("locations")).isFalse();
+    assertThat(decoded.getS2CellsTTL()).isEqualTo(world.getS2CellsTTL());
+    assertThat(decoded.getLocations()).hasSize(world.getLocations().size());
+    for (Map.Entry<String, SpawnLocation> entry : world.getLocations().entrySet()) {
+      assertSameSpawnLocation(decoded.getLocations().get(entry.getKey()), entry.getValue(), 1e-7);
+    }
+  }
+
+  @Test
+  public void testGeneratedMetadataIsNotStored() {
+    WorldData world = createWorld(200);
+    world.setSpawnSeed(SpawnGenerator.worldSeed("device", 1));
+    int i = 0;
+    for (SpawnLocation location : world.getLocations().values()) {
+      if (i++ % 2 == 0) {
+        SpawnGenerator.generate(location, world.getSpawnSeed());
+      }
+    }
+
+    Map<String, Object> document = WorldDataCodec.encode(world);
+    @SuppressWarnings("unchecked")
+    Map<String, Map<String, Object>> locations =
+        (Map<String, Map<String, Object>>) document.get("locations");
+    int stored = 0;
+    for (SpawnLocation location : world.getLocations().values()) {
+      Map<String, Object> encoded = locations.get(location.getLocationId());
+      boolean generated = SpawnGenerator.isGenerated(location, world.getSpawnSeed());
+      assertThat(encoded.containsKey("objectTypeId")).isEqualTo(!generated);
+      assertThat(encoded.containsKey("keyTypeId")).isEqualTo(!generated);
+      stored += generated ? 0 : 1;
+    }
+    assertThat(stored).isBetween(1, 199);
+
+    WorldData decoded = WorldDataCodec.decode(document);
+    WorldData compact = WorldDataCodec.decode(WorldDataCodec.encodeCompact(world));
+    assertThat(decoded.getSpawnSeed()).isEqualTo(world.getSpawnSeed());
+    assertThat(compact.getSpawnSeed()).isEqualTo(world.getSpawnSeed());
+    for (Map.Entry<String, SpawnLocation> entry : world.getLocations().entrySet()) {
+      assertSameSpawnLocation(decoded.getLocations().get(entry.getKey()), entry.getValue());
+      assertSameSpawnLocation(compact.getLocations().get(entry.getKey()), entry.getValue(), 1e-7);
+    }
+  }
+
+  @Test
+  public void testOverlayOnlyHoldsPendingRespawns() {
+    WorldData world = createWorld(100);
+    long respawnAt = System.currentTimeMillis() + 600000;
+    SpawnLocation consumed = world.getLocations().get("plocs_ChIJLU7jZClu5kcR4PcOOO6p3I0_1");
+    consumed.setRespawnAt(respawnAt);
+    SpawnLocation tower = world.getLocations().get("plocs_ChIJLU7jZClu5kcR4PcOOO6p3I0_2");
+    tower.setRespawnAt(SpawnLocation.NEVER);
+    world.getLocations().get("plocs_ChIJLU7jZClu5kcR4PcOOO6p3I0_4").setRespawnAt(1000);
+
+    Map<String, Object> document = WorldDataCodec.encodeOverlay(world);
+    Map<String, Long> respawns = WorldDataCodec.decodeOverlay(document);
+    WorldData decoded = WorldDataCodec.decode(document);
+
+    assertThat(WorldDataCodec.isOverlay(document)).isTrue();
+    assertThat(document.containsKey("locations")).isFalse();
+    assertThat(decoded.getLocations()).isEmpty();
+    assertThat(decoded.getS2CellsTTL()).isEqualTo(world.getS2CellsTTL());
+    // Location 0 and every third one after it were created with a past respawn time.
+    assertThat(respawns).hasSize(2);
+    assertThat(respawns.get(consumed.getLocationId())).isEqualTo(respawnAt);
+    assertThat(respawns.get(tower.getLocationId())).isEqualTo(SpawnLocation.NEVER);
+  }
+
+  @Test
+  public void testUnknownCellVersionIsRejected() {
+    byte[] blob = SpawnLocationCellCodec.encode(0, new ArrayList<SpawnLocation>(), 0);
+    blob[0] = SpawnLocationCellCodec.VERSION + 1;
+
+    assertThrows(IllegalArgumentException.class,
+        () -> SpawnLocationCellCodec.decode(blob, 0, new HashMap<String, SpawnLocation>()));
+  }
+
+  /**
+   * Asserts that all fields of the given spawn locations are equal.
+   * @param actual the decoded spawn location
+   * @param expected the original spawn location
+   */
+  static void assertSameSpawnLocation(SpawnLocation actual, SpawnLocation expected) {
+    assertSameSpawnLocation(actual, expected, 0);
+  }
+
+  /**
+   * Asserts that all fields of the given spawn locations are equal, allowing coordinates
+   * to differ by the given amount of degrees.
+   * @param actual the decoded spawn location
+   * @param expected the original spawn location
+   * @param tolerance the allowed coordinate difference
+   */
+  static void assertSameSpawnLocation(SpawnLocation actual, SpawnLocation expected,
+      double tolerance) {
+    assertThat(actual).isNotNull();
+    assertThat(actual.getLocationId()).isEqualTo(expected.getLocationId());
+    assertThat(actual.getRespawnAt()).isEqualTo(expected.getRespawnAt());
+    assertThat(actual.getObjectTypeId()).isEqualTo(expected.getObjectTypeId());
+    assertThat(actual.getRespawns()).isEqualTo(expected.getRespawns());
+    assertThat(actual.getNumberOfKeysToActivate()).isEqualTo(expected.getNumberOfKeysToActivate());
+    assertThat(actual.getKeyTypeId()).isEqualTo(expected.getKeyTypeId());
+    assertThat(actual.getS2CellId()).isEqualTo(expected.getS2CellId());
+    if (expected.getSnappedPoint() == null) {
+      assertThat(actual.getSnappedPoint()).isNull();
+    } else {
+      assertThat(actual.getSnappedPoint().getLatitude())
+          .isCloseTo(expected.getSnappedPoint().getLatitude(), within(tolerance));
+      assertThat(actual.getSnappedPoint().getLongitude())
+          .isCloseTo(expected.getSnappedPoint().getLongitude(), within(tolerance));
+    }
+  }
+
+  /**
+   * Creates a spawn location map as written before respawn times were stored in epoch millis.
+   */
+  private static Map<String, Object> legacyLocation(String id, boolean active,
+      String respawnTime) {
+    Map<String, Object> location = new HashMap<>();
+    location.put("locationId", id);
+    location.put("active", active);
+    location.put("objectTypeId", "MINION");
+    location.put("respawns", true);
+    location.put("respawnTime", respawnTime);
+    location.put("numberOfKeysToActivate", 0L);
+    return location;
+  }
+
+  /**
+   * Creates a world with the given amount of locations, spread over cells of 50 locations.
+   * @param size the amount of locations
+   * @return a new world
+   */
+  static WorldData createWorld(int size) {
+    WorldData world = new WorldData();
+    ITEMS[] types = {ITEMS.MINION, ITEMS.CHEST, ITEMS.TOWER, ITEMS.ENERGY_STATION};
+    for (int i = 0; i < size; i++) {
+      String cellId = Long.toUnsignedString(0x47e66c0000000000L + (i / 50) * 0x10000000L);
+      ITEMS type = types[i % types.length];
+      SpawnLocation location = new SpawnLocation(
+          "plocs_ChIJLU7jZClu5kcR4PcOOO6p3I0_" + i,
+          i % 3 != 0,
+          type,
+          type != ITEMS.TOWER,
+          i % 3 == 0 ? "2020-06-01T10:15:30.123Z" : null,
+          type == ITEMS.CHEST || type == ITEMS.TOWER ? 3 : 0,
+          type == ITEMS.CHEST ? ITEMS.GOLD_KEY : type == ITEMS.TOWER ? ITEMS.DIAMOND_KEY : null,
+          i % 10 == 9 ? null : new LatLng(48.85 + i * 1e-5, 2.29 - i * 1e-5),
+          cellId);
+      world.getLocations().put(location.getLocationId(), location);
+      world.getS2CellsTTL().put(cellId, "PT86400S");
+    }
+    return world;
+  }
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.maps.gaming.zoinkies.simulation.EconomySimulator;
+import com.google.maps.gaming.zoinkies.simulation.SimulationReport;
+import com.google.maps.gaming.zoinkies.simulation.SimulationSettings;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the economy simulator.
+ */
+public class TestEconomySimulator {
+
+  @Test
+  public void testRunsAreReproducibleWhateverTheThreads() throws Exception {
+    SimulationReport single = simulate(1, 42);
+    SimulationReport parallel = simulate(4, 42);
+    assertThat(parallel.getSessions()).isEqualTo(2000L);
+    assertThat(parallel.getVisits()).isEqualTo(single.getVisits());
+    assertThat(parallel.getWins()).isEqualTo(single.getWins());
+    assertThat(parallel.getVisitsToWin(50)).isEqualTo(single.getVisitsToWin(50));
+    for (ITEMS itemId : ITEMS.values()) {
+      assertThat(parallel.getDrops(itemId)).isEqualTo(single.getDrops(itemId));
+    }
+    assertThat(simulate(4, 43).getVisits()).isNotEqualTo(single.getVisits());
+  }
+
+  @Test
+  public void testGamesAreWonByFreeingLeaders() throws Exception {
+    SimulationReport report = simulate(2, 7);
+    assertThat(report.getWins()).isGreaterThan(report.getSessions() / 2);
+    assertThat(report.getVisitsToWin(50)).isGreaterThan(0);
+    // Each game won frees at least as many leaders as needed.
+    assertThat(report.getDrops(ITEMS.FREED_LEADERS))
+        .isGreaterThanOrEqualTo(report.getWins() * GameConstants.FREED_LEADERS_TO_WIN);
+  }
+
+  private static SimulationReport simulate(int threads, long seed) throws Exception {
+    SimulationSettings settings = new SimulationSettings();
+    settings.setSessions(2000);
+    settings.setThreads(threads);
+    settings.setSeed(seed);
+    return new EconomySimulator(settings).run();
+  }
+}
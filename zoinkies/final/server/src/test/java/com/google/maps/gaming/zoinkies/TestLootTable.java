@@ -0,0 +1,123 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.google.maps.gaming.zoinkies.loot.LootTable;
+import com.google.maps.gaming.zoinkies.models.Item;
+import com.google.maps.gaming.zoinkies.models.LootRefItem;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the loot tables and their alias sampling.
+ */
+public class TestLootTable {
+
+  private static final int DRAWS = 1000000;
+
+  /**
+   * Chi-square critical values at p = 0.001, by degrees of freedom
+   */
+  private static final double[] CHI_SQUARE_CRITICAL = {0, 10.83, 13.82, 16.27, 18.47, 20.52,
+      22.46, 24.32, 26.12, 27.88, 29.59, 31.26, 32.91};
+
+  @Test
+  public void testResourceTablesFollowTheirWeights() throws Exception {
+    Map<String, LootTable> tables;
+    try (InputStream inputStream = getClass().getResourceAsStream("/LootTables.json")) {
+      tables = LootTable.load(inputStream);
+    }
+    assertThat(tables.keySet()).containsExactly("GENERAL_BATTLE", "MINION_BATTLE", "CHEST");
+    Random random = new Random(42);
+    for (LootTable table : tables.values()) {
+      assertChiSquare(table, random);
+    }
+  }
+
+  @Test
+  public void testSkewedTableFollowsItsWeights() {
+    List<LootRefItem> entries = new ArrayList<>();
+    entries.add(new LootRefItem(ITEMS.GOLD_KEY, 0.001, 1, 1));
+    entries.add(new LootRefItem(ITEMS.DIAMOND_KEY, 0.989, 1, 1));
+    entries.add(new LootRefItem(ITEMS.HELMET_TYPE_3, 0.01, 1, 1));
+    assertChiSquare(LootTable.compile("skewed", entries), new Random(7));
+  }
+
+  @Test
+  public void testQuantitiesCoverTheirRange() {
+    LootTable table = LootTable.compile("quantities", Arrays.asList(
+        new LootRefItem(ITEMS.GOLD_KEY, 0.5, 2, 4),
+        new LootRefItem(ITEMS.DIAMOND_KEY, 0.5, 1, 1)));
+    Random random = new Random(1);
+    int[] keys = new int[5];
+    for (int i = 0; i < 10000; i++) {
+      Item item = table.draw(random);
+      if (item.getItemId() == ITEMS.GOLD_KEY) {
+        keys[item.getQuantity()]++;
+      } else {
+        assertThat(item.getQuantity()).isEqualTo(1);
+      }
+    }
+    assertThat(keys[0]).isEqualTo(0);
+    assertThat(keys[1]).isEqualTo(0);
+    assertThat(keys[2]).isGreaterThan(1500);
+    assertThat(keys[3]).isGreaterThan(1500);
+    assertThat(keys[4]).isGreaterThan(1500);
+  }
+
+  @Test
+  public void testInvalidTablesAreRejected() {
+    assertThrows(IllegalArgumentException.class,
+        () -> LootTable.compile("empty", new ArrayList<>()));
+    IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+        () -> LootTable.compile("short", Arrays.asList(
+            new LootRefItem(ITEMS.GOLD_KEY, 0.5, 1, 1),
+            new LootRefItem(ITEMS.DIAMOND_KEY, 0.4, 1, 1))));
+    assertThat(e.getMessage().contains("short")).isTrue();
+    assertThrows(IllegalArgumentException.class,
+        () -> LootTable.compile("negative", Arrays.asList(
+            new LootRefItem(ITEMS.GOLD_KEY, 1.5, 1, 1),
+            new LootRefItem(ITEMS.DIAMOND_KEY, -0.5, 1, 1))));
+    assertThrows(IllegalArgumentException.class,
+        () -> LootTable.compile("range", Arrays.asList(
+            new LootRefItem(ITEMS.GOLD_KEY, 1, 3, 2))));
+  }
+
+  /**
+   * Helper function that checks draw counts against the table weights.
+   */
+  private static void assertChiSquare(LootTable table, Random random) {
+    long[] counts = new long[table.size()];
+    for (int i = 0; i < DRAWS; i++) {
+      counts[table.sample(random)]++;
+    }
+    double chiSquare = 0;
+    for (int i = 0; i < counts.length; i++) {
+      double expected = table.getWeight(i) * DRAWS;
+      chiSquare += (counts[i] - expected) * (counts[i] - expected) / expected;
+    }
+    assertThat(chiSquare).as(table.getName())
+        .isLessThan(CHI_SQUARE_CRITICAL[counts.length - 1]);
+  }
+}
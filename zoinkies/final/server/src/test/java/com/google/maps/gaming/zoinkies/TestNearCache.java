@@ -0,0 +1,110 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.cloud.Timestamp;
+import com.google.maps.gaming.zoinkies.cache.NearCache;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the near-cache sitting in front of Firestore documents.
+ */
+public class TestNearCache {
+
+  private static final Timestamp T1 = Timestamp.ofTimeMicroseconds(1000000L);
+  private static final Timestamp T2 = Timestamp.ofTimeMicroseconds(2000000L);
+
+  /**
+   * Helper function that creates a cache of lists weighing 100 bytes per element.
+   */
+  private static NearCache<List<String>> newCache(long maxBytes, long ttlMillis) {
+    return new NearCache<>("test", maxBytes, ttlMillis, value -> 100L * value.size(),
+        ArrayList::new);
+  }
+
+  private static List<String> listOf(String... values) {
+    List<String> list = new ArrayList<>();
+    for (String value : values) {
+      list.add(value);
+    }
+    return list;
+  }
+
+  @Test
+  public void testValuesAreCopiedInAndOut() {
+    NearCache<List<String>> cache = newCache(1000, 60000);
+    List<String> value = listOf("a");
+    cache.put("device", value, T1);
+    value.add("b");
+    List<String> cached = cache.getIfFresh("device");
+    assertThat(cached).containsExactly("a");
+    cached.add("c");
+    assertThat(cache.getIfFresh("device")).containsExactly("a");
+    assertThat(cache.getIfFresh("other")).isNull();
+    assertThat(cache.getHits()).isEqualTo(2L);
+    assertThat(cache.getMisses()).isEqualTo(1L);
+  }
+
+  @Test
+  public void testExpiredEntriesAreRevalidatedByUpdateTime() throws Exception {
+    NearCache<List<String>> cache = newCache(1000, 1);
+    cache.put("device", listOf("a"), T1);
+    Thread.sleep(5);
+    assertThat(cache.getIfFresh("device")).isNull();
+    assertThat(cache.peek("device")).containsExactly("a");
+    assertThat(cache.revalidate("device", T2)).isNull();
+    assertThat(cache.revalidate("device", T1)).containsExactly("a");
+    assertThat(cache.getRevalidations()).isEqualTo(1L);
+  }
+
+  @Test
+  public void testOlderValuesDontReplaceNewerOnes() {
+    NearCache<List<String>> cache = newCache(1000, 60000);
+    cache.put("device", listOf("written"), T2);
+    cache.put("device", listOf("read", "before", "write"), T1);
+    assertThat(cache.getIfFresh("device")).containsExactly("written");
+    assertThat(cache.getBytesUsed()).isEqualTo(100L);
+    cache.put("device", listOf("written", "again"), T2);
+    assertThat(cache.getIfFresh("device")).containsExactly("written", "again");
+    assertThat(cache.getBytesUsed()).isEqualTo(200L);
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEntriesAreEvictedByWeight() {
+    NearCache<List<String>> cache = newCache(300, 60000);
+    cache.put("a", listOf("a"), T1);
+    cache.put("b", listOf("b"), T1);
+    cache.put("c", listOf("c"), T1);
+    cache.getIfFresh("a");
+    cache.put("d", listOf("d1", "d2"), T1);
+    assertThat(cache.contains("a")).isTrue();
+    assertThat(cache.contains("b")).isFalse();
+    assertThat(cache.contains("c")).isFalse();
+    assertThat(cache.contains("d")).isTrue();
+    assertThat(cache.getBytesUsed()).isEqualTo(300L);
+    assertThat(cache.getEvictions()).isEqualTo(2L);
+
+    cache.put("huge", listOf("1", "2", "3", "4"), T1);
+    assertThat(cache.contains("huge")).isFalse();
+    cache.invalidate("a");
+    assertThat(cache.size()).isEqualTo(1);
+    assertThat(cache.getBytesUsed()).isEqualTo(200L);
+  }
+}
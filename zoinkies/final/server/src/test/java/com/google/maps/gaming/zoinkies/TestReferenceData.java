@@ -0,0 +1,96 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.google.maps.gaming.zoinkies.controllers.RenderedReferences;
+import com.google.maps.gaming.zoinkies.models.ReferenceData;
+import com.google.maps.gaming.zoinkies.models.ReferenceItem;
+import com.google.maps.gaming.zoinkies.services.ReferenceDataService;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the indexed reference data.
+ */
+public class TestReferenceData {
+
+  @Test
+  public void testItemsAreIndexedByOrdinal() throws Exception {
+    ReferenceData data;
+    try (InputStream inputStream = getClass().getResourceAsStream("/ReferenceData.json")) {
+      data = ReferenceDataService.parse(inputStream);
+    }
+    assertThat(data.getReferences().isEmpty()).isFalse();
+    for (ReferenceItem ri : data.getReferences()) {
+      assertThat(data.getReferenceItem(ri.getItemId())).isSameAs(ri);
+    }
+    assertThat(data.getReferenceItem(ITEMS.CHEST).getRespawnDuration()).isNotNull();
+    assertThat(data.getReferenceItem(null)).isNull();
+    assertThrows(UnsupportedOperationException.class,
+        () -> data.getReferences().add(new ReferenceItem()));
+  }
+
+  @Test
+  public void testDuplicateItemsAreRejected() {
+    String json = "{\"references\":[{\"itemId\":\"CHEST\",\"name\":\"A\"},"
+        + "{\"itemId\":\"CHEST\",\"name\":\"B\"}]}";
+    Exception e = assertThrows(Exception.class, () -> ReferenceDataService.parse(
+        new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8))));
+    assertThat(String.valueOf(e.getMessage()).contains("Duplicate")).isTrue();
+  }
+
+  @Test
+  public void testRenderedPayloadIsTaggedByContent() throws Exception {
+    ReferenceData data;
+    try (InputStream inputStream = getClass().getResourceAsStream("/ReferenceData.json")) {
+      data = ReferenceDataService.parse(inputStream);
+    }
+    ObjectMapper objectMapper = new ObjectMapper();
+    objectMapper.registerModule(new JavaTimeModule());
+    RenderedReferences rendered = RenderedReferences.render(data, objectMapper);
+    assertThat(rendered.isRenderedFrom(data)).isTrue();
+    assertThat(rendered.getGzip().length).isLessThan(rendered.getJson().length);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (GZIPInputStream gzip = new GZIPInputStream(
+        new ByteArrayInputStream(rendered.getGzip()))) {
+      byte[] buffer = new byte[4096];
+      for (int n; (n = gzip.read(buffer)) > 0; ) {
+        out.write(buffer, 0, n);
+      }
+    }
+    assertThat(Arrays.equals(out.toByteArray(), rendered.getJson())).isTrue();
+
+    // The same content gives the same tags, either encoding matches.
+    RenderedReferences again = RenderedReferences.render(
+        ReferenceDataService.parse(new ByteArrayInputStream(rendered.getJson())), objectMapper);
+    assertThat(again.getETag(false)).isEqualTo(rendered.getETag(false));
+    assertThat(rendered.getETag(true)).isNotEqualTo(rendered.getETag(false));
+    assertThat(rendered.matches(rendered.getETag(true))).isTrue();
+    assertThat(rendered.matches("\"other\", W/" + rendered.getETag(false))).isTrue();
+    assertThat(rendered.matches("\"other\"")).isFalse();
+    assertThat(rendered.matches(null)).isFalse();
+  }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.google.maps.gaming.zoinkies.cache.ReplayCache;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the idempotency key store replaying game action responses.
+ */
+public class TestReplayCache {
+
+  @Test
+  public void testRetriesReplayTheFirstResult() {
+    ReplayCache<String> cache = new ReplayCache<>("test", 1 << 20, 60000, result -> 64, result -> true);
+    AtomicInteger runs = new AtomicInteger();
+    assertThat(cache.execute("key", "chests/1", () -> "loot-" + runs.incrementAndGet()))
+        .isEqualTo("loot-1");
+    assertThat(cache.execute("key", "chests/1", () -> "loot-" + runs.incrementAndGet()))
+        .isEqualTo("loot-1");
+    assertThat(cache.execute("other", "chests/1", () -> "loot-" + runs.incrementAndGet()))
+        .isEqualTo("loot-2");
+    assertThrows(IllegalArgumentException.class,
+        () -> cache.execute("key", "chests/2", () -> "loot-" + runs.incrementAndGet()));
+    assertThat(runs.get()).isEqualTo(2);
+    assertThat(cache.getExecuted()).isEqualTo(2L);
+    assertThat(cache.getReplayed()).isEqualTo(1L);
+    assertThat(cache.getMismatched()).isEqualTo(1L);
+  }
+
+  @Test
+  public void testConcurrentDuplicatesWaitForTheFirstAttempt() throws Exception {
+    ReplayCache<String> cache = new ReplayCache<>("test", 1 << 20, 60000, result -> 64, result -> true);
+    CountDownLatch running = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger runs = new AtomicInteger();
+    CompletableFuture<String> first = CompletableFuture.supplyAsync(
+        () -> cache.execute("key", "chests/1", () -> {
+          running.countDown();
+          try {
+            release.await(5, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          return "loot-" + runs.incrementAndGet();
+        }));
+    running.await(5, TimeUnit.SECONDS);
+    CompletableFuture<String> retry = CompletableFuture.supplyAsync(
+        () -> cache.execute("key", "chests/1", () -> "loot-" + runs.incrementAndGet()));
+    for (int i = 0; i < 100 && cache.getWaited() == 0; i++) {
+      Thread.sleep(10);
+    }
+    assertThat(retry.isDone()).isFalse();
+    release.countDown();
+    assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo("loot-1");
+    assertThat(retry.get(5, TimeUnit.SECONDS)).isEqualTo("loot-1");
+    assertThat(runs.get()).isEqualTo(1);
+    assertThat(cache.getWaited()).isEqualTo(1L);
+  }
+
+  @Test
+  public void testFailuresAreNotReplayed() {
+    ReplayCache<String> cache = new ReplayCache<>("test", 1 << 20, 60000, result -> 64,
+        result -> !result.equals("error"));
+    assertThat(cache.execute("key", "chests/1", () -> "error")).isEqualTo("error");
+    assertThrows(IllegalStateException.class, () -> cache.execute("key", "chests/1", () -> {
+      throw new IllegalStateException("firestore");
+    }));
+    assertThat(cache.execute("key", "chests/1", () -> "loot")).isEqualTo("loot");
+    assertThat(cache.execute("key", "chests/1", () -> "again")).isEqualTo("loot");
+  }
+
+  @Test
+  public void testOldestAndExpiredResultsAreEvicted() throws Exception {
+    ReplayCache<Integer> bounded = new ReplayCache<>("test", 4096, 60000, result -> 256,
+        result -> true);
+    for (int i = 0; i < 100; i++) {
+      int value = i;
+      bounded.execute("key-" + i, "chests/1", () -> value);
+    }
+    assertThat(bounded.getBytesUsed()).isLessThanOrEqualTo(4096L);
+    assertThat(bounded.size()).isBetween(5, 10);
+    assertThat(bounded.getEvictions()).isEqualTo(100L - bounded.size());
+    assertThat(bounded.execute("key-99", "chests/1", () -> -1)).isEqualTo(99);
+    assertThat(bounded.execute("key-0", "chests/1", () -> -1)).isEqualTo(-1);
+
+    // Large results take more room than small ones.
+    ReplayCache<Integer> weighted = new ReplayCache<>("test", 4096, 60000,
+        result -> result * 1024L, result -> true);
+    weighted.execute("small", "chests/1", () -> 0);
+    weighted.execute("large", "chests/1", () -> 3);
+    assertThat(weighted.size()).isEqualTo(2);
+    weighted.execute("huge", "chests/1", () -> 4);
+    assertThat(weighted.size()).isEqualTo(2);
+    weighted.execute("larger", "chests/1", () -> 2);
+    assertThat(weighted.size()).isEqualTo(1);
+    assertThat(weighted.execute("small", "chests/1", () -> -1)).isEqualTo(-1);
+
+    ReplayCache<Integer> expiring = new ReplayCache<>("test", 4096, 20, result -> 64,
+        result -> true);
+    expiring.execute("key", "chests/1", () -> 1);
+    Thread.sleep(50);
+    assertThat(expiring.execute("key", "chests/1", () -> 2)).isEqualTo(2);
+  }
+}
@@ -36,7 +36,9 @@ import com.google.maps.gaming.zoinkies.models.WorldDataRequest;
 import com.google.maps.gaming.zoinkies.models.playablelocations.LatLng;
 import com.google.maps.gaming.zoinkies.services.*;
 import java.time.Duration;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import org.junit.jupiter.api.Test;
 
 import org.springframework.beans.factory.annotation.Autowired;
@@ -46,7 +48,9 @@ import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.util.Assert;
 
-@SpringBootTest
+// Battles are summarized right away here.
+@SpringBootTest(properties = {"zoinkies.battles.sessions.enabled=true",
+    "zoinkies.battles.sessions.min-victory-millis=0"})
 @AutoConfigureMockMvc
 public class TestRestServices {
   @Autowired
@@ -149,6 +153,40 @@ public class TestRestServices {
     deletePlayerData();
   }
 
+  @Test
+  public void testEnergyRegeneratesAfterProfileUpdate() throws Exception {
+    deletePlayerData();
+    createPlayerData("Johnny");
+
+    // 1 Post a profile the way the client does, without any of the server side energy fields
+    PlayerData playerData = getPlayerData("Johnny");
+    Map<String, Object> profile = new HashMap<>();
+    profile.put("name", "Johnny");
+    profile.put("characterType", playerData.getCharacterType());
+    profile.put("energyLevel", 50);
+    profile.put("maxEnergyLevel", playerData.getMaxEnergyLevel());
+    this.mockMvc.perform(post("/users/{id}", deviceId).contentType("application/json")
+        .content(new ObjectMapper().writeValueAsString(profile))).andDo(print())
+        .andExpect(status().isOk());
+
+    // 2 The level is taken from the client, the pace isn't
+    PlayerData stored = playerService.getPlayerData(deviceId);
+    int regenMillis = GameConstants.DEFAULT_PLAYER_ENERGY_REGEN_MILLIS;
+    Assert.isTrue(stored.getEnergyRegenMillis() == regenMillis,
+        "Energy regeneration rate was overwritten by the client.");
+    Assert.isTrue(stored.getEnergyLevel(stored.getEnergyUpdatedAt() + 3L * regenMillis) == 53,
+        "Energy doesn't regenerate after a profile update.");
+
+    // 3 Posting the level back unchanged keeps the regeneration anchor
+    this.mockMvc.perform(post("/users/{id}", deviceId).contentType("application/json")
+        .content(new ObjectMapper().writeValueAsString(profile))).andDo(print())
+        .andExpect(status().isOk());
+    Assert.isTrue(playerService.getPlayerData(deviceId).getEnergyUpdatedAt()
+        == stored.getEnergyUpdatedAt(), "Energy regeneration restarted on an unchanged level.");
+
+    deletePlayerData();
+  }
+
   @Test
   public void testGeneralBattlePlayerWinsGame() throws Exception {
     // 0 - Delete User and World data in case of leftovers from previous failures
@@ -0,0 +1,81 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import com.google.maps.gaming.zoinkies.models.SpawnLocation;
+import com.google.maps.gaming.zoinkies.spawning.SpawnGenerator;
+import java.util.EnumMap;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the deterministic spawn location generation.
+ */
+public class TestSpawnGenerator {
+
+  @Test
+  public void testGenerationIsDeterministic() {
+    long seed = SpawnGenerator.worldSeed("device", 1);
+    assertThat(SpawnGenerator.worldSeed("device", 1)).isEqualTo(seed);
+    assertThat(SpawnGenerator.worldSeed("device", 2)).isNotEqualTo(seed);
+    assertThat(SpawnGenerator.worldSeed("other", 1)).isNotEqualTo(seed);
+
+    int differences = 0;
+    for (int i = 0; i < 100; i++) {
+      SpawnLocation first = generate("plocs_" + i, seed);
+      SpawnLocation second = generate("plocs_" + i, seed);
+      assertThat(second.getObjectTypeId()).isEqualTo(first.getObjectTypeId());
+      assertThat(second.getNumberOfKeysToActivate())
+          .isEqualTo(first.getNumberOfKeysToActivate());
+      assertThat(second.getKeyTypeId()).isEqualTo(first.getKeyTypeId());
+      assertThat(second.getRespawns()).isEqualTo(first.getRespawns());
+      assertThat(SpawnGenerator.isGenerated(first, seed)).isTrue();
+      SpawnLocation nextSeason = generate("plocs_" + i, SpawnGenerator.worldSeed("device", 2));
+      differences += nextSeason.getObjectTypeId() != first.getObjectTypeId() ? 1 : 0;
+    }
+    assertThat(differences).isGreaterThan(0);
+  }
+
+  @Test
+  public void testDistribution() {
+    int samples = 100000;
+    Map<ITEMS, Integer> counts = new EnumMap<>(ITEMS.class);
+    for (int i = 0; i < samples; i++) {
+      SpawnLocation location = generate("plocs_ChIJ" + i, SpawnGenerator.worldSeed("d" + i, 1));
+      counts.merge(location.getObjectTypeId(), 1, Integer::sum);
+      if (location.getObjectTypeId() == ITEMS.TOWER) {
+        assertThat(location.getRespawns()).isFalse();
+        assertThat(location.getKeyTypeId()).isEqualTo(ITEMS.DIAMOND_KEY);
+      }
+    }
+
+    assertThat(counts.get(ITEMS.ENERGY_STATION) / (double) samples).isCloseTo(5 / 101.0,
+        within(0.005));
+    assertThat(counts.get(ITEMS.CHEST) / (double) samples).isCloseTo(20 / 101.0, within(0.005));
+    assertThat(counts.get(ITEMS.TOWER) / (double) samples).isCloseTo(15 / 101.0, within(0.005));
+    assertThat(counts.get(ITEMS.MINION) / (double) samples).isCloseTo(61 / 101.0, within(0.005));
+  }
+
+  private static SpawnLocation generate(String locationId, long seed) {
+    SpawnLocation location = new SpawnLocation();
+    location.setLocationId(locationId);
+    SpawnGenerator.generate(location, seed);
+    return location;
+  }
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.maps.gaming.zoinkies.models.SpawnLocation;
+import com.google.maps.gaming.zoinkies.models.WorldData;
+import com.google.maps.gaming.zoinkies.models.WorldDataRequest;
+import com.google.maps.gaming.zoinkies.models.playablelocations.LatLng;
+import com.google.maps.gaming.zoinkies.services.WorldService;
+import com.google.maps.gaming.zoinkies.spatial.SpawnLocationIndex;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the world spatial index backing viewport-clipped responses.
+ */
+public class TestSpawnLocationIndex {
+
+  @Test
+  public void testQueryReturnsLocationsInsideRectangle() {
+    Map<String, SpawnLocation> locations = new HashMap<>();
+    addLocation(locations, "inside", 48.8584, 2.2945);
+    addLocation(locations, "outside", 48.8738, 2.2950);
+    addLocation(locations, "elsewhere", 37.4220, -122.0841);
+    addLocation(locations, "nowhere", 0, 0);
+    locations.get("nowhere").setSnappedPoint(null);
+
+    List<String> ids = SpawnLocationIndex.build(locations, 1).query(48.855, 2.290, 48.862, 2.300, 0);
+
+    assertThat(ids).containsExactly("inside");
+  }
+
+  @Test
+  public void testQueryIncludesMargin() {
+    Map<String, SpawnLocation> locations = new HashMap<>();
+    // About 110 meters north of the rectangle.
+    addLocation(locations, "near", 48.863, 2.295);
+    SpawnLocationIndex index = SpawnLocationIndex.build(locations, 1);
+
+    assertThat(index.query(48.855, 2.290, 48.862, 2.300, 0)).isEmpty();
+    assertThat(index.query(48.855, 2.290, 48.862, 2.300, 250)).containsExactly("near");
+  }
+
+  @Test
+  public void testQueryAcrossAntimeridian() {
+    Map<String, SpawnLocation> locations = new HashMap<>();
+    addLocation(locations, "east", -16.5, 179.99);
+    addLocation(locations, "west", -16.5, -179.99);
+    addLocation(locations, "away", -16.5, 178);
+
+    List<String> ids = SpawnLocationIndex.build(locations, 1).query(-16.6, 179.9, -16.4, -179.9, 0);
+
+    assertThat(ids).hasSize(2);
+    assertThat(ids).contains("east", "west");
+  }
+
+  @Test
+  public void testIndexIsKeyedOnWorldVersion() {
+    Map<String, SpawnLocation> locations = new HashMap<>();
+    addLocation(locations, "first", 48.8584, 2.2945);
+    SpawnLocationIndex index = SpawnLocationIndex.build(locations, 3);
+
+    assertThat(index.isCurrent(3)).isTrue();
+    assertThat(index.isCurrent(4)).isFalse();
+    assertThat(SpawnLocationIndex.build(locations, 0).isCurrent(0)).isFalse();
+  }
+
+  @Test
+  public void testClippingFollowsReplacedLocations() {
+    WorldService worldService = new WorldService();
+    WorldDataRequest request = new WorldDataRequest();
+    request.setSouthwest(new LatLng(48.855, 2.290));
+    request.setNortheast(new LatLng(48.862, 2.300));
+    // "Aa" and "BB" have the same hash code.
+    for (long version : new long[] {0, 1}) {
+      WorldData world = new WorldData();
+      world.setVersion(version);
+      addLocation(world.getLocations(), "Aa", 48.8584, 2.2945);
+      worldService.clipToViewport("device-" + version, world, request);
+
+      world.getLocations().clear();
+      addLocation(world.getLocations(), "BB", 48.8584, 2.2945);
+      world.setVersion(version == 0 ? 0 : version + 1);
+      WorldData clipped = worldService.clipToViewport("device-" + version, world, request);
+
+      assertThat(clipped.getLocations().keySet()).containsExactly("BB");
+    }
+  }
+
+  @Test
+  public void testClippedWorldKeepsVersion() {
+    WorldData world = new WorldData();
+    addLocation(world.getLocations(), "inside", 48.8584, 2.2945);
+    addLocation(world.getLocations(), "elsewhere", 37.4220, -122.0841);
+    world.setVersion(7);
+    WorldDataRequest request = new WorldDataRequest();
+    request.setSouthwest(new LatLng(48.855, 2.290));
+    request.setNortheast(new LatLng(48.862, 2.300));
+
+    WorldData clipped = new WorldService().clipToViewport("device", world, request);
+
+    assertThat(clipped.getLocations().keySet()).containsExactly("inside");
+    assertThat(clipped.getVersion()).isEqualTo(7L);
+  }
+
+  private static void addLocation(Map<String, SpawnLocation> locations, String id,
+      double latitude, double longitude) {
+    locations.put(id, new SpawnLocation(id, true, ITEMS.MINION, true, null, 0, null,
+        new LatLng(latitude, longitude), null));
+  }
+}
@@ -0,0 +1,226 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.maps.gaming.zoinkies.models.PlayerData;
+import com.google.maps.gaming.zoinkies.services.RespawnService;
+import com.google.maps.gaming.zoinkies.services.StreamService;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Tests for the per-device event channels of GET /stream/{id}.
+ */
+public class TestStreamService {
+
+  /**
+   * An emitter recording the events it is asked to send instead of writing them to a response.
+   */
+  private static class FakeEmitter extends SseEmitter {
+    private final List<String> events = new CopyOnWriteArrayList<>();
+    private final List<Runnable> callbacks = new CopyOnWriteArrayList<>();
+    private volatile CountDownLatch gate;
+    private volatile boolean broken;
+    private volatile boolean completed;
+    private volatile Throwable error;
+
+    @Override
+    public void send(SseEventBuilder builder) throws IOException {
+      CountDownLatch gate = this.gate;
+      if (gate != null) {
+        try {
+          gate.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      if (broken) {
+        throw new IOException("Broken pipe");
+      }
+      String head = (String) builder.build().iterator().next().getData();
+      events.add(head.startsWith("event:") ? head.substring(6, head.indexOf('\n')) : "heartbeat");
+    }
+
+    @Override
+    public void onCompletion(Runnable callback) {
+      callbacks.add(callback);
+    }
+
+    @Override
+    public void onTimeout(Runnable callback) {
+      callbacks.add(callback);
+    }
+
+    @Override
+    public void complete() {
+      completed = true;
+    }
+
+    @Override
+    public void completeWithError(Throwable t) {
+      error = t;
+    }
+  }
+
+  private final List<FakeEmitter> emitters = new ArrayList<>();
+  private StreamService service;
+
+  @AfterEach
+  public void stop() {
+    if (service != null) {
+      service.stop();
+    }
+  }
+
+  /**
+   * Helper function that creates a service handing out fake emitters, with a single sender.
+   */
+  private StreamService newService(int maxConnections, int maxQueuedEvents,
+      long heartbeatMillis) {
+    service = new StreamService(new RespawnService(), maxConnections, maxQueuedEvents,
+        heartbeatMillis, 60000, 1) {
+      @Override
+      protected SseEmitter createEmitter(long timeoutMillis) {
+        FakeEmitter emitter = new FakeEmitter();
+        emitters.add(emitter);
+        return emitter;
+      }
+    };
+    return service;
+  }
+
+  private static void await(BooleanSupplier condition) throws InterruptedException {
+    for (int i = 0; i < 500 && !condition.getAsBoolean(); i++) {
+      Thread.sleep(10);
+    }
+    assertThat(condition.getAsBoolean()).isTrue();
+  }
+
+  @Test
+  public void testEventsAreSentInOrder() throws Exception {
+    StreamService service = newService(10, 16, 600000);
+    assertThat(service.open("device", null)).isNotNull();
+    for (int i = 0; i < 5; i++) {
+      service.publishPlayer("device", new PlayerData());
+    }
+    service.publishPlayer("other", new PlayerData());
+    FakeEmitter emitter = emitters.get(0);
+    await(() -> emitter.events.size() == 6);
+    assertThat(emitter.events.get(0)).isEqualTo("ready");
+    assertThat(emitter.events.subList(1, 6)).containsOnly("player");
+    assertThat(service.getSent()).isEqualTo(6L);
+  }
+
+  @Test
+  public void testOverflowIsReplacedByReset() throws Exception {
+    StreamService service = newService(10, 4, 600000);
+    service.open("device", null);
+    FakeEmitter emitter = emitters.get(0);
+    await(() -> emitter.events.size() == 1);
+    // Hold the sender on the next event, so that the following ones pile up.
+    emitter.gate = new CountDownLatch(1);
+    for (int i = 0; i < 20; i++) {
+      service.publishPlayer("device", new PlayerData());
+    }
+    assertThat(service.getOverflows()).isEqualTo(1L);
+    emitter.gate.countDown();
+    await(() -> emitter.events.contains("reset"));
+    service.publishPlayer("device", new PlayerData());
+    await(() -> emitter.events.get(emitter.events.size() - 1).equals("player")
+        && emitter.events.indexOf("reset") < emitter.events.size() - 1);
+    // Events queued before the overflow are dropped, events after the reset go through.
+    assertThat(emitter.events.get(emitter.events.size() - 2)).isEqualTo("reset");
+    assertThat(emitter.events.size()).isLessThanOrEqualTo(5);
+  }
+
+  @Test
+  public void testIdleChannelsGetHeartbeats() throws Exception {
+    StreamService service = newService(10, 16, 50);
+    service.open("device", null);
+    FakeEmitter emitter = emitters.get(0);
+    await(() -> emitter.events.contains("heartbeat"));
+    assertThat(emitter.events.get(0)).isEqualTo("ready");
+  }
+
+  @Test
+  public void testChannelsAreClosedOnce() throws Exception {
+    StreamService service = newService(10, 16, 600000);
+    service.open("device", null);
+    FakeEmitter emitter = emitters.get(0);
+    // The emitter may report both a timeout and a completion.
+    for (Runnable callback : emitter.callbacks) {
+      callback.run();
+      callback.run();
+    }
+    assertThat(service.getConnections()).isEqualTo(0);
+    service.publishPlayer("device", new PlayerData());
+    Thread.sleep(50);
+    assertThat(emitter.events.contains("player")).isFalse();
+  }
+
+  @Test
+  public void testReconnectReplacesThePreviousChannel() throws Exception {
+    StreamService service = newService(10, 16, 600000);
+    service.open("device", null);
+    service.open("device", null);
+    assertThat(emitters.get(0).completed).isTrue();
+    assertThat(service.getConnections()).isEqualTo(1);
+    for (Runnable callback : emitters.get(0).callbacks) {
+      callback.run();
+    }
+    assertThat(service.getConnections()).isEqualTo(1);
+    service.publishPlayer("device", new PlayerData());
+    await(() -> emitters.get(1).events.contains("player"));
+  }
+
+  @Test
+  public void testBrokenConnectionsAreClosed() throws Exception {
+    StreamService service = newService(10, 16, 600000);
+    FakeEmitter emitter;
+    service.open("device", null);
+    emitter = emitters.get(0);
+    await(() -> emitter.events.size() == 1);
+    emitter.broken = true;
+    service.publishPlayer("device", new PlayerData());
+    await(() -> emitter.error != null);
+    assertThat(service.getConnections()).isEqualTo(0);
+    for (Runnable callback : emitter.callbacks) {
+      callback.run();
+    }
+    assertThat(service.getConnections()).isEqualTo(0);
+  }
+
+  @Test
+  public void testConnectionsAreBounded() {
+    StreamService service = newService(2, 16, 600000);
+    assertThat(service.open("a", null)).isNotNull();
+    assertThat(service.open("b", null)).isNotNull();
+    assertThat(service.open("c", null)).isNull();
+    assertThat(service.getRejected()).isEqualTo(1L);
+    assertThat(service.getConnections()).isEqualTo(2);
+  }
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.maps.gaming.zoinkies.scheduling.TimerWheel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the hierarchical timer wheel backing respawn notifications.
+ */
+public class TestTimerWheel {
+
+  private static final long START = 1591006530000L;
+  private static final long TICK = 1000;
+
+  @Test
+  public void testTimersFireOnTimeAcrossLevels() {
+    TimerWheel<Long> wheel = new TimerWheel<>(16, TICK, START);
+    // Five minutes, fifteen minutes, two days and a year away.
+    long[] deadlines = {START + 300000, START + 900000, START + 172800000L,
+        START + 31536000000L, START + 1500};
+    for (long deadline : deadlines) {
+      assertThat(wheel.schedule(deadline, deadline)).isGreaterThanOrEqualTo(0L);
+    }
+    List<Long> fired = new ArrayList<>();
+    for (long now = START; now <= START + 31536000000L + TICK; now += 10 * TICK) {
+      long at = now;
+      wheel.advance(now, deadline -> {
+        assertThat(deadline).isLessThanOrEqualTo(at);
+        assertThat(at - deadline).isLessThan(11 * TICK);
+        fired.add(deadline);
+      });
+      if (now > START + 200000000L && now < START + 31536000000L - 20 * TICK) {
+        // Skip ahead, nothing is due until the last timer.
+        now = START + 31536000000L - 20 * TICK;
+      }
+    }
+    assertThat(fired).containsExactly(START + 1500, START + 300000, START + 900000,
+        START + 172800000L, START + 31536000000L);
+    assertThat(wheel.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void testCancelledTimersDontFire() {
+    TimerWheel<String> wheel = new TimerWheel<>(2, TICK, START);
+    long chest = wheel.schedule(START + 300000, "chest");
+    long minion = wheel.schedule(START + 900000, "minion");
+    assertThat(wheel.schedule(START + 5000, "full")).isEqualTo(-1L);
+
+    assertThat(wheel.cancel(chest)).isTrue();
+    assertThat(wheel.cancel(chest)).isFalse();
+    // The slot is reused, the stale handle must not cancel the new timer.
+    long tower = wheel.schedule(START + 600000, "tower");
+    assertThat(wheel.cancel(chest)).isFalse();
+
+    List<String> fired = new ArrayList<>();
+    wheel.advance(START + 1000000, fired::add);
+    assertThat(fired).containsExactly("tower", "minion");
+    assertThat(wheel.cancel(tower)).isFalse();
+    assertThat(wheel.cancel(minion)).isFalse();
+  }
+
+  @Test
+  public void testMillionTimers() {
+    int count = 1 << 20;
+    TimerWheel<Integer> wheel = new TimerWheel<>(count, TICK, START);
+    Random random = new Random(42);
+    long[] deadlines = new long[count];
+    for (int i = 0; i < count; i++) {
+      deadlines[i] = START + (long) random.nextInt(3600000);
+      wheel.schedule(deadlines[i], i);
+    }
+    assertThat(wheel.size()).isEqualTo(count);
+    assertThat(wheel.schedule(START, -1)).isEqualTo(-1L);
+    int[] fired = new int[1];
+    boolean[] early = new boolean[1];
+    for (long now = START; now < START + 3600000 + 7 * TICK; now += 7 * TICK) {
+      long at = now;
+      fired[0] += wheel.advance(now, i -> early[0] |= deadlines[i] > at);
+    }
+    assertThat(early[0]).isFalse();
+    assertThat(fired[0]).isEqualTo(count);
+    assertThat(wheel.size()).isEqualTo(0);
+  }
+}
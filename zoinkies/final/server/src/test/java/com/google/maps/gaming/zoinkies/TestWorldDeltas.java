@@ -0,0 +1,140 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.maps.gaming.zoinkies.models.SpawnLocation;
+import com.google.maps.gaming.zoinkies.models.WorldData;
+import com.google.maps.gaming.zoinkies.models.WorldDelta;
+import com.google.maps.gaming.zoinkies.models.playablelocations.LatLng;
+import com.google.maps.gaming.zoinkies.services.WorldDeltas;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for world versioning and delta responses.
+ */
+public class TestWorldDeltas {
+
+  @Test
+  public void testUnchangedWorldKeepsItsVersion() {
+    WorldData previous = createWorld();
+    WorldData next = new WorldData(previous);
+
+    assertThat(WorldDeltas.record(previous, next, 256)).isFalse();
+    assertThat(next.getVersion()).isEqualTo(previous.getVersion());
+    assertThat(WorldDeltas.since(next, next.getVersion())).isNull();
+  }
+
+  @Test
+  public void testDeltaHoldsAddedChangedAndRemovedLocations() {
+    WorldData v1 = createWorld();
+    WorldData v2 = new WorldData(v1);
+    v2.getLocations().get("a").setActive(false);
+    v2.getLocations().remove("b");
+    addLocation(v2, "c");
+    WorldDeltas.record(v1, v2, 256);
+    WorldData v3 = new WorldData(v2);
+    addLocation(v3, "d");
+    v3.getLocations().get("c").setActive(false);
+    WorldDeltas.record(v2, v3, 256);
+
+    WorldDelta delta = WorldDeltas.since(v3, v1.getVersion());
+
+    assertThat(v3.getVersion()).isEqualTo(v1.getVersion() + 2);
+    assertThat(delta.getReset()).isFalse();
+    assertThat(delta.getVersion()).isEqualTo(v3.getVersion());
+    assertThat(delta.getChanged().keySet()).containsExactly("a");
+    assertThat(delta.getRemoved()).containsExactly("b");
+    assertThat(delta.getAdded()).hasSize(2);
+    assertThat(delta.getAdded()).containsKeys("c", "d");
+    assertThat(delta.getAdded().get("c").getActive()).isFalse();
+  }
+
+  @Test
+  public void testLocationAddedAndRemovedIsOmitted() {
+    WorldData v1 = createWorld();
+    WorldData v2 = new WorldData(v1);
+    addLocation(v2, "c");
+    WorldDeltas.record(v1, v2, 256);
+    WorldData v3 = new WorldData(v2);
+    v3.getLocations().remove("c");
+    WorldDeltas.record(v2, v3, 256);
+
+    WorldDelta delta = WorldDeltas.since(v3, v1.getVersion());
+
+    assertThat(delta.getAdded()).isEmpty();
+    assertThat(delta.getChanged()).isEmpty();
+    assertThat(delta.getRemoved()).isEmpty();
+  }
+
+  @Test
+  public void testCompactedHistoryFallsBackToSnapshot() {
+    WorldData v1 = createWorld();
+    WorldData v2 = new WorldData(v1);
+    addLocation(v2, "c");
+    WorldDeltas.record(v1, v2, 1);
+    WorldData v3 = new WorldData(v2);
+    addLocation(v3, "d");
+    WorldDeltas.record(v2, v3, 1);
+
+    WorldDelta stale = WorldDeltas.since(v3, v1.getVersion());
+    WorldDelta recent = WorldDeltas.since(v3, v2.getVersion());
+
+    assertThat(stale.getReset()).isTrue();
+    assertThat(stale.getAdded()).hasSize(v3.getLocations().size());
+    assertThat(recent.getReset()).isFalse();
+    assertThat(recent.getAdded().keySet()).containsExactly("d");
+  }
+
+  @Test
+  public void testLegacyWorldAlwaysGetsSnapshots() {
+    WorldData legacy = new WorldData();
+    addLocation(legacy, "a");
+    addLocation(legacy, "b");
+
+    WorldDelta initial = WorldDeltas.since(legacy, 0);
+    assertThat(initial.getReset()).isTrue();
+    assertThat(initial.getAdded()).hasSize(2);
+
+    WorldData next = new WorldData(legacy);
+    addLocation(next, "c");
+    WorldDeltas.record(legacy, next, 256);
+
+    WorldDelta first = WorldDeltas.since(next, 0);
+    assertThat(next.getVersion()).isEqualTo(1L);
+    assertThat(next.getChangeLogStart()).isEqualTo(1L);
+    assertThat(first.getReset()).isTrue();
+    assertThat(first.getAdded()).hasSize(3);
+    assertThat(WorldDeltas.since(next, next.getVersion())).isNull();
+  }
+
+  /**
+   * Creates a new world with two locations, a and b.
+   */
+  private static WorldData createWorld() {
+    WorldData world = new WorldData();
+    addLocation(world, "a");
+    addLocation(world, "b");
+    WorldDeltas.record(null, world, 256);
+    return world;
+  }
+
+  private static void addLocation(WorldData world, String id) {
+    world.getLocations().put(id, new SpawnLocation(id, true, ITEMS.MINION, true, null, 0, null,
+        new LatLng(48.8584, 2.2945), null));
+  }
+}
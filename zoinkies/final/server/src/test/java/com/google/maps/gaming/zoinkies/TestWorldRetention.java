@@ -0,0 +1,104 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.maps.gaming.zoinkies.models.SpawnLocation;
+import com.google.maps.gaming.zoinkies.models.WorldData;
+import com.google.maps.gaming.zoinkies.models.playablelocations.LatLng;
+import com.google.maps.gaming.zoinkies.services.WorldRetention;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the eviction of stale and far-away cells from long-lived worlds.
+ */
+public class TestWorldRetention {
+
+  private static final long DAY = 24 * 3600 * 1000L;
+  private static final long NOW = 100 * DAY;
+
+  @Test
+  public void testVisitsAreRecordedOncePerResolution() {
+    WorldData world = new WorldData();
+    addCell(world, "near", 48.8584, 2.2945, NOW - DAY);
+
+    assertThat(WorldRetention.visit(world, Arrays.asList("near", "unknown"), null, NOW,
+        2 * DAY, 8)).isFalse();
+    assertThat(WorldRetention.visit(world, Arrays.asList("near"), null, NOW + DAY, 2 * DAY, 8))
+        .isTrue();
+    assertThat(world.getCellVisits().get("near")).isEqualTo(NOW + DAY);
+    assertThat(world.getCellVisits().containsKey("unknown")).isFalse();
+
+    // About 100 meters apart, then about 2 km.
+    LatLng first = new LatLng(48.8584, 2.2945);
+    assertThat(WorldRetention.visit(world, Arrays.<String>asList(), first, NOW, DAY, 2)).isTrue();
+    assertThat(WorldRetention.visit(world, Arrays.<String>asList(), new LatLng(48.8593, 2.2945),
+        NOW, DAY, 2)).isFalse();
+    WorldRetention.visit(world, Arrays.<String>asList(), new LatLng(48.8764, 2.2945), NOW, DAY, 2);
+    WorldRetention.visit(world, Arrays.<String>asList(), new LatLng(48.8944, 2.2945), NOW, DAY, 2);
+    assertThat(world.getRecentPositions()).hasSize(2);
+    assertThat(world.getRecentPositions().get(0).getLatitude()).isEqualTo(48.8944);
+  }
+
+  @Test
+  public void testStaleAndFarCellsAreEvicted() {
+    WorldData world = new WorldData();
+    world.getRecentPositions().add(new LatLng(48.8584, 2.2945));
+    addCell(world, "near", 48.8600, 2.2950, NOW - DAY);
+    addCell(world, "stale", 48.8610, 2.2960, NOW - 30 * DAY);
+    addCell(world, "far", 45.7640, 4.8357, NOW - DAY);
+
+    int evicted = WorldRetention.evict(world, NOW, 14 * DAY, 20000, 32);
+
+    assertThat(evicted).isEqualTo(2);
+    assertThat(world.getS2CellsTTL().keySet()).containsExactly("near");
+    assertThat(world.getCellVisits().keySet()).containsExactly("near");
+    assertThat(world.getLocations()).hasSize(2);
+    for (SpawnLocation location : world.getLocations().values()) {
+      assertThat(location.getS2CellId()).isEqualTo("near");
+    }
+  }
+
+  @Test
+  public void testEvictionIsIncrementalOldestFirst() {
+    WorldData world = new WorldData();
+    addCell(world, "oldest", 48.86, 2.29, NOW - 40 * DAY);
+    addCell(world, "older", 48.86, 2.29, NOW - 30 * DAY);
+    addCell(world, "old", 48.86, 2.29, NOW - 20 * DAY);
+
+    assertThat(WorldRetention.evict(world, NOW, 14 * DAY, 20000, 2)).isEqualTo(2);
+    assertThat(world.getS2CellsTTL().keySet()).containsExactly("old");
+    assertThat(WorldRetention.evict(world, NOW, 14 * DAY, 20000, 2)).isEqualTo(1);
+    assertThat(world.getS2CellsTTL()).isEmpty();
+    assertThat(world.getLocations()).isEmpty();
+  }
+
+  /**
+   * Adds a cell holding two locations around the given position.
+   */
+  private static void addCell(WorldData world, String cellId, double latitude, double longitude,
+      long lastVisit) {
+    world.getS2CellsTTL().put(cellId, "PT86400S");
+    world.getCellVisits().put(cellId, lastVisit);
+    for (int i = 0; i < 2; i++) {
+      String id = cellId + "_" + i;
+      world.getLocations().put(id, new SpawnLocation(id, true, ITEMS.MINION, true, null, 0, null,
+          new LatLng(latitude + i * 1e-4, longitude), cellId));
+    }
+  }
+}
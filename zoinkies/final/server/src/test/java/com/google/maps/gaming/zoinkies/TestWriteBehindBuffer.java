@@ -0,0 +1,191 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.maps.gaming.zoinkies;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.maps.gaming.zoinkies.cache.WriteBehindBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the buffer coalescing deferred document writes.
+ */
+public class TestWriteBehindBuffer {
+
+  /**
+   * Written documents by key, in write order.
+   */
+  private final Map<String, List<StringBuilder>> writes = new ConcurrentHashMap<>();
+
+  /**
+   * Reported failures, as "key:attempts" with a "!" suffix once dropped.
+   */
+  private final List<String> failures = new CopyOnWriteArrayList<>();
+
+  /**
+   * Helper function that creates a buffer which never flushes on its own during a test.
+   */
+  private WriteBehindBuffer<StringBuilder> newBuffer(int maxPending) {
+    return new WriteBehindBuffer<>("test", 3600000, maxPending,
+        (key, value) -> writes.computeIfAbsent(key, k -> new ArrayList<>()).add(value),
+        StringBuilder::new, 3, this::report);
+  }
+
+  /**
+   * Helper function that creates a buffer whose writes always fail.
+   */
+  private WriteBehindBuffer<StringBuilder> newFailingBuffer(long flushIntervalMillis,
+      AtomicInteger attempts) {
+    return new WriteBehindBuffer<>("test", flushIntervalMillis, 100, (key, value) -> {
+      attempts.incrementAndGet();
+      throw new IllegalStateException("rejected");
+    }, StringBuilder::new, 3, this::report);
+  }
+
+  /**
+   * Helper function that records a reported failure.
+   */
+  private void report(String key, Exception error, int attempts, boolean dropped) {
+    failures.add(key + ":" + attempts + (dropped ? "!" : ""));
+  }
+
+  @Test
+  public void testWritesOfTheSameDocumentAreCoalesced() {
+    WriteBehindBuffer<StringBuilder> buffer = newBuffer(100);
+    StringBuilder value = new StringBuilder("v1");
+    buffer.offer("a", value);
+    value.append("-mutated");
+    buffer.offer("a", new StringBuilder("v2"));
+    buffer.offer("b", new StringBuilder("v1"));
+    assertThat(buffer.peek("a").toString()).isEqualTo("v2");
+    assertThat(buffer.getPendingCount()).isEqualTo(2);
+
+    buffer.flush();
+
+    assertThat(writes.get("a")).hasSize(1);
+    assertThat(writes.get("a").get(0).toString()).isEqualTo("v2");
+    assertThat(writes.get("b")).hasSize(1);
+    assertThat(buffer.peek("a")).isNull();
+    assertThat(buffer.getOffered()).isEqualTo(3L);
+    assertThat(buffer.getCoalesced()).isEqualTo(1L);
+    assertThat(buffer.getWritten()).isEqualTo(2L);
+    buffer.close();
+  }
+
+  @Test
+  public void testCancelledWritesAreNotFlushed() {
+    WriteBehindBuffer<StringBuilder> buffer = newBuffer(100);
+    buffer.offer("a", new StringBuilder("deferred"));
+    synchronized (buffer.lockFor("a")) {
+      buffer.cancel("a");
+    }
+    buffer.close();
+    assertThat(writes.containsKey("a")).isFalse();
+    assertThat(buffer.getWritten()).isEqualTo(0L);
+  }
+
+  @Test
+  public void testFailedWritesAreRetried() {
+    AtomicBoolean failing = new AtomicBoolean(true);
+    WriteBehindBuffer<StringBuilder> buffer = new WriteBehindBuffer<>("test", 3600000, 100,
+        (key, value) -> {
+          if (failing.get()) {
+            throw new IllegalStateException("unavailable");
+          }
+          writes.computeIfAbsent(key, k -> new ArrayList<>()).add(value);
+        }, StringBuilder::new, 3, this::report);
+    buffer.offer("a", new StringBuilder("v1"));
+    buffer.flush();
+    assertThat(buffer.getFailed()).isEqualTo(1L);
+    assertThat(buffer.getPendingCount()).isEqualTo(1);
+    assertThat(failures).containsExactly("a:1");
+
+    failing.set(false);
+    buffer.close();
+    assertThat(writes.get("a")).hasSize(1);
+    assertThat(buffer.getDropped()).isEqualTo(0L);
+  }
+
+  @Test
+  public void testFailedWritesBackOff() {
+    AtomicInteger attempts = new AtomicInteger();
+    WriteBehindBuffer<StringBuilder> buffer = newFailingBuffer(3600000, attempts);
+    buffer.offer("a", new StringBuilder("v1"));
+    buffer.flush();
+    buffer.flush();
+    buffer.flush();
+    assertThat(attempts.get()).isEqualTo(1);
+    assertThat(buffer.getPendingCount()).isEqualTo(1);
+    buffer.close();
+  }
+
+  @Test
+  public void testFailedWritesAreDroppedAfterMaxAttempts() throws Exception {
+    AtomicInteger attempts = new AtomicInteger();
+    WriteBehindBuffer<StringBuilder> buffer = newFailingBuffer(10, attempts);
+    buffer.offer("a", new StringBuilder("v1"));
+    for (int i = 0; i < 200 && buffer.getDropped() < 1; i++) {
+      Thread.sleep(10);
+    }
+    assertThat(buffer.getDropped()).isEqualTo(1L);
+    assertThat(buffer.getPendingCount()).isEqualTo(0);
+    assertThat(attempts.get()).isEqualTo(3);
+    assertThat(failures).containsExactly("a:1", "a:2", "a:3!");
+    buffer.close();
+  }
+
+  @Test
+  public void testWritesFailingOnCloseAreDropped() {
+    AtomicInteger attempts = new AtomicInteger();
+    WriteBehindBuffer<StringBuilder> buffer = newFailingBuffer(3600000, attempts);
+    buffer.offer("a", new StringBuilder("v1"));
+    buffer.close();
+    assertThat(buffer.getDropped()).isEqualTo(1L);
+    assertThat(buffer.getPendingCount()).isEqualTo(0);
+    assertThat(failures).containsExactly("a:1!");
+  }
+
+  @Test
+  public void testPendingWritesAreDrainedOnClose() throws Exception {
+    WriteBehindBuffer<StringBuilder> buffer = newBuffer(1000);
+    for (int i = 0; i < 100; i++) {
+      buffer.offer("device-" + i, new StringBuilder("v" + i));
+    }
+    buffer.close();
+    assertThat(writes).hasSize(100);
+    assertThat(buffer.getPendingCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testFullBufferFlushesEarly() throws Exception {
+    WriteBehindBuffer<StringBuilder> buffer = newBuffer(10);
+    for (int i = 0; i < 10; i++) {
+      buffer.offer("device-" + i, new StringBuilder("v" + i));
+    }
+    for (int i = 0; i < 100 && buffer.getWritten() < 10; i++) {
+      Thread.sleep(10);
+    }
+    assertThat(buffer.getWritten()).isEqualTo(10L);
+    buffer.close();
+  }
+}